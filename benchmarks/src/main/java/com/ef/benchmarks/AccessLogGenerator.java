@@ -0,0 +1,230 @@
+package com.ef.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TimeZone;
+
+import com.ef.log.LogEntry;
+import com.ef.utils.IPUtils;
+
+/**
+ * Synthetic access log generator.
+ *
+ * <p>
+ * The IPs and agents are drawn from a Zipf distribution, so a few of them
+ * make most of the requests as in a real log. With skew 0 all of them have the
+ * same probability. The time always moves forward, so every line is unique
+ * for the (ip, time) key of the database. The same seed generates the same
+ * lines.
+ * </p>
+ *
+ * @author victor
+ *
+ */
+public class AccessLogGenerator {
+	// 2017-01-01 00:01:08.028
+	private static final DateFormat LOG_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+	static {
+		LOG_DATE_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
+
+	/**
+	 * 2017-01-01 00:00:00 UTC
+	 */
+	public static final long DEFAULT_START = 1483228800000L;
+
+	private static final String[] REQUESTS = { "\"GET / HTTP/1.1\"", "\"POST / HTTP/1.1\"",
+			"\"GET /index.html HTTP/1.1\"", "\"GET /api/wallet HTTP/1.1\"" };
+
+	private static final int[] RESPONSE_CODES = { 200, 200, 200, 200, 302, 401, 404, 500 };
+
+	/**
+	 * First address of the generated IPs, 10.0.0.0
+	 */
+	private static final int BASE_IP = 0x0A000000;
+
+	private final Random random;
+
+	private final double[] ipDistribution;
+
+	private final double[] agentDistribution;
+
+	private final int maxGap;
+
+	private long time;
+
+	/**
+	 * @param ips
+	 *            number of distinct IPs, up to 2^24
+	 * @param agents
+	 *            number of distinct agents
+	 * @param skew
+	 *            Zipf exponent, 0 for uniform
+	 * @param meanGap
+	 *            mean milliseconds between two lines
+	 * @param seed
+	 *            random seed
+	 */
+	public AccessLogGenerator(int ips, int agents, double skew, int meanGap, long seed) {
+		if (ips < 1 || ips > 1 << 24 || agents < 1 || meanGap < 1) {
+			throw new IllegalArgumentException("Invalid generator: ips=" + ips + " agents=" + agents + " meanGap=" + meanGap);
+		}
+		this.random = new Random(seed);
+		this.ipDistribution = zipf(ips, skew);
+		this.agentDistribution = zipf(agents, skew);
+		this.maxGap = 2 * meanGap - 1;
+		this.time = DEFAULT_START;
+	}
+
+	/**
+	 * Generate the next entry
+	 *
+	 * @return a new entry, with text fields
+	 */
+	public LogEntry next() {
+		time += 1 + random.nextInt(maxGap);
+		int agent = sample(agentDistribution);
+		return new LogEntry(time, BASE_IP + sample(ipDistribution), REQUESTS[random.nextInt(REQUESTS.length)],
+				RESPONSE_CODES[random.nextInt(RESPONSE_CODES.length)], agent(agent));
+	}
+
+	/**
+	 * Generate the next line
+	 *
+	 * @return a new access log line
+	 */
+	public String nextLine() {
+		return format(next());
+	}
+
+	/**
+	 * Write an access log file
+	 *
+	 * @param file
+	 *            output file
+	 * @param lines
+	 *            number of lines
+	 * @throws IOException
+	 *             Couldn't write the file
+	 */
+	public void write(Path file, long lines) throws IOException {
+		try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+			for (long i = 0; i < lines; ++i) {
+				writer.write(nextLine());
+				writer.newLine();
+			}
+		}
+	}
+
+	/**
+	 * @return time of the last generated entry
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * Format an entry as an access log line
+	 *
+	 * @param entry
+	 *            log entry
+	 * @return access log line
+	 */
+	public static String format(LogEntry entry) {
+		StringBuilder line = new StringBuilder(128);
+		synchronized (LOG_DATE_FORMAT) {
+			line.append(LOG_DATE_FORMAT.format(entry.getTime()));
+		}
+		return line.append('|').append(IPUtils.formatIPv4(entry.getIp())).append('|').append(entry.getRequest())
+				.append('|').append(entry.getResponseCode()).append('|').append(entry.getAgent()).toString();
+	}
+
+	/**
+	 * Description of the nth agent, quoted as in the access log
+	 *
+	 * @param agent
+	 *            agent index
+	 * @return agent description
+	 */
+	public static String agent(int agent) {
+		return "\"Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Benchmark/" + agent + "\"";
+	}
+
+	/*
+	 * Cumulative distribution of the ranks
+	 */
+	private static double[] zipf(int size, double skew) {
+		double[] distribution = new double[size];
+		double sum = 0;
+		for (int rank = 0; rank < size; ++rank) {
+			sum += 1 / Math.pow(rank + 1, skew);
+			distribution[rank] = sum;
+		}
+		for (int rank = 0; rank < size; ++rank) {
+			distribution[rank] /= sum;
+		}
+		return distribution;
+	}
+
+	private int sample(double[] distribution) {
+		int rank = Arrays.binarySearch(distribution, random.nextDouble());
+		return Math.min(rank >= 0 ? rank : -rank - 1, distribution.length - 1);
+	}
+
+	/**
+	 * Generate an access log file
+	 *
+	 * @param args
+	 *            Application arguments
+	 */
+	public static void main(String[] args) throws IOException {
+		long lines = 1000000;
+		int ips = 10000;
+		int agents = 1000;
+		double skew = 1.0;
+		int meanGap = 10;
+		long seed = 1;
+		String output = "access.log";
+		for (String arg : args) {
+			String value = arg.substring(arg.indexOf('=') + 1);
+			if (arg.startsWith("--lines=")) {
+				lines = Long.parseLong(value);
+			} else if (arg.startsWith("--ips=")) {
+				ips = Integer.parseInt(value);
+			} else if (arg.startsWith("--agents=")) {
+				agents = Integer.parseInt(value);
+			} else if (arg.startsWith("--skew=")) {
+				skew = Double.parseDouble(value);
+			} else if (arg.startsWith("--meanGap=")) {
+				meanGap = Integer.parseInt(value);
+			} else if (arg.startsWith("--seed=")) {
+				seed = Long.parseLong(value);
+			} else if (arg.startsWith("--output=")) {
+				output = value;
+			} else {
+				System.err.println("Invalid argument: " + arg);
+				System.out.println("Generate a synthetic access log.\n"
+						+ "Usage: java -cp benchmarks.jar com.ef.benchmarks.AccessLogGenerator --lines=1000000\n\n"
+						+ "Arguments:\n"
+						+ "\t--lines=LINES        Number of lines. The default value is 1000000\n"
+						+ "\t--ips=IPS            Number of distinct IPs. The default value is 10000\n"
+						+ "\t--agents=AGENTS      Number of distinct agents. The default value is 1000\n"
+						+ "\t--skew=SKEW          Zipf exponent of IPs and agents, 0 is uniform. The default value is 1.0\n"
+						+ "\t--meanGap=MILLIS     Mean time between lines. The default value is 10\n"
+						+ "\t--seed=SEED          Random seed. The default value is 1\n"
+						+ "\t--output=FILE        The access log file. The default value is \"access.log\"");
+				System.exit(1);
+			}
+		}
+		new AccessLogGenerator(ips, agents, skew, meanGap, seed).write(Paths.get(output), lines);
+	}
+}
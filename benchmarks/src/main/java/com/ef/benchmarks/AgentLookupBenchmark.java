@@ -0,0 +1,91 @@
+package com.ef.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ef.db.AgentRepository;
+import com.ef.db.hibernate.HibernateUtil;
+import com.ef.domain.Agent;
+import com.ef.services.AgentCache;
+
+/**
+ * Agent lookup: a query for each line, as {@link AgentRepository#find(String)}
+ * was used, against {@link AgentCache}.
+ * 
+ * @author victor
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AgentLookupBenchmark {
+	@Param({ "100", "10000" })
+	public int agents;
+
+	@Param({ "1.0" })
+	public double skew;
+
+	private final AgentRepository agentRepository = new AgentRepository();
+
+	private AgentCache agentCache;
+
+	private String[] lookups;
+
+	private int next;
+
+	@Setup
+	public void setup() {
+		EmbeddedDatabase.clear();
+		for (int i = 0; i < agents; ++i) {
+			agentRepository.findOrCreate(AccessLogGenerator.agent(i));
+		}
+		AccessLogGenerator generator = new AccessLogGenerator(1, agents, skew, 10, 1);
+		lookups = new String[4096];
+		for (int i = 0; i < lookups.length; ++i) {
+			lookups[i] = generator.next().getAgent();
+		}
+		agentCache = new AgentCache(agentRepository, AgentCache.DEFAULT_CAPACITY);
+	}
+
+	@TearDown
+	public void tearDown() {
+		HibernateUtil.shutdown();
+	}
+
+	@Benchmark
+	public Agent repositoryFind() {
+		try (Session session = HibernateUtil.getSessionFactory().getCurrentSession()) {
+			Transaction tx = session.beginTransaction();
+			Agent agent = agentRepository.find(nextLookup()).get();
+			tx.commit();
+			return agent;
+		}
+	}
+
+	@Benchmark
+	public Long cacheResolve() {
+		return agentCache.resolve(nextLookup());
+	}
+
+	private String nextLookup() {
+		next = (next + 1) & (lookups.length - 1);
+		return lookups[next];
+	}
+}
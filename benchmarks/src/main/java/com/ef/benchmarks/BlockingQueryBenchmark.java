@@ -0,0 +1,99 @@
+package com.ef.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ef.db.AccessLogRepository;
+import com.ef.db.hibernate.HibernateUtil;
+import com.ef.detection.RuleViolation;
+import com.ef.domain.IPAddress;
+import com.ef.params.Duration;
+import com.ef.services.AccessLogService;
+import com.ef.services.InMemoryBlockingService;
+import com.ef.utils.DateUtils;
+
+/**
+ * Blocking query: {@link AccessLogRepository#getIPs} for the daily window
+ * against the sliding window scan of the database and the memory mode, which
+ * reads the same lines from a file. The rows are loaded once for each table
+ * size. The 10M rows table needs a large heap.
+ * 
+ * @author victor
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+public class BlockingQueryBenchmark {
+	@Param({ "10000", "1000000", "10000000" })
+	public int rows;
+
+	@Param({ "10000" })
+	public int ips;
+
+	@Param({ "1.0" })
+	public double skew;
+
+	@Param({ "500" })
+	public int threshold;
+
+	private final AccessLogRepository accessLogRepository = new AccessLogRepository();
+
+	private AccessLogService accessLogService;
+
+	private Date startDate;
+
+	private Path file;
+
+	@Setup
+	public void setup() throws IOException {
+		EmbeddedDatabase.clear();
+		accessLogService = new AccessLogService();
+		EmbeddedDatabase.load(accessLogService, new AccessLogGenerator(ips, 1000, skew, 10, 1), rows);
+		file = Files.createTempFile("access", ".log");
+		new AccessLogGenerator(ips, 1000, skew, 10, 1).write(file, rows);
+		startDate = new Date(AccessLogGenerator.DEFAULT_START);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.delete(file);
+		HibernateUtil.shutdown();
+	}
+
+	@Benchmark
+	public List<IPAddress> getIPs() {
+		return accessLogRepository.getIPs(startDate, DateUtils.oneDayAfter(startDate), threshold);
+	}
+
+	@Benchmark
+	public List<RuleViolation> slidingWindow() {
+		return accessLogService.findSlidingViolations(startDate, Duration.DAILY, threshold);
+	}
+
+	@Benchmark
+	public List<String> inMemory() throws IOException {
+		return new InMemoryBlockingService(Runtime.getRuntime().availableProcessors(), true).findBlockedIPs(file,
+				startDate, DateUtils.oneDayAfter(startDate), threshold);
+	}
+}
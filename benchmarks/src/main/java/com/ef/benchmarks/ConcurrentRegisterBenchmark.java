@@ -0,0 +1,116 @@
+package com.ef.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ef.db.hibernate.HibernateUtil;
+import com.ef.log.LogEntry;
+import com.ef.services.AccessLogService;
+
+/**
+ * Line registration by concurrent writers sharing the session factory and its
+ * connection pool, as the parser does with <code>--threads</code>. Each
+ * invocation registers {@link #LINES} lines, split between the writers in
+ * chunks of {@link #CHUNK_SIZE} lines, so the scores are lines per second and
+ * should grow with the writers until the database saturates.
+ *
+ * @author victor
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConcurrentRegisterBenchmark {
+	private static final int CHUNK_SIZE = 1000;
+
+	private static final int LINES = 8 * CHUNK_SIZE;
+
+	@Param({ "1", "2", "4", "8" })
+	public int writers;
+
+	@Param({ "10000" })
+	public int ips;
+
+	@Param({ "1000" })
+	public int agents;
+
+	@Param({ "1.0" })
+	public double skew;
+
+	private AccessLogService accessLogService;
+
+	private ExecutorService executor;
+
+	private AccessLogGenerator[] generators;
+
+	@Setup
+	public void setupTrial() {
+		// a writer may resolve an agent while its chunk transaction is open
+		HibernateUtil.requireConnections(2 * writers + 1);
+		executor = Executors.newFixedThreadPool(writers);
+	}
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		EmbeddedDatabase.clear();
+		accessLogService = new AccessLogService();
+		generators = new AccessLogGenerator[writers];
+		for (int i = 0; i < writers; ++i) {
+			// each writer registers its own lines, as the chunks of a file
+			generators[i] = new AccessLogGenerator(ips, agents, skew, 10, i + 1);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		executor.shutdown();
+		HibernateUtil.shutdown();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public int registerAll() throws InterruptedException, ExecutionException {
+		List<Future<Integer>> results = new ArrayList<>(writers);
+		for (AccessLogGenerator generator : generators) {
+			results.add(executor.submit(() -> {
+				int inserted = 0;
+				for (int chunk = 0; chunk < LINES / CHUNK_SIZE / writers; ++chunk) {
+					List<LogEntry> entries = new ArrayList<>(CHUNK_SIZE);
+					for (int i = 0; i < CHUNK_SIZE; ++i) {
+						entries.add(generator.next());
+					}
+					inserted += accessLogService.registerAll(entries);
+				}
+				return inserted;
+			}));
+		}
+		int inserted = 0;
+		for (Future<Integer> result : results) {
+			inserted += result.get();
+		}
+		return inserted;
+	}
+}
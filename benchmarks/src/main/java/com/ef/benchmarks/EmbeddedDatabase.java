@@ -0,0 +1,54 @@
+package com.ef.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import com.ef.db.hibernate.HibernateUtil;
+import com.ef.log.LogEntry;
+import com.ef.services.AccessLogService;
+
+/**
+ * The in memory HSQLDB database of the benchmarks. Each benchmark fork runs in
+ * its own JVM, so it starts with an empty database.
+ * 
+ * @author victor
+ *
+ */
+public class EmbeddedDatabase {
+	private static final int LOAD_BATCH_SIZE = 10000;
+
+	/**
+	 * Remove all rows
+	 */
+	public static void clear() {
+		try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+			Transaction tx = session.beginTransaction();
+			session.createNativeQuery("TRUNCATE SCHEMA PUBLIC RESTART IDENTITY AND COMMIT NO CHECK").executeUpdate();
+			tx.commit();
+		}
+	}
+
+	/**
+	 * Register generated lines
+	 * 
+	 * @param service
+	 *            service used to register the lines
+	 * @param generator
+	 *            line generator
+	 * @param rows
+	 *            number of lines
+	 */
+	public static void load(AccessLogService service, AccessLogGenerator generator, long rows) {
+		List<LogEntry> chunk = new ArrayList<>(LOAD_BATCH_SIZE);
+		for (long i = 0; i < rows; ++i) {
+			chunk.add(generator.next());
+			if (chunk.size() == LOAD_BATCH_SIZE || i == rows - 1) {
+				service.registerAll(chunk);
+				chunk.clear();
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.ef.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ef.db.hibernate.HibernateUtil;
+import com.ef.log.LogEntry;
+import com.ef.services.AccessLogService;
+import com.ef.utils.IPUtils;
+
+/**
+ * Line registration on the embedded database: one transaction for each line,
+ * as {@link AccessLogService#register} does, against a JDBC batch of
+ * {@link #BATCH_SIZE} lines by {@link AccessLogService#registerAll(List)}. The
+ * scores are lines per second.
+ * 
+ * @author victor
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegisterBenchmark {
+	private static final int BATCH_SIZE = 1000;
+
+	@Param({ "10000" })
+	public int ips;
+
+	@Param({ "1000" })
+	public int agents;
+
+	@Param({ "1.0" })
+	public double skew;
+
+	private AccessLogService accessLogService;
+
+	private AccessLogGenerator generator;
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		EmbeddedDatabase.clear();
+		accessLogService = new AccessLogService();
+		generator = new AccessLogGenerator(ips, agents, skew, 10, 1);
+	}
+
+	@TearDown
+	public void tearDown() {
+		HibernateUtil.shutdown();
+	}
+
+	@Benchmark
+	public boolean register() {
+		LogEntry entry = generator.next();
+		return accessLogService.register(new Date(entry.getTime()), IPUtils.formatIPv4(entry.getIp()),
+				entry.getRequest(), entry.getResponseCode(), entry.getAgent());
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public int registerAll() {
+		List<LogEntry> chunk = new ArrayList<>(BATCH_SIZE);
+		for (int i = 0; i < BATCH_SIZE; ++i) {
+			chunk.add(generator.next());
+		}
+		return accessLogService.registerAll(chunk);
+	}
+}
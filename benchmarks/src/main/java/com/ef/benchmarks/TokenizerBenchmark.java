@@ -0,0 +1,120 @@
+package com.ef.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ef.log.AccessLogTokenizer;
+import com.ef.log.ByteSequence;
+import com.ef.log.InvalidLineException;
+import com.ef.log.LogEntry;
+
+/**
+ * Line tokenization: the first implementation, using {@link String#split} and
+ * {@link SimpleDateFormat}, against {@link AccessLogTokenizer} on Strings and
+ * on the bytes of a mapped file.
+ * 
+ * @author victor
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+	private static final int LINES = 10000;
+
+	@Param({ "1.0" })
+	public double skew;
+
+	private final DateFormat logDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+	private final AccessLogTokenizer tokenizer = new AccessLogTokenizer();
+
+	private final LogEntry entry = new LogEntry();
+
+	private final ByteSequence sequence = new ByteSequence();
+
+	private String[] lines;
+
+	private ByteBuffer buffer;
+
+	private int[] lineStarts;
+
+	@Setup
+	public void setup() {
+		logDateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		AccessLogGenerator generator = new AccessLogGenerator(1000, 100, skew, 10, 1);
+		lines = new String[LINES];
+		lineStarts = new int[LINES + 1];
+		buffer = ByteBuffer.allocateDirect(LINES * 256);
+		for (int i = 0; i < LINES; ++i) {
+			lines[i] = generator.nextLine();
+			lineStarts[i] = buffer.position();
+			buffer.put(lines[i].getBytes(StandardCharsets.UTF_8)).put((byte) '\n');
+		}
+		lineStarts[LINES] = buffer.position();
+		buffer.flip();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void splitAndSimpleDateFormat(Blackhole blackhole) throws ParseException {
+		for (String line : lines) {
+			String[] values = line.split("\\|");
+			blackhole.consume(logDateFormat.parse(values[0]));
+			blackhole.consume(values[1]);
+			blackhole.consume(values[2]);
+			blackhole.consume(Integer.parseInt(values[3]));
+			blackhole.consume(values[4]);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void tokenizer(Blackhole blackhole) throws InvalidLineException {
+		for (String line : lines) {
+			tokenizer.tokenize(line, entry, true);
+			blackhole.consume(entry);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void tokenizerWithoutText(Blackhole blackhole) throws InvalidLineException {
+		for (String line : lines) {
+			tokenizer.tokenize(line, entry, false);
+			blackhole.consume(entry);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void tokenizerOnBytes(Blackhole blackhole) throws InvalidLineException {
+		for (int i = 0; i < LINES; ++i) {
+			// without the line break
+			tokenizer.tokenize(sequence.reset(buffer, lineStarts[i], lineStarts[i + 1] - 1), entry, false);
+			blackhole.consume(entry);
+		}
+	}
+}
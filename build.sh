@@ -1,3 +1,21 @@
 #!/bin/bash
+# Usage: ./build.sh [--cds]
+#
+# --cds also creates parser.jsa, an AppCDS archive with the classes loaded by a
+# short run, so the next runs start faster. It needs Java 13 or newer:
+#   java -XX:SharedArchiveFile=parser.jsa -cp parser.jar com.ef.Parser ...
+set -e
 mvn clean package
 cp target/parser-jar-with-dependencies.jar parser.jar
+
+if [ "$1" == "--cds" ]; then
+	if ! java -XX:+PrintFlagsFinal -version 2> /dev/null | grep -q ArchiveClassesAtExit; then
+		echo "--cds needs Java 13 or newer, the archive was not created" >&2
+		exit 1
+	fi
+	sample=$(mktemp)
+	echo '2017-01-01 00:00:11.763|192.168.234.82|"GET / HTTP/1.1"|200|"swcd (unknown version) CFNetwork/808.2.16 Darwin/15.6.0"' > "$sample"
+	java -XX:ArchiveClassesAtExit=parser.jsa -cp parser.jar com.ef.Parser --accesslog="$sample" \
+		--startDate=2017-01-01.00:00:00 --duration=hourly --threshold=1 --mode=memory > /dev/null
+	rm -f "$sample"
+fi
@@ -0,0 +1,10 @@
+CREATE TABLE log_access_hourly (
+	`ip`   VARCHAR(15) NOT NULL,
+	`hour` DATETIME NOT NULL,
+	`hits` BIGINT NOT NULL,
+	PRIMARY KEY(`ip`, `hour`),
+	INDEX (`hour`, `ip`, `hits`)
+);
+
+INSERT INTO log_access_hourly (`ip`, `hour`, `hits`)
+	SELECT `ip`, DATE_FORMAT(`time`, '%Y-%m-%d %H:00:00'), COUNT(*) FROM log_access GROUP BY 1, 2;
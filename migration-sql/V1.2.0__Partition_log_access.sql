@@ -0,0 +1,14 @@
+-- Every unique key of a partitioned table must have the partition column and
+-- partitioned tables have no foreign keys. SERIAL also created a unique key on id.
+ALTER TABLE log_access
+	DROP FOREIGN KEY `log_access_ibfk_1`,
+	DROP INDEX `id`,
+	DROP PRIMARY KEY,
+	ADD PRIMARY KEY (`id`, `time`),
+	ADD INDEX `time_ip` (`time`, `ip`);
+
+-- The daily partitions are split from p_future before each file is registered
+ALTER TABLE log_access
+	PARTITION BY RANGE (TO_DAYS(`time`)) (
+		PARTITION p_future VALUES LESS THAN MAXVALUE
+	);
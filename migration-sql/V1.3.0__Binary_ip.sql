@@ -0,0 +1,29 @@
+-- IPs stored with the INET6_ATON encoding: 4 bytes for IPv4, 16 bytes for IPv6
+
+ALTER TABLE log_access
+	DROP INDEX `ip`,
+	DROP INDEX `time_ip`,
+	ADD COLUMN `ip_address` VARBINARY(16);
+UPDATE log_access SET `ip_address` = INET6_ATON(`ip`);
+ALTER TABLE log_access
+	DROP COLUMN `ip`,
+	CHANGE `ip_address` `ip` VARBINARY(16) NOT NULL,
+	ADD UNIQUE `ip` (`ip`, `time`),
+	ADD INDEX `time_ip` (`time`, `ip`);
+
+ALTER TABLE log_access_hourly
+	DROP PRIMARY KEY,
+	DROP INDEX `hour`,
+	ADD COLUMN `ip_address` VARBINARY(16);
+UPDATE log_access_hourly SET `ip_address` = INET6_ATON(`ip`);
+ALTER TABLE log_access_hourly
+	DROP COLUMN `ip`,
+	CHANGE `ip_address` `ip` VARBINARY(16) NOT NULL,
+	ADD PRIMARY KEY (`ip`, `hour`),
+	ADD INDEX `hour` (`hour`, `ip`, `hits`);
+
+ALTER TABLE ip_blocked ADD COLUMN `ip_address` VARBINARY(16);
+UPDATE ip_blocked SET `ip_address` = INET6_ATON(`ip`);
+ALTER TABLE ip_blocked
+	DROP COLUMN `ip`,
+	CHANGE `ip_address` `ip` VARBINARY(16) NOT NULL;
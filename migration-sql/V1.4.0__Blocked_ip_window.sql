@@ -0,0 +1,20 @@
+-- An IP is blocked once for each time window, so running the parser again
+-- leaves the blocked list unchanged
+ALTER TABLE ip_blocked
+	ADD COLUMN `window_start` DATETIME(3),
+	ADD COLUMN `window_end` DATETIME(3);
+
+-- The windows of the rows already blocked are read from their comments:
+-- "More than 100 access between 2017-01-01.13:00:00 and 2017-01-01.14:00:00"
+UPDATE ip_blocked SET
+	`window_start` = STR_TO_DATE(SUBSTRING_INDEX(SUBSTRING_INDEX(`comments`, ' between ', -1), ' and ', 1), '%Y-%m-%d.%H:%i:%s'),
+	`window_end` = STR_TO_DATE(SUBSTRING_INDEX(`comments`, ' and ', -1), '%Y-%m-%d.%H:%i:%s');
+
+-- Keep the first row of each IP and window
+DELETE duplicated FROM ip_blocked duplicated
+	JOIN ip_blocked kept ON kept.`ip` = duplicated.`ip` AND kept.`window_start` = duplicated.`window_start`
+		AND kept.`window_end` = duplicated.`window_end` AND kept.`id` < duplicated.`id`;
+
+-- Rows with an unreadable comment keep null windows, which are never duplicated
+ALTER TABLE ip_blocked
+	ADD UNIQUE `ip_window` (`ip`, `window_start`, `window_end`);
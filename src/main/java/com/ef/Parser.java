@@ -2,23 +2,50 @@ package com.ef;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.TimeZone;
-import java.util.stream.Stream;
+import java.util.concurrent.CountDownLatch;
 
 import org.apache.log4j.PropertyConfigurator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.ef.db.hibernate.HibernateUtil;
+import com.ef.detection.CountMinSketch;
+import com.ef.detection.HeavyHitters;
+import com.ef.detection.OnlineDetector;
+import com.ef.detection.RuleViolation;
+import com.ef.detection.SlidingWindowDetector;
+import com.ef.log.CompressedLogReader;
+import com.ef.log.LogFileSeeker;
+import com.ef.log.LogFileSet;
+import com.ef.log.LogFollower;
+import com.ef.log.LogSink;
+import com.ef.metrics.Metrics;
+import com.ef.metrics.ProgressReporter;
 import com.ef.params.Duration;
+import com.ef.params.Ingest;
+import com.ef.params.Mode;
+import com.ef.params.Rule;
 import com.ef.services.AccessLogService;
+import com.ef.services.AgentCache;
+import com.ef.services.BlockingSink;
+import com.ef.services.DuplicateFilter;
+import com.ef.services.InMemoryBlockingService;
+import com.ef.services.IngestPipeline;
+import com.ef.services.StoreBlockingService;
+import com.ef.store.SegmentStore;
 import com.ef.utils.DateUtils;
 
 /**
@@ -46,6 +73,11 @@ public class Parser {
 	// 2017-01-01 00:01:08.028
 	private static final DateFormat LOG_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
 
+	/**
+	 * Probability of an approximate count above the sketch error
+	 */
+	private static final double SKETCH_DELTA = 0.01;
+
 	/*
 	 * We should set the timezone to UTC.
 	 */
@@ -54,7 +86,7 @@ public class Parser {
 		LOG_DATE_FORMAT.setTimeZone(TimeZone.getTimeZone("UTC"));
 	}
 
-	private AccessLogService accessLogService = new AccessLogService();
+	private AccessLogService accessLogService;
 
 	private Date startDate;
 
@@ -64,24 +96,313 @@ public class Parser {
 
 	private String logFile = "access.log";
 
+	private List<Path> logFiles;
+
+	private int batchSize = 1000;
+
+	private int agentCacheSize = AgentCache.DEFAULT_CAPACITY;
+
+	private int threads = 1;
+
+	private int writers = 1;
+
+	private int queueDepth = 16;
+
+	private Mode mode = Mode.DATABASE;
+
+	private String outputFile;
+
+	private boolean windowOnly = false;
+
+	private List<Rule> rules = new ArrayList<>();
+
+	private boolean sliding = false;
+
+	private String storeDirectory = "store";
+
+	private boolean follow = false;
+
+	private String checkpointFile;
+
+	private long pollInterval = 1000;
+
+	private boolean online = false;
+
+	private Ingest ingest = Ingest.BATCH;
+
+	private int retention = 0;
+
+	private int progress = 10;
+
+	private int dedupLines = DuplicateFilter.DEFAULT_CAPACITY;
+
+	private String metricsFile;
+
+	private boolean jmx = false;
+
+	private boolean approximate = false;
+
+	private double sketchError = 0.00001;
+
+	private int sketchMemory = 64;
+
+	private int topK = HeavyHitters.DEFAULT_CAPACITY;
+
+	private boolean verify = false;
+
 	public Parser(String[] args) {
 		processParameters(args);
+		if (mode == Mode.DATABASE) {
+			// the memory and store modes never start Hibernate
+			// each writer holds a connection and may open another one for a new agent
+			HibernateUtil.requireConnections(2 * writers + 1);
+			accessLogService = new AccessLogService(agentCacheSize);
+			accessLogService.setIngest(ingest);
+		}
 	}
 
 	/**
-	 * Execute application
+	 * Execute application, reporting the progress and printing the metrics
+	 * summary at the end
 	 */
 	public void run() {
+		if (jmx) {
+			Metrics.registerMBeans();
+		}
+		try (ProgressReporter reporter = new ProgressReporter(progress * 1000L,
+				metricsFile != null ? Paths.get(metricsFile) : null)) {
+			process();
+		} finally {
+			System.err.println(Metrics.summary());
+		}
+	}
+
+	private void process() {
+		if (retention > 0) {
+			Date cutoff = accessLogService.applyRetention(retention);
+			LOGGER.info("Retention of " + retention + " days applied, requests kept from " + cutoff);
+			return;
+		}
+		if (follow) {
+			LOGGER.info("Following " + logFile);
+			processFollow();
+			return;
+		}
 		LOGGER.info("Pasing " + logFile + ": startDate=" + LOG_DATE_FORMAT.format(startDate) + " duration=" + duration
-				+ " threshold=" + threshold);
-		processFile();
-		processBlocked();
+				+ " threshold=" + threshold + " rules=" + rules + " sliding=" + sliding + " online=" + online);
+		if (mode == Mode.MEMORY) {
+			processInMemory();
+		} else if (mode == Mode.STORE) {
+			processInStore();
+		} else {
+			accessLogService.warmAgentCache();
+			preparePartitions();
+			IngestPipeline pipeline = processFile();
+			LOGGER.info(accessLogService.getAgentCache().toString());
+			if (!online) {
+				processBlocked(pipeline);
+			}
+		}
+	}
+
+	/**
+	 * Create blocked IPs. The rules are evaluated over the registered requests,
+	 * so the lines registered by previous runs are counted too.
+	 * 
+	 * @param pipeline
+	 *            the pipeline that processed the file
+	 */
+	private void processBlocked(IngestPipeline pipeline) {
+		if (approximate) {
+			accessLogService.createBlockedIPs(pipeline.getHeavyHitters(), verify);
+		} else if (sliding) {
+			accessLogService.createBlockedIPs(accessLogService.findSlidingViolations(startDate, duration, threshold));
+		} else if (rules.isEmpty()) {
+			accessLogService.createBlockedIPs(startDate, endDate(), threshold);
+		} else {
+			accessLogService.createBlockedIPs(accessLogService.evaluate(startDate, rules));
+		}
+	}
+
+	/**
+	 * Find blocked IPs reading the file, without database
+	 */
+	private void processInMemory() {
+		try {
+			InMemoryBlockingService service = new InMemoryBlockingService(threads, windowOnly);
+			if (approximate) {
+				printBlocked(service.findHeavyHitters(logFiles(), heavyHitters(), verify));
+			} else if (sliding) {
+				printBlocked(format(service.findSlidingViolations(logFiles(), startDate, duration, threshold)));
+			} else if (rules.isEmpty()) {
+				printBlocked(service.findBlockedIPs(logFiles(), startDate, endDate(), threshold));
+			} else {
+				printBlocked(format(service.evaluate(logFiles(), startDate, rules)));
+			}
+		} catch (IOException e) {
+			LOGGER.error("Couldn't open access log file: " + this.logFile, e);
+			System.err.println("Couldn't open access log file: " + this.logFile);
+			printUsage();
+			System.exit(1);
+		}
 	}
 
 	/**
-	 * Create blocked IPs
+	 * Follow the access log, registering the new lines in the database until the
+	 * process is stopped. The position of the last registered line is kept in
+	 * the checkpoint file, so a restart does not register the lines again.
 	 */
-	private void processBlocked() {
+	private void processFollow() {
+		Path checkpoint = Paths.get(checkpointFile != null ? checkpointFile : logFile + ".checkpoint");
+		try {
+			LogFollower follower = new LogFollower(Paths.get(logFile), checkpoint, batchSize);
+			CountDownLatch stopped = new CountDownLatch(1);
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+				follower.stop();
+				try {
+					stopped.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				HibernateUtil.shutdown();
+			}));
+			accessLogService.warmAgentCache();
+			preparePartitions();
+			try {
+				follower.follow(sink(), pollInterval);
+			} finally {
+				LOGGER.info("Follow stopped at " + follower.getCheckpoint());
+				stopped.countDown();
+			}
+		} catch (IOException e) {
+			LOGGER.error("Couldn't follow access log file: " + this.logFile, e);
+			System.err.println("Couldn't follow access log file: " + this.logFile);
+			printUsage();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Destination of the registered lines. In online mode, the IPs are blocked
+	 * while the lines are registered: in the span of the rules from startDate,
+	 * or, following the log, in every window since the epoch that is still
+	 * receiving requests. The counters of the active windows start with the
+	 * requests already registered.
+	 * 
+	 * @return the sink
+	 */
+	private LogSink sink() {
+		if (!online) {
+			return accessLogService;
+		}
+		List<Rule> onlineRules = rules.isEmpty() ? Collections.singletonList(new Rule(duration, threshold)) : rules;
+		OnlineDetector detector;
+		if (follow) {
+			detector = new OnlineDetector(startDate != null ? startDate : new Date(0), null, onlineRules,
+					LogFileSeeker.DEFAULT_SLACK);
+		} else {
+			// the lines are read in any order by the parsers, so no window of the span expires
+			Date endDate = InMemoryBlockingService.spanEnd(startDate, onlineRules);
+			detector = new OnlineDetector(startDate, endDate, onlineRules, endDate.getTime() - startDate.getTime());
+		}
+		accessLogService.seed(detector);
+		return new BlockingSink(accessLogService, detector);
+	}
+
+	/**
+	 * Find blocked IPs reading the binary store. Each file is loaded into the
+	 * store only once, so the next runs only read the segments of the window.
+	 */
+	private void processInStore() {
+		try (SegmentStore store = SegmentStore.open(Paths.get(storeDirectory))) {
+			List<Path> files = logFiles != null || Files.exists(Paths.get(logFile)) ? logFiles()
+					: Collections.emptyList();
+			List<Path> added = new ArrayList<>();
+			for (Path file : files) {
+				if (!store.contains(file)) {
+					added.add(file);
+				}
+			}
+			if (files.isEmpty() && store.size() == 0) {
+				throw new NoSuchFileException(logFile);
+			} else if (!added.isEmpty()) {
+				new IngestPipeline(store, threads, 1, queueDepth, batchSize).run(added);
+				store.flush();
+				for (Path file : added) {
+					store.addSource(file);
+				}
+			} else {
+				LOGGER.info("Access log already in store: " + logFile);
+			}
+
+			StoreBlockingService service = new StoreBlockingService(store);
+			if (sliding) {
+				printBlocked(format(service.findSlidingViolations(startDate, duration, threshold)));
+			} else if (rules.isEmpty()) {
+				printBlocked(service.findBlockedIPs(startDate, endDate(), threshold));
+			} else {
+				printBlocked(format(service.evaluate(startDate, rules)));
+			}
+		} catch (IOException e) {
+			LOGGER.error("Couldn't use store " + storeDirectory + " with access log file: " + logFile, e);
+			System.err.println("Couldn't use store " + storeDirectory + " with access log file: " + logFile);
+			printUsage();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Format the violations, one line for each blocked IP:
+	 * <code>IP|START|END|THRESHOLD</code>
+	 * 
+	 * @param violations
+	 *            rule violations
+	 * @return output lines
+	 */
+	private List<String> format(List<RuleViolation> violations) {
+		List<String> lines = new ArrayList<>();
+		for (RuleViolation violation : violations) {
+			String window = START_DATE_FORMAT.format(violation.getStartDate()) + "|"
+					+ START_DATE_FORMAT.format(violation.getEndDate()) + "|" + violation.getThreshold();
+			violation.getIps().forEach(ip -> lines.add(ip + "|" + window));
+		}
+		return lines;
+	}
+
+	/**
+	 * Print the blocked IPs, one per line, in the standard output or in the
+	 * output file
+	 * 
+	 * @param ips
+	 *            blocked IPs
+	 */
+	private void printBlocked(List<String> ips) {
+		if (outputFile == null) {
+			ips.forEach(System.out::println);
+		} else {
+			try {
+				Files.write(Paths.get(outputFile), ips, StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				LOGGER.error("Couldn't write output file: " + outputFile, e);
+				System.err.println("Couldn't write output file: " + outputFile);
+				System.exit(1);
+			}
+		}
+	}
+
+	/**
+	 * Compute the time window end. With rules, it is the end of the longest rule
+	 * window. With sliding windows, it is after every request, see
+	 * {@link SlidingWindowDetector#END_OF_LOG}.
+	 * 
+	 * @return end date (exclusive)
+	 */
+	private Date endDate() {
+		if (sliding) {
+			return new Date(SlidingWindowDetector.END_OF_LOG);
+		} else if (!rules.isEmpty()) {
+			return InMemoryBlockingService.spanEnd(startDate, rules);
+		}
 		Date endDate;
 		switch (duration) {
 		case DAILY:
@@ -101,27 +422,56 @@ public class Parser {
 			printUsage();
 			System.exit(1);
 		}
-		accessLogService.createBlockedIPs(startDate, endDate, threshold);
+		return endDate;
 	}
 
 	/**
-	 * Process Log File creating one database registry for each line
+	 * Counter of the IPs over the threshold in the time window, in the memory
+	 * budget of {@link #sketchMemory} megabytes
+	 * 
+	 * @return heavy hitters
 	 */
-	private void processFile() {
-		try (Stream<String> stream = Files.lines(Paths.get(logFile))) {
-			stream.map(line -> line.split("\\|")).forEach(values -> {
-				try {
-					accessLogService.register(LOG_DATE_FORMAT.parse(values[0]), values[1], values[2],
-							Integer.parseInt(values[3]), values[4]);
-					// System.out.print("\u001B[2K\rProcessando: " + values[0]);
-				} catch (NumberFormatException e) {
-					LOGGER.error("Invalid line: " + Arrays.toString(values), e);
-					System.err.println("Invalid response code \"" + values[3] + "\". Ignoring line.");
-				} catch (ParseException e) {
-					LOGGER.error("Invalid line: " + Arrays.toString(values), e);
-					System.err.println("Invalid date \"" + values[0] + "\". Ignoring line.");
+	private HeavyHitters heavyHitters() {
+		CountMinSketch sketch = null;
+		try {
+			sketch = new CountMinSketch(sketchError, SKETCH_DELTA, sketchMemory * 1024L * 1024L);
+		} catch (IllegalArgumentException e) {
+			LOGGER.info("Invalid sketch: " + e.getMessage(), e);
+			System.err.println("Arguments sketchError and sketchMemory are invalid!");
+			printUsage();
+			System.exit(1);
+		}
+		LOGGER.info("Approximate counting with " + sketch);
+		return new HeavyHitters(startDate, endDate(), threshold, sketch, topK);
+	}
+
+	/**
+	 * Create the daily partitions of the days of the files, from their first to
+	 * their last line, and load the requests already registered in this span
+	 * into the duplicate filter. A followed file is prepared until its current
+	 * last line, as the lines registered before a restart are in this span.
+	 */
+	private void preparePartitions() {
+		try {
+			long first = Long.MAX_VALUE;
+			long last = Long.MIN_VALUE;
+			for (Path file : logFiles()) {
+				long[] span = LogFileSet.span(file);
+				if (span != null) {
+					first = Math.min(first, span[0]);
+					last = Math.max(last, span[1]);
+				} else if (CompressedLogReader.isCompressed(file)) {
+					// the span of a compressed file is only known after reading it whole, its
+					// partitions are created as its chunks are registered
+					LOGGER.info("Duplicate filter not prepared for compressed file: " + file);
+				}
+			}
+			if (first <= last) {
+				accessLogService.preparePartitions(new Date(first), new Date(last));
+				if (dedupLines > 0) {
+					accessLogService.loadDuplicateFilter(new Date(first), new Date(last), dedupLines);
 				}
-			});
+			}
 		} catch (IOException e) {
 			LOGGER.error("Couldn't open access log file: " + this.logFile, e);
 			System.err.println("Couldn't open access log file: " + this.logFile);
@@ -130,6 +480,49 @@ public class Parser {
 		}
 	}
 
+	/**
+	 * Process Log File creating one database registry for each line. The files
+	 * are parsed by {@link #threads} threads and the lines are registered in
+	 * chunks of {@link #batchSize} lines by {@link #writers} threads. With
+	 * {@link #windowOnly}, only the lines inside the time window are registered
+	 * and the files without them are not read.
+	 * 
+	 * @return the pipeline that processed the file
+	 */
+	private IngestPipeline processFile() {
+		IngestPipeline pipeline = new IngestPipeline(sink(), threads, writers, queueDepth, batchSize);
+		if (approximate) {
+			pipeline.setHeavyHitters(heavyHitters());
+		}
+		try {
+			if (windowOnly) {
+				pipeline.run(logFiles(), startDate, endDate());
+			} else {
+				pipeline.run(logFiles());
+			}
+		} catch (IOException e) {
+			LOGGER.error("Couldn't open access log file: " + this.logFile, e);
+			System.err.println("Couldn't open access log file: " + this.logFile);
+			printUsage();
+			System.exit(1);
+		}
+		return pipeline;
+	}
+
+	/**
+	 * Access log files of the accesslog argument, largest first
+	 * 
+	 * @return the files
+	 * @throws IOException
+	 *             Couldn't find the files
+	 */
+	private List<Path> logFiles() throws IOException {
+		if (logFiles == null) {
+			logFiles = LogFileSet.resolve(logFile);
+		}
+		return logFiles;
+	}
+
 	/**
 	 * Extract parameters
 	 * 
@@ -141,6 +534,46 @@ public class Parser {
 			if (arg.equals("--help")) {
 				printUsage();
 				System.exit(0);
+			} else if (arg.equals("--windowOnly")) {
+				this.windowOnly = true;
+			} else if (arg.equals("--sliding")) {
+				this.sliding = true;
+			} else if (arg.equals("--online")) {
+				this.online = true;
+			} else if (arg.equals("--follow")) {
+				this.follow = true;
+			} else if (arg.startsWith("--retention=")) {
+				this.retention = positiveIntArgument(arg, "retention");
+			} else if (arg.equals("--approximate")) {
+				this.approximate = true;
+			} else if (arg.equals("--verify")) {
+				this.verify = true;
+			} else if (arg.startsWith("--sketchError=")) {
+				String sketchError = arg.replace("--sketchError=", "");
+				try {
+					this.sketchError = Double.parseDouble(sketchError);
+				} catch (NumberFormatException e) {
+					LOGGER.info("Invalid argument: " + sketchError, e);
+					System.err.println("Argument sketchError value is invalid!");
+					printUsage();
+					System.exit(1);
+				}
+			} else if (arg.startsWith("--sketchMemory=")) {
+				this.sketchMemory = positiveIntArgument(arg, "sketchMemory");
+			} else if (arg.startsWith("--topK=")) {
+				this.topK = positiveIntArgument(arg, "topK");
+			} else if (arg.equals("--jmx")) {
+				this.jmx = true;
+			} else if (arg.startsWith("--progress=")) {
+				this.progress = positiveIntArgument(arg, "progress");
+			} else if (arg.startsWith("--dedupLines=")) {
+				this.dedupLines = intArgument(arg, "dedupLines");
+			} else if (arg.startsWith("--metrics=")) {
+				this.metricsFile = arg.replace("--metrics=", "");
+			} else if (arg.startsWith("--checkpoint=")) {
+				this.checkpointFile = arg.replace("--checkpoint=", "");
+			} else if (arg.startsWith("--pollInterval=")) {
+				this.pollInterval = positiveIntArgument(arg, "pollInterval");
 			} else if (arg.startsWith("--startDate=")) {
 				String startDate = arg.replace("--startDate=", "");
 				if (startDate.isEmpty()) {
@@ -174,32 +607,98 @@ public class Parser {
 					}
 				}
 			} else if (arg.startsWith("--threshold=")) {
-				String threshold = arg.replace("--threshold=", "");
-				if (threshold.isEmpty()) {
-					System.err.println("Argument threshold is required!");
+				this.threshold = intArgument(arg, "threshold");
+			} else if (arg.startsWith("--batchSize=")) {
+				this.batchSize = positiveIntArgument(arg, "batchSize");
+			} else if (arg.startsWith("--mode=")) {
+				String mode = arg.replace("--mode=", "");
+				try {
+					this.mode = Mode.valueOf(mode.toUpperCase());
+				} catch (IllegalArgumentException e) {
+					LOGGER.info("Invalid argument: " + mode, e);
+					System.err.println("Argument mode value is invalid!");
 					printUsage();
 					System.exit(1);
-				} else {
-					try {
-						this.threshold = Integer.valueOf(threshold);
-					} catch (NumberFormatException e) {
-						LOGGER.info("Invalid argument: " + threshold, e);
-						System.err.println("Argument threshold value is invalid!");
-						printUsage();
-						System.exit(1);
-					}
 				}
+			} else if (arg.startsWith("--ingest=")) {
+				String ingest = arg.replace("--ingest=", "");
+				try {
+					this.ingest = Ingest.valueOf(ingest.toUpperCase());
+				} catch (IllegalArgumentException e) {
+					LOGGER.info("Invalid argument: " + ingest, e);
+					System.err.println("Argument ingest value is invalid!");
+					printUsage();
+					System.exit(1);
+				}
+			} else if (arg.startsWith("--rule=")) {
+				String rule = arg.replace("--rule=", "");
+				try {
+					this.rules.add(Rule.parse(rule));
+				} catch (IllegalArgumentException e) {
+					LOGGER.info("Invalid argument: " + rule, e);
+					System.err.println("Argument rule value is invalid!");
+					printUsage();
+					System.exit(1);
+				}
+			} else if (arg.startsWith("--store=")) {
+				this.storeDirectory = arg.replace("--store=", "");
+			} else if (arg.startsWith("--output=")) {
+				this.outputFile = arg.replace("--output=", "");
+			} else if (arg.startsWith("--threads=")) {
+				this.threads = positiveIntArgument(arg, "threads");
+			} else if (arg.startsWith("--writers=")) {
+				this.writers = positiveIntArgument(arg, "writers");
+			} else if (arg.startsWith("--queueDepth=")) {
+				this.queueDepth = positiveIntArgument(arg, "queueDepth");
+			} else if (arg.startsWith("--agentCacheSize=")) {
+				this.agentCacheSize = positiveIntArgument(arg, "agentCacheSize");
 			} else if (arg.startsWith("--accesslog=")) {
-				File accesslog = Paths.get(arg.replace("--accesslog=", "")).toFile();
-				if (!accesslog.exists() || !accesslog.isFile()) {
-					LOGGER.info("Invalid file: " + accesslog);
-					System.err.println("accesslog is not a valid file!");
+				String accesslog = arg.replace("--accesslog=", "");
+				try {
+					this.logFiles = LogFileSet.resolve(accesslog);
+				} catch (IOException e) {
+					LOGGER.info("Invalid file: " + accesslog, e);
+				}
+				if (logFiles == null || logFiles.isEmpty()) {
+					System.err.println("accesslog is not a valid file, directory or glob!");
 					printUsage();
 					System.exit(1);
-				} else {
-					this.logFile = accesslog.getAbsolutePath();
 				}
+				this.logFile = Files.isRegularFile(Paths.get(accesslog)) ? logFiles.get(0).toString() : accesslog;
+			}
+		}
+
+		if (!rules.isEmpty() && (duration != null || threshold != -1)) {
+			System.err.println("Argument rule replaces duration and threshold, they can't be used together!");
+			printUsage();
+			System.exit(1);
+		}
+
+		if (online && (mode != Mode.DATABASE || sliding || (rules.isEmpty() && (duration == null || threshold < 1)))) {
+			System.err.println(
+					"Argument online only works in database mode, with rules or duration and a threshold greater than"
+							+ " zero!");
+			printUsage();
+			System.exit(1);
+		}
+
+		if (retention > 0) {
+			if (mode != Mode.DATABASE) {
+				System.err.println("Argument retention only works in database mode!");
+				printUsage();
+				System.exit(1);
+			}
+			return;
+		}
+
+		if (follow) {
+			if (mode != Mode.DATABASE || (logFiles != null && !Files.isRegularFile(Paths.get(logFile)))
+					|| CompressedLogReader.isCompressed(Paths.get(logFile))) {
+				System.err.println("Argument follow only works in database mode, with a single uncompressed file!");
+				printUsage();
+				System.exit(1);
 			}
+			return;
 		}
 
 		if (startDate == null) {
@@ -207,17 +706,84 @@ public class Parser {
 			printUsage();
 			System.exit(1);
 		}
-		if (duration == null) {
+		if (duration == null && rules.isEmpty()) {
 			System.err.println("Argument duration is required!");
 			printUsage();
 			System.exit(1);
 		}
 
-		if (threshold == -1) {
+		if (threshold == -1 && rules.isEmpty()) {
 			System.err.println("Argument threshold is required!");
 			printUsage();
 			System.exit(1);
 		}
+
+		if (sliding && (duration == null || threshold < 1 || !rules.isEmpty())) {
+			System.err.println("Argument sliding needs duration and a threshold greater than zero, without rules!");
+			printUsage();
+			System.exit(1);
+		}
+
+		if (approximate && (mode == Mode.STORE || online || sliding || duration == null || threshold < 1
+				|| !rules.isEmpty())) {
+			System.err.println(
+					"Argument approximate needs duration and a threshold greater than zero, without rules, sliding,"
+							+ " online or store mode!");
+			printUsage();
+			System.exit(1);
+		}
+
+		if (verify && !approximate) {
+			System.err.println("Argument verify only works with approximate!");
+			printUsage();
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Extract a integer parameter
+	 * 
+	 * @param arg
+	 *            Application argument
+	 * @param name
+	 *            Argument name
+	 * @return the argument value
+	 */
+	private int intArgument(String arg, String name) {
+		String value = arg.replace("--" + name + "=", "");
+		if (value.isEmpty()) {
+			System.err.println("Argument " + name + " is required!");
+			printUsage();
+			System.exit(1);
+		}
+		try {
+			return Integer.valueOf(value);
+		} catch (NumberFormatException e) {
+			LOGGER.info("Invalid argument: " + value, e);
+			System.err.println("Argument " + name + " value is invalid!");
+			printUsage();
+			System.exit(1);
+			return -1;
+		}
+	}
+
+	/**
+	 * Extract a integer parameter greater than zero
+	 * 
+	 * @param arg
+	 *            Application argument
+	 * @param name
+	 *            Argument name
+	 * @return the argument value
+	 */
+	private int positiveIntArgument(String arg, String name) {
+		int value = intArgument(arg, name);
+		if (value < 1) {
+			System.err.println("Argument " + name + " value is invalid!");
+			printUsage();
+			System.exit(1);
+		}
+		return value;
 	}
 
 	/**
@@ -225,12 +791,95 @@ public class Parser {
 	 */
 	private void printUsage() {
 		System.out.println("Process \"access.log\" file and add IPs to blocked list.\n"
-				+ "Usage: java -cp \"parser.jar\" com.ef.Parser --startDate=2017-01-01.13:00:00 --duration=hourly --threshold=100\n\n"
+				+ "Usage: java -cp \"parser.jar\" com.ef.Parser --startDate=2017-01-01.13:00:00 --duration=hourly"
+				+ " --threshold=100\n\n"
 				+ "Arguments:\n"
-				+ "\t--startDate=DATE       [REQUIRED]   Time that the parser will check for blocked ips. Use date format \"yyyy-MM-dd.HH:mm:ss\"\n"
+				+ "\t--startDate=DATE       [REQUIRED]   Time that the parser will check for blocked ips. Use date\n"
+				+ "\t                                    format \"yyyy-MM-dd.HH:mm:ss\"\n"
 				+ "\t--duration=DURATION    [REQUIRED]   The window of check. Accepts: \"hourly\" or \"daily\"\n"
-				+ "\t--accesslog=FILE                    The access log file. The default value is \"access.log\"\n"
-				+ "\t--threshold=THRESHOLD  [REQUIRED]   The minimum number of request for block an IP");
+				+ "\t--accesslog=FILE                    The access log file. The default value is \"access.log\".\n"
+				+ "\t                                    Files ending with \".gz\" or \".zst\" are decompressed while\n"
+				+ "\t                                    they are read, BGZF files by many threads. A directory or a\n"
+				+ "\t                                    glob, like \"logs/*/access-*.log.gz\", reads many files\n"
+				+ "\t                                    sharing the threads, compressed and largest first. With\n"
+				+ "\t                                    windowOnly, the files whose requests are outside the window\n"
+				+ "\t                                    are skipped\n"
+				+ "\t--threshold=THRESHOLD  [REQUIRED]   The minimum number of request for block an IP\n"
+				+ "\t--batchSize=SIZE                    Number of lines written in each transaction. The default\n"
+				+ "\t                                    value is 1000\n"
+				+ "\t--agentCacheSize=SIZE               Number of agents kept in memory. The default value is 10000\n"
+				+ "\t--threads=THREADS                   Number of threads parsing the file. The default value is 1\n"
+				+ "\t--writers=WRITERS                   Number of threads writing into database. The default value\n"
+				+ "\t                                    is 1\n"
+				+ "\t--queueDepth=CHUNKS                 Number of parsed chunks waiting for a writer. The default\n"
+				+ "\t                                    value is 16\n"
+				+ "\t--mode=MODE                         \"database\" loads the file into database, \"memory\" only\n"
+				+ "\t                                    counts the requests and prints the blocked IPs, \"store\"\n"
+				+ "\t                                    loads the file into a binary store, if it is not there, and\n"
+				+ "\t                                    prints the blocked IPs reading only the window from the\n"
+				+ "\t                                    store. The default value is \"database\"\n"
+				+ "\t--ingest=STRATEGY                   \"batch\" writes the lines with JDBC batches, \"staged\" with\n"
+				+ "\t                                    batches into a staging table on MySQL, \"bulk\" with the\n"
+				+ "\t                                    database bulk loader, LOAD DATA LOCAL INFILE on MySQL,\n"
+				+ "\t                                    ignoring duplicated lines. Other databases use MERGE. The\n"
+				+ "\t                                    default value is \"batch\"\n"
+				+ "\t--dedupLines=LINES                  Number of registered lines kept in memory to drop the lines\n"
+				+ "\t                                    of the file that are already registered without querying the\n"
+				+ "\t                                    database. 0 disables it. The default value is 2000000\n"
+				+ "\t--store=DIR                         Directory of the binary store. The default value is\n"
+				+ "\t                                    \"store\"\n"
+				+ "\t--output=FILE                       File where the memory mode writes the blocked IPs. The\n"
+				+ "\t                                    default is the standard output\n"
+				+ "\t--rule=DURATION:THRESHOLD           Blocking rule, like \"hourly:200\". It can be repeated and\n"
+				+ "\t                                    replaces duration and threshold, which are rejected with it.\n"
+				+ "\t                                    Each rule is checked in every window of its duration from\n"
+				+ "\t                                    startDate until the end of the longest rule. The requests\n"
+				+ "\t                                    are read once for all rules, in database mode from the\n"
+				+ "\t                                    hourly counters when startDate is a whole hour\n"
+				+ "\t--sliding                           Check every rolling window of duration from startDate until\n"
+				+ "\t                                    the last request, not only the window that starts at\n"
+				+ "\t                                    startDate. Blocked IPs are printed or registered with the\n"
+				+ "\t                                    first window over the threshold\n"
+				+ "\t--follow                            Follow the access log, registering the new lines in the\n"
+				+ "\t                                    database until the process is stopped. startDate, duration\n"
+				+ "\t                                    and threshold are not required. Rotated and truncated files\n"
+				+ "\t                                    are detected\n"
+				+ "\t--checkpoint=FILE                   File with the position of the last registered line in follow\n"
+				+ "\t                                    mode. The default value is the access log file with\n"
+				+ "\t                                    \".checkpoint\"\n"
+				+ "\t--pollInterval=MILLIS               Time to wait for new lines in follow mode. The default value\n"
+				+ "\t                                    is 1000\n"
+				+ "\t--online                            Block the IPs while the lines are registered, as soon as\n"
+				+ "\t                                    they reach the threshold, instead of after the whole file.\n"
+				+ "\t                                    With follow, startDate is optional and the windows are kept\n"
+				+ "\t                                    until a minute after their end\n"
+				+ "\t--retention=DAYS                    Only remove the requests older than the last DAYS days of\n"
+				+ "\t                                    the newest request. Partitioned requests are removed by\n"
+				+ "\t                                    dropping whole days\n"
+				+ "\t--progress=SECONDS                  Time between the progress lines of the log. The default\n"
+				+ "\t                                    value is 10\n"
+				+ "\t--metrics=FILE                      Write the counters and the stage latencies in the Prometheus\n"
+				+ "\t                                    text format in FILE with the progress and at the end\n"
+				+ "\t--jmx                               Publish the counters and the stage latencies as MBeans.\n"
+				+ "\t                                    The Flight Recorder events need Java 8u262 or newer\n"
+				+ "\t--approximate                       Count the requests of the window in a fixed amount of\n"
+				+ "\t                                    memory, with a Count-Min Sketch, and block the IPs whose\n"
+				+ "\t                                    estimate reaches the threshold. The estimates are never\n"
+				+ "\t                                    below the real counts, but may be above them. In database\n"
+				+ "\t                                    mode, only the lines of the file are counted\n"
+				+ "\t--sketchError=FRACTION              Error of the estimates, as a fraction of the requests of the\n"
+				+ "\t                                    window, with 99% of probability. The default value is\n"
+				+ "\t                                    0.00001\n"
+				+ "\t--sketchMemory=MB                   Memory budget of the sketch. A smaller budget raises the\n"
+				+ "\t                                    error. The default value is 64\n"
+				+ "\t--topK=K                            Max number of IPs over the threshold kept by approximate.\n"
+				+ "\t                                    The default value is 10000\n"
+				+ "\t--verify                            Count exactly the requests of the IPs found by approximate\n"
+				+ "\t                                    before blocking them, reading the file again in memory mode\n"
+				+ "\t                                    or querying only those IPs\n"
+				+ "\t--windowOnly                        Read only the lines inside the time window. The file region\n"
+				+ "\t                                    is found by binary search, so the file should be mostly time\n"
+				+ "\t                                    ordered");
 
 	}
 
@@ -1,5 +1,8 @@
 package com.ef.db;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+
 import javax.persistence.PersistenceException;
 
 import org.hibernate.exception.ConstraintViolationException;
@@ -54,4 +57,18 @@ public abstract class AbstractRepository {
 		HibernateUtil.getSessionFactory().getCurrentSession().merge(obj);
 	}
 
+	/**
+	 * Check the database of a connection, for statements without a portable
+	 * syntax.
+	 * 
+	 * @param connection
+	 *            JDBC connection
+	 * @return true if it is a MySQL database
+	 * @throws SQLException
+	 *             Couldn't read the connection metadata
+	 */
+	protected static boolean isMySQL(Connection connection) throws SQLException {
+		return connection.getMetaData().getDatabaseProductName().startsWith("MySQL");
+	}
+
 }
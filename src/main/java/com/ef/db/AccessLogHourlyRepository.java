@@ -0,0 +1,126 @@
+package com.ef.db;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.ef.db.hibernate.HibernateUtil;
+import com.ef.domain.AccessLog;
+import com.ef.domain.AccessLogHourly;
+import com.ef.domain.IPAddress;
+import com.ef.params.Duration;
+
+/**
+ * Repository for {@link AccessLogHourly}
+ * 
+ * @author victor
+ *
+ */
+public class AccessLogHourlyRepository extends AbstractRepository {
+	private static final int FETCH_SIZE = 10000;
+
+	private static final String UPSERT_SQL = "INSERT INTO log_access_hourly (ip, hour, hits) VALUES (?, ?, ?) "
+			+ "ON DUPLICATE KEY UPDATE hits = hits + VALUES(hits)";
+
+	private static final String MERGE_SQL = "MERGE INTO log_access_hourly USING "
+			+ "(VALUES (CAST(? AS VARBINARY(16)), CAST(? AS TIMESTAMP), CAST(? AS BIGINT))) AS added (ip, hour, hits) "
+			+ "ON log_access_hourly.ip = added.ip AND log_access_hourly.hour = added.hour "
+			+ "WHEN MATCHED THEN UPDATE SET log_access_hourly.hits = log_access_hourly.hits + added.hits "
+			+ "WHEN NOT MATCHED THEN INSERT (ip, hour, hits) VALUES (added.ip, added.hour, added.hits)";
+
+	private static final String HITS_SQL = "SELECT ip, hour, hits FROM log_access_hourly WHERE hour >= ? AND hour < ?";
+
+	public interface HitsConsumer {
+		void accept(IPAddress ip, long hour, long hits);
+	}
+
+	/**
+	 * Add the logs to the hourly counters using a JDBC batch of upserts on the
+	 * current transaction, <code>MERGE</code> where there is no
+	 * <code>ON DUPLICATE KEY UPDATE</code>. The counters are updated in (ip, hour) order, so concurrent
+	 * transactions lock them in the same order.
+	 * 
+	 * @param logs
+	 *            the inserted logs
+	 */
+	public void addAll(List<AccessLog> logs) {
+		if (logs.isEmpty()) {
+			return;
+		}
+		Map<IPAddress, Map<Long, Long>> hits = new TreeMap<>();
+		for (AccessLog log : logs) {
+			hits.computeIfAbsent(log.getIp(), ip -> new TreeMap<>()).merge(hour(log.getTime().getTime()), 1L,
+					Long::sum);
+		}
+		HibernateUtil.getSessionFactory().getCurrentSession().doWork(connection -> {
+			try (PreparedStatement stmt = connection.prepareStatement(isMySQL(connection) ? UPSERT_SQL : MERGE_SQL)) {
+				for (Map.Entry<IPAddress, Map<Long, Long>> ip : hits.entrySet()) {
+					for (Map.Entry<Long, Long> hour : ip.getValue().entrySet()) {
+						stmt.setBytes(1, ip.getKey().toBytes());
+						stmt.setTimestamp(2, new Timestamp(hour.getKey()));
+						stmt.setLong(3, hour.getValue());
+						stmt.addBatch();
+					}
+				}
+				stmt.executeBatch();
+			}
+		});
+	}
+
+	/**
+	 * Read the counters of the hours between the dates, without keeping them in
+	 * memory
+	 * 
+	 * @param firstHour
+	 *            start of the first hour
+	 * @param endHour
+	 *            end of the last hour
+	 * @param consumer
+	 *            counter consumer
+	 * @return number of counters read
+	 */
+	public long scanHits(Date firstHour, Date endHour, HitsConsumer consumer) {
+		return HibernateUtil.query(session -> session.doReturningWork(connection -> {
+			try (PreparedStatement stmt = connection.prepareStatement(HITS_SQL, ResultSet.TYPE_FORWARD_ONLY,
+					ResultSet.CONCUR_READ_ONLY)) {
+				// MySQL only streams the rows with this fetch size
+				stmt.setFetchSize(isMySQL(connection) ? Integer.MIN_VALUE : FETCH_SIZE);
+				stmt.setTimestamp(1, new Timestamp(firstHour.getTime()));
+				stmt.setTimestamp(2, new Timestamp(endHour.getTime()));
+				long rows = 0;
+				try (ResultSet rs = stmt.executeQuery()) {
+					while (rs.next()) {
+						consumer.accept(IPAddress.of(rs.getBytes(1)), rs.getTimestamp(2).getTime(), rs.getLong(3));
+						++rows;
+					}
+				}
+				return rows;
+			}
+		}));
+	}
+
+	/**
+	 * Delete the counters before an hour, on the current transaction
+	 * 
+	 * @param hour
+	 *            start of the first kept hour
+	 * @return number of deleted counters
+	 */
+	public int deleteBefore(Date hour) {
+		return HibernateUtil.getSessionFactory().getCurrentSession()
+				.createQuery("DELETE FROM AccessLogHourly WHERE hour < :hour").setParameter("hour", hour).executeUpdate();
+	}
+
+	/**
+	 * @param time
+	 *            epoch milliseconds
+	 * @return start of the hour
+	 */
+	public static long hour(long time) {
+		return Math.floorDiv(time, Duration.HOURLY.getMillis()) * Duration.HOURLY.getMillis();
+	}
+}
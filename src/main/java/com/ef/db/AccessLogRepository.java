@@ -1,10 +1,35 @@
 package com.ef.db;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.ef.db.hibernate.HibernateUtil;
 import com.ef.domain.AccessLog;
+import com.ef.domain.IPAddress;
+import com.ef.params.Duration;
+
+import lombok.Value;
 
 /**
  * Repository for {@link AccessLog}
@@ -13,6 +38,106 @@ import com.ef.domain.AccessLog;
  *
  */
 public class AccessLogRepository extends AbstractRepository {
+	private static Logger LOGGER = LoggerFactory.getLogger(AccessLogRepository.class);
+
+	private static final int FETCH_SIZE = 10000;
+
+	private static final String INSERT_SQL = "INSERT INTO log_access (time, ip, request, response_code, agent_id) "
+			+ "VALUES (?, ?, ?, ?, ?)";
+
+	/**
+	 * SQL state of a unique key violation, and the error code of MySQL for it
+	 */
+	private static final String DUPLICATE_KEY_STATE = "23505";
+
+	private static final int MYSQL_DUPLICATE_KEY = 1062;
+
+	private static final String MERGE_SQL = "MERGE INTO log_access USING (VALUES (CAST(? AS TIMESTAMP), "
+			+ "CAST(? AS VARBINARY(16)), CAST(? AS VARCHAR(2048)), CAST(? AS INT), CAST(? AS BIGINT))) "
+			+ "AS added (time, ip, request, response_code, agent_id) "
+			+ "ON log_access.ip = added.ip AND log_access.time = added.time "
+			+ "WHEN NOT MATCHED THEN INSERT (time, ip, request, response_code, agent_id) "
+			+ "VALUES (added.time, added.ip, added.request, added.response_code, added.agent_id)";
+
+	/**
+	 * Number of IPs read by each query of the candidate IPs
+	 */
+	private static final int IPS_SLICE = 500;
+
+	/*
+	 * Each IP of the list reads only its requests of the window, using the
+	 * unique key (ip, time)
+	 */
+	private static final String CANDIDATE_IPS_SQL = "SELECT ip FROM log_access WHERE time >= ? AND time < ? AND ip IN (";
+
+	/*
+	 * The file name is ignored, the rows are read from the statement input
+	 * stream. The time is sent as epoch milliseconds and stored as an UTC
+	 * DATETIME, as the driver does with timestamps, whatever the session time
+	 * zone is: FROM_UNIXTIME would convert it to the session time zone.
+	 */
+	private static final String LOAD_SQL = "LOAD DATA LOCAL INFILE 'access.log' INTO TABLE log_access_staging CHARACTER SET utf8mb4 "
+			+ "(@time, @ip, request, response_code, agent_id) "
+			+ "SET time = TIMESTAMPADD(MICROSECOND, @time * 1000, '1970-01-01'), ip = INET6_ATON(@ip)";
+
+	/*
+	 * Logs of a chunk before they are registered. A temporary table belongs to
+	 * the connection, so each writer has its own.
+	 */
+	private static final String STAGING_SQL = "CREATE TEMPORARY TABLE IF NOT EXISTS log_access_staging ("
+			+ "time DATETIME(3) NOT NULL, ip VARBINARY(16) NOT NULL, request VARCHAR(2048) NOT NULL, "
+			+ "response_code INT NOT NULL, agent_id BIGINT UNSIGNED, PRIMARY KEY (ip, time))";
+
+	private static final String CLEAR_STAGING_SQL = "DELETE FROM log_access_staging";
+
+	/*
+	 * A single statement for every log of the batch, the driver rewrites the
+	 * batch as a multi-row insert (rewriteBatchedStatements)
+	 */
+	private static final String STAGE_SQL = "INSERT INTO log_access_staging (time, ip, request, response_code, agent_id) "
+			+ "VALUES (?, ?, ?, ?, ?)";
+
+	/*
+	 * The join reads the registered keys with a locking read, so a concurrent
+	 * transaction inserting the same keys waits for this one
+	 */
+	private static final String REMOVE_REGISTERED_SQL = "DELETE log_access_staging FROM log_access_staging "
+			+ "JOIN log_access ON log_access.ip = log_access_staging.ip AND log_access.time = log_access_staging.time";
+
+	/*
+	 * A duplicated key is left as it is, without the errors INSERT IGNORE
+	 * would turn into warnings too, like a truncated request
+	 */
+	private static final String INSERT_STAGED_SQL = "INSERT INTO log_access (time, ip, request, response_code, agent_id) "
+			+ "SELECT time, ip, request, response_code, agent_id FROM log_access_staging "
+			+ "ON DUPLICATE KEY UPDATE id = id";
+
+	private static final String STAGED_SQL = "SELECT ip, time FROM log_access_staging";
+
+	private static final String PARTITIONS_SQL = "SELECT PARTITION_NAME, PARTITION_DESCRIPTION FROM information_schema.PARTITIONS "
+			+ "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'log_access' AND PARTITION_NAME IS NOT NULL";
+
+	/**
+	 * Partition of the requests after the last daily partition
+	 */
+	private static final String FUTURE_PARTITION = "p_future";
+
+	/**
+	 * <code>TO_DAYS('1970-01-01')</code>
+	 */
+	private static final long EPOCH_TO_DAYS = 719528;
+
+	/*
+	 * The whole hours of the window are read from the hourly counters, the
+	 * requests before the first whole hour and after the last one are counted
+	 * from the raw rows.
+	 */
+	private static final String HOURLY_IPS_SQL = "SELECT ip FROM ("
+			+ "SELECT ip, hits FROM log_access_hourly WHERE hour >= :firstHour AND hour < :lastHour "
+			+ "UNION ALL SELECT ip, COUNT(*) FROM log_access WHERE time >= :startTime AND time < :firstHour GROUP BY ip "
+			+ "UNION ALL SELECT ip, COUNT(*) FROM log_access WHERE time >= :lastHour AND time < :endTime GROUP BY ip"
+			+ ") requests GROUP BY ip HAVING SUM(hits) >= :threshold";
+
 	/**
 	 * Get all IPs that matches with the parameters:
 	 * <ul>
@@ -20,6 +145,12 @@ public class AccessLogRepository extends AbstractRepository {
 	 * <li>Resquest threshold</li>
 	 * </ul>
 	 * 
+	 * <p>
+	 * When the window has a whole hour, its hours are read from the hourly
+	 * counters of {@link AccessLogHourlyRepository}, so a daily window reads at
+	 * most 24 rows for each IP and only the unaligned edges read raw rows.
+	 * </p>
+	 * 
 	 * @param startTime
 	 *            time window start
 	 * @param endTime
@@ -28,10 +159,529 @@ public class AccessLogRepository extends AbstractRepository {
 	 *            request threshold
 	 * @return IP list
 	 */
-	public List<String> getIPs(Date startTime, Date endTime, long threshold) {
-		return HibernateUtil.query(session -> session.createQuery(
-				"SELECT ip FROM AccessLog WHERE time >= :startTime AND time < :endTime GROUP BY ip HAVING COUNT(ip) >= :threshold",
-				String.class).setParameter("startTime", startTime).setParameter("endTime", endTime)
-				.setParameter("threshold", threshold).list());
+	@SuppressWarnings("unchecked")
+	public List<IPAddress> getIPs(Date startTime, Date endTime, long threshold) {
+		long hour = Duration.HOURLY.getMillis();
+		long firstHour = AccessLogHourlyRepository.hour(startTime.getTime() + hour - 1);
+		long lastHour = AccessLogHourlyRepository.hour(endTime.getTime());
+		if (firstHour >= lastHour) {
+			return HibernateUtil.query(session -> session.createQuery(
+					"SELECT ip FROM AccessLog WHERE time >= :startTime AND time < :endTime GROUP BY ip HAVING COUNT(ip) >= :threshold",
+					IPAddress.class).setParameter("startTime", startTime).setParameter("endTime", endTime)
+					.setParameter("threshold", threshold).list());
+		}
+		List<byte[]> ips = HibernateUtil.query(session -> session.createNativeQuery(HOURLY_IPS_SQL)
+				.setParameter("firstHour", new Timestamp(firstHour)).setParameter("lastHour", new Timestamp(lastHour))
+				.setParameter("startTime", new Timestamp(startTime.getTime()))
+				.setParameter("endTime", new Timestamp(endTime.getTime())).setParameter("threshold", threshold).list());
+		return ips.stream().map(IPAddress::of).collect(Collectors.toList());
+	}
+
+	/**
+	 * Get the IPs of a list over the threshold in the time window. Only the
+	 * requests of the listed IPs are read, in slices of the list.
+	 * 
+	 * @param ips
+	 *            checked IPs
+	 * @param startTime
+	 *            time window start
+	 * @param endTime
+	 *            time window end
+	 * @param threshold
+	 *            request threshold
+	 * @return IP list
+	 */
+	public List<IPAddress> getIPs(List<IPAddress> ips, Date startTime, Date endTime, long threshold) {
+		return HibernateUtil.query(session -> session.doReturningWork(connection -> {
+			List<IPAddress> blocked = new ArrayList<>();
+			for (int from = 0; from < ips.size(); from += IPS_SLICE) {
+				List<IPAddress> slice = ips.subList(from, Math.min(ips.size(), from + IPS_SLICE));
+				StringBuilder sql = new StringBuilder(CANDIDATE_IPS_SQL);
+				for (int i = 0; i < slice.size(); ++i) {
+					sql.append(i == 0 ? "?" : ", ?");
+				}
+				sql.append(") GROUP BY ip HAVING COUNT(*) >= ?");
+				try (PreparedStatement stmt = connection.prepareStatement(sql.toString())) {
+					int index = 0;
+					stmt.setTimestamp(++index, new Timestamp(startTime.getTime()));
+					stmt.setTimestamp(++index, new Timestamp(endTime.getTime()));
+					for (IPAddress ip : slice) {
+						stmt.setBytes(++index, ip.toBytes());
+					}
+					stmt.setLong(++index, threshold);
+					try (ResultSet rs = stmt.executeQuery()) {
+						while (rs.next()) {
+							blocked.add(IPAddress.of(rs.getBytes(1)));
+						}
+					}
+				}
+			}
+			return blocked;
+		}));
+	}
+
+	/**
+	 * @return time of the newest request, or null if there is no request
+	 */
+	public Date newestTime() {
+		return HibernateUtil
+				.query(session -> session.createQuery("SELECT MAX(time) FROM AccessLog", Date.class).uniqueResult());
+	}
+
+	/**
+	 * Split the future partition into the daily partitions of the requests
+	 * between the dates, on the current transaction. The days before the last
+	 * daily partition are already partitioned. It does nothing if the table is
+	 * not partitioned by day.
+	 * 
+	 * @param first
+	 *            time of the first request
+	 * @param last
+	 *            time of the last request
+	 * @return end of the last daily partition, or {@link Long#MAX_VALUE} if the
+	 *         table is not partitioned by day
+	 */
+	public long addPartitions(Date first, Date last) {
+		return HibernateUtil.getSessionFactory().getCurrentSession().doReturningWork(connection -> {
+			TreeMap<Long, String> partitions = partitions(connection);
+			if (!FUTURE_PARTITION.equals(partitions.get(Long.MAX_VALUE))) {
+				return Long.MAX_VALUE;
+			}
+			Long lastBound = partitions.lowerKey(Long.MAX_VALUE);
+			long firstDay = lastBound != null ? Math.max(lastBound, toDays(first.getTime())) : toDays(first.getTime());
+			long lastDay = toDays(last.getTime());
+			if (firstDay <= lastDay) {
+				try (Statement stmt = connection.createStatement()) {
+					stmt.executeUpdate(partitionsSql(firstDay, lastDay));
+				}
+				LOGGER.info("Created {} daily partitions", lastDay - firstDay + 1);
+			}
+			long bound = lastBound != null ? Math.max(lastBound, lastDay + 1) : lastDay + 1;
+			return (bound - EPOCH_TO_DAYS) * Duration.DAILY.getMillis();
+		});
+	}
+
+	/*
+	 * Split the future partition into the partitions of the days between the
+	 * TO_DAYS of the first and the last day
+	 */
+	static String partitionsSql(long firstDay, long lastDay) {
+		StringBuilder sql = new StringBuilder("ALTER TABLE log_access REORGANIZE PARTITION ")
+				.append(FUTURE_PARTITION).append(" INTO (");
+		for (long day = firstDay; day <= lastDay; ++day) {
+			String name = LocalDate.ofEpochDay(day - EPOCH_TO_DAYS).format(DateTimeFormatter.BASIC_ISO_DATE);
+			sql.append("PARTITION p").append(name).append(" VALUES LESS THAN (").append(day + 1).append("), ");
+		}
+		return sql.append("PARTITION ").append(FUTURE_PARTITION).append(" VALUES LESS THAN MAXVALUE)").toString();
+	}
+
+	/**
+	 * Remove the requests before a day, on the current transaction. If the table
+	 * is partitioned by day, the whole partitions before the day are dropped
+	 * without reading their rows. Otherwise the rows are deleted.
+	 * 
+	 * @param day
+	 *            start of the first kept day
+	 * @return number of dropped partitions, or of deleted rows if the table is
+	 *         not partitioned
+	 */
+	public long deleteBefore(Date day) {
+		return HibernateUtil.getSessionFactory().getCurrentSession().doReturningWork(connection -> {
+			TreeMap<Long, String> partitions = partitions(connection);
+			if (partitions.isEmpty()) {
+				try (PreparedStatement stmt = connection.prepareStatement("DELETE FROM log_access WHERE time < ?")) {
+					stmt.setTimestamp(1, new Timestamp(day.getTime()));
+					return (long) stmt.executeUpdate();
+				}
+			}
+			// a partition holds the days before its bound
+			Collection<String> dropped = partitions.headMap(toDays(day.getTime()), true).values();
+			if (!dropped.isEmpty()) {
+				try (Statement stmt = connection.createStatement()) {
+					stmt.executeUpdate("ALTER TABLE log_access DROP PARTITION " + String.join(", ", dropped));
+				}
+			}
+			return (long) dropped.size();
+		});
+	}
+
+	/*
+	 * Partition names by bound (TO_DAYS of the first day after the partition),
+	 * empty if the table is not partitioned
+	 */
+	private static TreeMap<Long, String> partitions(Connection connection) throws SQLException {
+		TreeMap<Long, String> partitions = new TreeMap<>();
+		if (!isMySQL(connection)) {
+			return partitions;
+		}
+		try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(PARTITIONS_SQL)) {
+			while (rs.next()) {
+				String bound = rs.getString(2);
+				partitions.put("MAXVALUE".equals(bound) ? Long.MAX_VALUE : Long.parseLong(bound), rs.getString(1));
+			}
+		}
+		return partitions;
+	}
+
+	/*
+	 * MySQL TO_DAYS of the UTC day of a time. The times are stored as UTC
+	 * DATETIMEs, the connection has serverTimezone=UTC and the bulk loader
+	 * doesn't use the session time zone, so it is the day of the partition.
+	 */
+	static long toDays(long time) {
+		return EPOCH_TO_DAYS + Math.floorDiv(time, Duration.DAILY.getMillis());
+	}
+
+	public interface RequestConsumer {
+		void accept(IPAddress ip, long time);
+	}
+
+	/**
+	 * Stream the requests of a time window ordered by IP and time. The rows are
+	 * read using the unique key (ip, time) and are not kept in memory.
+	 * 
+	 * @param startTime
+	 *            time window start
+	 * @param endTime
+	 *            time window end, or null to read until the last request
+	 * @param consumer
+	 *            request consumer
+	 * @return number of requests read
+	 */
+	public long scanRequests(Date startTime, Date endTime, RequestConsumer consumer) {
+		String sql = "SELECT ip, time FROM log_access WHERE time >= ?" + (endTime != null ? " AND time < ?" : "")
+				+ " ORDER BY ip, time";
+		return HibernateUtil.query(session -> session.doReturningWork(connection -> {
+			try (PreparedStatement stmt = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+					ResultSet.CONCUR_READ_ONLY)) {
+				// MySQL only streams the rows with this fetch size
+				stmt.setFetchSize(isMySQL(connection) ? Integer.MIN_VALUE : FETCH_SIZE);
+				stmt.setTimestamp(1, new Timestamp(startTime.getTime()));
+				if (endTime != null) {
+					stmt.setTimestamp(2, new Timestamp(endTime.getTime()));
+				}
+				long rows = 0;
+				try (ResultSet rs = stmt.executeQuery()) {
+					while (rs.next()) {
+						consumer.accept(IPAddress.of(rs.getBytes(1)), rs.getTimestamp(2).getTime());
+						++rows;
+					}
+				}
+				return rows;
+			}
+		}));
+	}
+
+	/**
+	 * Insert all logs on the current transaction with a JDBC batch of
+	 * <code>INSERT</code>, the portable default. When the batch fails, like on
+	 * a log already registered, the logs are inserted one by one, see
+	 * {@link #insertOneByOne(Connection, List)}.
+	 * 
+	 * @param logs
+	 *            The new logs. The agents should be already persisted.
+	 * @return the inserted logs
+	 */
+	public Inserted insertAll(List<AccessLog> logs) {
+		return HibernateUtil.getSessionFactory().getCurrentSession().doReturningWork(connection -> {
+			List<AccessLog> unique = unique(logs);
+			return withFallback(connection, unique, () -> {
+				try (PreparedStatement stmt = connection.prepareStatement(INSERT_SQL)) {
+					for (AccessLog log : unique) {
+						bind(stmt, 0, log);
+						stmt.addBatch();
+					}
+					stmt.executeBatch();
+				}
+				return unique;
+			});
+		});
+	}
+
+	/**
+	 * Insert all logs on the current transaction, ignoring the logs already
+	 * registered without a constraint violation. On MySQL, the logs are written
+	 * into a staging table by a JDBC batch, then the staged logs that are not
+	 * registered yet are copied as in {@link #loadAll(List)}. Other databases use
+	 * a JDBC batch of <code>MERGE</code>, which counts the inserted rows of each
+	 * log. When the statements fail, the logs are inserted one by one.
+	 * 
+	 * @param logs
+	 *            The new logs. The agents should be already persisted.
+	 * @return the inserted logs
+	 */
+	public Inserted stageAll(List<AccessLog> logs) {
+		return HibernateUtil.getSessionFactory().getCurrentSession()
+				.doReturningWork(connection -> stageAll(connection, logs));
+	}
+
+	/**
+	 * Insert all logs using the database bulk loader on the current transaction.
+	 * On MySQL, the logs are written as tab separated rows and streamed by
+	 * <code>LOAD DATA LOCAL INFILE</code> into a staging table, then the staged
+	 * logs that are not registered yet are copied by a single
+	 * <code>INSERT ... SELECT</code>. The staging table holds exactly the
+	 * inserted logs, so the hourly counters are updated only with them, even if
+	 * a concurrent transaction registered some of the logs. Other databases use
+	 * {@link #stageAll(List)}. When the statements fail, the logs are inserted
+	 * one by one.
+	 * 
+	 * @param logs
+	 *            The new logs. The agents should be already persisted.
+	 * @return the inserted logs
+	 */
+	public Inserted loadAll(List<AccessLog> logs) {
+		return HibernateUtil.getSessionFactory().getCurrentSession().doReturningWork(connection -> {
+			if (!isMySQL(connection)) {
+				return stageAll(connection, logs);
+			}
+			List<AccessLog> staged = unique(logs);
+			return withFallback(connection, staged, () -> {
+				try (Statement stmt = connection.createStatement()) {
+					clearStaging(stmt);
+					stmt.unwrap(com.mysql.cj.api.jdbc.Statement.class)
+							.setLocalInfileInputStream(new ByteArrayInputStream(rows(staged)));
+					stmt.executeUpdate(LOAD_SQL);
+					return insertStaged(stmt, staged);
+				}
+			});
+		});
+	}
+
+	private Inserted stageAll(Connection connection, List<AccessLog> logs) throws SQLException {
+		List<AccessLog> staged = unique(logs);
+		if (!isMySQL(connection)) {
+			return withFallback(connection, staged, () -> merge(connection, staged));
+		}
+		return withFallback(connection, staged, () -> {
+			try (Statement stmt = connection.createStatement()) {
+				clearStaging(stmt);
+				try (PreparedStatement insert = connection.prepareStatement(STAGE_SQL)) {
+					for (AccessLog log : staged) {
+						bind(insert, 0, log);
+						insert.addBatch();
+					}
+					insert.executeBatch();
+				}
+				return insertStaged(stmt, staged);
+			}
+		});
+	}
+
+	private interface ChunkInsert {
+		List<AccessLog> insert() throws SQLException;
+	}
+
+	/*
+	 * Insert the logs of a chunk at once, or one by one if it fails. The
+	 * statements of the failed insert are rolled back to a savepoint.
+	 */
+	private static Inserted withFallback(Connection connection, List<AccessLog> logs, ChunkInsert chunkInsert)
+			throws SQLException {
+		Savepoint savepoint = connection.setSavepoint();
+		try {
+			List<AccessLog> inserted = chunkInsert.insert();
+			connection.releaseSavepoint(savepoint);
+			return new Inserted(inserted, 0);
+		} catch (SQLException e) {
+			connection.rollback(savepoint);
+			LOGGER.debug("Chunk not inserted at once, inserting one by one: {}", e.getMessage());
+			return insertOneByOne(connection, logs);
+		}
+	}
+
+	/**
+	 * Insert the logs one by one, each under a savepoint. A log already
+	 * registered is skipped, and a log the database rejects, like a request
+	 * longer than its column, is logged and skipped, so one bad log does not
+	 * discard the chunk.
+	 * 
+	 * @param logs
+	 *            logs without repeated keys
+	 * @return the inserted logs and the number of rejected ones
+	 */
+	private static Inserted insertOneByOne(Connection connection, List<AccessLog> logs) throws SQLException {
+		List<AccessLog> inserted = new ArrayList<>(logs.size());
+		int rejected = 0;
+		try (PreparedStatement stmt = connection.prepareStatement(INSERT_SQL)) {
+			for (AccessLog log : logs) {
+				Savepoint savepoint = connection.setSavepoint();
+				try {
+					bind(stmt, 0, log);
+					stmt.executeUpdate();
+					connection.releaseSavepoint(savepoint);
+					inserted.add(log);
+				} catch (SQLException e) {
+					connection.rollback(savepoint);
+					if (!isDuplicateKey(e)) {
+						LOGGER.error("Couldn't register {}: {}", log, e.getMessage());
+						++rejected;
+					}
+				}
+			}
+		}
+		return new Inserted(inserted, rejected);
+	}
+
+	private static boolean isDuplicateKey(SQLException e) {
+		return DUPLICATE_KEY_STATE.equals(e.getSQLState()) || e.getErrorCode() == MYSQL_DUPLICATE_KEY;
+	}
+
+	private static void clearStaging(Statement stmt) throws SQLException {
+		stmt.execute(STAGING_SQL);
+		stmt.executeUpdate(CLEAR_STAGING_SQL);
+	}
+
+	/**
+	 * Copy the staged logs that are not registered yet. The registered logs are
+	 * removed from the staging table with a locking read, so the remaining ones
+	 * are inserted by this transaction.
+	 * 
+	 * @param staged
+	 *            the logs in the staging table
+	 * @return the inserted logs
+	 */
+	private static List<AccessLog> insertStaged(Statement stmt, List<AccessLog> staged) throws SQLException {
+		List<AccessLog> inserted = staged;
+		if (stmt.executeUpdate(REMOVE_REGISTERED_SQL) > 0) {
+			Set<Key> keys = new HashSet<>();
+			try (ResultSet rs = stmt.executeQuery(STAGED_SQL)) {
+				while (rs.next()) {
+					keys.add(new Key(IPAddress.of(rs.getBytes(1)), rs.getTimestamp(2).getTime()));
+				}
+			}
+			inserted = staged.stream().filter(log -> keys.contains(new Key(log.getIp(), log.getTime().getTime())))
+					.collect(Collectors.toList());
+		}
+		if (!inserted.isEmpty()) {
+			stmt.executeUpdate(INSERT_STAGED_SQL);
+		}
+		return inserted;
+	}
+
+	/**
+	 * Remove the logs repeated in the list, keeping the first one
+	 */
+	private static List<AccessLog> unique(List<AccessLog> logs) {
+		Set<Key> keys = new HashSet<>(2 * logs.size());
+		List<AccessLog> unique = new ArrayList<>(logs.size());
+		for (AccessLog log : logs) {
+			if (keys.add(new Key(log.getIp(), log.getTime().getTime()))) {
+				unique.add(log);
+			}
+		}
+		return unique;
+	}
+
+	private static List<AccessLog> merge(Connection connection, List<AccessLog> logs) throws SQLException {
+		List<AccessLog> inserted = new ArrayList<>(logs.size());
+		try (PreparedStatement stmt = connection.prepareStatement(MERGE_SQL)) {
+			for (AccessLog log : logs) {
+				bind(stmt, 0, log);
+				stmt.addBatch();
+			}
+			int[] counts = stmt.executeBatch();
+			for (int i = 0; i < counts.length; ++i) {
+				if (counts[i] > 0) {
+					inserted.add(logs.get(i));
+				}
+			}
+		}
+		return inserted;
+	}
+
+	/**
+	 * Logs written by an insert of a chunk
+	 */
+	@Value
+	public static class Inserted {
+		/**
+		 * The inserted logs, without the logs already registered
+		 */
+		List<AccessLog> logs;
+
+		/**
+		 * Number of logs rejected by the database
+		 */
+		int rejected;
+	}
+
+	/**
+	 * Unique key of a log
+	 */
+	@Value
+	private static class Key {
+		IPAddress ip;
+		long time;
+	}
+
+	/**
+	 * Write the logs in the default format of <code>LOAD DATA</code>: fields
+	 * separated by tabs, one row per line, <code>\N</code> for null and special
+	 * characters escaped by backslash.
+	 * 
+	 * @param logs
+	 *            logs
+	 * @return UTF-8 rows
+	 */
+	static byte[] rows(List<AccessLog> logs) {
+		StringBuilder rows = new StringBuilder(logs.size() * 64);
+		for (AccessLog log : logs) {
+			rows.append(log.getTime().getTime()).append('\t');
+			rows.append(log.getIp()).append('\t');
+			escape(rows, log.getRequest()).append('\t');
+			rows.append(log.getResponseCode()).append('\t');
+			if (log.getAgent() != null) {
+				rows.append(log.getAgent().getId());
+			} else {
+				rows.append("\\N");
+			}
+			rows.append('\n');
+		}
+		return rows.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static StringBuilder escape(StringBuilder rows, String value) {
+		for (int i = 0; i < value.length(); ++i) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '\\':
+				rows.append("\\\\");
+				break;
+			case '\t':
+				rows.append("\\t");
+				break;
+			case '\n':
+				rows.append("\\n");
+				break;
+			case '\r':
+				rows.append("\\r");
+				break;
+			case '\0':
+				rows.append("\\0");
+				break;
+			default:
+				rows.append(c);
+			}
+		}
+		return rows;
+	}
+
+	/**
+	 * Bind the columns of a log after a parameter index
+	 * 
+	 * @return the index of the last bound parameter
+	 */
+	private static int bind(PreparedStatement stmt, int index, AccessLog log) throws SQLException {
+		stmt.setTimestamp(++index, new Timestamp(log.getTime().getTime()));
+		stmt.setBytes(++index, log.getIp().toBytes());
+		stmt.setString(++index, log.getRequest());
+		stmt.setInt(++index, log.getResponseCode());
+		if (log.getAgent() != null) {
+			stmt.setLong(++index, log.getAgent().getId());
+		} else {
+			stmt.setNull(++index, Types.BIGINT);
+		}
+		return index;
 	}
 }
@@ -1,7 +1,16 @@
 package com.ef.db;
 
+import java.util.List;
 import java.util.Optional;
 
+import javax.persistence.PersistenceException;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.exception.ConstraintViolationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.ef.db.hibernate.HibernateUtil;
 import com.ef.domain.Agent;
 
@@ -12,6 +21,8 @@ import com.ef.domain.Agent;
  *
  */
 public class AgentRepository extends AbstractRepository {
+	private static Logger LOGGER = LoggerFactory.getLogger(AgentRepository.class);
+
 	/**
 	 * Find agent by description
 	 * 
@@ -20,8 +31,60 @@ public class AgentRepository extends AbstractRepository {
 	 * @return the database agent
 	 */
 	public Optional<Agent> find(String description) {
-		return HibernateUtil.getSessionFactory().getCurrentSession()
-				.createQuery("FROM Agent WHERE description = :desc", Agent.class).setParameter("desc", description)
-				.list().stream().findFirst();
+		return find(HibernateUtil.getSessionFactory().getCurrentSession(), description);
+	}
+
+	private Optional<Agent> find(Session session, String description) {
+		return session.createQuery("FROM Agent WHERE description = :desc", Agent.class)
+				.setParameter("desc", description).list().stream().findFirst();
+	}
+
+	/**
+	 * List agents
+	 * 
+	 * @param limit
+	 *            max number of agents
+	 * @return the database agents
+	 */
+	public List<Agent> list(int limit) {
+		return HibernateUtil.query(session -> session.createQuery("FROM Agent ORDER BY id DESC", Agent.class)
+				.setMaxResults(limit).list());
+	}
+
+	/**
+	 * Find agent by description, inserting it if it does not exist. The agent is
+	 * committed in its own transaction, so it is visible to all other sessions
+	 * when this method returns.
+	 * 
+	 * @param description
+	 *            agent description
+	 * @return the database agent
+	 */
+	public Agent findOrCreate(String description) {
+		try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+			Transaction tx = session.beginTransaction();
+			try {
+				Optional<Agent> agent = find(session, description);
+				if (!agent.isPresent()) {
+					agent = Optional.of(new Agent(description));
+					session.persist(agent.get());
+				}
+				tx.commit();
+				return agent.get();
+			} catch (ConstraintViolationException e) {
+				tx.rollback();
+				LOGGER.debug("Agent created by other session: " + description, e);
+			} catch (PersistenceException e) {
+				tx.rollback();
+				if (!(e.getCause() instanceof ConstraintViolationException)) {
+					throw e;
+				}
+				LOGGER.debug("Agent created by other session: " + description, e);
+			}
+		}
+		try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+			return find(session, description).orElseThrow(
+					() -> new IllegalStateException("Agent not found after constraint violation: " + description));
+		}
 	}
 }
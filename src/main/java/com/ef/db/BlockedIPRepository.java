@@ -1,11 +1,88 @@
 package com.ef.db;
 
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeSet;
+
+import com.ef.db.hibernate.HibernateUtil;
+import com.ef.domain.IPAddress;
+
 /**
  * BlockedIP Repository
- * 
+ *
  * @author victor
  *
  */
 public class BlockedIPRepository extends AbstractRepository {
+	private static final String UPSERT_SQL = "INSERT INTO ip_blocked (ip, window_start, window_end, comments) "
+			+ "VALUES (?, ?, ?, ?) ON DUPLICATE KEY UPDATE comments = VALUES(comments)";
+
+	private static final String MERGE_SQL = "MERGE INTO ip_blocked USING (VALUES (CAST(? AS VARBINARY(16)), "
+			+ "CAST(? AS TIMESTAMP), CAST(? AS TIMESTAMP), CAST(? AS VARCHAR(512)))) "
+			+ "AS added (ip, window_start, window_end, comments) "
+			+ "ON ip_blocked.ip = added.ip AND ip_blocked.window_start = added.window_start "
+			+ "AND ip_blocked.window_end = added.window_end "
+			+ "WHEN MATCHED THEN UPDATE SET ip_blocked.comments = added.comments "
+			+ "WHEN NOT MATCHED THEN INSERT (ip, window_start, window_end, comments) "
+			+ "VALUES (added.ip, added.window_start, added.window_end, added.comments)";
+
+	/**
+	 * Number of rows of each JDBC batch
+	 */
+	private static final int BATCH_SIZE = 1000;
+
+	/**
+	 * Block the IPs of a time window using JDBC batches of upserts on the current
+	 * transaction, <code>MERGE</code> where there is no
+	 * <code>ON DUPLICATE KEY UPDATE</code>. An IP already blocked in the same
+	 * window keeps a single row, so blocking it again changes nothing. The IPs
+	 * are written in order, so concurrent transactions lock them in the same
+	 * order.
+	 *
+	 * @param ips
+	 *            blocked IPs
+	 * @param windowStart
+	 *            time window start
+	 * @param windowEnd
+	 *            time window end
+	 * @param comments
+	 *            reason of the blocking, the same for all IPs
+	 */
+	public void blockAll(List<IPAddress> ips, Date windowStart, Date windowEnd, String comments) {
+		if (ips.isEmpty()) {
+			return;
+		}
+		Timestamp start = new Timestamp(windowStart.getTime());
+		Timestamp end = new Timestamp(windowEnd.getTime());
+		HibernateUtil.getSessionFactory().getCurrentSession().doWork(connection -> {
+			try (PreparedStatement stmt = connection.prepareStatement(isMySQL(connection) ? UPSERT_SQL : MERGE_SQL)) {
+				int rows = 0;
+				for (IPAddress ip : new TreeSet<>(ips)) {
+					stmt.setBytes(1, ip.toBytes());
+					stmt.setTimestamp(2, start);
+					stmt.setTimestamp(3, end);
+					stmt.setString(4, comments);
+					stmt.addBatch();
+					if (++rows % BATCH_SIZE == 0) {
+						stmt.executeBatch();
+					}
+				}
+				if (rows % BATCH_SIZE != 0) {
+					stmt.executeBatch();
+				}
+			}
+		});
+	}
 
+	/**
+	 * Count the rows of the blocked list
+	 *
+	 * @return number of blocked IPs, one for each time window
+	 */
+	public long count() {
+		return HibernateUtil.query(
+				session -> session.createQuery("SELECT COUNT(*) FROM BlockedIP", Long.class).uniqueResult());
+	}
 }
@@ -0,0 +1,109 @@
+package com.ef.db.hibernate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Annotation processor that writes the names of the entity classes into
+ * {@link #INDEX}, so {@link HibernateUtil} does not scan the classpath at
+ * startup.
+ *
+ * <p>
+ * It is compiled before the other classes in <b>pom.xml</b> and registered in
+ * <b>META-INF/services</b>, which is left out of the jar. Nothing is written
+ * if no entity is compiled.
+ * </p>
+ *
+ * <p>
+ * An incremental build compiles only the changed classes, so the entities of
+ * the index written before are kept while they are still entities.
+ * </p>
+ *
+ * @author victor
+ *
+ */
+@SupportedAnnotationTypes("javax.persistence.Entity")
+public class EntityIndexProcessor extends AbstractProcessor {
+
+	/**
+	 * Classpath resource with one entity class name per line
+	 */
+	public static final String INDEX = "META-INF/entity-index";
+
+	private final Set<String> entities = new TreeSet<>();
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (TypeElement annotation : annotations) {
+			for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+				entities.add(processingEnv.getElementUtils().getBinaryName((TypeElement) element).toString());
+			}
+		}
+		if (roundEnv.processingOver() && !entities.isEmpty()) {
+			addIndexed();
+			try {
+				FileObject index = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+				try (Writer writer = index.openWriter()) {
+					for (String entity : entities) {
+						writer.write(entity);
+						writer.write('\n');
+					}
+				}
+			} catch (IOException e) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+						"Couldn't write " + INDEX + ": " + e.getMessage());
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Add the entities of the current index, if there is one
+	 */
+	private void addIndexed() {
+		try {
+			FileObject index = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "", INDEX);
+			try (Reader in = index.openReader(true); BufferedReader reader = new BufferedReader(in)) {
+				String entity;
+				while ((entity = reader.readLine()) != null) {
+					if (!entity.isEmpty() && isEntity(processingEnv.getElementUtils().getTypeElement(entity))) {
+						entities.add(entity);
+					}
+				}
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			// no index yet
+		}
+	}
+
+	private static boolean isEntity(TypeElement element) {
+		if (element != null) {
+			for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+				if (annotation.getAnnotationType().toString().equals("javax.persistence.Entity")) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
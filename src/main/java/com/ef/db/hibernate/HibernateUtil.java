@@ -1,8 +1,21 @@
 package com.ef.db.hibernate;
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 import javax.persistence.Entity;
 
@@ -13,16 +26,26 @@ import org.hibernate.boot.Metadata;
 import org.hibernate.boot.MetadataSources;
 import org.hibernate.boot.registry.StandardServiceRegistry;
 import org.hibernate.boot.registry.StandardServiceRegistryBuilder;
-import org.scannotation.AnnotationDB;
-import org.scannotation.ClasspathUrlFinder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.ef.domain.AccessLog;
-
 /**
  * Hibernate utils
  * 
+ * <p>
+ * The session factory is created once, by the first thread that asks for it,
+ * and is shared by all threads. Each thread has its own current session and
+ * transaction, and the connections come from the c3p0 pool configured in
+ * <b>hibernate.cfg.xml</b>.
+ * </p>
+ * 
+ * <p>
+ * The entities are not scanned: their names are read from the index generated
+ * by {@link EntityIndexProcessor} when the classes are compiled. If the index
+ * is missing or lists a class that doesn't exist, as after a build without the
+ * processor, the package of the entities is scanned instead.
+ * </p>
+ * 
  * @author victor
  *
  */
@@ -30,8 +53,31 @@ public class HibernateUtil {
 
 	private static Logger LOGGER = LoggerFactory.getLogger(HibernateUtil.class);
 
+	private static final String POOL_MAX_SIZE = "hibernate.c3p0.max_size";
+
+	/**
+	 * Package scanned for entities when there is no usable index
+	 */
+	private static final String ENTITY_PACKAGE = "com.ef.domain";
+
 	private static StandardServiceRegistry registry;
-	private static SessionFactory sessionFactory = null;
+	private static volatile SessionFactory sessionFactory = null;
+	private static int minPoolSize = 0;
+
+	/**
+	 * Make the connection pool hold at least some connections, if the configured
+	 * max size is lower. It should be called before the session factory is
+	 * created.
+	 * 
+	 * @param connections
+	 *            number of connections used at the same time
+	 */
+	public static synchronized void requireConnections(int connections) {
+		if (sessionFactory != null) {
+			LOGGER.warn("Session factory already created, pool not resized to {} connections", connections);
+		}
+		minPoolSize = connections;
+	}
 
 	/**
 	 * Create the Session Factory
@@ -39,58 +85,136 @@ public class HibernateUtil {
 	 * @return the active session factory
 	 */
 	public static SessionFactory getSessionFactory() {
-		if (sessionFactory == null) {
-			try {
-				// Create registry
-				registry = new StandardServiceRegistryBuilder().configure().build();
+		SessionFactory factory = sessionFactory;
+		if (factory == null) {
+			synchronized (HibernateUtil.class) {
+				factory = sessionFactory;
+				if (factory == null) {
+					factory = sessionFactory = buildSessionFactory();
+				}
+			}
+		}
+		return factory;
+	}
 
-				// Create MetadataSources
-				MetadataSources sources = new MetadataSources(registry);
+	private static SessionFactory buildSessionFactory() {
+		try {
+			// Create registry
+			StandardServiceRegistryBuilder builder = new StandardServiceRegistryBuilder().configure();
+			Object maxSize = builder.getSettings().get(POOL_MAX_SIZE);
+			if (maxSize != null && Integer.parseInt(maxSize.toString()) < minPoolSize) {
+				LOGGER.info("Connection pool resized to {} connections", minPoolSize);
+				builder.applySetting(POOL_MAX_SIZE, String.valueOf(minPoolSize));
+			}
+			registry = builder.build();
 
-				scanAndAddAnnotatedClasses(sources);
+			// Create MetadataSources
+			MetadataSources sources = new MetadataSources(registry);
 
-				// Create Metadata
-				Metadata metadata = sources.getMetadataBuilder().build();
+			addIndexedClasses(sources);
 
-				// Create SessionFactory
-				sessionFactory = metadata.getSessionFactoryBuilder().build();
+			// Create Metadata
+			Metadata metadata = sources.getMetadataBuilder().build();
 
-			} catch (Exception e) {
-				LOGGER.error("Database error: " + e.getMessage());
-				if (registry != null) {
-					StandardServiceRegistryBuilder.destroy(registry);
-				}
-				throw e;
+			// Create SessionFactory
+			return metadata.getSessionFactoryBuilder().build();
+
+		} catch (Exception e) {
+			LOGGER.error("Database error: " + e.getMessage());
+			if (registry != null) {
+				StandardServiceRegistryBuilder.destroy(registry);
+				registry = null;
 			}
+			throw e;
 		}
-		return sessionFactory;
 	}
 
 	/**
-	 * Scan all entity classes
+	 * Add the entity classes listed in the index written by
+	 * {@link EntityIndexProcessor} at build time, or scanned if the index is
+	 * missing or stale
 	 * 
-	 * @param configuration
+	 * @param sources
 	 */
-	private static void scanAndAddAnnotatedClasses(MetadataSources configuration) {
-		ClassLoader classLoader = AccessLog.class.getClassLoader();
-		URL url = ClasspathUrlFinder.findClassBase(AccessLog.class);
-		try {
-			AnnotationDB db = new AnnotationDB();
-			db.setScanClassAnnotations(true);
-			db.setScanFieldAnnotations(false);
-			db.scanArchives(url);
-			Set<String> annotatedClasses = db.getAnnotationIndex().get(Entity.class.getName());
-			for (String annotatedClass : annotatedClasses) {
-				LOGGER.info("Loading class {} on Hibernate config.", annotatedClass);
-				configuration.addAnnotatedClass(classLoader.loadClass(annotatedClass));
+	private static void addIndexedClasses(MetadataSources sources) {
+		ClassLoader classLoader = HibernateUtil.class.getClassLoader();
+		List<Class<?>> entities = new ArrayList<>();
+		try (InputStream in = classLoader.getResourceAsStream(EntityIndexProcessor.INDEX)) {
+			if (in == null) {
+				LOGGER.warn("Entity index {} not found, scanning {}", EntityIndexProcessor.INDEX, ENTITY_PACKAGE);
+				entities = scanEntities(classLoader);
+			} else {
+				BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+				String entity;
+				while ((entity = reader.readLine()) != null) {
+					if (!entity.isEmpty()) {
+						entities.add(classLoader.loadClass(entity));
+					}
+				}
 			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
 		} catch (ClassNotFoundException e) {
-			throw new RuntimeException(e);
+			LOGGER.warn("Entity index {} is stale, class {} not found, scanning {}", EntityIndexProcessor.INDEX,
+					e.getMessage(), ENTITY_PACKAGE);
+			entities = scanEntities(classLoader);
+		} catch (IOException e) {
+			throw new IllegalStateException("Couldn't read entity index " + EntityIndexProcessor.INDEX, e);
+		}
+		if (entities.isEmpty()) {
+			throw new IllegalStateException("No entity found in " + EntityIndexProcessor.INDEX + " or in package "
+					+ ENTITY_PACKAGE + ", rebuild the parser with mvn clean package");
+		}
+		for (Class<?> entity : entities) {
+			LOGGER.debug("Loading class {} on Hibernate config.", entity.getName());
+			sources.addAnnotatedClass(entity);
 		}
 	}
 
+	/*
+	 * Classes annotated with @Entity in ENTITY_PACKAGE, from a directory or a
+	 * jar of the classpath
+	 */
+	static List<Class<?>> scanEntities(ClassLoader classLoader) {
+		String path = ENTITY_PACKAGE.replace('.', '/') + '/';
+		List<Class<?>> entities = new ArrayList<>();
+		try {
+			Enumeration<URL> roots = classLoader.getResources(path);
+			while (roots.hasMoreElements()) {
+				URL root = roots.nextElement();
+				List<String> names = new ArrayList<>();
+				if ("jar".equals(root.getProtocol())) {
+					// not the cached jar, it is closed after the scan
+					JarURLConnection connection = (JarURLConnection) root.openConnection();
+					connection.setUseCaches(false);
+					try (JarFile jar = connection.getJarFile()) {
+						for (JarEntry entry : Collections.list(jar.entries())) {
+							String name = entry.getName();
+							if (name.startsWith(path) && name.indexOf('/', path.length()) < 0) {
+								names.add(name.substring(path.length()));
+							}
+						}
+					}
+				} else if ("file".equals(root.getProtocol())) {
+					String[] files = new File(root.toURI()).list();
+					if (files != null) {
+						names.addAll(Arrays.asList(files));
+					}
+				}
+				for (String name : names) {
+					if (name.endsWith(".class")) {
+						String className = ENTITY_PACKAGE + '.' + name.substring(0, name.length() - ".class".length());
+						Class<?> type = classLoader.loadClass(className);
+						if (type.isAnnotationPresent(Entity.class)) {
+							entities.add(type);
+						}
+					}
+				}
+			}
+		} catch (IOException | URISyntaxException | ClassNotFoundException e) {
+			throw new IllegalStateException("Couldn't scan package " + ENTITY_PACKAGE + " for entities", e);
+		}
+		return entities;
+	}
+
 	public interface TransactionalFunction<T> {
 		T apply(Session session);
 	}
@@ -114,11 +238,18 @@ public class HibernateUtil {
 	}
 
 	/**
-	 * Shutdown Hibernate
+	 * Shutdown Hibernate, closing the pooled connections. It can be called more
+	 * than once.
 	 */
-	public static void shutdown() {
-		sessionFactory.close();
-		sessionFactory = null;
-		StandardServiceRegistryBuilder.destroy(registry);
+	public static synchronized void shutdown() {
+		if (sessionFactory != null) {
+			try {
+				sessionFactory.close();
+			} finally {
+				sessionFactory = null;
+				StandardServiceRegistryBuilder.destroy(registry);
+				registry = null;
+			}
+		}
 	}
 }
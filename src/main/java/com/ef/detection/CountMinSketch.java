@@ -0,0 +1,141 @@
+package com.ef.detection;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Count-Min Sketch: approximate counts of any number of keys in a fixed
+ * table of <code>depth x width</code> counters.
+ *
+ * <p>
+ * Each key increments one counter of each row and its estimate is the
+ * smallest of them, so it is never below the real count. With probability
+ * <code>1 - delta</code>, it is at most <code>epsilon * total</code> above
+ * it, where <code>total</code> is the number of added keys. The width is
+ * rounded up to a power of two and may be reduced to fit the memory budget,
+ * which raises the error. It can be shared by many threads.
+ * </p>
+ *
+ * @author victor
+ *
+ */
+public class CountMinSketch {
+	private static final int MIN_WIDTH = 64;
+
+	private final int depth;
+
+	private final int width;
+
+	private final AtomicIntegerArray counters;
+
+	private final LongAdder total = new LongAdder();
+
+	/**
+	 * @param epsilon
+	 *            error, as a fraction of the added keys
+	 * @param delta
+	 *            probability of an estimate above the error
+	 * @param maxBytes
+	 *            memory budget of the counters
+	 */
+	public CountMinSketch(double epsilon, double delta, long maxBytes) {
+		if (epsilon <= 0 || epsilon >= 1 || delta <= 0 || delta >= 1) {
+			throw new IllegalArgumentException("Invalid sketch error: epsilon=" + epsilon + " delta=" + delta);
+		}
+		this.depth = (int) Math.ceil(Math.log(1 / delta));
+		int width = Math.max(MIN_WIDTH,
+				Integer.highestOneBit((int) Math.min(1 << 30, Math.ceil(Math.E / epsilon)) - 1) << 1);
+		while (width > MIN_WIDTH
+				&& ((long) depth * width * Integer.BYTES > maxBytes || (long) depth * width > Integer.MAX_VALUE)) {
+			width >>>= 1;
+		}
+		if ((long) depth * width * Integer.BYTES > maxBytes) {
+			throw new IllegalArgumentException("Sketch memory too small: " + maxBytes + " bytes");
+		}
+		this.width = width;
+		this.counters = new AtomicIntegerArray(depth * width);
+	}
+
+	/**
+	 * Count a key
+	 *
+	 * @param key
+	 *            key
+	 * @return the new estimate of the key
+	 */
+	public int add(long key) {
+		total.increment();
+		int estimate = Integer.MAX_VALUE;
+		for (int row = 0; row < depth; ++row) {
+			estimate = Math.min(estimate, counters.incrementAndGet(row * width + column(key, row)));
+		}
+		return estimate;
+	}
+
+	/**
+	 * @param key
+	 *            key
+	 * @return the estimated count, never below the real count
+	 */
+	public int estimate(long key) {
+		int estimate = Integer.MAX_VALUE;
+		for (int row = 0; row < depth; ++row) {
+			estimate = Math.min(estimate, counters.get(row * width + column(key, row)));
+		}
+		return estimate;
+	}
+
+	/**
+	 * @return number of added keys
+	 */
+	public long getTotal() {
+		return total.sum();
+	}
+
+	/**
+	 * @return error of the table size, as a fraction of the added keys
+	 */
+	public double getEpsilon() {
+		return Math.E / width;
+	}
+
+	/**
+	 * @return probability of an estimate above the error
+	 */
+	public double getDelta() {
+		return Math.exp(-depth);
+	}
+
+	/**
+	 * @return the highest expected difference between an estimate and the
+	 *         real count
+	 */
+	public long getErrorBound() {
+		return (long) Math.ceil(getEpsilon() * getTotal());
+	}
+
+	/**
+	 * @return memory of the counters in bytes
+	 */
+	public long getBytes() {
+		return (long) depth * width * Integer.BYTES;
+	}
+
+	/*
+	 * One independent hash for each row: the key mixed with a seed of the row
+	 * (finalizer of MurmurHash3)
+	 */
+	private int column(long key, int row) {
+		long hash = key + (row + 1) * 0x9E3779B97F4A7C15L;
+		hash = (hash ^ (hash >>> 33)) * 0xff51afd7ed558ccdL;
+		hash = (hash ^ (hash >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return (int) hash & (width - 1);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("CountMinSketch[depth=%d, width=%d, bytes=%d, epsilon=%.2g, delta=%.2g]", depth, width,
+				getBytes(), getEpsilon(), getDelta());
+	}
+}
@@ -0,0 +1,174 @@
+package com.ef.detection;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ef.utils.IPUtils;
+
+/**
+ * Find the IPs with more requests than a threshold inside a time window in a
+ * fixed amount of memory.
+ *
+ * <p>
+ * The requests are counted by a {@link CountMinSketch}, and the IPs whose
+ * estimate reaches the threshold are kept as candidates, at most a number of
+ * them. When the candidates are full, the one with the smallest estimate is
+ * replaced by a new IP with a larger estimate. The memory does not grow with
+ * the distinct IPs, unlike {@link HitCounter}. As the estimates are never below
+ * the real counts, no IP over the threshold is missed while the candidates are
+ * not full, but an IP may be a false positive and, unlike the database, a
+ * request with the same IP and time of other request is counted twice. The
+ * candidates should be verified with the exact counts when it matters. It can
+ * be shared by many threads.
+ * </p>
+ *
+ * @author victor
+ *
+ */
+public class HeavyHitters {
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	private final long start;
+
+	private final long end;
+
+	private final int threshold;
+
+	private final int capacity;
+
+	private final CountMinSketch sketch;
+
+	/**
+	 * Candidate IPs
+	 */
+	private final Map<Integer, Boolean> candidates = new ConcurrentHashMap<>();
+
+	/**
+	 * Candidates by estimate, see {@link #entry(int, int)}. The estimates only
+	 * grow, so an entry may be older than the sketch.
+	 */
+	private final PriorityQueue<Long> smallest = new PriorityQueue<>();
+
+	private long evicted;
+
+	/**
+	 * @param startDate
+	 *            window start (inclusive)
+	 * @param endDate
+	 *            window end (exclusive)
+	 * @param threshold
+	 *            The minimum request for blocking
+	 * @param sketch
+	 *            request counts
+	 * @param capacity
+	 *            max number of candidates
+	 */
+	public HeavyHitters(Date startDate, Date endDate, int threshold, CountMinSketch sketch, int capacity) {
+		this.start = startDate.getTime();
+		this.end = endDate.getTime();
+		this.threshold = threshold;
+		this.sketch = sketch;
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Count a request
+	 *
+	 * @param ip
+	 *            IPv4 address
+	 * @param time
+	 *            epoch milliseconds
+	 * @return false if the request is outside the window
+	 */
+	public boolean add(int ip, long time) {
+		if (time < start || time >= end) {
+			return false;
+		}
+		int estimate = sketch.add(ip & 0xffffffffL);
+		if (estimate >= threshold && !candidates.containsKey(ip)) {
+			offer(ip, estimate);
+		}
+		return true;
+	}
+
+	private synchronized void offer(int ip, int estimate) {
+		if (candidates.containsKey(ip)) {
+			return;
+		} else if (candidates.size() < capacity) {
+			candidates.put(ip, Boolean.TRUE);
+			smallest.add(entry(ip, estimate));
+			return;
+		}
+		long head;
+		int current;
+		while ((current = sketch.estimate((head = smallest.peek()) & 0xffffffffL)) > (int) (head >>> 32)) {
+			smallest.poll();
+			smallest.add(entry((int) head, current));
+		}
+		if (estimate > current) {
+			smallest.poll();
+			candidates.remove((int) head);
+			candidates.put(ip, Boolean.TRUE);
+			smallest.add(entry(ip, estimate));
+			++evicted;
+		}
+	}
+
+	/**
+	 * @return the candidates in numeric order
+	 */
+	public synchronized int[] getCandidates() {
+		int[] ips = candidates.keySet().stream().mapToInt(Integer::intValue).toArray();
+		IPUtils.sortIPv4(ips);
+		return ips;
+	}
+
+	/**
+	 * @param ip
+	 *            IPv4 address
+	 * @return the estimated requests of the IP, never below the real count
+	 */
+	public int estimate(int ip) {
+		return sketch.estimate(ip & 0xffffffffL);
+	}
+
+	/**
+	 * @return number of candidates replaced by others, if not zero some IPs over
+	 *         the threshold may be missed
+	 */
+	public synchronized long getEvicted() {
+		return evicted;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public CountMinSketch getSketch() {
+		return sketch;
+	}
+
+	public Date getStartDate() {
+		return new Date(start);
+	}
+
+	public Date getEndDate() {
+		return new Date(end);
+	}
+
+	/*
+	 * Heap entry: the estimate in the high word, so the smallest estimate is
+	 * the head, and the IP in the low word
+	 */
+	private static long entry(int ip, int estimate) {
+		return ((long) estimate << 32) | (ip & 0xffffffffL);
+	}
+
+	@Override
+	public String toString() {
+		return "HeavyHitters[candidates=" + candidates.size() + ", evicted=" + getEvicted() + ", errorBound="
+				+ sketch.getErrorBound() + ", " + sketch + "]";
+	}
+}
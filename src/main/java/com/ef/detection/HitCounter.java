@@ -0,0 +1,169 @@
+package com.ef.detection;
+
+import java.util.Date;
+
+import com.ef.utils.IntIntHashMap;
+import com.ef.utils.LongIntHashMap;
+
+/**
+ * Count the requests of each IP inside a time span, per hour.
+ * 
+ * <p>
+ * The hits are kept in a map keyed by IP and hour, so the memory used grows
+ * with the distinct IPs of each hour, not with the number of requests, and any
+ * window made of whole hours from the span start can be evaluated without
+ * reading the file again. A line repeated with the same IP and time is
+ * counted each time, so the hits are an upper bound of the rows of the
+ * database, whose unique key holds it once. It is not thread safe, each
+ * worker should use its own counter and merge it.
+ * </p>
+ * 
+ * @author victor
+ *
+ */
+public class HitCounter {
+	public static final long BUCKET_MILLIS = 60 * 60 * 1000L;
+
+	/**
+	 * Longest span, the hour of each counter is an <code>int</code>
+	 */
+	public static final long MAX_SPAN = Integer.MAX_VALUE * BUCKET_MILLIS;
+
+	private final long start;
+
+	private final long end;
+
+	/**
+	 * Hits by IP and hour
+	 */
+	private final LongIntHashMap buckets = new LongIntHashMap();
+
+	private long requests;
+
+	/**
+	 * @param startDate
+	 *            span start (inclusive)
+	 * @param endDate
+	 *            span end (exclusive)
+	 */
+	public HitCounter(Date startDate, Date endDate) {
+		this.start = startDate.getTime();
+		this.end = endDate.getTime();
+		if (end - start > MAX_SPAN) {
+			throw new IllegalArgumentException("Time span too long: " + startDate + " to " + endDate);
+		}
+	}
+
+	/**
+	 * Count a request
+	 * 
+	 * @param ip
+	 *            IPv4 address
+	 * @param time
+	 *            epoch milliseconds
+	 * @return true if the request was counted, false if it is outside the span
+	 */
+	public boolean add(int ip, long time) {
+		return add(ip, time, 1);
+	}
+
+	/**
+	 * Count many requests of the same hour, like an hourly counter of the
+	 * database
+	 * 
+	 * @param ip
+	 *            IPv4 address
+	 * @param time
+	 *            epoch milliseconds
+	 * @param hits
+	 *            number of requests
+	 * @return true if the requests were counted, false if they are outside the
+	 *         span
+	 */
+	public boolean add(int ip, long time, int hits) {
+		if (time < start || time >= end) {
+			return false;
+		}
+		buckets.add(((long) ip << 32) | ((time - start) / BUCKET_MILLIS), hits);
+		requests += hits;
+		return true;
+	}
+
+	/**
+	 * Add the requests of other counter of the same span
+	 * 
+	 * @param other
+	 *            other counter
+	 */
+	public void merge(HitCounter other) {
+		buckets.addAll(other.buckets);
+		requests += other.requests;
+	}
+
+	/**
+	 * @return number of counted requests
+	 */
+	public long size() {
+		return requests;
+	}
+
+	/**
+	 * @return number of counters, one for each IP and hour
+	 */
+	public int buckets() {
+		return buckets.size();
+	}
+
+	/**
+	 * Hits of each IP in the span
+	 * 
+	 * @return hits by IPv4 address
+	 */
+	public IntIntHashMap totals() {
+		IntIntHashMap totals = new IntIntHashMap();
+		buckets.forEach((key, hits) -> totals.add(ip(key), hits));
+		return totals;
+	}
+
+	/**
+	 * Hits of each IP in windows of whole hours
+	 * 
+	 * @param hours
+	 *            window size in hours
+	 * @return hits by window key, see {@link #ip(long)} and {@link #window(long)}
+	 */
+	public LongIntHashMap windows(int hours) {
+		if (hours == 1) {
+			return buckets;
+		}
+		LongIntHashMap windows = new LongIntHashMap();
+		buckets.forEach((key, hits) -> windows.add(((long) ip(key) << 32) | (window(key) / hours), hits));
+		return windows;
+	}
+
+	public Date getStartDate() {
+		return new Date(start);
+	}
+
+	public Date getEndDate() {
+		return new Date(end);
+	}
+
+	/**
+	 * @param key
+	 *            window key
+	 * @return the IPv4 address
+	 */
+	public static int ip(long key) {
+		return (int) (key >>> 32);
+	}
+
+	/**
+	 * @param key
+	 *            window key
+	 * @return the window index from the span start
+	 */
+	public static int window(long key) {
+		return (int) key;
+	}
+}
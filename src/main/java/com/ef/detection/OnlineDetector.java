@@ -0,0 +1,227 @@
+package com.ef.detection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import com.ef.params.Rule;
+import com.ef.utils.IPUtils;
+import com.ef.utils.IntIntHashMap;
+
+/**
+ * Count the requests of each IP in the active windows of many rules while the
+ * lines are read, reporting an IP the moment it reaches the threshold of a
+ * window, once per window.
+ *
+ * <p>
+ * The windows of each rule are aligned with the origin. The counters of each
+ * rule are kept in a timing wheel: a slot for each active window, reused when
+ * the window expires. A window expires when the newest request read is later
+ * than the window end plus the allowed lateness, so the memory used depends on
+ * the IPs of the active windows, not on the length of the log. Requests of an
+ * expired window are ignored. As the lines are counted when they are read, a
+ * duplicated line is counted twice.
+ * </p>
+ *
+ * <p>
+ * The counters are only in memory. After a restart,
+ * {@link #seed(long, WindowCounts)} restores the windows still active from the
+ * requests already counted, so the requests read before are not lost.
+ * </p>
+ *
+ * <p>
+ * It is thread safe.
+ * </p>
+ *
+ * @author victor
+ *
+ */
+public class OnlineDetector {
+	public interface WindowCounts {
+		/**
+		 * @return requests of each IPv4 address in the window
+		 */
+		IntIntHashMap count(Date startDate, Date endDate);
+	}
+
+	private final long origin;
+
+	private final long end;
+
+	private final List<Wheel> wheels = new ArrayList<>();
+
+	private long late;
+
+	/**
+	 * @param origin
+	 *            start of the first window of each rule
+	 * @param end
+	 *            time of the last counted request (exclusive), or null for no
+	 *            limit
+	 * @param rules
+	 *            blocking rules
+	 * @param lateness
+	 *            time a window is kept after its end, for requests read out of
+	 *            order
+	 */
+	public OnlineDetector(Date origin, Date end, List<Rule> rules, long lateness) {
+		this.origin = origin.getTime();
+		this.end = end != null ? end.getTime() : Long.MAX_VALUE;
+		for (Rule rule : rules) {
+			wheels.add(new Wheel(rule, lateness));
+		}
+	}
+
+	/**
+	 * Count a request
+	 *
+	 * @param ip
+	 *            IPv4 address
+	 * @param time
+	 *            epoch milliseconds
+	 * @return the violations of the windows where the IP reached the threshold
+	 *         with this request, usually none
+	 */
+	public List<RuleViolation> add(int ip, long time) {
+		if (time < origin || time >= end) {
+			return Collections.emptyList();
+		}
+		List<RuleViolation> violations = null;
+		for (Wheel wheel : wheels) {
+			RuleViolation violation = wheel.add(ip, time);
+			if (violation != null) {
+				if (violations == null) {
+					violations = new ArrayList<>(1);
+				}
+				violations.add(violation);
+			}
+		}
+		return violations != null ? violations : Collections.emptyList();
+	}
+
+	/**
+	 * Restore the counters of the windows still active after the newest
+	 * request already counted, and expire the older ones. It should be called
+	 * before any {@link #add(int, long)}.
+	 *
+	 * @param newest
+	 *            time of the newest request already counted
+	 * @param counts
+	 *            source of the requests already counted in each window
+	 * @return the violations of the restored windows, for the IPs that already
+	 *         reached the threshold
+	 */
+	public List<RuleViolation> seed(long newest, WindowCounts counts) {
+		List<RuleViolation> violations = new ArrayList<>();
+		if (newest < origin) {
+			return violations;
+		}
+		for (Wheel wheel : wheels) {
+			wheel.seed(Math.min(newest, end - 1), counts, violations);
+		}
+		return violations;
+	}
+
+	/**
+	 * @return requests ignored because their window had expired
+	 */
+	public synchronized long getLate() {
+		return late;
+	}
+
+	private synchronized void late() {
+		++late;
+	}
+
+	/**
+	 * Counters of the active windows of a rule
+	 */
+	private class Wheel {
+		private final long duration;
+
+		private final int threshold;
+
+		private final long lateness;
+
+		private final IntIntHashMap[] counters;
+
+		/**
+		 * Window of each slot, -1 if the slot is free
+		 */
+		private final long[] windows;
+
+		/**
+		 * Windows before this one are expired
+		 */
+		private long expiredBefore;
+
+		private Wheel(Rule rule, long lateness) {
+			this.duration = rule.getDuration().getMillis();
+			this.threshold = rule.getThreshold();
+			this.lateness = lateness;
+			// the windows of the lateness, the window of the newest request and the next one
+			int slots = (int) Math.min(Integer.MAX_VALUE - 1, lateness / duration) + 2;
+			if (end != Long.MAX_VALUE) {
+				slots = (int) Math.min(slots, (end - origin + duration - 1) / duration);
+			}
+			this.counters = new IntIntHashMap[Math.max(1, slots)];
+			this.windows = new long[counters.length];
+			Arrays.fill(windows, -1);
+		}
+
+		private synchronized RuleViolation add(int ip, long time) {
+			long window = (time - origin) / duration;
+			long expired = (time - origin - lateness) / duration;
+			if (expired > expiredBefore) {
+				expiredBefore = expired;
+				expire();
+			}
+			if (window < expiredBefore) {
+				late();
+				return null;
+			}
+			int slot = (int) (window % counters.length);
+			if (windows[slot] != window) {
+				// the wheel is sized so a slot is only reused after its window expired
+				windows[slot] = window;
+				counters[slot] = new IntIntHashMap();
+			}
+			if (counters[slot].add(ip, 1) != threshold) {
+				return null;
+			}
+			long start = origin + window * duration;
+			return new RuleViolation(new Date(start), new Date(start + duration), threshold,
+					Collections.singletonList(IPUtils.formatIPv4(ip)));
+		}
+
+		private synchronized void seed(long newest, WindowCounts counts, List<RuleViolation> violations) {
+			expiredBefore = Math.max(0, (newest - origin - lateness) / duration);
+			// with a few slots, the first windows would be expired by the newest one
+			long first = Math.max(expiredBefore, (newest - origin) / duration - counters.length + 1);
+			for (long window = first; window <= (newest - origin) / duration; ++window) {
+				long start = origin + window * duration;
+				IntIntHashMap counter = counts.count(new Date(start), new Date(Math.min(start + duration, end)));
+				int slot = (int) (window % counters.length);
+				windows[slot] = window;
+				counters[slot] = counter;
+				int[] blocked = counter.keysWithValueAtLeast(threshold);
+				IPUtils.sortIPv4(blocked);
+				for (int ip : blocked) {
+					violations.add(new RuleViolation(new Date(start), new Date(start + duration), threshold,
+							Collections.singletonList(IPUtils.formatIPv4(ip))));
+				}
+			}
+		}
+
+		private void expire() {
+			for (int slot = 0; slot < windows.length; ++slot) {
+				if (windows[slot] >= 0 && windows[slot] < expiredBefore) {
+					windows[slot] = -1;
+					counters[slot] = null;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package com.ef.detection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.ef.utils.IPUtils;
+import com.ef.utils.IntIntHashMap;
+
+/**
+ * Times of the requests of a few IPs, the candidates of an exact check after
+ * the hourly counts of a {@link HitCounter}. The memory used grows with the
+ * requests of the candidates only. It is not thread safe, each worker should
+ * use its own and merge it.
+ *
+ * @author victor
+ *
+ */
+public class RequestTimes {
+	public interface TimesConsumer {
+		void accept(int ip, long[] times, int size);
+	}
+
+	/**
+	 * Position of the times of each IP, plus one
+	 */
+	private final IntIntHashMap positions = new IntIntHashMap();
+
+	private final List<long[]> times = new ArrayList<>();
+
+	private final List<Integer> ips = new ArrayList<>();
+
+	private int[] sizes = new int[16];
+
+	/**
+	 * Add a request
+	 *
+	 * @param ip
+	 *            IPv4 address
+	 * @param time
+	 *            epoch milliseconds
+	 */
+	public void add(int ip, long time) {
+		int position = positions.get(ip) - 1;
+		if (position < 0) {
+			position = times.size();
+			positions.add(ip, position + 1);
+			times.add(new long[16]);
+			ips.add(ip);
+			if (position == sizes.length) {
+				sizes = Arrays.copyOf(sizes, 2 * sizes.length);
+			}
+		}
+		long[] ipTimes = times.get(position);
+		if (sizes[position] == ipTimes.length) {
+			ipTimes = Arrays.copyOf(ipTimes, 2 * ipTimes.length);
+			times.set(position, ipTimes);
+		}
+		ipTimes[sizes[position]++] = time;
+	}
+
+	/**
+	 * Add the requests of other instance
+	 *
+	 * @param other
+	 *            other request times
+	 */
+	public void merge(RequestTimes other) {
+		for (int position = 0; position < other.times.size(); ++position) {
+			int ip = other.ips.get(position);
+			long[] otherTimes = other.times.get(position);
+			for (int i = 0; i < other.sizes[position]; ++i) {
+				add(ip, otherTimes[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return number of IPs
+	 */
+	public int size() {
+		return times.size();
+	}
+
+	/**
+	 * Visit the times of each IP, in numeric order of the IPs. The times are
+	 * sorted and, as the unique key of the database, a request with the same IP
+	 * and time of other request is visited once.
+	 *
+	 * @param consumer
+	 *            consumer of the first <code>size</code> times of the array
+	 */
+	public void forEachOrdered(TimesConsumer consumer) {
+		int[] ordered = new int[ips.size()];
+		for (int i = 0; i < ordered.length; ++i) {
+			ordered[i] = ips.get(i);
+		}
+		IPUtils.sortIPv4(ordered);
+		for (int ip : ordered) {
+			int position = positions.get(ip) - 1;
+			long[] ipTimes = times.get(position);
+			Arrays.sort(ipTimes, 0, sizes[position]);
+			int size = 0;
+			for (int i = 0; i < sizes[position]; ++i) {
+				if (i == 0 || ipTimes[i] != ipTimes[size - 1]) {
+					ipTimes[size++] = ipTimes[i];
+				}
+			}
+			sizes[position] = size;
+			consumer.accept(ip, ipTimes, size);
+		}
+	}
+}
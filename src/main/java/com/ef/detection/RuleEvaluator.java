@@ -0,0 +1,100 @@
+package com.ef.detection;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.ef.params.Rule;
+import com.ef.utils.IPUtils;
+import com.ef.utils.IntIntHashMap;
+
+/**
+ * Evaluate many rules over the hourly hits of a {@link HitCounter}.
+ * 
+ * <p>
+ * Each rule is checked in every window of its duration inside the counter
+ * span, starting at the span start. For example, with a daily span,
+ * <code>hourly:200</code> checks the 24 hours of the day and
+ * <code>daily:500</code> checks the whole day.
+ * </p>
+ * 
+ * @author victor
+ *
+ */
+public class RuleEvaluator {
+
+	/**
+	 * Find the IPs over the threshold in the whole counter span
+	 * 
+	 * @param counter
+	 *            request counts
+	 * @param threshold
+	 *            The minimum request for blocking
+	 * @return blocked IPs in numeric order
+	 */
+	public static List<String> blockedIPs(HitCounter counter, int threshold) {
+		int[] blocked = counter.totals().keysWithValueAtLeast(threshold);
+		IPUtils.sortIPv4(blocked);
+		List<String> ips = new ArrayList<>(blocked.length);
+		for (int ip : blocked) {
+			ips.add(IPUtils.formatIPv4(ip));
+		}
+		return ips;
+	}
+
+	/**
+	 * Find the IPs over the threshold of any rule
+	 * 
+	 * @param counter
+	 *            request counts
+	 * @param rules
+	 *            blocking rules
+	 * @return the IPs of every violation, in no order
+	 */
+	public static int[] blockedIPs(HitCounter counter, List<Rule> rules) {
+		IntIntHashMap blocked = new IntIntHashMap();
+		for (Rule rule : rules) {
+			int hours = (int) (rule.getDuration().getMillis() / HitCounter.BUCKET_MILLIS);
+			for (long key : counter.windows(hours).keysWithValueAtLeast(rule.getThreshold())) {
+				blocked.add(HitCounter.ip(key), 1);
+			}
+		}
+		return blocked.keysWithValueAtLeast(1);
+	}
+
+	/**
+	 * Find the violations of all rules
+	 * 
+	 * @param counter
+	 *            request counts
+	 * @param rules
+	 *            blocking rules
+	 * @return one violation for each window with blocked IPs
+	 */
+	public static List<RuleViolation> evaluate(HitCounter counter, List<Rule> rules) {
+		List<RuleViolation> violations = new ArrayList<>();
+		long start = counter.getStartDate().getTime();
+		for (Rule rule : rules) {
+			long duration = rule.getDuration().getMillis();
+			Map<Integer, List<Integer>> blocked = new TreeMap<>();
+			for (long key : counter.windows((int) (duration / HitCounter.BUCKET_MILLIS))
+					.keysWithValueAtLeast(rule.getThreshold())) {
+				blocked.computeIfAbsent(HitCounter.window(key), window -> new ArrayList<>()).add(HitCounter.ip(key));
+			}
+			blocked.forEach((window, ips) -> {
+				int[] sorted = ips.stream().mapToInt(Integer::intValue).toArray();
+				IPUtils.sortIPv4(sorted);
+				List<String> texts = new ArrayList<>(sorted.length);
+				for (int ip : sorted) {
+					texts.add(IPUtils.formatIPv4(ip));
+				}
+				Date windowStart = new Date(start + window * duration);
+				violations.add(new RuleViolation(windowStart, new Date(windowStart.getTime() + duration),
+						rule.getThreshold(), texts));
+			});
+		}
+		return violations;
+	}
+}
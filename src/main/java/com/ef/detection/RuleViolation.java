@@ -0,0 +1,23 @@
+package com.ef.detection;
+
+import java.util.Date;
+import java.util.List;
+
+import lombok.Value;
+
+/**
+ * IPs that exceeded the threshold of a time window
+ * 
+ * @author victor
+ *
+ */
+@Value
+public class RuleViolation {
+	private Date startDate;
+
+	private Date endDate;
+
+	private int threshold;
+
+	private List<String> ips;
+}
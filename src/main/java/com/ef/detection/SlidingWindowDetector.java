@@ -0,0 +1,179 @@
+package com.ef.detection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import com.ef.utils.IPUtils;
+import com.ef.utils.LongIntHashMap;
+
+/**
+ * Detect a request rate above a threshold in any rolling window, not only in
+ * the windows aligned with the start date.
+ *
+ * <p>
+ * The requests are checked ordered by IP and time, so only the last
+ * <code>threshold</code> times of the current IP are kept in a ring buffer:
+ * the threshold is reached when the oldest of them is inside the window of the
+ * newest. The memory used does not depend on the number of requests. It is
+ * not thread safe.
+ * </p>
+ *
+ * <p>
+ * Without an ordered source, the hourly counts of a {@link HitCounter} find
+ * the candidates first: a rolling window of <code>n</code> hours lies inside
+ * <code>n + 1</code> consecutive hours, so an IP with fewer requests in every
+ * run of <code>n + 1</code> hours cannot reach the threshold. Only the
+ * requests of the candidates are kept, in {@link RequestTimes}, and checked
+ * ordered.
+ * </p>
+ *
+ * @author victor
+ *
+ */
+public class SlidingWindowDetector {
+	/**
+	 * End of the checked requests when the windows go until the last request,
+	 * 9999-12-31 23:59:59.999 UTC: the access log timestamps have four digit
+	 * years
+	 */
+	public static final long END_OF_LOG = 253402300799999L;
+
+	private final long windowMillis;
+
+	private final long[] times;
+
+	private boolean flagged;
+
+	private int count;
+
+	private int next;
+
+	/**
+	 * @param windowMillis
+	 *            window length in milliseconds
+	 * @param threshold
+	 *            The minimum request for blocking
+	 */
+	public SlidingWindowDetector(long windowMillis, int threshold) {
+		if (threshold < 1) {
+			throw new IllegalArgumentException("Invalid threshold: " + threshold);
+		}
+		this.windowMillis = windowMillis;
+		this.times = new long[threshold];
+	}
+
+	/**
+	 * Find the IPs that may be over the threshold in a rolling window
+	 *
+	 * @param counter
+	 *            hourly request counts
+	 * @param windowMillis
+	 *            window length in milliseconds, a multiple of
+	 *            {@link HitCounter#BUCKET_MILLIS}
+	 * @param threshold
+	 *            The minimum request for blocking
+	 * @return the candidates, the IPs with at least threshold requests in
+	 *         consecutive hours that hold a window
+	 */
+	public static int[] candidates(HitCounter counter, long windowMillis, int threshold) {
+		int hours = (int) (windowMillis / HitCounter.BUCKET_MILLIS);
+		// the IP is the high word of the key, so the hours of each IP are consecutive and ordered
+		long[] keys = counter.windows(1).keysWithValueAtLeast(1);
+		Arrays.sort(keys);
+		LongIntHashMap hits = counter.windows(1);
+		int[] candidates = new int[keys.length];
+		int count = 0;
+		int first = 0;
+		long sum = 0;
+		for (int i = 0; i < keys.length; ++i) {
+			int ip = HitCounter.ip(keys[i]);
+			if (i > 0 && ip != HitCounter.ip(keys[i - 1])) {
+				first = i;
+				sum = 0;
+			}
+			sum += hits.get(keys[i]);
+			while (HitCounter.window(keys[i]) - HitCounter.window(keys[first]) > hours) {
+				sum -= hits.get(keys[first++]);
+			}
+			if (sum >= threshold && (count == 0 || candidates[count - 1] != ip)) {
+				candidates[count++] = ip;
+			}
+		}
+		return Arrays.copyOf(candidates, count);
+	}
+
+	/**
+	 * Find the IPs over the threshold in any rolling window
+	 *
+	 * @param times
+	 *            request times of the candidates
+	 * @param windowMillis
+	 *            window length in milliseconds
+	 * @param threshold
+	 *            The minimum request for blocking
+	 * @return one violation for each IP in numeric order, with its first window
+	 *         over the threshold
+	 */
+	public static List<RuleViolation> evaluate(RequestTimes times, long windowMillis, int threshold) {
+		SlidingWindowDetector detector = new SlidingWindowDetector(windowMillis, threshold);
+		List<RuleViolation> violations = new ArrayList<>();
+		times.forEachOrdered((ip, ipTimes, size) -> {
+			detector.reset();
+			for (int i = 0; i < size; ++i) {
+				if (detector.add(ipTimes[i])) {
+					violations.add(detector.violation(IPUtils.formatIPv4(ip)));
+					break;
+				}
+			}
+		});
+		return violations;
+	}
+
+	/**
+	 * Forget the requests of the current IP, before the requests of the next
+	 * one
+	 */
+	public void reset() {
+		flagged = false;
+		count = 0;
+		next = 0;
+	}
+
+	/**
+	 * Check a request of the current IP. The requests should be ordered by
+	 * time, and {@link #reset()} called before the requests of each IP.
+	 *
+	 * @param time
+	 *            epoch milliseconds
+	 * @return true if the IP reached the threshold now, it is reported once
+	 */
+	public boolean add(long time) {
+		if (flagged) {
+			return false;
+		}
+		times[next] = time;
+		next = (next + 1) % times.length;
+		if (count < times.length) {
+			++count;
+		}
+		// after a full turn, next is the oldest request of the buffer
+		flagged = count == times.length && time - times[next] < windowMillis;
+		return flagged;
+	}
+
+	/**
+	 * The violation of the IP flagged by the last {@link #add(long)}
+	 *
+	 * @param ip
+	 *            IP text
+	 * @return violation with the window that starts at the oldest request
+	 */
+	public RuleViolation violation(String ip) {
+		long start = times[next];
+		return new RuleViolation(new Date(start), new Date(start + windowMillis), times.length,
+				Collections.singletonList(ip));
+	}
+}
@@ -3,10 +3,14 @@ package com.ef.domain;
 import java.util.Date;
 
 import javax.persistence.Column;
+import javax.persistence.ConstraintMode;
+import javax.persistence.Convert;
 import javax.persistence.Entity;
+import javax.persistence.ForeignKey;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
@@ -29,7 +33,8 @@ import lombok.RequiredArgsConstructor;
 @NoArgsConstructor
 @AllArgsConstructor
 @RequiredArgsConstructor
-@Table(name = "log_access", uniqueConstraints = { @UniqueConstraint(columnNames = { "time", "ip" }) })
+@Table(name = "log_access", uniqueConstraints = {
+		@UniqueConstraint(columnNames = { "time", "ip" }) }, indexes = { @Index(columnList = "time, ip") })
 public class AccessLog {
 	@Id
 	@GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -39,7 +44,9 @@ public class AccessLog {
 	private Date time;
 
 	@NonNull
-	private String ip;
+	@Convert(converter = IPAddressConverter.class)
+	@Column(length = 16, columnDefinition = "VARBINARY(16)")
+	private IPAddress ip;
 
 	@NonNull
 	private String request;
@@ -48,7 +55,10 @@ public class AccessLog {
 	@Column(name = "response_code")
 	private Integer responseCode;
 
+	/**
+	 * Partitioned tables have no foreign keys
+	 */
 	@ManyToOne
-	@JoinColumn(name = "agent_id")
+	@JoinColumn(name = "agent_id", foreignKey = @ForeignKey(ConstraintMode.NO_CONSTRAINT))
 	private Agent agent;
 }
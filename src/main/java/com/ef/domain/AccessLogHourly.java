@@ -0,0 +1,54 @@
+package com.ef.domain;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Table;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Number of requests of an IP in an hour, kept while the access log is
+ * registered
+ * 
+ * @author victor
+ *
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@IdClass(AccessLogHourly.Key.class)
+@Table(name = "log_access_hourly")
+public class AccessLogHourly {
+	@Id
+	@Convert(converter = IPAddressConverter.class)
+	@Column(length = 16, columnDefinition = "VARBINARY(16)")
+	private IPAddress ip;
+
+	/**
+	 * Start of the hour
+	 */
+	@Id
+	private Date hour;
+
+	private long hits;
+
+	@Data
+	@NoArgsConstructor
+	@AllArgsConstructor
+	public static class Key implements Serializable {
+		private static final long serialVersionUID = 2620378446025839522L;
+
+		private IPAddress ip;
+
+		private Date hour;
+	}
+}
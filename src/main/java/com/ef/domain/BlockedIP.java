@@ -1,10 +1,15 @@
 package com.ef.domain;
 
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
 
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -12,7 +17,7 @@ import lombok.NonNull;
 import lombok.RequiredArgsConstructor;
 
 /**
- * Blocked IP
+ * Blocked IP. An IP is blocked once for each time window.
  * 
  * @author victor
  *
@@ -21,14 +26,25 @@ import lombok.RequiredArgsConstructor;
 @Data
 @NoArgsConstructor
 @RequiredArgsConstructor
-@Table(name = "ip_blocked")
+@Table(name = "ip_blocked", uniqueConstraints = {
+		@UniqueConstraint(columnNames = { "ip", "window_start", "window_end" }) })
 public class BlockedIP {
 	@Id
 	@GeneratedValue(strategy = GenerationType.IDENTITY)
 	private Long id;
 
 	@NonNull
-	private String ip;
+	@Convert(converter = IPAddressConverter.class)
+	@Column(length = 16, columnDefinition = "VARBINARY(16)")
+	private IPAddress ip;
+
+	@NonNull
+	@Column(name = "window_start")
+	private Date windowStart;
+
+	@NonNull
+	@Column(name = "window_end")
+	private Date windowEnd;
 
 	@NonNull
 	private String comments;
@@ -0,0 +1,122 @@
+package com.ef.domain;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import com.ef.utils.IPUtils;
+
+/**
+ * IP address of the database columns, kept as the bytes of the address in the
+ * encoding of MySQL <code>INET6_ATON</code>. The text is only created for
+ * output. The parser and the counters handle IPv4 only, so the 16 bytes of an
+ * IPv6 address are only read from a column, never parsed from a log line.
+ * 
+ * @author victor
+ *
+ */
+public final class IPAddress implements Comparable<IPAddress>, Serializable {
+	private static final long serialVersionUID = -2938262001726154375L;
+
+	private final byte[] bytes;
+
+	private IPAddress(byte[] bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * @param address
+	 *            IPv4 address as a 32 bits integer
+	 * @return the address
+	 */
+	public static IPAddress ofIPv4(int address) {
+		return new IPAddress(new byte[] { (byte) (address >>> 24), (byte) (address >>> 16), (byte) (address >>> 8),
+				(byte) address });
+	}
+
+	/**
+	 * @param bytes
+	 *            4 bytes of an IPv4 address or 16 bytes of an IPv6 address
+	 * @return the address
+	 * @throws IllegalArgumentException
+	 *             if the length is not valid
+	 */
+	public static IPAddress of(byte[] bytes) {
+		if (bytes.length != 4 && bytes.length != 16) {
+			throw new IllegalArgumentException("Invalid IP address length: " + bytes.length);
+		}
+		return new IPAddress(bytes.clone());
+	}
+
+	/**
+	 * @param text
+	 *            dotted IPv4 address or IPv6 address
+	 * @return the address
+	 * @throws NumberFormatException
+	 *             if the text is not an IP address
+	 */
+	public static IPAddress parse(String text) {
+		if (text.indexOf(':') >= 0) {
+			return new IPAddress(IPUtils.parseIPv6(text, 0, text.length()));
+		}
+		return ofIPv4(IPUtils.parseIPv4(text, 0, text.length()));
+	}
+
+	public boolean isIPv4() {
+		return bytes.length == 4;
+	}
+
+	/**
+	 * @return the IPv4 address as a 32 bits integer
+	 * @throws IllegalStateException
+	 *             if it is an IPv6 address
+	 */
+	public int toIPv4() {
+		if (!isIPv4()) {
+			throw new IllegalStateException("Not an IPv4 address: " + this);
+		}
+		return ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8) | (bytes[3] & 0xff);
+	}
+
+	/**
+	 * @return a copy of the bytes of the address
+	 */
+	public byte[] toBytes() {
+		return bytes.clone();
+	}
+
+	/**
+	 * IPv4 addresses come first, then the addresses are compared as unsigned
+	 * numbers
+	 */
+	@Override
+	public int compareTo(IPAddress other) {
+		if (bytes.length != other.bytes.length) {
+			return bytes.length - other.bytes.length;
+		}
+		for (int i = 0; i < bytes.length; ++i) {
+			int diff = (bytes[i] & 0xff) - (other.bytes[i] & 0xff);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof IPAddress && Arrays.equals(bytes, ((IPAddress) other).bytes);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(bytes);
+	}
+
+	/**
+	 * @return dotted IPv4 address or canonical IPv6 address
+	 */
+	@Override
+	public String toString() {
+		return isIPv4() ? IPUtils.formatIPv4(toIPv4()) : IPUtils.formatIPv6(bytes);
+	}
+}
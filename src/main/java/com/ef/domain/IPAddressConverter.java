@@ -0,0 +1,24 @@
+package com.ef.domain;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Store an {@link IPAddress} as <code>VARBINARY(16)</code>
+ * 
+ * @author victor
+ *
+ */
+@Converter
+public class IPAddressConverter implements AttributeConverter<IPAddress, byte[]> {
+
+	@Override
+	public byte[] convertToDatabaseColumn(IPAddress address) {
+		return address != null ? address.toBytes() : null;
+	}
+
+	@Override
+	public IPAddress convertToEntityAttribute(byte[] bytes) {
+		return bytes != null ? IPAddress.of(bytes) : null;
+	}
+}
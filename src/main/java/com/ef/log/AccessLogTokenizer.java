@@ -0,0 +1,187 @@
+package com.ef.log;
+
+import com.ef.log.InvalidLineException.Field;
+import com.ef.utils.DateUtils;
+import com.ef.utils.IPUtils;
+
+/**
+ * Pipe delimited access log tokenizer.
+ * 
+ * <p>
+ * The line is scanned once. The date, IP and response code are parsed in place,
+ * only the request and the agent are copied into Strings. It has no state, so
+ * it can be shared between threads.
+ * </p>
+ * 
+ * <pre>
+ * 2017-01-01 00:00:11.763|192.168.234.82|"GET / HTTP/1.1"|200|"swcd (unknown version) CFNetwork/808.2.16 Darwin/15.6.0"
+ * </pre>
+ * 
+ * @author victor
+ *
+ */
+public class AccessLogTokenizer {
+	public static final char SEPARATOR = '|';
+
+	/**
+	 * Length of <code>yyyy-MM-dd HH:mm:ss.SSS</code>
+	 */
+	public static final int DATE_LENGTH = 23;
+
+	/**
+	 * Tokenize a line
+	 * 
+	 * @param line
+	 *            access log line
+	 * @return the parsed line
+	 * @throws InvalidLineException
+	 *             if the line is invalid
+	 */
+	public LogEntry tokenize(CharSequence line) throws InvalidLineException {
+		LogEntry entry = new LogEntry();
+		tokenize(line, entry, true);
+		return entry;
+	}
+
+	/**
+	 * Tokenize a line into a reusable entry
+	 * 
+	 * @param line
+	 *            access log line
+	 * @param entry
+	 *            the entry to fill
+	 * @param text
+	 *            copy the request and the agent. If false, they are only
+	 *            validated and the entry keeps the old values
+	 * @throws InvalidLineException
+	 *             if the line is invalid
+	 */
+	public void tokenize(CharSequence line, LogEntry entry, boolean text) throws InvalidLineException {
+		int dateEnd = nextField(line, 0);
+		int ipEnd = nextField(line, dateEnd + 1);
+		int requestEnd = nextField(line, ipEnd + 1);
+		int responseCodeEnd = nextField(line, requestEnd + 1);
+		int agentEnd = indexOf(line, responseCodeEnd + 1);
+		if (agentEnd < 0) {
+			agentEnd = line.length();
+		}
+
+		entry.setTime(parseTime(line, 0, dateEnd));
+		entry.setIp(parseIPv4(line, dateEnd + 1, ipEnd));
+		entry.setResponseCode(parseResponseCode(line, requestEnd + 1, responseCodeEnd));
+		if (text) {
+			entry.setRequest(line.subSequence(ipEnd + 1, requestEnd).toString());
+			entry.setAgent(line.subSequence(responseCodeEnd + 1, agentEnd).toString());
+		}
+	}
+
+	/**
+	 * Parse a <code>yyyy-MM-dd HH:mm:ss.SSS</code> UTC date
+	 * 
+	 * @param s
+	 *            text containing the date
+	 * @param from
+	 *            date start
+	 * @param to
+	 *            date end (exclusive)
+	 * @return epoch milliseconds
+	 * @throws InvalidLineException
+	 *             if the date is invalid
+	 */
+	public long parseTime(CharSequence s, int from, int to) throws InvalidLineException {
+		if (to - from != DATE_LENGTH || s.charAt(from + 4) != '-' || s.charAt(from + 7) != '-'
+				|| s.charAt(from + 10) != ' ' || s.charAt(from + 13) != ':' || s.charAt(from + 16) != ':'
+				|| s.charAt(from + 19) != '.') {
+			throw new InvalidLineException(Field.DATE, s.subSequence(from, to).toString());
+		}
+		int year = digits(s, from, 4);
+		int month = digits(s, from + 5, 2);
+		int day = digits(s, from + 8, 2);
+		int hour = digits(s, from + 11, 2);
+		int minute = digits(s, from + 14, 2);
+		int second = digits(s, from + 17, 2);
+		int millis = digits(s, from + 20, 3);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > DateUtils.daysInMonth(year, month) || hour < 0
+				|| hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0) {
+			throw new InvalidLineException(Field.DATE, s.subSequence(from, to).toString());
+		}
+		return DateUtils.epochMillis(year, month, day, hour, minute, second, millis);
+	}
+
+	/**
+	 * Parse a IPv4 address. The log entries and the counters keep IPv4 only, as
+	 * a 32 bits integer, so an IPv6 address is rejected.
+	 * 
+	 * @param s
+	 *            text containing the address
+	 * @param from
+	 *            address start
+	 * @param to
+	 *            address end (exclusive)
+	 * @return the address as a 32 bits integer
+	 * @throws InvalidLineException
+	 *             if the address is invalid or an IPv6 address
+	 */
+	public int parseIPv4(CharSequence s, int from, int to) throws InvalidLineException {
+		try {
+			return IPUtils.parseIPv4(s, from, to);
+		} catch (NumberFormatException e) {
+			String address = s.subSequence(from, to).toString();
+			throw new InvalidLineException(address.indexOf(':') < 0 ? Field.IP : Field.IPV6, address);
+		}
+	}
+
+	/**
+	 * Parse a HTTP response code
+	 * 
+	 * @param s
+	 *            text containing the code
+	 * @param from
+	 *            code start
+	 * @param to
+	 *            code end (exclusive)
+	 * @return response code
+	 * @throws InvalidLineException
+	 *             if the code is not a number
+	 */
+	public int parseResponseCode(CharSequence s, int from, int to) throws InvalidLineException {
+		int value = to - from > 0 && to - from < 10 ? digits(s, from, to - from) : -1;
+		if (value < 0) {
+			throw new InvalidLineException(Field.RESPONSE_CODE, s.subSequence(from, to).toString());
+		}
+		return value;
+	}
+
+	/*
+	 * Parse a fixed number of digits, returns -1 if there is any non digit
+	 * character
+	 */
+	private static int digits(CharSequence s, int from, int length) {
+		int value = 0;
+		for (int i = from; i < from + length; ++i) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static int nextField(CharSequence s, int from) throws InvalidLineException {
+		int index = indexOf(s, from);
+		if (index < 0) {
+			throw new InvalidLineException(Field.LINE, s.toString());
+		}
+		return index;
+	}
+
+	private static int indexOf(CharSequence s, int from) {
+		for (int i = from; i < s.length(); ++i) {
+			if (s.charAt(i) == SEPARATOR) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,208 @@
+package com.ef.log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompress a BGZF file, the multi-member gzip of <b>bgzip</b>, with many
+ * threads.
+ *
+ * <p>
+ * Each member of a BGZF file holds its compressed size in the <b>BC</b> extra
+ * field, so the members are found without inflating them. Runs of members are
+ * inflated by the executor, a few runs ahead of the reader, and read in file
+ * order.
+ * </p>
+ *
+ * @author victor
+ *
+ */
+public class BgzfInputStream extends InputStream {
+	private static final int HEADER_SIZE = 18;
+
+	private static final int TRAILER_SIZE = 8;
+
+	/**
+	 * Compressed bytes inflated by each task, a few dozens of members
+	 */
+	private static final int RUN_SIZE = 1 << 20;
+
+	private final FileChannel channel;
+
+	private final ExecutorService executor;
+
+	private final int readAhead;
+
+	private final Deque<Future<byte[]>> runs = new ArrayDeque<>();
+
+	private long position;
+
+	private byte[] current = new byte[0];
+
+	private int offset;
+
+	/**
+	 * @param channel
+	 *            BGZF file
+	 * @param executor
+	 *            inflating threads
+	 * @param readAhead
+	 *            number of runs inflated ahead of the reader
+	 */
+	public BgzfInputStream(FileChannel channel, ExecutorService executor, int readAhead) {
+		this.channel = channel;
+		this.executor = executor;
+		this.readAhead = readAhead;
+	}
+
+	/**
+	 * Check if the file starts with a BGZF member
+	 *
+	 * @param channel
+	 *            file
+	 * @return true if it is a BGZF file
+	 * @throws IOException
+	 *             Couldn't read file
+	 */
+	public static boolean isBgzf(FileChannel channel) throws IOException {
+		return memberSize(channel, 0) > 0;
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] one = new byte[1];
+		return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] buffer, int off, int len) throws IOException {
+		while (offset == current.length) {
+			if (!next()) {
+				return -1;
+			}
+		}
+		int count = Math.min(len, current.length - offset);
+		System.arraycopy(current, offset, buffer, off, count);
+		offset += count;
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		runs.forEach(run -> run.cancel(true));
+		runs.clear();
+	}
+
+	/*
+	 * Take the next inflated run, submitting the runs ahead
+	 */
+	private boolean next() throws IOException {
+		long size = channel.size();
+		while (runs.size() < readAhead && position < size) {
+			long start = position;
+			while (position < size && position - start < RUN_SIZE) {
+				int member = memberSize(channel, position);
+				if (member < 0) {
+					throw new ZipException("Invalid BGZF member at " + position);
+				}
+				position += member;
+			}
+			long end = position;
+			runs.add(executor.submit(() -> inflate(start, end)));
+		}
+		if (runs.isEmpty()) {
+			return false;
+		}
+		try {
+			current = runs.poll().get();
+			offset = 0;
+			return true;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Couldn't inflate BGZF member", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Inflate interrupted", e);
+		}
+	}
+
+	/*
+	 * Inflate the members of a file region, checking their CRC and size
+	 */
+	private byte[] inflate(long start, long end) throws IOException {
+		ByteBuffer compressed = ByteBuffer.allocate((int) (end - start)).order(ByteOrder.LITTLE_ENDIAN);
+		while (compressed.hasRemaining() && channel.read(compressed, start + compressed.position()) > 0) {
+			// read the whole region
+		}
+		int total = 0;
+		for (int member = 0; member < compressed.limit(); member += (compressed.getShort(member + 16) & 0xffff) + 1) {
+			total += compressed.getInt(member + (compressed.getShort(member + 16) & 0xffff) + 1 - 4);
+		}
+		byte[] inflated = new byte[total];
+		Inflater inflater = new Inflater(true);
+		CRC32 crc = new CRC32();
+		try {
+			int out = 0;
+			int member = 0;
+			while (member < compressed.limit()) {
+				int memberSize = (compressed.getShort(member + 16) & 0xffff) + 1;
+				int dataStart = member + 12 + (compressed.getShort(member + 10) & 0xffff);
+				int dataEnd = member + memberSize - TRAILER_SIZE;
+				int length = compressed.getInt(dataEnd + 4);
+				inflater.reset();
+				inflater.setInput(compressed.array(), dataStart, dataEnd - dataStart);
+				int inflatedLength = 0;
+				while (inflatedLength < length && !inflater.finished()) {
+					int count = inflater.inflate(inflated, out + inflatedLength, length - inflatedLength);
+					if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+						break;
+					}
+					inflatedLength += count;
+				}
+				crc.reset();
+				crc.update(inflated, out, inflatedLength);
+				if (inflatedLength != length || (int) crc.getValue() != compressed.getInt(dataEnd)) {
+					throw new ZipException("Corrupt BGZF member at " + (start + member));
+				}
+				out += length;
+				member += memberSize;
+			}
+			return inflated;
+		} catch (DataFormatException e) {
+			throw new ZipException("Corrupt BGZF member in " + start + "-" + end + ": " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/*
+	 * Size of the BGZF member at the position, or -1 if there is none
+	 */
+	private static int memberSize(FileChannel channel, long position) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		while (header.hasRemaining() && channel.read(header, position + header.position()) > 0) {
+			// read the whole header
+		}
+		// gzip magic, deflate, FEXTRA flag, XLEN 6, subfield BC of 2 bytes
+		if (header.hasRemaining() || header.get(0) != 0x1f || header.get(1) != (byte) 0x8b || header.get(2) != 8
+				|| (header.get(3) & 4) == 0 || header.getShort(10) != 6 || header.get(12) != 'B'
+				|| header.get(13) != 'C' || header.getShort(14) != 2) {
+			return -1;
+		}
+		return (header.getShort(16) & 0xffff) + 1;
+	}
+}
@@ -0,0 +1,69 @@
+package com.ef.log;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Character view of a byte buffer region. Each byte is read as a Latin-1
+ * character, so the ASCII fields of a line can be tokenized without decoding
+ * it. Only {@link #toString()} decodes the bytes as UTF-8.
+ * 
+ * <p>
+ * The view is mutable, so one instance can be reused for every line.
+ * </p>
+ * 
+ * @author victor
+ *
+ */
+public final class ByteSequence implements CharSequence {
+	private ByteBuffer buffer;
+
+	private int start;
+
+	private int end;
+
+	/**
+	 * Point the view to other region
+	 * 
+	 * @param buffer
+	 *            bytes
+	 * @param start
+	 *            region start
+	 * @param end
+	 *            region end (exclusive)
+	 * @return this view
+	 */
+	public ByteSequence reset(ByteBuffer buffer, int start, int end) {
+		this.buffer = buffer;
+		this.start = start;
+		this.end = end;
+		return this;
+	}
+
+	@Override
+	public int length() {
+		return end - start;
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char) (buffer.get(start + index) & 0xff);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return new ByteSequence().reset(buffer, this.start + start, this.start + end);
+	}
+
+	@Override
+	public String toString() {
+		if (buffer.hasArray()) {
+			return new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+		}
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; ++i) {
+			bytes[i] = buffer.get(start + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
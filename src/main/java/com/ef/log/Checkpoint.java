@@ -0,0 +1,73 @@
+package com.ef.log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import lombok.Value;
+
+/**
+ * Position of the last registered line of a followed file. The file is
+ * identified by its file key (device and inode), so a rotated file is not
+ * confused with the new one.
+ * 
+ * @author victor
+ *
+ */
+@Value
+public class Checkpoint {
+	private String fileKey;
+
+	/**
+	 * Byte offset after the last registered line
+	 */
+	private long offset;
+
+	/**
+	 * Load a checkpoint file
+	 * 
+	 * @param file
+	 *            checkpoint file
+	 * @return the checkpoint or null if the file does not exist
+	 * @throws IOException
+	 *             Couldn't read the checkpoint
+	 */
+	public static Checkpoint load(Path file) throws IOException {
+		if (!Files.exists(file)) {
+			return null;
+		}
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(file)) {
+			properties.load(in);
+		}
+		try {
+			return new Checkpoint(properties.getProperty("fileKey"), Long.parseLong(properties.getProperty("offset")));
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid checkpoint: " + file, e);
+		}
+	}
+
+	/**
+	 * Save the checkpoint. It is written in a temporary file and moved, so a
+	 * crash keeps the previous checkpoint.
+	 * 
+	 * @param file
+	 *            checkpoint file
+	 * @throws IOException
+	 *             Couldn't write the checkpoint
+	 */
+	public void save(Path file) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("fileKey", fileKey);
+		properties.setProperty("offset", Long.toString(offset));
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (OutputStream out = Files.newOutputStream(temp)) {
+			properties.store(out, "Access log follow checkpoint");
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
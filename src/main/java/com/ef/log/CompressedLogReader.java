@@ -0,0 +1,222 @@
+package com.ef.log;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.GZIPInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+/**
+ * Read the lines of a compressed access log as a stream, without
+ * decompressing it to disk.
+ *
+ * <p>
+ * Files ending with <b>.gz</b> are read as gzip and files ending with
+ * <b>.zst</b> as Zstandard. The file is decompressed by one thread, or by
+ * many for BGZF files (see {@link BgzfInputStream}), and cut in blocks of
+ * whole lines, which are parsed by many threads. As in
+ * {@link MappedLogReader}, lines are handed as reused {@link ByteSequence}
+ * views, so the consumer should not keep them, and the lines are not read in
+ * file order.
+ * </p>
+ *
+ * @author victor
+ *
+ */
+public class CompressedLogReader {
+	private static Logger LOGGER = LoggerFactory.getLogger(CompressedLogReader.class);
+
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+	private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+	private static final byte[] END_OF_STREAM = new byte[0];
+
+	private final Path file;
+
+	private final int threads;
+
+	private final int blockSize;
+
+	/**
+	 * @param file
+	 *            compressed access log
+	 * @param threads
+	 *            number of threads parsing the lines, and inflating BGZF files
+	 */
+	public CompressedLogReader(Path file, int threads) {
+		this(file, threads, DEFAULT_BLOCK_SIZE);
+	}
+
+	public CompressedLogReader(Path file, int threads, int blockSize) {
+		this.file = file;
+		this.threads = threads;
+		this.blockSize = blockSize;
+	}
+
+	/**
+	 * @param file
+	 *            access log
+	 * @return true if the file is read by this reader, instead of memory mapped
+	 */
+	public static boolean isCompressed(Path file) {
+		String name = file.getFileName().toString();
+		return name.endsWith(".gz") || name.endsWith(".zst");
+	}
+
+	/**
+	 * Read all lines of the file. Each parsing thread hands its lines to its own
+	 * consumer.
+	 *
+	 * @param consumers
+	 *            supplier of the consumer of each thread, called by that thread
+	 * @throws IOException
+	 *             Couldn't read file
+	 */
+	public void read(Supplier<? extends Consumer<ByteSequence>> consumers) throws IOException {
+		BlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(2 * threads);
+		ExecutorService parsers = Executors.newFixedThreadPool(threads);
+		ExecutorService inflaters = Executors.newFixedThreadPool(threads);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+				InputStream in = open(channel, inflaters)) {
+			List<Future<?>> parts = new ArrayList<>(threads);
+			for (int i = 0; i < threads; ++i) {
+				parts.add(parsers.submit(() -> {
+					Consumer<ByteSequence> consumer = consumers.get();
+					ByteSequence line = new ByteSequence();
+					byte[] block;
+					while ((block = blocks.take()) != END_OF_STREAM) {
+						lines(ByteBuffer.wrap(block), line, consumer);
+					}
+					return null;
+				}));
+			}
+			boolean split = false;
+			try {
+				split(in, blocks, parts);
+				split = true;
+			} finally {
+				if (!split) {
+					parsers.shutdownNow();
+				}
+			}
+			for (int ended = 0; ended < threads;) {
+				if (blocks.offer(END_OF_STREAM, 100, TimeUnit.MILLISECONDS)) {
+					++ended;
+				} else if (parts.stream().allMatch(Future::isDone)) {
+					break;
+				}
+			}
+			for (Future<?> part : parts) {
+				part.get();
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException("Parser failed", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Read interrupted", e);
+		} finally {
+			parsers.shutdownNow();
+			inflaters.shutdownNow();
+		}
+	}
+
+	private InputStream open(FileChannel channel, ExecutorService inflaters) throws IOException {
+		if (file.getFileName().toString().endsWith(".zst")) {
+			return new ZstdInputStream(new BufferedInputStream(Channels.newInputStream(channel), STREAM_BUFFER_SIZE));
+		} else if (BgzfInputStream.isBgzf(channel)) {
+			LOGGER.info("Inflating BGZF file {} with {} threads", file, threads);
+			return new BgzfInputStream(channel, inflaters, 2 * threads);
+		}
+		// concatenated members are read one after the other
+		return new GZIPInputStream(Channels.newInputStream(channel), STREAM_BUFFER_SIZE);
+	}
+
+	/*
+	 * Cut the stream in blocks ending on a line break. A line longer than the
+	 * block grows it.
+	 */
+	private void split(InputStream in, BlockingQueue<byte[]> blocks, List<Future<?>> parts)
+			throws IOException, InterruptedException, ExecutionException {
+		byte[] buffer = new byte[blockSize];
+		int length = 0;
+		int count;
+		while ((count = in.read(buffer, length, buffer.length - length)) >= 0) {
+			length += count;
+			if (length < buffer.length) {
+				continue;
+			}
+			int end = length;
+			while (end > 0 && buffer[end - 1] != '\n') {
+				--end;
+			}
+			if (end == 0) {
+				buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+				continue;
+			}
+			put(blocks, Arrays.copyOf(buffer, end), parts);
+			System.arraycopy(buffer, end, buffer, 0, length - end);
+			length -= end;
+		}
+		if (length > 0) {
+			put(blocks, Arrays.copyOf(buffer, length), parts);
+		}
+	}
+
+	/*
+	 * Queue a block, unless a parser failed
+	 */
+	private static void put(BlockingQueue<byte[]> blocks, byte[] block, List<Future<?>> parts)
+			throws InterruptedException, ExecutionException {
+		while (!blocks.offer(block, 100, TimeUnit.MILLISECONDS)) {
+			for (Future<?> part : parts) {
+				if (part.isDone()) {
+					part.get();
+				}
+			}
+		}
+	}
+
+	/*
+	 * Hand the lines of a block, without the line breaks
+	 */
+	private static void lines(ByteBuffer block, ByteSequence line, Consumer<ByteSequence> consumer) {
+		int lineStart = 0;
+		int end = block.limit();
+		for (int i = 0; i <= end; ++i) {
+			if (i == end || block.get(i) == '\n') {
+				int lineEnd = i > lineStart && block.get(i - 1) == '\r' ? i - 1 : i;
+				if (lineEnd > lineStart) {
+					consumer.accept(line.reset(block, lineStart, lineEnd));
+				}
+				lineStart = i + 1;
+			}
+		}
+	}
+}
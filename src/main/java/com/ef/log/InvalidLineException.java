@@ -0,0 +1,40 @@
+package com.ef.log;
+
+/**
+ * The access log line could not be tokenized.
+ * 
+ * @author victor
+ *
+ */
+public class InvalidLineException extends Exception {
+
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = -2916297404380946437L;
+
+	/**
+	 * Invalid part of the line
+	 */
+	public enum Field {
+		LINE, DATE, IP, IPV6, RESPONSE_CODE
+	}
+
+	private final Field field;
+
+	private final String value;
+
+	public InvalidLineException(Field field, String value) {
+		super("Invalid " + field + ": " + value);
+		this.field = field;
+		this.value = value;
+	}
+
+	public Field getField() {
+		return field;
+	}
+
+	public String getValue() {
+		return value;
+	}
+}
@@ -0,0 +1,32 @@
+package com.ef.log;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Parsed access log line
+ * 
+ * @author victor
+ *
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class LogEntry {
+	/**
+	 * Epoch milliseconds
+	 */
+	private long time;
+
+	/**
+	 * IPv4 address as a 32 bits integer
+	 */
+	private int ip;
+
+	private String request;
+
+	private int responseCode;
+
+	private String agent;
+}
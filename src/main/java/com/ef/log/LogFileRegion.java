@@ -0,0 +1,43 @@
+package com.ef.log;
+
+import java.nio.file.Path;
+
+import lombok.Value;
+
+/**
+ * Region of an access log file to read, found by {@link LogFileSet#regions}.
+ *
+ * @author victor
+ *
+ */
+@Value
+public class LogFileRegion {
+	private Path file;
+
+	/**
+	 * File size in bytes
+	 */
+	private long size;
+
+	/**
+	 * Byte range to read, or null if the file is compressed and is read whole
+	 */
+	private LogFileSplitter.Range range;
+
+	/**
+	 * Whether the first and last requests of the file are outside the window,
+	 * so the file is not read
+	 */
+	private boolean skipped;
+
+	public boolean isCompressed() {
+		return range == null;
+	}
+
+	/**
+	 * @return bytes of the file not read
+	 */
+	public long skippedBytes() {
+		return range == null ? 0 : size - range.length();
+	}
+}
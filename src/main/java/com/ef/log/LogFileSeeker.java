@@ -0,0 +1,152 @@
+package com.ef.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+
+/**
+ * Find the region of a log file that holds a time window using binary search
+ * on the line timestamps.
+ * 
+ * <p>
+ * Access logs are mostly time ordered, but lines written by concurrent
+ * requests can be a little out of order. The region is widened by a slack on
+ * both sides, so the out of order lines near the window bounds are not lost.
+ * The lines of the region outside the window should still be filtered.
+ * </p>
+ * 
+ * @author victor
+ *
+ */
+public class LogFileSeeker {
+	public static final long DEFAULT_SLACK = 60000;
+
+	/**
+	 * Below this size the region is not split anymore, the filter is cheaper
+	 * than more reads
+	 */
+	private static final long LINEAR_SCAN_SIZE = 1 << 16;
+
+	private final AccessLogTokenizer tokenizer = new AccessLogTokenizer();
+
+	private final FileChannel channel;
+
+	private final long slack;
+
+	public LogFileSeeker(FileChannel channel) {
+		this(channel, DEFAULT_SLACK);
+	}
+
+	public LogFileSeeker(FileChannel channel, long slack) {
+		this.channel = channel;
+		this.slack = slack;
+	}
+
+	/**
+	 * Find the region of the window
+	 * 
+	 * @param startDate
+	 *            window start
+	 * @param endDate
+	 *            window end
+	 * @return region aligned on line boundaries
+	 * @throws IOException
+	 *             Couldn't read file
+	 */
+	public LogFileSplitter.Range region(Date startDate, Date endDate) throws IOException {
+		long start = search(startDate.getTime() - slack, 0)[0];
+		return new LogFileSplitter.Range(start, search(endDate.getTime() + slack, start)[1]);
+	}
+
+	/**
+	 * Search the lines around a time. The first returned position is a line
+	 * start before the first line with time greater or equal than the given
+	 * one. The second is a line start (or the file size) after all lines with
+	 * time lower than it.
+	 * 
+	 * @param time
+	 *            epoch milliseconds
+	 * @param from
+	 *            search start, at a line start
+	 * @return lower and upper positions
+	 * @throws IOException
+	 *             Couldn't read file
+	 */
+	public long[] search(long time, long from) throws IOException {
+		long lo = from;
+		long hi = channel.size();
+		ByteBuffer buffer = ByteBuffer.allocate(AccessLogTokenizer.DATE_LENGTH);
+		ByteSequence timestamp = new ByteSequence();
+		while (hi - lo > LINEAR_SCAN_SIZE) {
+			long lineStart = LogFileSplitter.nextLine(channel, lo + (hi - lo) / 2, hi);
+			long lineTime = Long.MIN_VALUE;
+			while (lineStart < hi && (lineTime = timeAt(lineStart, buffer, timestamp)) == Long.MIN_VALUE) {
+				lineStart = LogFileSplitter.nextLine(channel, lineStart, hi);
+			}
+			if (lineStart >= hi) {
+				break;
+			} else if (lineTime < time) {
+				lo = lineStart;
+			} else {
+				hi = lineStart;
+			}
+		}
+		return new long[] { lo, hi };
+	}
+
+	/**
+	 * Read the time of the first and of the last valid lines. As the file is
+	 * mostly time ordered, they are close to the earliest and to the latest
+	 * requests.
+	 * 
+	 * @return first and last times, or null if the file has no valid line
+	 * @throws IOException
+	 *             Couldn't read file
+	 */
+	public long[] span() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(AccessLogTokenizer.DATE_LENGTH);
+		ByteSequence timestamp = new ByteSequence();
+		long size = channel.size();
+		long first = Long.MIN_VALUE;
+		long lineStart = 0;
+		while (lineStart < size && (first = timeAt(lineStart, buffer, timestamp)) == Long.MIN_VALUE) {
+			lineStart = LogFileSplitter.nextLine(channel, lineStart, size);
+		}
+		if (first == Long.MIN_VALUE) {
+			return null;
+		}
+		long last = Long.MIN_VALUE;
+		for (long tail = LINEAR_SCAN_SIZE; last == Long.MIN_VALUE; tail *= 2) {
+			long from = Math.max(0, size - tail);
+			lineStart = from == 0 ? 0 : LogFileSplitter.nextLine(channel, from, size);
+			while (lineStart < size) {
+				long time = timeAt(lineStart, buffer, timestamp);
+				if (time != Long.MIN_VALUE) {
+					last = time;
+				}
+				lineStart = LogFileSplitter.nextLine(channel, lineStart, size);
+			}
+		}
+		return new long[] { first, last };
+	}
+
+	/*
+	 * Read the time of the line, or Long.MIN_VALUE if it has no valid timestamp
+	 */
+	private long timeAt(long lineStart, ByteBuffer buffer, ByteSequence timestamp) throws IOException {
+		buffer.clear();
+		while (buffer.hasRemaining() && channel.read(buffer, lineStart + buffer.position()) > 0) {
+			// read the whole timestamp
+		}
+		if (buffer.hasRemaining()) {
+			return Long.MIN_VALUE;
+		}
+		try {
+			return tokenizer.parseTime(timestamp.reset(buffer, 0, AccessLogTokenizer.DATE_LENGTH), 0,
+					AccessLogTokenizer.DATE_LENGTH);
+		} catch (InvalidLineException e) {
+			return Long.MIN_VALUE;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package com.ef.log;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Access log files of a single file, a directory or a glob, like the rotated
+ * files of many hosts.
+ *
+ * @author victor
+ *
+ */
+public class LogFileSet {
+	private static Logger LOGGER = LoggerFactory.getLogger(LogFileSet.class);
+
+	private static final String GLOB_CHARACTERS = "*?[{";
+
+	/**
+	 * Find the access log files. A directory holds the regular files directly
+	 * inside it, and a glob, like <code>logs/*&#47;access-*.log.gz</code>, is
+	 * matched under its directory without glob characters, as deep as the
+	 * segments of the glob, or the whole tree with <code>**</code>. The
+	 * directories that can't be read are skipped.
+	 *
+	 * @param pattern
+	 *            file, directory or glob
+	 * @return the regular files, in the order of {@link #largestFirst(List)}
+	 * @throws IOException
+	 *             Couldn't list the files
+	 */
+	public static List<Path> resolve(String pattern) throws IOException {
+		List<Path> files = new ArrayList<>();
+		int glob = firstGlobCharacter(pattern);
+		if (glob >= 0) {
+			int separator = pattern.lastIndexOf('/', glob);
+			Path base = Paths.get(separator < 0 ? "." : pattern.substring(0, separator + 1)).toAbsolutePath()
+					.normalize();
+			String absolute = separator < 0 ? base + "/" + pattern : base + pattern.substring(separator);
+			String segments = pattern.substring(separator + 1);
+			int depth = segments.contains("**") ? Integer.MAX_VALUE : segments.split("/+").length;
+			PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + absolute);
+			if (Files.isDirectory(base)) {
+				Files.walkFileTree(base, Collections.<FileVisitOption>emptySet(), depth, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+						if (matcher.matches(file) && Files.isRegularFile(file)) {
+							files.add(file);
+						}
+						return FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+						if (e instanceof AccessDeniedException) {
+							LOGGER.warn("Skipped {}: access denied", file);
+							return FileVisitResult.CONTINUE;
+						}
+						throw e;
+					}
+				});
+			}
+		} else {
+			Path path = Paths.get(pattern).toAbsolutePath();
+			if (Files.isDirectory(path)) {
+				try (DirectoryStream<Path> paths = Files.newDirectoryStream(path,
+						file -> Files.isRegularFile(file) && !file.getFileName().toString().startsWith("."))) {
+					paths.forEach(files::add);
+				}
+			} else if (Files.isRegularFile(path)) {
+				files.add(path);
+			} else {
+				throw new NoSuchFileException(pattern);
+			}
+		}
+		return largestFirst(files);
+	}
+
+	/**
+	 * Order the files so the longest ones start first in a worker pool.
+	 * Compressed files come first, as each one is read whole by a single task
+	 * and its compressed size says little about its lines, then the other files
+	 * largest first, as they are split in ranges in proportion to their size.
+	 *
+	 * @param files
+	 *            access log files
+	 * @return ordered files
+	 */
+	public static List<Path> largestFirst(List<Path> files) {
+		try {
+			return files.stream()
+					.sorted(Comparator.comparing((Path file) -> !CompressedLogReader.isCompressed(file))
+							.thenComparing(Comparator.comparingLong((Path file) -> size(file)).reversed())
+							.thenComparing(Comparator.naturalOrder()))
+					.collect(Collectors.toList());
+		} catch (UncheckedIOException e) {
+			LOGGER.warn("Couldn't read file sizes", e.getCause());
+			return files;
+		}
+	}
+
+	/**
+	 * Find the region to read of each file, opening each file once in a task
+	 * of the pool. With a window, the files whose first and last requests are
+	 * outside the window, with the slack of {@link LogFileSeeker}, are skipped
+	 * and the region of the window of the others is found by binary search.
+	 *
+	 * @param files
+	 *            access log files
+	 * @param startDate
+	 *            window start, or null to read the files whole
+	 * @param endDate
+	 *            window end
+	 * @param pool
+	 *            threads opening the files
+	 * @return the region of each file, in the order of the files
+	 * @throws IOException
+	 *             Couldn't read a file
+	 * @throws InterruptedException
+	 *             Interrupted waiting the tasks
+	 */
+	public static List<LogFileRegion> regions(List<Path> files, Date startDate, Date endDate, ExecutorService pool)
+			throws IOException, InterruptedException {
+		List<Future<LogFileRegion>> tasks = new ArrayList<>(files.size());
+		for (Path file : files) {
+			tasks.add(pool.submit(() -> region(file, startDate, endDate)));
+		}
+		List<LogFileRegion> regions = new ArrayList<>(files.size());
+		try {
+			for (Future<LogFileRegion> task : tasks) {
+				regions.add(task.get());
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException("Couldn't find the file regions", e.getCause());
+		}
+		return regions;
+	}
+
+	/**
+	 * Find the region to read of a file. Compressed files are read whole, their
+	 * span is not known without reading them, and so are the files without a
+	 * valid line.
+	 *
+	 * @param file
+	 *            access log file
+	 * @param startDate
+	 *            window start, or null to read the file whole
+	 * @param endDate
+	 *            window end
+	 * @return the region of the file
+	 * @throws IOException
+	 *             Couldn't read the file
+	 */
+	public static LogFileRegion region(Path file, Date startDate, Date endDate) throws IOException {
+		if (CompressedLogReader.isCompressed(file)) {
+			return new LogFileRegion(file, Files.size(file), null, false);
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (startDate == null) {
+				return new LogFileRegion(file, size, new LogFileSplitter.Range(0, size), false);
+			}
+			LogFileSeeker seeker = new LogFileSeeker(channel);
+			long[] span = seeker.span();
+			if (span != null && (span[0] - LogFileSeeker.DEFAULT_SLACK >= endDate.getTime()
+					|| span[1] + LogFileSeeker.DEFAULT_SLACK < startDate.getTime())) {
+				LOGGER.info("Skipped {}: requests from {} to {} outside the window", file, new Date(span[0]),
+						new Date(span[1]));
+				return new LogFileRegion(file, size, new LogFileSplitter.Range(0, 0), true);
+			}
+			return new LogFileRegion(file, size, seeker.region(startDate, endDate), false);
+		}
+	}
+
+	/**
+	 * First and last request times of a file
+	 *
+	 * @param file
+	 *            access log file
+	 * @return first and last times, or null if the file is compressed or has no
+	 *         valid line
+	 * @throws IOException
+	 *             Couldn't read file
+	 */
+	public static long[] span(Path file) throws IOException {
+		if (CompressedLogReader.isCompressed(file)) {
+			return null;
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return new LogFileSeeker(channel).span();
+		}
+	}
+
+	private static long size(Path file) {
+		try {
+			return Files.size(file);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static int firstGlobCharacter(String pattern) {
+		for (int i = 0; i < pattern.length(); ++i) {
+			if (GLOB_CHARACTERS.indexOf(pattern.charAt(i)) >= 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
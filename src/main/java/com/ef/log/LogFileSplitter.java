@@ -0,0 +1,157 @@
+package com.ef.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Value;
+
+/**
+ * Split a log file into byte ranges aligned on line boundaries.
+ * 
+ * @author victor
+ *
+ */
+public class LogFileSplitter {
+
+	/**
+	 * Byte range of a file. The start is inclusive and the end is exclusive.
+	 */
+	@Value
+	public static class Range {
+		private long start;
+		private long end;
+
+		public long length() {
+			return end - start;
+		}
+	}
+
+	private static final int SCAN_BUFFER_SIZE = 8192;
+
+	/**
+	 * Split the file into ranges. Every range starts at the beginning of a line
+	 * and ends after a line break (or at the end of the file).
+	 * 
+	 * @param channel
+	 *            log file
+	 * @param parts
+	 *            desired number of ranges
+	 * @return the non empty ranges
+	 * @throws IOException
+	 *             Couldn't read file
+	 */
+	public static List<Range> split(FileChannel channel, int parts) throws IOException {
+		return split(channel, 0, channel.size(), parts);
+	}
+
+	/**
+	 * Split a region of the file into ranges. The region should be aligned on
+	 * line boundaries.
+	 * 
+	 * @param channel
+	 *            log file
+	 * @param start
+	 *            region start
+	 * @param end
+	 *            region end
+	 * @param parts
+	 *            desired number of ranges
+	 * @return the non empty ranges
+	 * @throws IOException
+	 *             Couldn't read file
+	 */
+	public static List<Range> split(FileChannel channel, long start, long end, int parts) throws IOException {
+		List<Range> ranges = new ArrayList<>(parts);
+		long step = Math.max(1, (end - start) / parts);
+		long rangeStart = start;
+		while (rangeStart < end) {
+			long rangeEnd = rangeStart + step >= end ? end : nextLine(channel, rangeStart + step, end);
+			ranges.add(new Range(rangeStart, rangeEnd));
+			rangeStart = rangeEnd;
+		}
+		return ranges;
+	}
+
+	/**
+	 * Split a region of the file into ranges without reading it. The ranges
+	 * are aligned on line boundaries by
+	 * {@link #align(FileChannel, Range, Range)} when they are read, so each
+	 * range may be opened and aligned by its own task.
+	 *
+	 * @param region
+	 *            region aligned on line boundaries
+	 * @param parts
+	 *            desired number of ranges
+	 * @return the non empty ranges, not aligned
+	 */
+	public static List<Range> divide(Range region, int parts) {
+		List<Range> ranges = new ArrayList<>(parts);
+		long rangeStart = region.getStart();
+		for (int i = 1; i <= parts; ++i) {
+			long rangeEnd = region.getStart() + region.length() * i / parts;
+			if (rangeEnd > rangeStart) {
+				ranges.add(new Range(rangeStart, rangeEnd));
+				rangeStart = rangeEnd;
+			}
+		}
+		return ranges;
+	}
+
+	/**
+	 * Align a range of {@link #divide(Range, int)} on line boundaries. Each
+	 * boundary inside the region moves after the next line break, so the
+	 * aligned ranges of a region are contiguous and every line is in one of
+	 * them.
+	 *
+	 * @param channel
+	 *            log file
+	 * @param range
+	 *            range of the region
+	 * @param region
+	 *            region aligned on line boundaries
+	 * @return the aligned range, possibly empty
+	 * @throws IOException
+	 *             Couldn't read file
+	 */
+	public static Range align(FileChannel channel, Range range, Range region) throws IOException {
+		long start = range.getStart() == region.getStart() ? region.getStart()
+				: nextLine(channel, range.getStart(), region.getEnd());
+		long end = range.getEnd() == region.getEnd() ? region.getEnd()
+				: nextLine(channel, range.getEnd(), region.getEnd());
+		return new Range(start, Math.max(start, end));
+	}
+
+	/**
+	 * Find the position after the next line break.
+	 * 
+	 * @param channel
+	 *            log file
+	 * @param position
+	 *            search start
+	 * @param limit
+	 *            search limit
+	 * @return the start of the next line, or the limit
+	 * @throws IOException
+	 *             Couldn't read file
+	 */
+	public static long nextLine(FileChannel channel, long position, long limit) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+		while (position < limit) {
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read <= 0) {
+				return limit;
+			}
+			for (int i = 0; i < read && position + i < limit; ++i) {
+				if (buffer.get(i) == '\n') {
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+		return limit;
+	}
+}
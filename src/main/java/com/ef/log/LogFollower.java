@@ -0,0 +1,234 @@
+package com.ef.log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ef.metrics.Counter;
+import com.ef.metrics.Metrics;
+
+/**
+ * Follow a growing access log, registering only the new lines.
+ *
+ * <p>
+ * The offset after the last registered line is saved in a {@link Checkpoint}
+ * after each batch, so a restart resumes from it without reading the file
+ * again. A batch registered just before a crash, but not checkpointed, is the
+ * only one registered twice. A partial last line is left for the next poll.
+ * </p>
+ *
+ * <p>
+ * Rotation is detected by the file key: if the file was renamed, the rest of
+ * the rotated file is read from the checkpoint before the new file, as long as
+ * it is in the same directory with a name starting with the file name, like
+ * <code>access.log.1</code>. If the file was truncated, it is read from the
+ * start.
+ * </p>
+ *
+ * @author victor
+ *
+ */
+public class LogFollower {
+	private static Logger LOGGER = LoggerFactory.getLogger(LogFollower.class);
+
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final LogLineParser lineParser = new LogLineParser();
+
+	private final ByteSequence sequence = new ByteSequence();
+
+	private final Path file;
+
+	private final Path checkpointFile;
+
+	private final int batchSize;
+
+	private Checkpoint checkpoint;
+
+	private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+	private volatile boolean running;
+
+	/**
+	 * @param file
+	 *            followed access log
+	 * @param checkpointFile
+	 *            checkpoint of the last registered line
+	 * @param batchSize
+	 *            Number of lines registered in each batch
+	 * @throws IOException
+	 *             Couldn't read the checkpoint
+	 */
+	public LogFollower(Path file, Path checkpointFile, int batchSize) throws IOException {
+		this.file = file;
+		this.checkpointFile = checkpointFile;
+		this.batchSize = batchSize;
+		this.checkpoint = Checkpoint.load(checkpointFile);
+	}
+
+	/**
+	 * Register the new lines until {@link #stop()}
+	 *
+	 * @param sink
+	 *            destination of the lines
+	 * @param pollMillis
+	 *            time to wait when there are no new lines
+	 * @throws IOException
+	 *             Couldn't read the file
+	 */
+	public void follow(LogSink sink, long pollMillis) throws IOException {
+		running = true;
+		while (running) {
+			if (poll(sink) == 0) {
+				try {
+					Thread.sleep(pollMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop {@link #follow(LogSink, long)} after the current poll
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	/**
+	 * Register the lines written since the checkpoint
+	 *
+	 * @param sink
+	 *            destination of the lines
+	 * @return number of read lines
+	 * @throws IOException
+	 *             Couldn't read the file
+	 */
+	public long poll(LogSink sink) throws IOException {
+		String fileKey;
+		try {
+			fileKey = fileKey(file);
+		} catch (NoSuchFileException e) {
+			// rotated, the new file is not created yet
+			return 0;
+		}
+		long lines = 0;
+		if (checkpoint == null) {
+			checkpoint = new Checkpoint(fileKey, 0);
+		} else if (!checkpoint.getFileKey().equals(fileKey)) {
+			Path rotated = findRotated(checkpoint.getFileKey());
+			if (rotated != null) {
+				LOGGER.info("File rotated to {}, reading from offset {}", rotated, checkpoint.getOffset());
+				lines += read(rotated, sink);
+			} else {
+				LOGGER.warn("Rotated file not found, the lines after offset {} are lost", checkpoint.getOffset());
+			}
+			checkpoint = new Checkpoint(fileKey, 0);
+			checkpoint.save(checkpointFile);
+		} else if (Files.size(file) < checkpoint.getOffset()) {
+			LOGGER.warn("File truncated, reading {} from the start", file);
+			checkpoint = new Checkpoint(fileKey, 0);
+			checkpoint.save(checkpointFile);
+		}
+		return lines + read(file, sink);
+	}
+
+	/**
+	 * @return the last saved checkpoint
+	 */
+	public Checkpoint getCheckpoint() {
+		return checkpoint;
+	}
+
+	/*
+	 * Read the complete lines after the checkpoint offset
+	 */
+	private long read(Path path, LogSink sink) throws IOException {
+		long lines = 0;
+		long counted = 0;
+		List<LogEntry> batch = new ArrayList<>(batchSize);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long position = checkpoint.getOffset();
+			buffer.clear();
+			while (channel.read(buffer, position + buffer.position()) > 0) {
+				buffer.flip();
+				int start = 0;
+				for (int i = 0; i < buffer.limit(); ++i) {
+					if (buffer.get(i) == '\n') {
+						int end = i > start && buffer.get(i - 1) == '\r' ? i - 1 : i;
+						++lines;
+						if (end > start) {
+							LogEntry entry = lineParser.parse(sequence.reset(buffer, start, end));
+							if (entry != null) {
+								batch.add(entry);
+							}
+						}
+						start = i + 1;
+						if (batch.size() >= batchSize) {
+							Metrics.add(Counter.LINES, lines - counted);
+							counted = lines;
+							register(sink, batch, position + start);
+						}
+					}
+				}
+				position += start;
+				if (start == 0 && buffer.limit() == buffer.capacity()) {
+					// a line longer than the buffer
+					buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer);
+				} else {
+					buffer.position(start);
+					buffer.compact();
+				}
+			}
+			Metrics.add(Counter.LINES, lines - counted);
+			// lines ignored as invalid move the checkpoint too
+			if (!batch.isEmpty() || position != checkpoint.getOffset()) {
+				register(sink, batch, position);
+			}
+		}
+		return lines;
+	}
+
+	private void register(LogSink sink, List<LogEntry> batch, long offset) throws IOException {
+		if (!batch.isEmpty()) {
+			sink.registerAll(batch);
+			batch.clear();
+		}
+		checkpoint = new Checkpoint(checkpoint.getFileKey(), offset);
+		checkpoint.save(checkpointFile);
+	}
+
+	private Path findRotated(String fileKey) throws IOException {
+		Path directory = file.toAbsolutePath().getParent();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, file.getFileName() + "?*")) {
+			for (Path candidate : files) {
+				if (Files.isRegularFile(candidate) && fileKey.equals(fileKey(candidate))) {
+					return candidate;
+				}
+			}
+		}
+		return null;
+	}
+
+	/*
+	 * Device and inode on Unix, creation time where there is no file key
+	 */
+	private static String fileKey(Path path) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		Object key = attributes.fileKey();
+		return key != null ? key.toString() : attributes.creationTime().toString();
+	}
+}
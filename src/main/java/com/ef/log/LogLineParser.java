@@ -0,0 +1,87 @@
+package com.ef.log;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ef.metrics.Counter;
+import com.ef.metrics.Metrics;
+
+/**
+ * Access log line parser. It reports the invalid lines and can be shared
+ * between threads.
+ * 
+ * @author victor
+ *
+ */
+public class LogLineParser {
+	private static Logger LOGGER = LoggerFactory.getLogger(LogLineParser.class);
+
+	private final AccessLogTokenizer tokenizer = new AccessLogTokenizer();
+
+	/**
+	 * Parse a line. Invalid lines are reported and ignored.
+	 * 
+	 * @param line
+	 *            access log line
+	 * @return the parsed line or null if the line is invalid
+	 */
+	public LogEntry parse(CharSequence line) {
+		try {
+			return tokenizer.tokenize(line);
+		} catch (InvalidLineException e) {
+			report(line, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Parse a line into a reusable entry. Invalid lines are reported and ignored.
+	 * 
+	 * @param line
+	 *            access log line
+	 * @param entry
+	 *            the entry to fill
+	 * @param text
+	 *            copy the request and the agent
+	 * @return false if the line is invalid
+	 */
+	public boolean parse(CharSequence line, LogEntry entry, boolean text) {
+		try {
+			tokenizer.tokenize(line, entry, text);
+			return true;
+		} catch (InvalidLineException e) {
+			report(line, e);
+			return false;
+		}
+	}
+
+	/**
+	 * Report an invalid line
+	 * 
+	 * @param line
+	 *            access log line
+	 * @param e
+	 *            tokenizer error
+	 */
+	public static void report(CharSequence line, InvalidLineException e) {
+		LOGGER.error("Invalid line: " + line, e);
+		Metrics.increment(Counter.INVALID_LINES);
+		switch (e.getField()) {
+		case DATE:
+			System.err.println("Invalid date \"" + e.getValue() + "\". Ignoring line.");
+			break;
+		case IP:
+			System.err.println("Invalid IP \"" + e.getValue() + "\". Ignoring line.");
+			break;
+		case IPV6:
+			System.err.println("IPv6 address \"" + e.getValue() + "\" is not supported. Ignoring line.");
+			break;
+		case RESPONSE_CODE:
+			System.err.println("Invalid response code \"" + e.getValue() + "\". Ignoring line.");
+			break;
+		default:
+			System.err.println("Invalid line \"" + e.getValue() + "\". Ignoring line.");
+			break;
+		}
+	}
+}
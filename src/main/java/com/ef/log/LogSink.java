@@ -0,0 +1,20 @@
+package com.ef.log;
+
+import java.util.List;
+
+/**
+ * Destination of the parsed lines. It is called by many writer threads.
+ * 
+ * @author victor
+ *
+ */
+public interface LogSink {
+	/**
+	 * Register a chunk of parsed lines
+	 * 
+	 * @param entries
+	 *            parsed lines, with the request and agent texts
+	 * @return number of registered lines
+	 */
+	int registerAll(List<LogEntry> entries);
+}
@@ -0,0 +1,98 @@
+package com.ef.log;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.function.Consumer;
+
+/**
+ * Read the lines of a file byte range using memory mapped segments.
+ * 
+ * <p>
+ * Lines are handed as {@link ByteSequence} views over the mapped bytes, no
+ * line is decoded. The view is reused, so the consumer should not keep it.
+ * Files bigger than a {@link MappedByteBuffer} are mapped in segments that end
+ * on a line break. Several readers can share the same channel.
+ * </p>
+ * 
+ * @author victor
+ *
+ */
+public class MappedLogReader {
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 28;
+
+	private final FileChannel channel;
+
+	private final int segmentSize;
+
+	public MappedLogReader(FileChannel channel) {
+		this(channel, DEFAULT_SEGMENT_SIZE);
+	}
+
+	public MappedLogReader(FileChannel channel, int segmentSize) {
+		this.channel = channel;
+		this.segmentSize = segmentSize;
+	}
+
+	/**
+	 * Read all lines of the range.
+	 * 
+	 * @param range
+	 *            range aligned on line boundaries
+	 * @param consumer
+	 *            line consumer
+	 * @throws IOException
+	 *             Couldn't read file
+	 */
+	public void read(LogFileSplitter.Range range, Consumer<ByteSequence> consumer) throws IOException {
+		ByteSequence line = new ByteSequence();
+		long position = range.getStart();
+		int size = segmentSize;
+		while (position < range.getEnd()) {
+			long length = Math.min(size, range.getEnd() - position);
+			MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+			boolean last = position + length == range.getEnd();
+			int segmentEnd = last ? (int) length : lastLineEnd(segment, (int) length);
+			if (segmentEnd < 0) {
+				// line longer than segment
+				size = (int) Math.min(Integer.MAX_VALUE, 2L * size);
+				continue;
+			}
+
+			int lineStart = 0;
+			for (int i = 0; i < segmentEnd; ++i) {
+				if (segment.get(i) == '\n') {
+					emit(segment, lineStart, i, line, consumer);
+					lineStart = i + 1;
+				}
+			}
+			if (lineStart < segmentEnd) {
+				emit(segment, lineStart, segmentEnd, line, consumer);
+			}
+			position += segmentEnd;
+			size = segmentSize;
+		}
+	}
+
+	/*
+	 * Position after the last line break, or -1 if there is none
+	 */
+	private static int lastLineEnd(MappedByteBuffer segment, int length) {
+		for (int i = length - 1; i >= 0; --i) {
+			if (segment.get(i) == '\n') {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	private static void emit(MappedByteBuffer segment, int start, int end, ByteSequence line,
+			Consumer<ByteSequence> consumer) {
+		if (end > start && segment.get(end - 1) == '\r') {
+			--end;
+		}
+		if (end > start) {
+			consumer.accept(line.reset(segment, start, end));
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package com.ef.log;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Accept the lines inside a time window comparing the timestamp characters.
+ * 
+ * <p>
+ * The access log timestamp has a fixed width and its fields are ordered from
+ * the most significant, so the text order is the time order. A line outside
+ * the window is rejected without parsing anything.
+ * </p>
+ * 
+ * @author victor
+ *
+ */
+public class TimestampFilter {
+	private final String start;
+
+	private final String end;
+
+	/**
+	 * @param startDate
+	 *            window start (inclusive)
+	 * @param endDate
+	 *            window end (exclusive)
+	 */
+	public TimestampFilter(Date startDate, Date endDate) {
+		DateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		this.start = format.format(startDate);
+		this.end = format.format(endDate);
+	}
+
+	/**
+	 * Check the line timestamp
+	 * 
+	 * @param line
+	 *            access log line
+	 * @return false if the line is outside the window. Lines without a valid
+	 *         timestamp are accepted, so the tokenizer can report them.
+	 */
+	public boolean accept(CharSequence line) {
+		if (line.length() <= AccessLogTokenizer.DATE_LENGTH
+				|| line.charAt(AccessLogTokenizer.DATE_LENGTH) != AccessLogTokenizer.SEPARATOR) {
+			return true;
+		}
+		return compare(line, start) >= 0 && compare(line, end) < 0;
+	}
+
+	private static int compare(CharSequence line, String timestamp) {
+		for (int i = 0; i < AccessLogTokenizer.DATE_LENGTH; ++i) {
+			int diff = line.charAt(i) - timestamp.charAt(i);
+			if (diff != 0) {
+				return diff;
+			}
+		}
+		return 0;
+	}
+}
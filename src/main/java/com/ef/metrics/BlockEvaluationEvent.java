@@ -0,0 +1,67 @@
+package com.ef.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timestamp;
+
+/**
+ * Flight Recorder event of a search for the IPs over a threshold
+ * 
+ * @author victor
+ *
+ */
+@Name("com.ef.BlockEvaluation")
+@Label("Block Evaluation")
+@Category("Parser")
+@Description("Search of the IPs over a threshold")
+public class BlockEvaluationEvent extends Event {
+	@Label("Window Start")
+	@Timestamp
+	long windowStart;
+
+	@Label("Window End")
+	@Timestamp
+	long windowEnd;
+
+	@Label("Threshold")
+	int threshold;
+
+	@Label("Blocked IPs")
+	int ips;
+
+	/**
+	 * @return the started event
+	 */
+	public static BlockEvaluationEvent start() {
+		BlockEvaluationEvent event = new BlockEvaluationEvent();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Commit the event, if it is recorded
+	 * 
+	 * @param windowStart
+	 *            first checked time, in milliseconds
+	 * @param windowEnd
+	 *            end of the checked time, in milliseconds, or zero if it is
+	 *            open
+	 * @param threshold
+	 *            minimum number of requests
+	 * @param ips
+	 *            number of IPs over the threshold
+	 */
+	public void finish(long windowStart, long windowEnd, int threshold, int ips) {
+		end();
+		if (shouldCommit()) {
+			this.windowStart = windowStart;
+			this.windowEnd = windowEnd;
+			this.threshold = threshold;
+			this.ips = ips;
+			commit();
+		}
+	}
+}
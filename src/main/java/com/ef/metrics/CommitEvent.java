@@ -0,0 +1,52 @@
+package com.ef.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event of a transaction that registered lines, from the
+ * first insert to the commit.
+ * 
+ * @author victor
+ *
+ */
+@Name("com.ef.Commit")
+@Label("Commit")
+@Category("Parser")
+@Description("Lines registered in a transaction")
+public class CommitEvent extends Event {
+	@Label("Lines")
+	int lines;
+
+	@Label("Inserted Rows")
+	int inserted;
+
+	/**
+	 * @return the started event
+	 */
+	public static CommitEvent start() {
+		CommitEvent event = new CommitEvent();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Commit the event, if it is recorded
+	 * 
+	 * @param lines
+	 *            lines of the transaction
+	 * @param inserted
+	 *            inserted rows
+	 */
+	public void finish(int lines, int inserted) {
+		end();
+		if (shouldCommit()) {
+			this.lines = lines;
+			this.inserted = inserted;
+			commit();
+		}
+	}
+}
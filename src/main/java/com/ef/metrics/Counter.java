@@ -0,0 +1,48 @@
+package com.ef.metrics;
+
+/**
+ * Counted events
+ * 
+ * @author victor
+ *
+ */
+public enum Counter {
+	FILES("files", "Access log files read"),
+
+	LINES("lines", "Lines read from the access log"),
+
+	SKIPPED_LINES("skipped_lines", "Lines read outside the time window"),
+
+	INVALID_LINES("invalid_lines", "Lines that could not be parsed"),
+
+	INSERTED_ROWS("inserted_rows", "Requests inserted into the database"),
+
+	DUPLICATED_LINES("duplicated_lines", "Lines already in the database"),
+
+	NEW_AGENTS("new_agents", "Agents not found in the agent cache"),
+
+	BLOCKED_IPS("blocked_ips", "IPs over a threshold written to the blocked list");
+
+	private final String label;
+
+	private final String help;
+
+	private Counter(String label, String help) {
+		this.label = label;
+		this.help = help;
+	}
+
+	/**
+	 * @return name used in the exported metrics
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * @return description of the counter
+	 */
+	public String getHelp() {
+		return help;
+	}
+}
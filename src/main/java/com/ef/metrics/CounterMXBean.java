@@ -0,0 +1,13 @@
+package com.ef.metrics;
+
+/**
+ * JMX view of a {@link Counter}
+ * 
+ * @author victor
+ *
+ */
+public interface CounterMXBean {
+	String getDescription();
+
+	long getValue();
+}
@@ -0,0 +1,122 @@
+package com.ef.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock free latency histogram with log-linear buckets, like HdrHistogram.
+ *
+ * <p>
+ * Each power of two is split into {@value #SUB_BUCKETS} buckets, so a value is
+ * reported with an error below 1/{@value #SUB_BUCKETS} of it, from a
+ * nanosecond to centuries, in a fixed array. Values are recorded by any number
+ * of threads without locks.
+ * </p>
+ *
+ * @author victor
+ *
+ */
+public class LatencyHistogram {
+	private static final int SUB_BITS = 5;
+
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder sum = new LongAdder();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a value
+	 *
+	 * @param value
+	 *            latency, negative values are recorded as zero
+	 */
+	public void record(long value) {
+		value = Math.max(0, value);
+		buckets.incrementAndGet(index(value));
+		count.increment();
+		sum.add(value);
+		if (value > max.get()) {
+			max.accumulateAndGet(value, Math::max);
+		}
+	}
+
+	/**
+	 * @return number of recorded values
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return sum of recorded values
+	 */
+	public long getSum() {
+		return sum.sum();
+	}
+
+	/**
+	 * @return largest recorded value
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return average of recorded values, or zero if there is none
+	 */
+	public double getMean() {
+		long values = getCount();
+		return values == 0 ? 0 : (double) getSum() / values;
+	}
+
+	/**
+	 * Value at a percentile. It is the highest value of its bucket, so it is
+	 * never lower than the exact value.
+	 *
+	 * @param percentile
+	 *            percentile between 0 and 100
+	 * @return value at the percentile, or zero if there is no value
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long values = getCount();
+		if (values == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * values));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValue(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	static int index(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) - SUB_BUCKETS;
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	static long highestValue(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long sub = index % SUB_BUCKETS;
+		long next = (SUB_BUCKETS + sub + 1) << shift;
+		return next <= 0 ? Long.MAX_VALUE : next - 1;
+	}
+}
@@ -0,0 +1,234 @@
+package com.ef.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters and stage latencies of the process.
+ *
+ * <p>
+ * The values are kept since the process start and can be recorded by any
+ * thread. They are reported as a text summary, as a Prometheus text file or as
+ * JMX MBeans under the <b>com.ef.parser</b> domain. Flight Recorder events are
+ * only created if {@link #FLIGHT_RECORDER} is true, so the classes of
+ * <b>jdk.jfr</b> are never loaded by a runtime without them: Java 8 has them
+ * since 8u262.
+ * </p>
+ *
+ * @author victor
+ *
+ */
+public class Metrics {
+	private static Logger LOGGER = LoggerFactory.getLogger(Metrics.class);
+
+	private static final double NANOS_PER_MILLI = 1e6;
+
+	private static final double NANOS_PER_SECOND = 1e9;
+
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	/**
+	 * Flight Recorder events are supported by the runtime
+	 */
+	public static final boolean FLIGHT_RECORDER = flightRecorderAvailable();
+
+	private static final LongAdder[] COUNTERS = new LongAdder[Counter.values().length];
+
+	private static final LatencyHistogram[] STAGES = new LatencyHistogram[Stage.values().length];
+
+	private static boolean registered = false;
+
+	static {
+		for (int i = 0; i < COUNTERS.length; ++i) {
+			COUNTERS[i] = new LongAdder();
+		}
+		for (int i = 0; i < STAGES.length; ++i) {
+			STAGES[i] = new LatencyHistogram();
+		}
+	}
+
+	public static void increment(Counter counter) {
+		COUNTERS[counter.ordinal()].increment();
+	}
+
+	public static void add(Counter counter, long value) {
+		COUNTERS[counter.ordinal()].add(value);
+	}
+
+	public static long get(Counter counter) {
+		return COUNTERS[counter.ordinal()].sum();
+	}
+
+	public static LatencyHistogram histogram(Stage stage) {
+		return STAGES[stage.ordinal()];
+	}
+
+	/**
+	 * Record the latency of a stage
+	 *
+	 * @param stage
+	 *            measured stage
+	 * @param start
+	 *            stage start, from {@link System#nanoTime()}
+	 * @return the latency in nanoseconds
+	 */
+	public static long record(Stage stage, long start) {
+		long elapsed = System.nanoTime() - start;
+		STAGES[stage.ordinal()].record(elapsed);
+		return elapsed;
+	}
+
+	/**
+	 * @return the counters and a table of the stage latencies in milliseconds
+	 */
+	public static String summary() {
+		StringBuilder summary = new StringBuilder("Metrics:");
+		for (Counter counter : Counter.values()) {
+			summary.append(' ').append(counter.getLabel()).append('=').append(get(counter));
+		}
+		summary.append(String.format(Locale.ROOT, "%n%-14s %10s %12s %10s %10s %10s %10s", "stage", "count",
+				"total ms", "mean ms", "p50 ms", "p99 ms", "max ms"));
+		for (Stage stage : Stage.values()) {
+			LatencyHistogram histogram = histogram(stage);
+			summary.append(String.format(Locale.ROOT, "%n%-14s %10d %12.1f %10.3f %10.3f %10.3f %10.3f",
+					stage.getLabel(), histogram.getCount(), histogram.getSum() / NANOS_PER_MILLI,
+					histogram.getMean() / NANOS_PER_MILLI, histogram.getValueAtPercentile(50) / NANOS_PER_MILLI,
+					histogram.getValueAtPercentile(99) / NANOS_PER_MILLI, histogram.getMax() / NANOS_PER_MILLI));
+		}
+		return summary.toString();
+	}
+
+	/**
+	 * @return the metrics in the Prometheus text format
+	 */
+	public static String prometheus() {
+		StringBuilder text = new StringBuilder();
+		for (Counter counter : Counter.values()) {
+			String name = "parser_" + counter.getLabel() + "_total";
+			text.append("# HELP ").append(name).append(' ').append(counter.getHelp()).append('\n');
+			text.append("# TYPE ").append(name).append(" counter\n");
+			text.append(name).append(' ').append(get(counter)).append('\n');
+		}
+		text.append("# HELP parser_stage_seconds Latency of each stage\n");
+		text.append("# TYPE parser_stage_seconds summary\n");
+		for (Stage stage : Stage.values()) {
+			LatencyHistogram histogram = histogram(stage);
+			for (double quantile : QUANTILES) {
+				text.append(String.format(Locale.ROOT, "parser_stage_seconds{stage=\"%s\",quantile=\"%s\"} %.9f%n",
+						stage.getLabel(), quantile, histogram.getValueAtPercentile(quantile * 100) / NANOS_PER_SECOND));
+			}
+			text.append(String.format(Locale.ROOT, "parser_stage_seconds_sum{stage=\"%s\"} %.9f%n", stage.getLabel(),
+					histogram.getSum() / NANOS_PER_SECOND));
+			text.append(String.format(Locale.ROOT, "parser_stage_seconds_count{stage=\"%s\"} %d%n", stage.getLabel(),
+					histogram.getCount()));
+		}
+		text.append("# HELP parser_stage_max_seconds Highest latency of each stage\n");
+		text.append("# TYPE parser_stage_max_seconds gauge\n");
+		for (Stage stage : Stage.values()) {
+			text.append(String.format(Locale.ROOT, "parser_stage_max_seconds{stage=\"%s\"} %.9f%n", stage.getLabel(),
+					histogram(stage).getMax() / NANOS_PER_SECOND));
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Write the metrics in the Prometheus text format. The file is replaced
+	 * atomically, so a collector never reads it half written.
+	 *
+	 * @param file
+	 *            destination file
+	 * @throws IOException
+	 *             Couldn't write the file
+	 */
+	public static void writePrometheus(Path file) throws IOException {
+		Path absolute = file.toAbsolutePath();
+		Path temporary = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+		Files.write(temporary, prometheus().getBytes(StandardCharsets.UTF_8));
+		Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Register one MBean for each counter and stage in the platform MBean
+	 * server. It can be called more than once.
+	 */
+	public static synchronized void registerMBeans() {
+		if (registered) {
+			return;
+		}
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			for (Counter counter : Counter.values()) {
+				server.registerMBean(new CounterMXBean() {
+					@Override
+					public String getDescription() {
+						return counter.getHelp();
+					}
+
+					@Override
+					public long getValue() {
+						return get(counter);
+					}
+				}, new ObjectName("com.ef.parser:type=Counter,name=" + counter.getLabel()));
+			}
+			for (Stage stage : Stage.values()) {
+				LatencyHistogram histogram = histogram(stage);
+				server.registerMBean(new StageMXBean() {
+					@Override
+					public long getCount() {
+						return histogram.getCount();
+					}
+
+					@Override
+					public double getTotalMillis() {
+						return histogram.getSum() / NANOS_PER_MILLI;
+					}
+
+					@Override
+					public double getMeanMillis() {
+						return histogram.getMean() / NANOS_PER_MILLI;
+					}
+
+					@Override
+					public double getP50Millis() {
+						return histogram.getValueAtPercentile(50) / NANOS_PER_MILLI;
+					}
+
+					@Override
+					public double getP99Millis() {
+						return histogram.getValueAtPercentile(99) / NANOS_PER_MILLI;
+					}
+
+					@Override
+					public double getMaxMillis() {
+						return histogram.getMax() / NANOS_PER_MILLI;
+					}
+				}, new ObjectName("com.ef.parser:type=Stage,name=" + stage.getLabel()));
+			}
+			registered = true;
+		} catch (JMException e) {
+			LOGGER.warn("Couldn't register metrics MBeans", e);
+		}
+	}
+
+	private static boolean flightRecorderAvailable() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+}
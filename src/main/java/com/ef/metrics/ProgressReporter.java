@@ -0,0 +1,92 @@
+package com.ef.metrics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically log the ingest rate and write the Prometheus metrics file.
+ *
+ * @author victor
+ *
+ */
+public class ProgressReporter implements AutoCloseable {
+	private static Logger LOGGER = LoggerFactory.getLogger(ProgressReporter.class);
+
+	private final ScheduledExecutorService executor;
+
+	private final Path metricsFile;
+
+	private long lastTime = System.nanoTime();
+
+	private long lastLines = Metrics.get(Counter.LINES);
+
+	private long lastRows = Metrics.get(Counter.INSERTED_ROWS);
+
+	/**
+	 * Start reporting
+	 *
+	 * @param intervalMillis
+	 *            time between reports, or zero to only write the metrics file
+	 *            on close
+	 * @param metricsFile
+	 *            Prometheus text file, or null
+	 */
+	public ProgressReporter(long intervalMillis, Path metricsFile) {
+		this.metricsFile = metricsFile;
+		if (intervalMillis > 0) {
+			executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "progress");
+				thread.setDaemon(true);
+				return thread;
+			});
+			executor.scheduleAtFixedRate(this::report, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		} else {
+			executor = null;
+		}
+	}
+
+	private void report() {
+		long now = System.nanoTime();
+		long lines = Metrics.get(Counter.LINES);
+		long rows = Metrics.get(Counter.INSERTED_ROWS);
+		double seconds = Math.max(1, now - lastTime) / 1e9;
+		LOGGER.info(String.format("Progress: lines=%d (%.0f lines/s) inserted=%d (%.0f rows/s) blocked=%d", lines,
+				(lines - lastLines) / seconds, rows, (rows - lastRows) / seconds, Metrics.get(Counter.BLOCKED_IPS)));
+		lastTime = now;
+		lastLines = lines;
+		lastRows = rows;
+		writeMetrics();
+	}
+
+	private void writeMetrics() {
+		if (metricsFile != null) {
+			try {
+				Metrics.writePrometheus(metricsFile);
+			} catch (IOException e) {
+				LOGGER.warn("Couldn't write metrics file: " + metricsFile, e);
+			}
+		}
+	}
+
+	/**
+	 * Stop reporting and write the final metrics file
+	 */
+	@Override
+	public void close() {
+		if (executor != null) {
+			executor.shutdownNow();
+			try {
+				executor.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		writeMetrics();
+	}
+}
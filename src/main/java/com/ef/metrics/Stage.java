@@ -0,0 +1,54 @@
+package com.ef.metrics;
+
+/**
+ * Measured stages of the ingest and the blocking. The parsing stages are
+ * measured for each chunk of lines, the database stages for each
+ * transaction.
+ * 
+ * @author victor
+ *
+ */
+public enum Stage {
+	/**
+	 * Finding the lines of the file, excluding the tokenization
+	 */
+	READ("read"),
+
+	/**
+	 * Parsing the lines
+	 */
+	TOKENIZE("tokenize"),
+
+	/**
+	 * Finding or creating the agents of the lines
+	 */
+	AGENT_RESOLVE("agent_resolve"),
+
+	/**
+	 * Writing the lines, before the commit
+	 */
+	INSERT("insert"),
+
+	/**
+	 * Committing the lines
+	 */
+	COMMIT("commit"),
+
+	/**
+	 * Finding the IPs over a threshold
+	 */
+	BLOCK_QUERY("block_query");
+
+	private final String label;
+
+	private Stage(String label) {
+		this.label = label;
+	}
+
+	/**
+	 * @return name used in the exported metrics
+	 */
+	public String getLabel() {
+		return label;
+	}
+}
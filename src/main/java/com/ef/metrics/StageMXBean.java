@@ -0,0 +1,21 @@
+package com.ef.metrics;
+
+/**
+ * JMX view of the latency of a {@link Stage}
+ * 
+ * @author victor
+ *
+ */
+public interface StageMXBean {
+	long getCount();
+
+	double getTotalMillis();
+
+	double getMeanMillis();
+
+	double getP50Millis();
+
+	double getP99Millis();
+
+	double getMaxMillis();
+}
@@ -7,5 +7,18 @@ package com.ef.params;
  *
  */
 public enum Duration {
-	HOURLY, DAILY
+	HOURLY(60 * 60 * 1000L), DAILY(24 * 60 * 60 * 1000L);
+
+	private final long millis;
+
+	private Duration(long millis) {
+		this.millis = millis;
+	}
+
+	/**
+	 * @return duration in milliseconds
+	 */
+	public long getMillis() {
+		return millis;
+	}
 }
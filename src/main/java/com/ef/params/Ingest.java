@@ -0,0 +1,27 @@
+package com.ef.params;
+
+/**
+ * Strategy used to write the log lines into database
+ * 
+ * @author victor
+ *
+ */
+public enum Ingest {
+	/**
+	 * JDBC batch inserts, inserting the logs one by one when a batch fails on a
+	 * duplicated or invalid log
+	 */
+	BATCH,
+
+	/**
+	 * JDBC batch into a staging table on MySQL, copying only the new logs
+	 * without a constraint violation. Other databases use <code>MERGE</code>
+	 */
+	STAGED,
+
+	/**
+	 * The database bulk loader, <code>LOAD DATA LOCAL INFILE</code> on MySQL.
+	 * Other databases use JDBC batch inserts
+	 */
+	BULK
+}
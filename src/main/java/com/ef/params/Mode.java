@@ -0,0 +1,25 @@
+package com.ef.params;
+
+/**
+ * Execution mode parameters
+ * 
+ * @author victor
+ *
+ */
+public enum Mode {
+	/**
+	 * Load the file into database and query the blocked IPs
+	 */
+	DATABASE,
+
+	/**
+	 * Count the requests in memory, without database
+	 */
+	MEMORY,
+
+	/**
+	 * Load the file into a binary store, if it is not there, and query the
+	 * blocked IPs from the store
+	 */
+	STORE
+}
@@ -0,0 +1,34 @@
+package com.ef.params;
+
+import lombok.Value;
+
+/**
+ * Blocking rule: the maximum number of requests in each window of a duration.
+ * 
+ * @author victor
+ *
+ */
+@Value
+public class Rule {
+	private Duration duration;
+
+	private int threshold;
+
+	/**
+	 * Parse a rule
+	 * 
+	 * @param value
+	 *            <code>DURATION:THRESHOLD</code>, like <code>hourly:200</code>
+	 * @return the rule
+	 * @throws IllegalArgumentException
+	 *             if the value is not a valid rule
+	 */
+	public static Rule parse(String value) {
+		int separator = value.indexOf(':');
+		if (separator < 0) {
+			throw new IllegalArgumentException("Invalid rule: " + value);
+		}
+		return new Rule(Duration.valueOf(value.substring(0, separator).toUpperCase()),
+				Integer.parseInt(value.substring(separator + 1)));
+	}
+}
@@ -1,24 +1,44 @@
 package com.ef.services;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.Optional;
+import java.util.stream.Collectors;
 
 import org.hibernate.Session;
 import org.hibernate.Transaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.ef.db.AccessLogHourlyRepository;
+import com.ef.db.AccessLogHourlyRepository.HitsConsumer;
 import com.ef.db.AccessLogRepository;
 import com.ef.db.AgentRepository;
 import com.ef.db.BlockedIPRepository;
-import com.ef.db.exception.RollbackException;
 import com.ef.db.hibernate.HibernateUtil;
+import com.ef.detection.HeavyHitters;
+import com.ef.detection.HitCounter;
+import com.ef.detection.OnlineDetector;
+import com.ef.detection.RuleEvaluator;
+import com.ef.detection.RuleViolation;
+import com.ef.detection.SlidingWindowDetector;
 import com.ef.domain.AccessLog;
 import com.ef.domain.Agent;
-import com.ef.domain.BlockedIP;
+import com.ef.domain.IPAddress;
+import com.ef.log.LogEntry;
+import com.ef.log.LogSink;
+import com.ef.metrics.BlockEvaluationEvent;
+import com.ef.metrics.CommitEvent;
+import com.ef.metrics.Counter;
+import com.ef.metrics.Metrics;
+import com.ef.metrics.Stage;
+import com.ef.params.Duration;
+import com.ef.params.Ingest;
+import com.ef.params.Rule;
+import com.ef.utils.IntIntHashMap;
 import com.ef.utils.StringUtils;
 
 /**
@@ -27,14 +47,55 @@ import com.ef.utils.StringUtils;
  * @author victor
  *
  */
-public class AccessLogService {
+public class AccessLogService implements LogSink {
 
 	private static Logger LOGGER = LoggerFactory.getLogger(AccessLogService.class);
 
 	private AccessLogRepository accessLogRepository = new AccessLogRepository();
+	private AccessLogHourlyRepository accessLogHourlyRepository = new AccessLogHourlyRepository();
 	private BlockedIPRepository blockedIPRepository = new BlockedIPRepository();
 	private AgentRepository agentRepository = new AgentRepository();
-	private static final DateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd.HH:mm:ss");
+	private AgentCache agentCache;
+	private Ingest ingest = Ingest.BATCH;
+	private volatile DuplicateFilter duplicateFilter;
+	/**
+	 * End of the last daily partition: the chunks with newer requests create
+	 * their partitions before they are registered
+	 */
+	private volatile long partitionedUntil = Long.MIN_VALUE;
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd.HH:mm:ss")
+			.withZone(ZoneId.systemDefault());
+
+	public AccessLogService() {
+		this(AgentCache.DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param agentCacheSize
+	 *            max number of cached agents
+	 */
+	public AccessLogService(int agentCacheSize) {
+		agentCache = new AgentCache(agentRepository, agentCacheSize);
+	}
+
+	/**
+	 * Load known agents into the agent cache
+	 */
+	public void warmAgentCache() {
+		agentCache.warm();
+	}
+
+	public AgentCache getAgentCache() {
+		return agentCache;
+	}
+
+	/**
+	 * @param ingest
+	 *            strategy used by {@link #registerAll(List)}
+	 */
+	public void setIngest(Ingest ingest) {
+		this.ingest = ingest;
+	}
 
 	/**
 	 * Register log.
@@ -49,29 +110,221 @@ public class AccessLogService {
 	 *            HTTP response code
 	 * @param agentDescription
 	 *            HTTP agent
+	 * @return true if the log was inserted, false if it was already registered
 	 */
-	public void register(Date time, String ip, String request, Integer responseCode, String agentDescription) {
+	public boolean register(Date time, String ip, String request, Integer responseCode, String agentDescription) {
+		AccessLog logInfo = new AccessLog(time, IPAddress.parse(ip), request, responseCode);
+		if (!StringUtils.isEmpty(agentDescription)) {
+			long start = System.nanoTime();
+			logInfo.setAgent(agent(agentDescription));
+			Metrics.record(Stage.AGENT_RESOLVE, start);
+		}
 		try (Session session = HibernateUtil.getSessionFactory().getCurrentSession()) {
 			Transaction tx = session.beginTransaction();
-			try {
-				AccessLog logInfo = new AccessLog(time, ip, request, responseCode);
-				if (!StringUtils.isEmpty(agentDescription)) {
-					Optional<Agent> agent = agentRepository.find(agentDescription);
-					if (!agent.isPresent()) {
-						agent = Optional.of(new Agent(agentDescription));
-						agentRepository.insert(agent.get());
-					}
-					logInfo.setAgent(agent.get());
-				}
-				accessLogRepository.insert(logInfo);
-				tx.commit();
-			} catch (RollbackException e) {
-				tx.rollback();
-				System.err.println("Line already processed! Ignoring line.");
+			long start = System.nanoTime();
+			AccessLogRepository.Inserted written = accessLogRepository.insertAll(Collections.singletonList(logInfo));
+			List<AccessLog> inserted = written.getLogs();
+			accessLogHourlyRepository.addAll(inserted);
+			Metrics.record(Stage.INSERT, start);
+			commit(tx, 1, inserted.size());
+			Metrics.add(Counter.INVALID_LINES, written.getRejected());
+			if (inserted.isEmpty() && written.getRejected() == 0) {
+				Metrics.increment(Counter.DUPLICATED_LINES);
+				LOGGER.debug("Line already processed: {}", logInfo);
+			}
+			return !inserted.isEmpty();
+		}
+	}
+
+	/**
+	 * Same as {@link #register(List)}
+	 * 
+	 * @return number of inserted logs
+	 */
+	@Override
+	public int registerAll(List<LogEntry> entries) {
+		return register(entries).size();
+	}
+
+	/**
+	 * Register a chunk of logs in a single transaction. The logs are written using
+	 * a JDBC batch, a staging table with {@link Ingest#STAGED} or the bulk loader
+	 * with {@link Ingest#BULK}, and the already processed lines are ignored:
+	 * first by the duplicate filter, if there is one, then by the database. A
+	 * line the database rejects is logged and counted as invalid. The hourly counters of the inserted logs are
+	 * updated in the same transaction. The daily partitions of the days not
+	 * partitioned yet, as in a followed or a compressed log, are created
+	 * before.
+	 * 
+	 * @param entries
+	 *            parsed log lines
+	 * @return the inserted logs
+	 */
+	public List<AccessLog> register(List<LogEntry> entries) {
+		DuplicateFilter filter = duplicateFilter;
+		if (filter != null) {
+			int lines = entries.size();
+			entries = filter.filter(entries);
+			Metrics.add(Counter.DUPLICATED_LINES, lines - entries.size());
+		}
+		if (entries.isEmpty()) {
+			return Collections.emptyList();
+		}
+		long start = System.nanoTime();
+		List<AccessLog> logs = new ArrayList<>(entries.size());
+		for (LogEntry entry : entries) {
+			AccessLog logInfo = new AccessLog(new Date(entry.getTime()), IPAddress.ofIPv4(entry.getIp()),
+					entry.getRequest(), entry.getResponseCode());
+			if (!StringUtils.isEmpty(entry.getAgent())) {
+				logInfo.setAgent(agent(entry.getAgent()));
 			}
+			logs.add(logInfo);
+		}
+		Metrics.record(Stage.AGENT_RESOLVE, start);
+		extendPartitions(logs);
+		try (Session session = HibernateUtil.getSessionFactory().getCurrentSession()) {
+			Transaction tx = session.beginTransaction();
+			start = System.nanoTime();
+			AccessLogRepository.Inserted written = write(logs);
+			List<AccessLog> inserted = written.getLogs();
+			accessLogHourlyRepository.addAll(inserted);
+			Metrics.record(Stage.INSERT, start);
+			commit(tx, logs.size(), inserted.size());
+			Metrics.add(Counter.DUPLICATED_LINES, logs.size() - inserted.size() - written.getRejected());
+			Metrics.add(Counter.INVALID_LINES, written.getRejected());
+			if (filter != null) {
+				// every log of the chunk is registered now, by this or other transaction
+				filter.addAll(logs);
+			}
+			return inserted;
+		}
+	}
+
+	private AccessLogRepository.Inserted write(List<AccessLog> logs) {
+		switch (ingest) {
+		case STAGED:
+			return accessLogRepository.stageAll(logs);
+		case BULK:
+			return accessLogRepository.loadAll(logs);
+		default:
+			return accessLogRepository.insertAll(logs);
+		}
+	}
+
+	/**
+	 * Commit the registered lines, recording the commit latency and the
+	 * inserted rows
+	 */
+	private void commit(Transaction tx, int lines, int inserted) {
+		CommitEvent event = Metrics.FLIGHT_RECORDER ? CommitEvent.start() : null;
+		long start = System.nanoTime();
+		tx.commit();
+		Metrics.record(Stage.COMMIT, start);
+		Metrics.add(Counter.INSERTED_ROWS, inserted);
+		if (event != null) {
+			event.finish(lines, inserted);
+		}
+	}
+
+	/**
+	 * Load the keys of the requests already registered in the span of a file
+	 * into a duplicate filter, used by {@link #registerAll(List)} to drop the
+	 * lines registered by previous runs without a database round trip.
+	 * 
+	 * @param first
+	 *            time of the first request of the file
+	 * @param last
+	 *            time of the last request of the file
+	 * @param capacity
+	 *            max number of keys kept in memory
+	 */
+	public void loadDuplicateFilter(Date first, Date last, int capacity) {
+		long begin = System.currentTimeMillis();
+		DuplicateFilter filter = new DuplicateFilter(first, last, capacity);
+		long rows = accessLogRepository.scanRequests(first, new Date(last.getTime() + 1), (ip, time) -> {
+			if (ip.isIPv4()) {
+				filter.add(ip.toIPv4(), time);
+			}
+		});
+		duplicateFilter = filter;
+		LOGGER.info("Duplicate filter loaded: registered requests={} keys={} elapsed={}ms", rows, filter.size(),
+				System.currentTimeMillis() - begin);
+	}
+
+	/**
+	 * Get an agent reference using the agent cache. New agents are committed
+	 * before the log that references them.
+	 */
+	private Agent agent(String agentDescription) {
+		Agent agent = new Agent(agentDescription);
+		agent.setId(agentCache.resolve(agentDescription));
+		return agent;
+	}
+
+	/**
+	 * Create the daily partitions of the requests between the dates, so they are
+	 * not registered in the future partition. It does nothing if the requests
+	 * are not partitioned.
+	 * 
+	 * @param first
+	 *            time of the first request
+	 * @param last
+	 *            time of the last request
+	 */
+	public synchronized void preparePartitions(Date first, Date last) {
+		if (last.getTime() < partitionedUntil) {
+			return;
+		}
+		try (Session session = HibernateUtil.getSessionFactory().getCurrentSession()) {
+			Transaction tx = session.beginTransaction();
+			partitionedUntil = accessLogRepository.addPartitions(first, last);
+			tx.commit();
+		}
+	}
+
+	/*
+	 * Create the partitions of a chunk newer than the partitioned days. It is
+	 * called out of the chunk transaction: the partitions are changed by DDL,
+	 * that commits the current transaction.
+	 */
+	private void extendPartitions(List<AccessLog> logs) {
+		long first = Long.MAX_VALUE;
+		long last = Long.MIN_VALUE;
+		for (AccessLog log : logs) {
+			first = Math.min(first, log.getTime().getTime());
+			last = Math.max(last, log.getTime().getTime());
+		}
+		if (last >= partitionedUntil) {
+			preparePartitions(new Date(first), new Date(last));
 		}
 	}
 
+	/**
+	 * Remove the requests and the hourly counters of the days before the last
+	 * days of the newest request. Partitioned requests are removed dropping the
+	 * partitions of the old days.
+	 * 
+	 * @param days
+	 *            number of kept days, including the day of the newest request
+	 * @return start of the first kept day, or null if there is no request
+	 */
+	public Date applyRetention(int days) {
+		Date newest = accessLogRepository.newestTime();
+		if (newest == null) {
+			return null;
+		}
+		long day = Duration.DAILY.getMillis();
+		Date cutoff = new Date((Math.floorDiv(newest.getTime(), day) - days + 1) * day);
+		try (Session session = HibernateUtil.getSessionFactory().getCurrentSession()) {
+			Transaction tx = session.beginTransaction();
+			long removed = accessLogRepository.deleteBefore(cutoff);
+			int counters = accessLogHourlyRepository.deleteBefore(cutoff);
+			tx.commit();
+			LOGGER.info("Removed requests before {}: removed={} hourly counters={}", cutoff, removed, counters);
+		}
+		return cutoff;
+	}
+
 	/**
 	 * Block IP according with parameters
 	 * 
@@ -85,21 +338,208 @@ public class AccessLogService {
 	 * @return blocked IPs
 	 */
 	public List<String> createBlockedIPs(Date startDate, Date endDate, int threshold) {
-		List<String> ips = accessLogRepository.getIPs(startDate, endDate, (long) threshold);
-		ips.forEach(ip -> {
-			try (Session session = HibernateUtil.getSessionFactory().getCurrentSession()) {
-				Transaction tx = session.beginTransaction();
-				try {
-					blockedIPRepository.insert(new BlockedIP(ip, String.format("More than %d access between %s and %s",
-							threshold, DATE_FORMAT.format(startDate), DATE_FORMAT.format(endDate))));
-					tx.commit();
-				} catch (RollbackException e) {
-					tx.rollback();
-					LOGGER.warn("Constraint violation. Rollback.", e);
-					System.err.println("IP already blocked: " + ip);
+		BlockEvaluationEvent event = Metrics.FLIGHT_RECORDER ? BlockEvaluationEvent.start() : null;
+		long start = System.nanoTime();
+		List<IPAddress> ips = accessLogRepository.getIPs(startDate, endDate, (long) threshold);
+		Metrics.record(Stage.BLOCK_QUERY, start);
+		if (event != null) {
+			event.finish(startDate.getTime(), endDate.getTime(), threshold, ips.size());
+		}
+		block(ips, startDate, endDate, threshold);
+		return ips.stream().map(IPAddress::toString).collect(Collectors.toList());
+	}
+
+	/**
+	 * Block the heavy hitters counted while the file was registered, without
+	 * grouping the requests of the window. With verify, the requests of the
+	 * candidates are counted by a query restricted to them, so there is no
+	 * false positive; otherwise the candidates are blocked.
+	 * 
+	 * @param heavyHitters
+	 *            counter of the time window and threshold
+	 * @param verify
+	 *            Check the candidates in the database
+	 * @return blocked IPs
+	 */
+	public List<String> createBlockedIPs(HeavyHitters heavyHitters, boolean verify) {
+		Date startDate = heavyHitters.getStartDate();
+		Date endDate = heavyHitters.getEndDate();
+		BlockEvaluationEvent event = Metrics.FLIGHT_RECORDER ? BlockEvaluationEvent.start() : null;
+		long start = System.nanoTime();
+		List<IPAddress> ips = new ArrayList<>();
+		for (int ip : heavyHitters.getCandidates()) {
+			ips.add(IPAddress.ofIPv4(ip));
+		}
+		LOGGER.info(heavyHitters.toString());
+		if (verify) {
+			ips = accessLogRepository.getIPs(ips, startDate, endDate, heavyHitters.getThreshold());
+		}
+		Metrics.record(Stage.BLOCK_QUERY, start);
+		if (event != null) {
+			event.finish(startDate.getTime(), endDate.getTime(), heavyHitters.getThreshold(), ips.size());
+		}
+		block(ips, startDate, endDate, heavyHitters.getThreshold());
+		return ips.stream().map(IPAddress::toString).collect(Collectors.toList());
+	}
+
+	/**
+	 * Block the IPs of rule violations found outside database, in a single
+	 * transaction
+	 * 
+	 * @param violations
+	 *            rule violations
+	 */
+	public void createBlockedIPs(List<RuleViolation> violations) {
+		if (violations.isEmpty()) {
+			return;
+		}
+		try (Session session = HibernateUtil.getSessionFactory().getCurrentSession()) {
+			Transaction tx = session.beginTransaction();
+			for (RuleViolation violation : violations) {
+				blockedIPRepository.blockAll(
+						violation.getIps().stream().map(IPAddress::parse).collect(Collectors.toList()),
+						violation.getStartDate(), violation.getEndDate(),
+						reason(violation.getStartDate(), violation.getEndDate(), violation.getThreshold()));
+			}
+			tx.commit();
+		}
+		violations.forEach(violation -> Metrics.add(Counter.BLOCKED_IPS, violation.getIps().size()));
+	}
+
+	/**
+	 * Evaluate many rules over the registered requests, each one in every
+	 * window of its duration from the start date, as
+	 * {@link InMemoryBlockingService#evaluate(List, Date, List)} does with a
+	 * file. The requests are counted per IP and hour from the hourly counters
+	 * when the start date is a whole hour, otherwise from the requests of the
+	 * span.
+	 * 
+	 * @param startDate
+	 *            start of the first window of each rule
+	 * @param rules
+	 *            blocking rules
+	 * @return one violation for each window with blocked IPs
+	 */
+	public List<RuleViolation> evaluate(Date startDate, List<Rule> rules) {
+		BlockEvaluationEvent event = Metrics.FLIGHT_RECORDER ? BlockEvaluationEvent.start() : null;
+		long begin = System.currentTimeMillis();
+		long start = System.nanoTime();
+		Date endDate = InMemoryBlockingService.spanEnd(startDate, rules);
+		HitCounter counter = new HitCounter(startDate, endDate);
+		long rows = scanHits(startDate, endDate, (ip, time, hits) -> {
+			if (ip.isIPv4()) {
+				counter.add(ip.toIPv4(), time, Math.toIntExact(hits));
+			}
+		});
+		List<RuleViolation> violations = RuleEvaluator.evaluate(counter, rules);
+		Metrics.record(Stage.BLOCK_QUERY, start);
+		if (event != null) {
+			event.finish(startDate.getTime(), endDate.getTime(), 0, violations.size());
+		}
+		LOGGER.info("Evaluated {} over {} rows: requests={} violations={} elapsed={}ms", rules, rows, counter.size(),
+				violations.size(), System.currentTimeMillis() - begin);
+		return violations;
+	}
+
+	/**
+	 * Read the registered requests of a span from the hourly counters when the
+	 * span is made of whole hours, otherwise one by one
+	 * 
+	 * @return number of rows read
+	 */
+	private long scanHits(Date startDate, Date endDate, HitsConsumer consumer) {
+		if (startDate.getTime() == AccessLogHourlyRepository.hour(startDate.getTime())
+				&& endDate.getTime() == AccessLogHourlyRepository.hour(endDate.getTime())) {
+			return accessLogHourlyRepository.scanHits(startDate, endDate, consumer);
+		}
+		return accessLogRepository.scanRequests(startDate, endDate, (ip, time) -> consumer.accept(ip, time, 1));
+	}
+
+	/**
+	 * Restore the counters of an online detector from the registered requests
+	 * of its active windows, after a restart or the replay of the lines after
+	 * a crash. The IPs already over a threshold are blocked again, in case the
+	 * previous run stopped before blocking them; the IPs already blocked in a
+	 * window are not blocked twice.
+	 * 
+	 * @param detector
+	 *            detector of the online mode, before it counts any request
+	 */
+	public void seed(OnlineDetector detector) {
+		long begin = System.currentTimeMillis();
+		Date newest = accessLogRepository.newestTime();
+		if (newest == null) {
+			return;
+		}
+		List<RuleViolation> violations = detector.seed(newest.getTime(), (startDate, endDate) -> {
+			IntIntHashMap counts = new IntIntHashMap();
+			scanHits(startDate, endDate, (ip, time, hits) -> {
+				if (ip.isIPv4()) {
+					counts.add(ip.toIPv4(), Math.toIntExact(hits));
 				}
+			});
+			return counts;
+		});
+		createBlockedIPs(violations);
+		LOGGER.info("Online detector restored up to {}: violations={} elapsed={}ms", newest, violations.size(),
+				System.currentTimeMillis() - begin);
+	}
+
+	/**
+	 * Find the IPs with more requests than the threshold in any rolling window
+	 * of the duration, from the start date until the last request. Unlike
+	 * {@link #createBlockedIPs(Date, Date, int)}, the requests split by a window
+	 * boundary are not missed.
+	 * 
+	 * @param startDate
+	 *            Time of the first checked request
+	 * @param duration
+	 *            The rolling window length
+	 * @param threshold
+	 *            The minimum request for blocking
+	 * @return one violation for each IP, with its first window over the
+	 *         threshold
+	 */
+	public List<RuleViolation> findSlidingViolations(Date startDate, Duration duration, int threshold) {
+		BlockEvaluationEvent event = Metrics.FLIGHT_RECORDER ? BlockEvaluationEvent.start() : null;
+		long begin = System.currentTimeMillis();
+		long start = System.nanoTime();
+		SlidingWindowDetector detector = new SlidingWindowDetector(duration.getMillis(), threshold);
+		List<RuleViolation> violations = new ArrayList<>();
+		IPAddress[] current = new IPAddress[1];
+		long rows = accessLogRepository.scanRequests(startDate, null, (ip, time) -> {
+			if (!ip.equals(current[0])) {
+				current[0] = ip;
+				detector.reset();
+			}
+			if (detector.add(time)) {
+				violations.add(detector.violation(ip.toString()));
 			}
 		});
-		return ips;
+		Metrics.record(Stage.BLOCK_QUERY, start);
+		if (event != null) {
+			event.finish(startDate.getTime(), 0, threshold, violations.size());
+		}
+		LOGGER.info("Scanned {} requests with {} sliding window: violations={} elapsed={}ms", rows, duration,
+				violations.size(), System.currentTimeMillis() - begin);
+		return violations;
+	}
+
+	/**
+	 * Block the IPs of a time window in a single transaction. IPs already
+	 * blocked in the window are not blocked again.
+	 */
+	private void block(List<IPAddress> ips, Date startDate, Date endDate, int threshold) {
+		try (Session session = HibernateUtil.getSessionFactory().getCurrentSession()) {
+			Transaction tx = session.beginTransaction();
+			blockedIPRepository.blockAll(ips, startDate, endDate, reason(startDate, endDate, threshold));
+			tx.commit();
+		}
+		Metrics.add(Counter.BLOCKED_IPS, ips.size());
+	}
+
+	private static String reason(Date startDate, Date endDate, int threshold) {
+		return "More than " + threshold + " access between " + DATE_FORMAT.format(startDate.toInstant()) + " and "
+				+ DATE_FORMAT.format(endDate.toInstant());
 	}
 }
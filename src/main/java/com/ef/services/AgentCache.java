@@ -0,0 +1,172 @@
+package com.ef.services;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ef.db.AgentRepository;
+import com.ef.domain.Agent;
+import com.ef.metrics.Counter;
+import com.ef.metrics.Metrics;
+
+/**
+ * Bounded cache of agent ids by description, in front of
+ * {@link AgentRepository}.
+ * 
+ * <p>
+ * The hits read a concurrent map without a lock, so the writers resolving the
+ * agents of their chunks do not wait for each other. The eviction is an
+ * approximate LRU, the second chance of the clock algorithm: a hit marks the
+ * entry as used, and a full cache removes the entries not used since the last
+ * sweep. Misses are resolved under a lock striped by description, so
+ * concurrent workers never try to create the same agent twice.
+ * </p>
+ * 
+ * @author victor
+ *
+ */
+public class AgentCache {
+	private static Logger LOGGER = LoggerFactory.getLogger(AgentCache.class);
+
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	private static final int LOCK_STRIPES = 64;
+
+	private final AgentRepository agentRepository;
+
+	private final int capacity;
+
+	private final Map<String, Entry> ids = new ConcurrentHashMap<>();
+
+	private final Object[] locks = new Object[LOCK_STRIPES];
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	public AgentCache(AgentRepository agentRepository, int capacity) {
+		this.agentRepository = agentRepository;
+		this.capacity = capacity;
+		for (int i = 0; i < LOCK_STRIPES; ++i) {
+			locks[i] = new Object();
+		}
+	}
+
+	/**
+	 * Load the most recent agents from database
+	 */
+	public void warm() {
+		List<Agent> agents = agentRepository.list(capacity);
+		for (int i = agents.size() - 1; i >= 0; --i) {
+			put(agents.get(i).getDescription(), agents.get(i).getId());
+		}
+		LOGGER.info("Agent cache warmed with {} agents.", size());
+	}
+
+	/**
+	 * Get the agent id, creating the agent if it does not exist.
+	 * 
+	 * @param description
+	 *            agent description
+	 * @return agent id
+	 */
+	public Long resolve(String description) {
+		Long id = get(description);
+		if (id != null) {
+			hits.incrementAndGet();
+			return id;
+		}
+		synchronized (locks[(description.hashCode() & 0x7fffffff) % LOCK_STRIPES]) {
+			id = get(description);
+			if (id != null) {
+				hits.incrementAndGet();
+				return id;
+			}
+			misses.incrementAndGet();
+			Metrics.increment(Counter.NEW_AGENTS);
+			id = agentRepository.findOrCreate(description).getId();
+			put(description, id);
+			return id;
+		}
+	}
+
+	private Long get(String description) {
+		Entry entry = ids.get(description);
+		if (entry == null) {
+			return null;
+		}
+		if (!entry.used) {
+			entry.used = true;
+		}
+		return entry.id;
+	}
+
+	private void put(String description, Long id) {
+		ids.put(description, new Entry(id));
+		if (ids.size() > capacity) {
+			evict();
+		}
+	}
+
+	/**
+	 * Sweep the entries until the cache fits, giving a second chance to the
+	 * entries used since the last sweep
+	 */
+	private synchronized void evict() {
+		while (ids.size() > capacity) {
+			Iterator<Entry> entries = ids.values().iterator();
+			while (entries.hasNext() && ids.size() > capacity) {
+				Entry entry = entries.next();
+				if (entry.used) {
+					entry.used = false;
+				} else {
+					entries.remove();
+					evictions.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	public int size() {
+		return ids.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Cached agent id. A new entry counts as used, so it is not evicted by the
+	 * sweep of its own insertion.
+	 */
+	private static final class Entry {
+		private final Long id;
+
+		private volatile boolean used = true;
+
+		private Entry(Long id) {
+			this.id = id;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format("AgentCache [size=%d, capacity=%d, hits=%d, misses=%d, evictions=%d]", size(), capacity,
+				getHits(), getMisses(), getEvictions());
+	}
+}
@@ -0,0 +1,54 @@
+package com.ef.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ef.detection.OnlineDetector;
+import com.ef.detection.RuleViolation;
+import com.ef.domain.AccessLog;
+import com.ef.log.LogEntry;
+import com.ef.log.LogSink;
+
+/**
+ * Register the lines in the database and block the IPs as soon as they reach
+ * a threshold. The inserted lines of each chunk are counted by an
+ * {@link OnlineDetector} after they are committed, so an IP is blocked a chunk
+ * after its offending line is read, not after the whole file. The lines
+ * already registered are not counted again, they are counted by
+ * {@link AccessLogService#seed(OnlineDetector)} on start.
+ *
+ * @author victor
+ *
+ */
+public class BlockingSink implements LogSink {
+	private static Logger LOGGER = LoggerFactory.getLogger(BlockingSink.class);
+
+	private final AccessLogService accessLogService;
+
+	private final OnlineDetector detector;
+
+	public BlockingSink(AccessLogService accessLogService, OnlineDetector detector) {
+		this.accessLogService = accessLogService;
+		this.detector = detector;
+	}
+
+	@Override
+	public int registerAll(List<LogEntry> entries) {
+		List<AccessLog> inserted = accessLogService.register(entries);
+		List<RuleViolation> violations = new ArrayList<>();
+		for (AccessLog log : inserted) {
+			if (log.getIp().isIPv4()) {
+				violations.addAll(detector.add(log.getIp().toIPv4(), log.getTime().getTime()));
+			}
+		}
+		if (!violations.isEmpty()) {
+			accessLogService.createBlockedIPs(violations);
+			violations.forEach(violation -> LOGGER.info("Blocked {} between {} and {}", violation.getIps(),
+					violation.getStartDate(), violation.getEndDate()));
+		}
+		return inserted.size();
+	}
+}
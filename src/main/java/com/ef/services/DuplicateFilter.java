@@ -0,0 +1,115 @@
+package com.ef.services;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import com.ef.domain.AccessLog;
+import com.ef.log.LogEntry;
+import com.ef.utils.LongHashSet;
+
+/**
+ * Exact set of the (ip, time) keys already registered in a time span, so the
+ * duplicated lines of a file processed again are dropped in memory, without a
+ * database round trip.
+ *
+ * <p>
+ * Each key takes a <code>long</code>: the IPv4 address and the time offset
+ * from the span start, so the span is at most about 49 days. The set holds at
+ * most a number of keys; lines outside the span or after the set is full are
+ * not filtered and the database ignores their duplicates. It can be shared by
+ * the writer threads.
+ * </p>
+ *
+ * <p>
+ * The keys of a chunk are added only after its transaction is committed, so
+ * the lines of a chunk rolled back are not dropped when they are registered
+ * again.
+ * </p>
+ *
+ * @author victor
+ *
+ */
+public class DuplicateFilter {
+	public static final int DEFAULT_CAPACITY = 2000000;
+
+	/**
+	 * Longest filtered span, the time offset of each key is an <code>int</code>
+	 */
+	private static final long MAX_SPAN = 1L << 32;
+
+	private final long start;
+
+	private final long end;
+
+	private final int capacity;
+
+	private final LongHashSet keys = new LongHashSet();
+
+	/**
+	 * @param first
+	 *            time of the first request of the span
+	 * @param last
+	 *            time of the last request of the span
+	 * @param capacity
+	 *            max number of kept keys
+	 */
+	public DuplicateFilter(Date first, Date last, int capacity) {
+		this.start = first.getTime();
+		this.end = Math.min(last.getTime() + 1, start + MAX_SPAN);
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Add a registered request
+	 *
+	 * @param ip
+	 *            IPv4 address
+	 * @param time
+	 *            epoch milliseconds
+	 * @return false if it was already in the set or could not be added
+	 */
+	public synchronized boolean add(int ip, long time) {
+		if (time < start || time >= end || keys.size() >= capacity) {
+			return false;
+		}
+		return keys.add(((long) ip << 32) | (time - start));
+	}
+
+	/**
+	 * Add the registered requests of a committed chunk. IPv6 requests are not
+	 * kept.
+	 *
+	 * @param logs
+	 *            registered requests
+	 */
+	public synchronized void addAll(List<AccessLog> logs) {
+		for (AccessLog log : logs) {
+			if (log.getIp().isIPv4()) {
+				add(log.getIp().toIPv4(), log.getTime().getTime());
+			}
+		}
+	}
+
+	/**
+	 * Remove the entries already in the set. The set is not changed.
+	 *
+	 * @param entries
+	 *            parsed lines
+	 * @return the lines that may be new
+	 */
+	public synchronized List<LogEntry> filter(List<LogEntry> entries) {
+		List<LogEntry> unseen = new ArrayList<>(entries.size());
+		for (LogEntry entry : entries) {
+			long time = entry.getTime();
+			if (time < start || time >= end || !keys.contains(((long) entry.getIp() << 32) | (time - start))) {
+				unseen.add(entry);
+			}
+		}
+		return unseen;
+	}
+
+	public synchronized int size() {
+		return keys.size();
+	}
+}
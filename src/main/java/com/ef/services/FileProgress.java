@@ -0,0 +1,86 @@
+package com.ef.services;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ef.metrics.Counter;
+import com.ef.metrics.Metrics;
+
+/**
+ * Lines read of a file of many, reported when its last range is read.
+ *
+ * @author victor
+ *
+ */
+class FileProgress {
+	private static Logger LOGGER = LoggerFactory.getLogger(FileProgress.class);
+
+	private final Path file;
+
+	private final int index;
+
+	private final int count;
+
+	private final AtomicInteger pending = new AtomicInteger();
+
+	private final LongAdder lines = new LongAdder();
+
+	private final long start = System.currentTimeMillis();
+
+	/**
+	 * @param file
+	 *            access log file
+	 * @param index
+	 *            position of the file, from 1
+	 * @param count
+	 *            number of files
+	 */
+	FileProgress(Path file, int index, int count) {
+		this.file = file;
+		this.index = index;
+		this.count = count;
+	}
+
+	Path getFile() {
+		return file;
+	}
+
+	/**
+	 * @return lines read of the ranges done
+	 */
+	long getLines() {
+		return lines.sum();
+	}
+
+	/**
+	 * @param ranges
+	 *            number of ranges read of the file, reported when all are done
+	 */
+	void expect(int ranges) {
+		pending.set(ranges);
+		if (ranges == 0) {
+			report();
+		}
+	}
+
+	/**
+	 * @param rangeLines
+	 *            lines read of a range
+	 */
+	void done(long rangeLines) {
+		lines.add(rangeLines);
+		if (pending.decrementAndGet() == 0) {
+			report();
+		}
+	}
+
+	private void report() {
+		Metrics.increment(Counter.FILES);
+		LOGGER.info("Read {} ({}/{}): lines={} elapsed={}ms", file, index, count, lines.sum(),
+				System.currentTimeMillis() - start);
+	}
+}
@@ -0,0 +1,465 @@
+package com.ef.services;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ef.detection.HeavyHitters;
+import com.ef.detection.HitCounter;
+import com.ef.detection.RequestTimes;
+import com.ef.detection.RuleEvaluator;
+import com.ef.detection.RuleViolation;
+import com.ef.detection.SlidingWindowDetector;
+import com.ef.log.ByteSequence;
+import com.ef.log.CompressedLogReader;
+import com.ef.log.LogEntry;
+import com.ef.log.LogFileRegion;
+import com.ef.log.LogFileSet;
+import com.ef.log.LogFileSplitter;
+import com.ef.log.LogLineParser;
+import com.ef.log.MappedLogReader;
+import com.ef.log.TimestampFilter;
+import com.ef.metrics.Counter;
+import com.ef.metrics.Metrics;
+import com.ef.params.Duration;
+import com.ef.params.Rule;
+import com.ef.utils.IPUtils;
+import com.ef.utils.LongHashSet;
+
+/**
+ * Find the IPs to block reading the access log files, without database.
+ * 
+ * <p>
+ * The files are memory mapped and the lines outside the time window are
+ * rejected comparing the timestamp bytes. Many files share the threads. With
+ * seek, if a file is time ordered, only the region of the window is read, and
+ * the files whose first and last requests are outside the window are skipped.
+ * The requests are counted by {@link HitCounter}, and the requests of the IPs
+ * over the threshold are counted again without the lines repeated with the
+ * same IP and time, so the result is the same of
+ * {@link AccessLogService#createBlockedIPs(Date, Date, int)}. The memory used
+ * grows with the IPs of each hour of the window and with the requests of the
+ * blocked IPs, not with the lines, or stays fixed with {@link HeavyHitters}.
+ * Compressed files are read whole as a stream by {@link CompressedLogReader}.
+ * </p>
+ * 
+ * @author victor
+ *
+ */
+public class InMemoryBlockingService {
+	private static Logger LOGGER = LoggerFactory.getLogger(InMemoryBlockingService.class);
+
+	private final LogLineParser lineParser = new LogLineParser();
+
+	private final int threads;
+
+	private final boolean seek;
+
+	/**
+	 * @param threads
+	 *            Number of threads reading the file
+	 * @param seek
+	 *            Read only the file region of the window, found by binary
+	 *            search, and skip the files outside the window. The files
+	 *            should be mostly time ordered.
+	 */
+	public InMemoryBlockingService(int threads, boolean seek) {
+		this.threads = threads;
+		this.seek = seek;
+	}
+
+	/**
+	 * Same as {@link #findBlockedIPs(List, Date, Date, int)} for a single file
+	 */
+	public List<String> findBlockedIPs(Path file, Date startDate, Date endDate, int threshold) throws IOException {
+		return findBlockedIPs(Collections.singletonList(file), startDate, endDate, threshold);
+	}
+
+	/**
+	 * Find the IPs to block. The files are read again for the IPs over the
+	 * threshold, to count them without the repeated lines.
+	 * 
+	 * @param files
+	 *            access log files
+	 * @param startDate
+	 *            The time window start
+	 * @param endDate
+	 *            The time window end
+	 * @param threshold
+	 *            The minimum request for blocking
+	 * @return blocked IPs in numeric order
+	 * @throws IOException
+	 *             Couldn't read a file
+	 */
+	public List<String> findBlockedIPs(List<Path> files, Date startDate, Date endDate, int threshold)
+			throws IOException {
+		long begin = System.currentTimeMillis();
+		HitCounter counter = count(files, startDate, endDate);
+		List<String> ips = RuleEvaluator.blockedIPs(
+				recount(files, startDate, endDate, counter.totals().keysWithValueAtLeast(threshold)), threshold);
+		LOGGER.info("Counted {}: lines in window={} counters={} blocked={} elapsed={}ms", describe(files),
+				counter.size(), counter.buckets(), ips.size(), System.currentTimeMillis() - begin);
+		return ips;
+	}
+
+	/**
+	 * Same as {@link #evaluate(List, Date, List)} for a single file
+	 */
+	public List<RuleViolation> evaluate(Path file, Date startDate, List<Rule> rules) throws IOException {
+		return evaluate(Collections.singletonList(file), startDate, rules);
+	}
+
+	/**
+	 * Evaluate many rules reading the files once, and again for the IPs over a
+	 * threshold. The span starts at the start date and lasts the longest rule
+	 * duration.
+	 * 
+	 * @param files
+	 *            access log files
+	 * @param startDate
+	 *            The span start
+	 * @param rules
+	 *            blocking rules
+	 * @return one violation for each window with blocked IPs
+	 * @throws IOException
+	 *             Couldn't read a file
+	 */
+	public List<RuleViolation> evaluate(List<Path> files, Date startDate, List<Rule> rules) throws IOException {
+		long begin = System.currentTimeMillis();
+		Date endDate = spanEnd(startDate, rules);
+		HitCounter counter = count(files, startDate, endDate);
+		List<RuleViolation> violations = RuleEvaluator.evaluate(
+				recount(files, startDate, endDate, RuleEvaluator.blockedIPs(counter, rules)), rules);
+		LOGGER.info("Evaluated {} rules on {}: lines in span={} violations={} elapsed={}ms", rules.size(),
+				describe(files), counter.size(), violations.size(), System.currentTimeMillis() - begin);
+		return violations;
+	}
+
+	/**
+	 * Same as {@link #findSlidingViolations(List, Date, Duration, int)} for a
+	 * single file
+	 */
+	public List<RuleViolation> findSlidingViolations(Path file, Date startDate, Duration duration, int threshold)
+			throws IOException {
+		return findSlidingViolations(Collections.singletonList(file), startDate, duration, threshold);
+	}
+
+	/**
+	 * Find the IPs with more requests than the threshold in any rolling window
+	 * of the duration, from the start date until the last request. The hourly
+	 * counts find the candidates, and the files are read again to check the
+	 * requests of the candidates only.
+	 * 
+	 * @param files
+	 *            access log files
+	 * @param startDate
+	 *            Time of the first checked request
+	 * @param duration
+	 *            The rolling window length
+	 * @param threshold
+	 *            The minimum request for blocking
+	 * @return one violation for each IP in numeric order, with its first window
+	 *         over the threshold
+	 * @throws IOException
+	 *             Couldn't read a file
+	 */
+	public List<RuleViolation> findSlidingViolations(List<Path> files, Date startDate, Duration duration,
+			int threshold) throws IOException {
+		long begin = System.currentTimeMillis();
+		Date endDate = new Date(SlidingWindowDetector.END_OF_LOG);
+		HitCounter counter = count(files, startDate, endDate);
+		int[] candidates = SlidingWindowDetector.candidates(counter, duration.getMillis(), threshold);
+		RequestTimes times = new RequestTimes();
+		if (candidates.length > 0) {
+			LongHashSet candidateSet = new LongHashSet(candidates.length);
+			for (int ip : candidates) {
+				candidateSet.add(ip);
+			}
+			for (RequestTimes part : read(files, startDate, endDate, RequestTimes::new, (partTimes, ip, time) -> {
+				if (candidateSet.contains(ip)) {
+					partTimes.add(ip, time);
+				}
+			})) {
+				times.merge(part);
+			}
+		}
+		List<RuleViolation> violations = SlidingWindowDetector.evaluate(times, duration.getMillis(), threshold);
+		LOGGER.info("Checked {} with {} sliding window: lines={} candidates={} violations={} elapsed={}ms",
+				describe(files), duration, counter.size(), candidates.length, violations.size(),
+				System.currentTimeMillis() - begin);
+		return violations;
+	}
+
+	/**
+	 * End of the span that holds every window of the rules
+	 * 
+	 * @param startDate
+	 *            The span start
+	 * @param rules
+	 *            blocking rules
+	 * @return span end
+	 */
+	public static Date spanEnd(Date startDate, List<Rule> rules) {
+		long duration = 0;
+		for (Rule rule : rules) {
+			duration = Math.max(duration, rule.getDuration().getMillis());
+		}
+		return new Date(startDate.getTime() + duration);
+	}
+
+	/**
+	 * Same as {@link #findHeavyHitters(List, HeavyHitters, boolean)} for a
+	 * single file
+	 */
+	public List<String> findHeavyHitters(Path file, HeavyHitters heavyHitters, boolean verify) throws IOException {
+		return findHeavyHitters(Collections.singletonList(file), heavyHitters, verify);
+	}
+
+	/**
+	 * Find the IPs to block in a fixed amount of memory, counting the requests
+	 * of the window with the sketch of the heavy hitters. With verify, the files
+	 * are read again to count exactly the requests of the candidates, so there is
+	 * no false positive; otherwise the candidates are the blocked IPs.
+	 * 
+	 * @param files
+	 *            access log files
+	 * @param heavyHitters
+	 *            counter of the time window and threshold
+	 * @param verify
+	 *            Check the candidates with a second pass
+	 * @return blocked IPs in numeric order
+	 * @throws IOException
+	 *             Couldn't read a file
+	 */
+	public List<String> findHeavyHitters(List<Path> files, HeavyHitters heavyHitters, boolean verify)
+			throws IOException {
+		long begin = System.currentTimeMillis();
+		Date startDate = heavyHitters.getStartDate();
+		Date endDate = heavyHitters.getEndDate();
+		read(files, startDate, endDate, () -> heavyHitters, HeavyHitters::add);
+		int[] candidates = heavyHitters.getCandidates();
+		LOGGER.info("Sketched {}: {}", describe(files), heavyHitters);
+		List<String> ips;
+		if (verify) {
+			ips = RuleEvaluator.blockedIPs(recount(files, startDate, endDate, candidates),
+					heavyHitters.getThreshold());
+		} else {
+			ips = new ArrayList<>(candidates.length);
+			for (int ip : candidates) {
+				ips.add(IPUtils.formatIPv4(ip));
+			}
+		}
+		LOGGER.info("Counted {}: candidates={} blocked={} elapsed={}ms", describe(files), candidates.length, ips.size(),
+				System.currentTimeMillis() - begin);
+		return ips;
+	}
+
+	/*
+	 * Count the requests inside the window, with the repeated lines
+	 */
+	private HitCounter count(List<Path> files, Date startDate, Date endDate) throws IOException {
+		HitCounter counter = null;
+		for (HitCounter part : read(files, startDate, endDate, () -> new HitCounter(startDate, endDate),
+				HitCounter::add)) {
+			if (counter == null || counter.size() < part.size()) {
+				if (counter != null) {
+					part.merge(counter);
+				}
+				counter = part;
+			} else {
+				counter.merge(part);
+			}
+		}
+		return counter != null ? counter : new HitCounter(startDate, endDate);
+	}
+
+	/*
+	 * Count again the requests inside the window of some IPs, without the lines
+	 * repeated with the same IP and time, as the unique key of the database.
+	 * The counts with the repeated lines never miss an IP, so only the IPs they
+	 * find are read again and only their times are kept. Nothing is read
+	 * without IPs.
+	 */
+	private HitCounter recount(List<Path> files, Date startDate, Date endDate, int[] ips) throws IOException {
+		HitCounter counter = new HitCounter(startDate, endDate);
+		if (ips.length == 0) {
+			return counter;
+		}
+		LongHashSet ipSet = new LongHashSet(ips.length);
+		for (int ip : ips) {
+			ipSet.add(ip);
+		}
+		RequestTimes times = new RequestTimes();
+		for (RequestTimes part : read(files, startDate, endDate, RequestTimes::new, (partTimes, ip, time) -> {
+			if (ipSet.contains(ip)) {
+				partTimes.add(ip, time);
+			}
+		})) {
+			times.merge(part);
+		}
+		times.forEachOrdered((ip, ipTimes, size) -> {
+			for (int i = 0; i < size; ++i) {
+				counter.add(ip, ipTimes[i]);
+			}
+		});
+		return counter;
+	}
+
+	private interface RequestCounter<T> {
+		void add(T counter, int ip, long time);
+	}
+
+	/*
+	 * Read the requests inside the window with many threads, each one with the
+	 * counter of the supplier. The files share the threads, largest first, and
+	 * each one is split in ranges in proportion to its size, each range opened,
+	 * aligned and mapped by its own task. With seek, only the region of the
+	 * window of each file is read, and the files whose first and last requests
+	 * are outside the window are not read.
+	 */
+	private <T> List<T> read(List<Path> files, Date startDate, Date endDate, Supplier<T> counters,
+			RequestCounter<T> requestCounter) throws IOException {
+		TimestampFilter filter = new TimestampFilter(startDate, endDate);
+		if (files.size() == 1 && CompressedLogReader.isCompressed(files.get(0))) {
+			return readCompressed(files.get(0), filter, counters, requestCounter);
+		}
+		files = LogFileSet.largestFirst(files);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		Map<Thread, T> parts = new ConcurrentHashMap<>();
+		try {
+			List<LogFileRegion> regions = new ArrayList<>(files.size());
+			long total = 0;
+			long skippedBytes = 0;
+			for (LogFileRegion region : LogFileSet.regions(files, seek ? startDate : null, endDate, pool)) {
+				skippedBytes += region.skippedBytes();
+				if (!region.isSkipped()) {
+					regions.add(region);
+					total += region.isCompressed() ? 0 : region.getRange().length();
+				}
+			}
+
+			AtomicLong skipped = new AtomicLong();
+			List<Future<?>> tasks = new ArrayList<>();
+			for (int i = 0; i < regions.size(); ++i) {
+				LogFileRegion region = regions.get(i);
+				FileProgress progress = new FileProgress(region.getFile(), i + 1, regions.size());
+				if (region.isCompressed()) {
+					progress.expect(1);
+					tasks.add(pool.submit(() -> {
+						T counter = parts.computeIfAbsent(Thread.currentThread(), thread -> counters.get());
+						long[] counts = new long[2];
+						new CompressedLogReader(progress.getFile(), 1)
+								.read(() -> lineCounter(counter, filter, requestCounter, counts));
+						addMetrics(counts);
+						skipped.addAndGet(counts[1]);
+						progress.done(counts[0]);
+						return null;
+					}));
+					continue;
+				}
+				LogFileSplitter.Range fileRegion = region.getRange();
+				List<LogFileSplitter.Range> ranges = LogFileSplitter.divide(fileRegion,
+						(int) Math.max(1, total == 0 ? 1 : threads * fileRegion.length() / total));
+				progress.expect(ranges.size());
+				for (LogFileSplitter.Range range : ranges) {
+					tasks.add(pool.submit(() -> {
+						T counter = parts.computeIfAbsent(Thread.currentThread(), thread -> counters.get());
+						long[] counts = new long[2];
+						try (FileChannel channel = FileChannel.open(progress.getFile(), StandardOpenOption.READ)) {
+							new MappedLogReader(channel).read(LogFileSplitter.align(channel, range, fileRegion),
+									lineCounter(counter, filter, requestCounter, counts));
+						}
+						addMetrics(counts);
+						skipped.addAndGet(counts[1]);
+						progress.done(counts[0]);
+						return null;
+					}));
+				}
+			}
+			for (Future<?> task : tasks) {
+				task.get();
+			}
+			LOGGER.info("Read {}: skipped lines={} skipped bytes={}", describe(files), skipped.get(), skippedBytes);
+			return new ArrayList<>(parts.values());
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException("Parser failed", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Count interrupted", e);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/*
+	 * Read the requests inside the window of a decompressed stream, one counter
+	 * for each thread
+	 */
+	private <T> List<T> readCompressed(Path file, TimestampFilter filter, Supplier<T> counters,
+			RequestCounter<T> requestCounter) throws IOException {
+		List<T> counted = Collections.synchronizedList(new ArrayList<>());
+		List<long[]> counts = Collections.synchronizedList(new ArrayList<>());
+		new CompressedLogReader(file, threads).read(() -> {
+			T counter = counters.get();
+			long[] threadCounts = new long[2];
+			counted.add(counter);
+			counts.add(threadCounts);
+			return lineCounter(counter, filter, requestCounter, threadCounts);
+		});
+		counts.forEach(InMemoryBlockingService::addMetrics);
+		Metrics.increment(Counter.FILES);
+		LOGGER.info("Read {}: lines={} skipped lines={}", file, counts.stream().mapToLong(count -> count[0]).sum(),
+				counts.stream().mapToLong(count -> count[1]).sum());
+		return counted;
+	}
+
+	/*
+	 * Add the lines read and the lines skipped to the metrics. Each pass over
+	 * the files counts its lines, as each pass counts its files.
+	 */
+	private static void addMetrics(long[] counts) {
+		Metrics.add(Counter.LINES, counts[0]);
+		Metrics.add(Counter.SKIPPED_LINES, counts[1]);
+	}
+
+	/*
+	 * Count the requests of the lines inside the window. The lines read and the
+	 * lines skipped are added to the counts.
+	 */
+	private <T> Consumer<ByteSequence> lineCounter(T counter, TimestampFilter filter,
+			RequestCounter<T> requestCounter, long[] counts) {
+		LogEntry entry = new LogEntry();
+		return line -> {
+			++counts[0];
+			if (!filter.accept(line)) {
+				++counts[1];
+			} else if (lineParser.parse(line, entry, false)) {
+				requestCounter.add(counter, entry.getIp(), entry.getTime());
+			}
+		};
+	}
+
+	private static String describe(List<Path> files) {
+		return files.size() == 1 ? files.get(0).toString() : files.size() + " files";
+	}
+}
@@ -0,0 +1,473 @@
+package com.ef.services;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ef.detection.HeavyHitters;
+import com.ef.log.ByteSequence;
+import com.ef.log.CompressedLogReader;
+import com.ef.log.LogEntry;
+import com.ef.log.LogFileRegion;
+import com.ef.log.LogFileSet;
+import com.ef.log.LogFileSplitter;
+import com.ef.log.LogLineParser;
+import com.ef.log.LogSink;
+import com.ef.log.MappedLogReader;
+import com.ef.log.TimestampFilter;
+import com.ef.metrics.Counter;
+import com.ef.metrics.Metrics;
+import com.ef.metrics.Stage;
+
+/**
+ * Parallel ingest of an access log file.
+ * 
+ * <p>
+ * The file is split into byte ranges aligned on line boundaries and each range
+ * is parsed by a worker thread. Parsed lines are grouped in chunks and flow
+ * through a bounded queue to the writer threads, which register them using
+ * {@link LogSink#registerAll(List)}, like
+ * {@link AccessLogService#registerAll(List)}. The lines are not inserted in
+ * file order. Compressed files are read as a stream by
+ * {@link CompressedLogReader}.
+ * </p>
+ * 
+ * @author victor
+ *
+ */
+public class IngestPipeline {
+	private static Logger LOGGER = LoggerFactory.getLogger(IngestPipeline.class);
+
+	/**
+	 * Ranges created for each parser thread, so a slow range does not keep the
+	 * other threads idle.
+	 */
+	private static final int RANGES_PER_THREAD = 4;
+
+	private static final List<LogEntry> END_OF_STREAM = Collections.emptyList();
+
+	private final LogSink sink;
+
+	private final LogLineParser lineParser = new LogLineParser();
+
+	private final int threads;
+
+	private final int writers;
+
+	private final int queueDepth;
+
+	private final int batchSize;
+
+	private final AtomicLong lines = new AtomicLong();
+
+	private final AtomicLong inserted = new AtomicLong();
+
+	private final AtomicLong skipped = new AtomicLong();
+
+	private long skippedBytes;
+
+	private final List<FileProgress> progress = new ArrayList<>();
+
+	private HeavyHitters heavyHitters;
+
+	/**
+	 * @param sink
+	 *            destination of the parsed lines, like {@link AccessLogService}
+	 * @param threads
+	 *            Number of threads parsing the file
+	 * @param writers
+	 *            Number of threads calling the sink
+	 * @param queueDepth
+	 *            Number of parsed chunks waiting for a writer
+	 * @param batchSize
+	 *            Number of lines of each chunk
+	 */
+	public IngestPipeline(LogSink sink, int threads, int writers, int queueDepth, int batchSize) {
+		this.sink = sink;
+		this.threads = threads;
+		this.writers = writers;
+		this.queueDepth = queueDepth;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Count the requests of a time window in the sketch of the heavy hitters
+	 * while ingesting, in a fixed amount of memory
+	 * 
+	 * @param heavyHitters
+	 *            counter of the window, or null
+	 */
+	public void setHeavyHitters(HeavyHitters heavyHitters) {
+		this.heavyHitters = heavyHitters;
+	}
+
+	public HeavyHitters getHeavyHitters() {
+		return heavyHitters;
+	}
+
+	/**
+	 * Ingest the file
+	 * 
+	 * @param file
+	 *            access log file
+	 * @return number of inserted lines
+	 * @throws IOException
+	 *             Couldn't read the file
+	 */
+	public long run(Path file) throws IOException {
+		return run(file, null, null);
+	}
+
+	/**
+	 * Ingest only the lines of the file inside the time window. The file region
+	 * of the window is found by binary search and the lines of the region
+	 * outside the window are skipped before parsing.
+	 * 
+	 * @param file
+	 *            access log file
+	 * @param startDate
+	 *            The time window start, or null to ingest all lines
+	 * @param endDate
+	 *            The time window end
+	 * @return number of inserted lines
+	 * @throws IOException
+	 *             Couldn't read the file
+	 */
+	public long run(Path file, Date startDate, Date endDate) throws IOException {
+		return run(Collections.singletonList(file), startDate, endDate);
+	}
+
+	/**
+	 * Ingest many files, like the rotated files of many hosts
+	 * 
+	 * @param files
+	 *            access log files
+	 * @return number of inserted lines
+	 * @throws IOException
+	 *             Couldn't read a file
+	 */
+	public long run(List<Path> files) throws IOException {
+		return run(files, null, null);
+	}
+
+	/**
+	 * Ingest only the lines of many files inside the time window. The files
+	 * share the parser threads, in the order of
+	 * {@link LogFileSet#largestFirst(List)}, and each one is split in ranges in
+	 * proportion to its size, so small files are parsed by one thread each. The
+	 * files whose requests are outside the window are skipped. The requests of
+	 * all files are counted together.
+	 * 
+	 * @param files
+	 *            access log files
+	 * @param startDate
+	 *            The time window start, or null to ingest all lines
+	 * @param endDate
+	 *            The time window end
+	 * @return number of inserted lines
+	 * @throws IOException
+	 *             Couldn't read a file
+	 */
+	public long run(List<Path> files, Date startDate, Date endDate) throws IOException {
+		long start = System.currentTimeMillis();
+		BlockingQueue<List<LogEntry>> queue = new ArrayBlockingQueue<>(queueDepth);
+		AtomicReference<Throwable> writerError = new AtomicReference<>();
+		ExecutorService writerPool = Executors.newFixedThreadPool(writers, named("writer"));
+		ExecutorService parserPool = Executors.newFixedThreadPool(threads, named("parser"));
+		try {
+			for (int i = 0; i < writers; ++i) {
+				writerPool.execute(() -> write(queue, writerError));
+			}
+			try {
+				List<Future<?>> parsers = submit(LogFileSet.largestFirst(files), startDate, endDate, queue,
+						parserPool);
+				for (Future<?> parser : parsers) {
+					parser.get();
+				}
+			} finally {
+				for (int i = 0; i < writers; ++i) {
+					put(queue, END_OF_STREAM);
+				}
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException("Parser failed", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Ingest interrupted", e);
+		} finally {
+			parserPool.shutdownNow();
+			writerPool.shutdown();
+			awaitTermination(writerPool);
+		}
+
+		Throwable error = writerError.get();
+		if (error instanceof RuntimeException) {
+			throw (RuntimeException) error;
+		} else if (error instanceof Error) {
+			throw (Error) error;
+		} else if (error != null) {
+			throw new IllegalStateException("Writer failed", error);
+		}
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		LOGGER.info(
+				"Ingested {}: lines={} inserted={} skipped lines={} skipped bytes={} elapsed={}ms ({} lines/s, {} rows/s)",
+				files.size() == 1 ? files.get(0) : files.size() + " files", lines.get(), inserted.get(),
+				skipped.get(), skippedBytes, elapsed, lines.get() * 1000 / elapsed, inserted.get() * 1000 / elapsed);
+		return inserted.get();
+	}
+
+	/*
+	 * Submit the parsers of the files. The region of each file is found first,
+	 * only the region of the window if there is one, and the files without
+	 * requests in the window are skipped. A memory mapped file is split in
+	 * ranges, each one opened, aligned and mapped by its own task, so only the
+	 * files being parsed are open. A compressed file is parsed whole by one
+	 * task, the lines outside the window are skipped before parsing.
+	 */
+	private List<Future<?>> submit(List<Path> files, Date startDate, Date endDate,
+			BlockingQueue<List<LogEntry>> queue, ExecutorService parserPool) throws IOException, InterruptedException {
+		TimestampFilter filter = startDate != null ? new TimestampFilter(startDate, endDate) : null;
+		List<LogFileRegion> regions = new ArrayList<>(files.size());
+		long total = 0;
+		for (LogFileRegion region : LogFileSet.regions(files, startDate, endDate, parserPool)) {
+			skippedBytes += region.skippedBytes();
+			if (!region.isSkipped()) {
+				regions.add(region);
+				total += region.isCompressed() ? 0 : region.getRange().length();
+			}
+		}
+
+		List<Future<?>> parsers = new ArrayList<>();
+		for (int i = 0; i < regions.size(); ++i) {
+			LogFileRegion region = regions.get(i);
+			FileProgress progress = new FileProgress(region.getFile(), i + 1, regions.size());
+			this.progress.add(progress);
+			if (region.isCompressed()) {
+				int readers = files.size() == 1 ? threads : 1;
+				progress.expect(1);
+				parsers.add(parserPool.submit(() -> {
+					List<RangeParser> rangeParsers = Collections.synchronizedList(new ArrayList<>());
+					new CompressedLogReader(progress.getFile(), readers).read(() -> {
+						RangeParser rangeParser = new RangeParser(queue, filter);
+						rangeParsers.add(rangeParser);
+						return rangeParser;
+					});
+					long fileLines = 0;
+					for (RangeParser rangeParser : rangeParsers) {
+						rangeParser.finish();
+						fileLines += rangeParser.rangeLines;
+					}
+					progress.done(fileLines);
+					return null;
+				}));
+				continue;
+			}
+			LogFileSplitter.Range fileRegion = region.getRange();
+			int parts = (int) Math.max(1, total == 0 ? 1 : threads * RANGES_PER_THREAD * fileRegion.length() / total);
+			List<LogFileSplitter.Range> ranges = LogFileSplitter.divide(fileRegion, parts);
+			progress.expect(ranges.size());
+			for (LogFileSplitter.Range range : ranges) {
+				parsers.add(parserPool.submit(() -> {
+					RangeParser rangeParser = new RangeParser(queue, filter);
+					try (FileChannel channel = FileChannel.open(progress.getFile(), StandardOpenOption.READ)) {
+						new MappedLogReader(channel).read(LogFileSplitter.align(channel, range, fileRegion),
+								rangeParser);
+					}
+					rangeParser.finish();
+					progress.done(rangeParser.rangeLines);
+					return null;
+				}));
+			}
+		}
+		return parsers;
+	}
+
+	/**
+	 * @return lines read, including the skipped ones
+	 */
+	public long getLines() {
+		return lines.get();
+	}
+
+	/**
+	 * @return lines read but outside the time window
+	 */
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	/**
+	 * @return bytes not read because they are outside the time window
+	 */
+	public long getSkippedBytes() {
+		return skippedBytes;
+	}
+
+	/**
+	 * @return lines read of each file, in the order the files were started,
+	 *         without the skipped files
+	 */
+	public Map<Path, Long> getFileLines() {
+		Map<Path, Long> fileLines = new LinkedHashMap<>();
+		for (FileProgress fileProgress : progress) {
+			fileLines.put(fileProgress.getFile(), fileProgress.getLines());
+		}
+		return fileLines;
+	}
+
+	/**
+	 * Group the parsed lines of a range in chunks
+	 */
+	private class RangeParser implements Consumer<ByteSequence> {
+		private final BlockingQueue<List<LogEntry>> queue;
+
+		private final TimestampFilter filter;
+
+		private List<LogEntry> chunk;
+
+		private long chunkStart = System.nanoTime();
+
+		private long tokenizeNanos;
+
+		private long chunkLines;
+
+		private long chunkSkipped;
+
+		private long rangeLines;
+
+		private RangeParser(BlockingQueue<List<LogEntry>> queue, TimestampFilter filter) {
+			this.queue = queue;
+			this.filter = filter;
+			this.chunk = new ArrayList<>(batchSize);
+		}
+
+		@Override
+		public void accept(ByteSequence line) {
+			lines.incrementAndGet();
+			++chunkLines;
+			++rangeLines;
+			if (filter != null && !filter.accept(line)) {
+				skipped.incrementAndGet();
+				++chunkSkipped;
+				return;
+			}
+			long start = System.nanoTime();
+			LogEntry entry = lineParser.parse(line);
+			tokenizeNanos += System.nanoTime() - start;
+			if (entry != null) {
+				if (heavyHitters != null) {
+					heavyHitters.add(entry.getIp(), entry.getTime());
+				}
+				chunk.add(entry);
+				if (chunk.size() >= batchSize) {
+					flush();
+				}
+			}
+		}
+
+		private void flush() {
+			recordChunk();
+			if (!chunk.isEmpty()) {
+				put(queue, chunk);
+				chunk = new ArrayList<>(batchSize);
+			}
+			chunkStart = System.nanoTime();
+		}
+
+		/**
+		 * Record the time spent reading and tokenizing the chunk, without the
+		 * time waiting for the writers
+		 */
+		private void recordChunk() {
+			if (chunkLines > 0) {
+				long elapsed = System.nanoTime() - chunkStart;
+				Metrics.histogram(Stage.READ).record(elapsed - tokenizeNanos);
+				Metrics.histogram(Stage.TOKENIZE).record(tokenizeNanos);
+				Metrics.add(Counter.LINES, chunkLines);
+				Metrics.add(Counter.SKIPPED_LINES, chunkSkipped);
+			}
+			tokenizeNanos = 0;
+			chunkLines = 0;
+			chunkSkipped = 0;
+		}
+
+		private void finish() {
+			flush();
+		}
+	}
+
+	/**
+	 * Writer loop. After a failure, even an {@link Error}, the writer keeps
+	 * draining the queue, so the parsers are never blocked.
+	 */
+	private void write(BlockingQueue<List<LogEntry>> queue, AtomicReference<Throwable> writerError) {
+		try {
+			List<LogEntry> chunk;
+			while ((chunk = queue.take()) != END_OF_STREAM) {
+				if (writerError.get() != null) {
+					continue;
+				}
+				try {
+					inserted.addAndGet(sink.registerAll(chunk));
+				} catch (Throwable e) {
+					LOGGER.error("Couldn't register chunk", e);
+					writerError.compareAndSet(null, e);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void put(BlockingQueue<List<LogEntry>> queue, List<LogEntry> chunk) {
+		try {
+			queue.put(chunk);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Ingest interrupted", e);
+		}
+	}
+
+	private static void awaitTermination(ExecutorService pool) {
+		try {
+			while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+				LOGGER.info("Waiting writers to finish...");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static ThreadFactory named(String prefix) {
+		AtomicLong counter = new AtomicLong();
+		return runnable -> {
+			Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
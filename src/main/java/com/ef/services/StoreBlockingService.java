@@ -0,0 +1,117 @@
+package com.ef.services;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ef.detection.HitCounter;
+import com.ef.detection.RequestTimes;
+import com.ef.detection.RuleEvaluator;
+import com.ef.detection.RuleViolation;
+import com.ef.detection.SlidingWindowDetector;
+import com.ef.params.Duration;
+import com.ef.params.Rule;
+import com.ef.store.SegmentStore;
+import com.ef.utils.LongHashSet;
+
+/**
+ * Find the IPs to block reading a {@link SegmentStore}. Only the segments of
+ * the window are read, so the file is not parsed again and the result is the
+ * same of {@link InMemoryBlockingService}.
+ *
+ * @author victor
+ *
+ */
+public class StoreBlockingService {
+	private static Logger LOGGER = LoggerFactory.getLogger(StoreBlockingService.class);
+
+	private final SegmentStore store;
+
+	public StoreBlockingService(SegmentStore store) {
+		this.store = store;
+	}
+
+	/**
+	 * Find the IPs to block
+	 *
+	 * @param startDate
+	 *            The time window start
+	 * @param endDate
+	 *            The time window end
+	 * @param threshold
+	 *            The minimum request for blocking
+	 * @return blocked IPs in numeric order
+	 * @throws IOException
+	 *             Couldn't read the store
+	 */
+	public List<String> findBlockedIPs(Date startDate, Date endDate, int threshold) throws IOException {
+		long begin = System.currentTimeMillis();
+		HitCounter counter = count(startDate, endDate);
+		List<String> ips = RuleEvaluator.blockedIPs(counter, threshold);
+		LOGGER.info("Counted store: records in window={} blocked={} elapsed={}ms", counter.size(), ips.size(),
+				System.currentTimeMillis() - begin);
+		return ips;
+	}
+
+	/**
+	 * Evaluate many rules in a single scan. The span starts at the start date
+	 * and lasts the longest rule duration.
+	 *
+	 * @param startDate
+	 *            The span start
+	 * @param rules
+	 *            blocking rules
+	 * @return one violation for each window with blocked IPs
+	 * @throws IOException
+	 *             Couldn't read the store
+	 */
+	public List<RuleViolation> evaluate(Date startDate, List<Rule> rules) throws IOException {
+		return RuleEvaluator.evaluate(count(startDate, InMemoryBlockingService.spanEnd(startDate, rules)), rules);
+	}
+
+	/**
+	 * Find the IPs with more requests than the threshold in any rolling window
+	 * of the duration, from the start date until the last record. The hourly
+	 * counts find the candidates, and only their records are checked in a
+	 * second scan.
+	 *
+	 * @param startDate
+	 *            Time of the first checked request
+	 * @param duration
+	 *            The rolling window length
+	 * @param threshold
+	 *            The minimum request for blocking
+	 * @return one violation for each IP in numeric order, with its first window
+	 *         over the threshold
+	 * @throws IOException
+	 *             Couldn't read the store
+	 */
+	public List<RuleViolation> findSlidingViolations(Date startDate, Duration duration, int threshold)
+			throws IOException {
+		Date endDate = new Date(SlidingWindowDetector.END_OF_LOG);
+		int[] candidates = SlidingWindowDetector.candidates(count(startDate, endDate), duration.getMillis(),
+				threshold);
+		RequestTimes times = new RequestTimes();
+		if (candidates.length > 0) {
+			LongHashSet candidateSet = new LongHashSet(candidates.length);
+			for (int ip : candidates) {
+				candidateSet.add(ip);
+			}
+			store.scan(startDate, endDate, (time, ip, responseCode, requestId, agentId) -> {
+				if (candidateSet.contains(ip)) {
+					times.add(ip, time);
+				}
+			});
+		}
+		return SlidingWindowDetector.evaluate(times, duration.getMillis(), threshold);
+	}
+
+	private HitCounter count(Date startDate, Date endDate) throws IOException {
+		HitCounter counter = new HitCounter(startDate, endDate);
+		store.scan(startDate, endDate, (time, ip, responseCode, requestId, agentId) -> counter.add(ip, time));
+		return counter;
+	}
+}
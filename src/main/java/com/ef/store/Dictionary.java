@@ -0,0 +1,118 @@
+package com.ef.store;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Text dictionary of a {@link SegmentStore}. Each distinct text is written
+ * once, prefixed by its UTF-8 length, and its id is the order in the file, so
+ * the file is only appended.
+ * 
+ * @author victor
+ *
+ */
+class Dictionary {
+	/**
+	 * Id of a null text
+	 */
+	static final int NULL_ID = -1;
+
+	private final Path file;
+
+	private final List<String> texts = new ArrayList<>();
+
+	private final Map<String, Integer> ids = new HashMap<>();
+
+	/**
+	 * Number of texts already written
+	 */
+	private int written;
+
+	Dictionary(Path file) throws IOException {
+		this.file = file;
+		if (Files.exists(file)) {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+				while (true) {
+					int length;
+					try {
+						length = in.readInt();
+					} catch (EOFException e) {
+						break;
+					}
+					byte[] bytes = new byte[length];
+					in.readFully(bytes);
+					id(new String(bytes, StandardCharsets.UTF_8));
+				}
+			}
+		}
+		written = texts.size();
+	}
+
+	/**
+	 * Get the id of a text, adding it if it is new
+	 * 
+	 * @param text
+	 *            the text
+	 * @return text id
+	 */
+	int id(String text) {
+		if (text == null) {
+			return NULL_ID;
+		}
+		Integer id = ids.get(text);
+		if (id == null) {
+			id = texts.size();
+			texts.add(text);
+			ids.put(text, id);
+		}
+		return id;
+	}
+
+	/**
+	 * @param id
+	 *            text id
+	 * @return the text
+	 */
+	String text(int id) {
+		return id == NULL_ID ? null : texts.get(id);
+	}
+
+	/**
+	 * Append the new texts to the file and sync it
+	 */
+	void flush() throws IOException {
+		if (written == texts.size()) {
+			return;
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+			for (; written < texts.size(); ++written) {
+				byte[] bytes = texts.get(written).getBytes(StandardCharsets.UTF_8);
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+			out.flush();
+			// the texts must be on disk before a segment that references them
+			channel.force(false);
+		}
+	}
+
+	int size() {
+		return texts.size();
+	}
+}
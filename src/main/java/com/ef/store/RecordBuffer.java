@@ -0,0 +1,106 @@
+package com.ef.store;
+
+import java.util.Arrays;
+
+/**
+ * Records waiting to be written in a segment, kept in primitive arrays.
+ *
+ * @author victor
+ *
+ */
+class RecordBuffer {
+	/**
+	 * Bits of the record position in the sort key
+	 */
+	private static final int POSITION_BITS = 22;
+
+	static final int MAX_SIZE = 1 << POSITION_BITS;
+
+	private final long[] times;
+
+	private final int[] ips;
+
+	private final int[] requests;
+
+	private final int[] agents;
+
+	private final short[] responseCodes;
+
+	private int[] order;
+
+	private int size;
+
+	RecordBuffer(int capacity) {
+		if (capacity < 1 || capacity > MAX_SIZE) {
+			throw new IllegalArgumentException("Invalid segment size: " + capacity);
+		}
+		times = new long[capacity];
+		ips = new int[capacity];
+		requests = new int[capacity];
+		agents = new int[capacity];
+		responseCodes = new short[capacity];
+	}
+
+	void add(long time, int ip, int request, int agent, int responseCode) {
+		times[size] = time;
+		ips[size] = ip;
+		requests[size] = request;
+		agents[size] = agent;
+		responseCodes[size] = (short) responseCode;
+		++size;
+		order = null;
+	}
+
+	/**
+	 * Order the records by time. The sort key is the time offset from the
+	 * oldest record followed by the record position.
+	 */
+	void sort() {
+		long min = Long.MAX_VALUE;
+		for (int i = 0; i < size; ++i) {
+			min = Math.min(min, times[i]);
+		}
+		long[] keys = new long[size];
+		for (int i = 0; i < size; ++i) {
+			keys[i] = ((times[i] - min) << POSITION_BITS) | i;
+		}
+		Arrays.sort(keys);
+		order = new int[size];
+		for (int i = 0; i < size; ++i) {
+			order[i] = (int) (keys[i] & (MAX_SIZE - 1));
+		}
+	}
+
+	void clear() {
+		size = 0;
+		order = null;
+	}
+
+	boolean isFull() {
+		return size == times.length;
+	}
+
+	int size() {
+		return size;
+	}
+
+	long time(int i) {
+		return times[order[i]];
+	}
+
+	int ip(int i) {
+		return ips[order[i]];
+	}
+
+	int request(int i) {
+		return requests[order[i]];
+	}
+
+	int agent(int i) {
+		return agents[order[i]];
+	}
+
+	int responseCode(int i) {
+		return responseCodes[order[i]];
+	}
+}
@@ -0,0 +1,246 @@
+package com.ef.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Time ordered segment of fixed width records.
+ *
+ * <p>
+ * Layout, big endian:
+ *
+ * <pre>
+ * header  magic (4) version (4) count (4) index interval (4) min time (8) max time (8)
+ * records time (8) ip (4) request id (4) agent id (4) response code (2) reserved (2)
+ * index   time of every index interval record (8)
+ * </pre>
+ *
+ * The sparse index is small, so a window query reads it and only the records
+ * of the window.
+ * </p>
+ *
+ * @author victor
+ *
+ */
+class Segment {
+	static final int MAGIC = 0x45465347; // EFSG
+
+	static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 32;
+
+	static final int RECORD_SIZE = 24;
+
+	static final int INDEX_INTERVAL = 1024;
+
+	private final Path file;
+
+	private final int count;
+
+	private final long minTime;
+
+	private final long maxTime;
+
+	private Segment(Path file, int count, long minTime, long maxTime) {
+		this.file = file;
+		this.count = count;
+		this.minTime = minTime;
+		this.maxTime = maxTime;
+	}
+
+	/**
+	 * Read the header of a segment file
+	 *
+	 * @param file
+	 *            segment file
+	 * @return the segment
+	 */
+	static Segment open(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+			}
+			header.flip();
+			if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException("Invalid segment: " + file);
+			}
+			int count = header.getInt();
+			header.getInt();
+			return new Segment(file, count, header.getLong(), header.getLong());
+		}
+	}
+
+	/**
+	 * Write a segment. The file is written in a temporary file and moved, so a
+	 * failed write leaves no segment.
+	 *
+	 * @param file
+	 *            segment file
+	 * @param records
+	 *            records ordered by time
+	 * @return the segment
+	 */
+	static Segment write(Path file, RecordBuffer records) throws IOException {
+		int count = records.size();
+		int indexSize = (count + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * RECORD_SIZE + indexSize * 8);
+		long minTime = count > 0 ? records.time(0) : 0;
+		long maxTime = count > 0 ? records.time(count - 1) : 0;
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(INDEX_INTERVAL).putLong(minTime).putLong(maxTime);
+		for (int i = 0; i < count; ++i) {
+			buffer.putLong(records.time(i)).putInt(records.ip(i)).putInt(records.request(i))
+					.putInt(records.agent(i)).putShort((short) records.responseCode(i)).putShort((short) 0);
+		}
+		for (int i = 0; i < count; i += INDEX_INTERVAL) {
+			buffer.putLong(records.time(i));
+		}
+		buffer.flip();
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		}
+		Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+		return new Segment(file, count, minTime, maxTime);
+	}
+
+	/**
+	 * Check if the segment has records of the window
+	 */
+	boolean overlaps(long start, long end) {
+		return count > 0 && minTime < end && maxTime >= start;
+	}
+
+	/**
+	 * Read the records of the window
+	 *
+	 * @param start
+	 *            window start (inclusive)
+	 * @param end
+	 *            window end (exclusive)
+	 * @param consumer
+	 *            record consumer
+	 * @return number of records read
+	 */
+	long scan(long start, long end, SegmentStore.RecordConsumer consumer) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.BIG_ENDIAN);
+			int first = first(buffer, start);
+			long read = 0;
+			for (int i = first; i < count; ++i) {
+				int position = HEADER_SIZE + i * RECORD_SIZE;
+				long time = buffer.getLong(position);
+				if (time >= end) {
+					break;
+				}
+				if (time >= start) {
+					consumer.accept(time, buffer.getInt(position + 8), buffer.getShort(position + 20),
+							buffer.getInt(position + 12), buffer.getInt(position + 16));
+					++read;
+				}
+			}
+			return read;
+		}
+	}
+
+	/**
+	 * Open a sequential reader of the records
+	 *
+	 * @return reader positioned at the first record
+	 */
+	Reader reader() throws IOException {
+		return new Reader();
+	}
+
+	/**
+	 * Sequential reader of the records of a segment, in time order, used to
+	 * merge segments
+	 */
+	class Reader implements Closeable {
+		private final FileChannel channel;
+
+		private final MappedByteBuffer buffer;
+
+		private int next;
+
+		private Reader() throws IOException {
+			channel = FileChannel.open(file, StandardOpenOption.READ);
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.BIG_ENDIAN);
+		}
+
+		boolean hasNext() {
+			return next < count;
+		}
+
+		/**
+		 * @return time of the current record
+		 */
+		long time() {
+			return buffer.getLong(HEADER_SIZE + next * RECORD_SIZE);
+		}
+
+		/**
+		 * Add the current record to a buffer and move to the next one
+		 *
+		 * @param records
+		 *            destination buffer
+		 */
+		void copyTo(RecordBuffer records) {
+			int position = HEADER_SIZE + next++ * RECORD_SIZE;
+			records.add(buffer.getLong(position), buffer.getInt(position + 8), buffer.getInt(position + 12),
+					buffer.getInt(position + 16), buffer.getShort(position + 20));
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	/*
+	 * First record of the index block that can hold the start time
+	 */
+	private int first(ByteBuffer buffer, long start) {
+		int indexPosition = HEADER_SIZE + count * RECORD_SIZE;
+		int lo = 0;
+		int hi = (count + INDEX_INTERVAL - 1) / INDEX_INTERVAL - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (buffer.getLong(indexPosition + mid * 8) < start) {
+				lo = mid;
+			} else {
+				hi = mid - 1;
+			}
+		}
+		return lo * INDEX_INTERVAL;
+	}
+
+	Path getFile() {
+		return file;
+	}
+
+	int getCount() {
+		return count;
+	}
+
+	long getMinTime() {
+		return minTime;
+	}
+
+	long getMaxTime() {
+		return maxTime;
+	}
+}
@@ -0,0 +1,414 @@
+package com.ef.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ef.log.LogEntry;
+import com.ef.log.LogSink;
+
+/**
+ * Binary store of parsed access log lines, an alternative to the database for
+ * the blocking analysis.
+ *
+ * <p>
+ * The lines are written in segments of fixed width records ordered by time
+ * (see {@link Segment}). The request and agent texts are replaced by ids of
+ * append only dictionaries. A window query memory maps only the segments that
+ * overlap the window and uses their sparse time index to find the first
+ * record. The store also records the ingested files, so a file is not loaded
+ * twice.
+ * </p>
+ *
+ * <p>
+ * The parallel writers register chunks of distant parts of a file, so the
+ * segments written between two flushes overlap. Each flush merges them into
+ * segments that do not overlap, so a window query keeps reading few segments.
+ * The merged segments are written before a journal of the replaced ones, and
+ * a merge stopped by a crash is finished or undone by the next open.
+ * </p>
+ *
+ * <p>
+ * {@link #registerAll(List)} is thread safe. The records are only visible to
+ * queries after {@link #flush()} or {@link #close()}, which should not run
+ * during a query.
+ * </p>
+ *
+ * @author victor
+ *
+ */
+public class SegmentStore implements LogSink, Closeable {
+	private static Logger LOGGER = LoggerFactory.getLogger(SegmentStore.class);
+
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 20;
+
+	private static final String SEGMENT_PREFIX = "segment-";
+
+	private static final String SEGMENT_SUFFIX = ".seg";
+
+	private static final String SOURCES_FILE = "sources.txt";
+
+	/**
+	 * Suffix of a merged segment until the replaced segments are removed
+	 */
+	private static final String MERGED_SUFFIX = ".merged";
+
+	/**
+	 * Journal of a merge, with the names of the replaced segments
+	 */
+	private static final String COMPACTION_FILE = "compaction.txt";
+
+	public interface RecordConsumer {
+		void accept(long time, int ip, int responseCode, int requestId, int agentId);
+	}
+
+	private final Path directory;
+
+	private final Dictionary requests;
+
+	private final Dictionary agents;
+
+	private final List<Segment> segments = new ArrayList<>();
+
+	/**
+	 * Segments written since the last flush
+	 */
+	private final List<Segment> unmerged = new ArrayList<>();
+
+	private final RecordBuffer buffer;
+
+	private int nextSegment;
+
+	private SegmentStore(Path directory, int segmentSize) throws IOException {
+		this.directory = directory;
+		this.requests = new Dictionary(directory.resolve("requests.dict"));
+		this.agents = new Dictionary(directory.resolve("agents.dict"));
+		this.buffer = new RecordBuffer(segmentSize);
+		recover();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path file : files) {
+				segments.add(Segment.open(file));
+				String name = file.getFileName().toString();
+				nextSegment = Math.max(nextSegment, Integer.parseInt(
+						name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())) + 1);
+			}
+		}
+	}
+
+	/**
+	 * Open a store, creating the directory if it does not exist
+	 *
+	 * @param directory
+	 *            store directory
+	 * @return the store
+	 * @throws IOException
+	 *             Couldn't read the store
+	 */
+	public static SegmentStore open(Path directory) throws IOException {
+		return open(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Open a store, creating the directory if it does not exist
+	 *
+	 * @param directory
+	 *            store directory
+	 * @param segmentSize
+	 *            records of each written segment
+	 * @return the store
+	 * @throws IOException
+	 *             Couldn't read the store
+	 */
+	public static SegmentStore open(Path directory, int segmentSize) throws IOException {
+		Files.createDirectories(directory);
+		SegmentStore store = new SegmentStore(directory, segmentSize);
+		LOGGER.info("Opened store {}: segments={} requests={} agents={}", directory, store.segments.size(),
+				store.requests.size(), store.agents.size());
+		return store;
+	}
+
+	@Override
+	public synchronized int registerAll(List<LogEntry> entries) {
+		try {
+			for (LogEntry entry : entries) {
+				buffer.add(entry.getTime(), entry.getIp(), requests.id(entry.getRequest()), agents.id(entry.getAgent()),
+						entry.getResponseCode());
+				if (buffer.isFull()) {
+					writeSegment();
+				}
+			}
+			return entries.size();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Couldn't write store " + directory, e);
+		}
+	}
+
+	/**
+	 * Write the buffered records
+	 *
+	 * @throws IOException
+	 *             Couldn't write the store
+	 */
+	public synchronized void flush() throws IOException {
+		if (buffer.size() > 0) {
+			writeSegment();
+		}
+		if (overlap(unmerged)) {
+			compact();
+		}
+		unmerged.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+
+	private void writeSegment() throws IOException {
+		// the dictionaries are written first, so a segment never references a missing text
+		requests.flush();
+		agents.flush();
+		buffer.sort();
+		Segment segment = Segment.write(directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, nextSegment++,
+				SEGMENT_SUFFIX)), buffer);
+		segments.add(segment);
+		unmerged.add(segment);
+		buffer.clear();
+		LOGGER.debug("Segment written: {} records={}", segment.getFile(), segment.getCount());
+	}
+
+	private static boolean overlap(List<Segment> segments) {
+		List<Segment> ordered = new ArrayList<>(segments);
+		ordered.sort(Comparator.comparingLong(Segment::getMinTime));
+		for (int i = 1; i < ordered.size(); ++i) {
+			if (ordered.get(i).getMinTime() <= ordered.get(i - 1).getMaxTime()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Merge the unmerged segments by time into new segments, then replace them
+	 */
+	private void compact() throws IOException {
+		long begin = System.currentTimeMillis();
+		List<Segment> merged = new ArrayList<>();
+		List<Segment.Reader> readers = new ArrayList<>();
+		try {
+			PriorityQueue<Segment.Reader> queue = new PriorityQueue<>(
+					Comparator.comparingLong(Segment.Reader::time));
+			for (Segment segment : unmerged) {
+				Segment.Reader reader = segment.reader();
+				readers.add(reader);
+				if (reader.hasNext()) {
+					queue.add(reader);
+				}
+			}
+			while (!queue.isEmpty()) {
+				Segment.Reader reader = queue.poll();
+				reader.copyTo(buffer);
+				if (reader.hasNext()) {
+					queue.add(reader);
+				}
+				if (buffer.isFull()) {
+					merged.add(writeMerged());
+				}
+			}
+			if (buffer.size() > 0) {
+				merged.add(writeMerged());
+			}
+		} finally {
+			for (Segment.Reader reader : readers) {
+				reader.close();
+			}
+		}
+
+		// from here the merge is finished by recover()
+		Path journal = directory.resolve(COMPACTION_FILE);
+		StringBuilder replaced = new StringBuilder();
+		for (Segment segment : unmerged) {
+			replaced.append(segment.getFile().getFileName()).append('\n');
+		}
+		try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer bytes = ByteBuffer.wrap(replaced.toString().getBytes(StandardCharsets.UTF_8));
+			while (bytes.hasRemaining()) {
+				channel.write(bytes);
+			}
+			channel.force(false);
+		}
+		for (Segment segment : unmerged) {
+			Files.delete(segment.getFile());
+		}
+		segments.removeAll(unmerged);
+		for (Segment segment : merged) {
+			segments.add(Segment.open(Files.move(segment.getFile(), unmergedName(segment.getFile()),
+					StandardCopyOption.ATOMIC_MOVE)));
+		}
+		Files.delete(journal);
+		LOGGER.debug("Segments merged: {} replaced={} merged={} elapsed={}ms", directory, unmerged.size(),
+				merged.size(), System.currentTimeMillis() - begin);
+	}
+
+	private Segment writeMerged() throws IOException {
+		buffer.sort();
+		Segment segment = Segment.write(directory.resolve(String.format("%s%06d%s%s", SEGMENT_PREFIX, nextSegment++,
+				SEGMENT_SUFFIX, MERGED_SUFFIX)), buffer);
+		buffer.clear();
+		return segment;
+	}
+
+	private static Path unmergedName(Path file) {
+		String name = file.getFileName().toString();
+		return file.resolveSibling(name.substring(0, name.length() - MERGED_SUFFIX.length()));
+	}
+
+	/*
+	 * Finish a merge stopped after its journal was written, or remove its
+	 * segments if it was stopped before
+	 */
+	private void recover() throws IOException {
+		Path journal = directory.resolve(COMPACTION_FILE);
+		boolean finished = Files.exists(journal);
+		if (finished) {
+			for (String name : Files.readAllLines(journal, StandardCharsets.UTF_8)) {
+				if (!name.isEmpty()) {
+					Files.deleteIfExists(directory.resolve(name));
+				}
+			}
+		}
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+				SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX + MERGED_SUFFIX)) {
+			for (Path file : files) {
+				if (finished) {
+					Files.move(file, unmergedName(file), StandardCopyOption.ATOMIC_MOVE);
+				} else {
+					Files.delete(file);
+				}
+			}
+		}
+		if (finished) {
+			LOGGER.info("Finished the merge of segments stopped in {}", directory);
+			Files.delete(journal);
+		}
+	}
+
+	/**
+	 * Read the records of a time window. Inside each segment the records are
+	 * ordered by time, but the segments may overlap.
+	 *
+	 * @param startDate
+	 *            window start (inclusive)
+	 * @param endDate
+	 *            window end (exclusive)
+	 * @param consumer
+	 *            record consumer
+	 * @return number of records read
+	 * @throws IOException
+	 *             Couldn't read the store
+	 */
+	public long scan(Date startDate, Date endDate, RecordConsumer consumer) throws IOException {
+		List<Segment> overlapping = overlapping(startDate, endDate);
+		long read = 0;
+		for (Segment segment : overlapping) {
+			read += segment.scan(startDate.getTime(), endDate.getTime(), consumer);
+		}
+		LOGGER.debug("Scanned {}: segments={} overlapping={} records={}", directory, segments.size(),
+				overlapping.size(), read);
+		return read;
+	}
+
+	/**
+	 * @return the segments with records of the window
+	 */
+	synchronized List<Segment> overlapping(Date startDate, Date endDate) {
+		List<Segment> overlapping = new ArrayList<>();
+		for (Segment segment : segments) {
+			if (segment.overlaps(startDate.getTime(), endDate.getTime())) {
+				overlapping.add(segment);
+			}
+		}
+		return overlapping;
+	}
+
+	/**
+	 * @param id
+	 *            request id of a record
+	 * @return the request text
+	 */
+	public synchronized String request(int id) {
+		return requests.text(id);
+	}
+
+	/**
+	 * @param id
+	 *            agent id of a record
+	 * @return the agent text, or null
+	 */
+	public synchronized String agent(int id) {
+		return agents.text(id);
+	}
+
+	/**
+	 * Check if a file was already ingested. The file is identified by its path,
+	 * size and modification time.
+	 *
+	 * @param file
+	 *            access log file
+	 * @return true if the file is in the store
+	 * @throws IOException
+	 *             Couldn't read the file
+	 */
+	public synchronized boolean contains(Path file) throws IOException {
+		Path sources = directory.resolve(SOURCES_FILE);
+		return Files.exists(sources)
+				&& Files.readAllLines(sources, StandardCharsets.UTF_8).contains(source(file));
+	}
+
+	/**
+	 * Record an ingested file. The records should be flushed before.
+	 *
+	 * @param file
+	 *            access log file
+	 * @throws IOException
+	 *             Couldn't write the store
+	 */
+	public synchronized void addSource(Path file) throws IOException {
+		Files.write(directory.resolve(SOURCES_FILE), Collections.singletonList(source(file)), StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	private static String source(Path file) throws IOException {
+		return file.toAbsolutePath().normalize() + "|" + Files.size(file) + "|"
+				+ Files.getLastModifiedTime(file).toMillis();
+	}
+
+	/**
+	 * @return number of stored records
+	 */
+	public synchronized long size() {
+		long size = 0;
+		for (Segment segment : segments) {
+			size += segment.getCount();
+		}
+		return size;
+	}
+}
@@ -11,6 +11,8 @@ import java.util.Date;
 public class DateUtils {
 	private static final long ONE_MINUTE_IN_MILLIS = 60000;// milliseconds
 
+	private static final long ONE_DAY_IN_MILLIS = 24 * 60 * ONE_MINUTE_IN_MILLIS;
+
 	public static Date oneDayAfter(Date date) {
 		return new Date(date.getTime() + (60 * 24 * ONE_MINUTE_IN_MILLIS));
 	}
@@ -30,4 +32,63 @@ public class DateUtils {
 	public static Date oneHourBefore(Date date) {
 		return new Date(date.getTime() - (60 * ONE_MINUTE_IN_MILLIS));
 	}
+
+	/**
+	 * Compute the UTC epoch milliseconds of a date without calendar objects.
+	 * 
+	 * @param year
+	 *            year
+	 * @param month
+	 *            month, from 1 to 12
+	 * @param day
+	 *            day of month, from 1
+	 * @param hour
+	 *            hour of day
+	 * @param minute
+	 *            minute
+	 * @param second
+	 *            second
+	 * @param millis
+	 *            milliseconds
+	 * @return epoch milliseconds
+	 */
+	public static long epochMillis(int year, int month, int day, int hour, int minute, int second, int millis) {
+		return daysFromCivil(year, month, day) * ONE_DAY_IN_MILLIS + hour * 60 * ONE_MINUTE_IN_MILLIS
+				+ minute * ONE_MINUTE_IN_MILLIS + second * 1000L + millis;
+	}
+
+	/**
+	 * Number of days in a month
+	 * 
+	 * @param year
+	 *            year
+	 * @param month
+	 *            month, from 1 to 12
+	 * @return number of days
+	 */
+	public static int daysInMonth(int year, int month) {
+		switch (month) {
+		case 2:
+			return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+		case 4:
+		case 6:
+		case 9:
+		case 11:
+			return 30;
+		default:
+			return 31;
+		}
+	}
+
+	/*
+	 * Days since 1970-01-01 in the proleptic Gregorian calendar.
+	 */
+	private static long daysFromCivil(int year, int month, int day) {
+		int y = month <= 2 ? year - 1 : year;
+		long era = (y >= 0 ? y : y - 399) / 400;
+		long yearOfEra = y - era * 400;
+		long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
 }
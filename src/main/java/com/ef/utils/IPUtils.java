@@ -0,0 +1,197 @@
+package com.ef.utils;
+
+import java.util.Arrays;
+
+/**
+ * IP address utils
+ * 
+ * @author victor
+ *
+ */
+public class IPUtils {
+	/**
+	 * Parse a dotted IPv4 address without creating intermediate objects.
+	 * 
+	 * @param s
+	 *            text containing the address
+	 * @param from
+	 *            address start
+	 * @param to
+	 *            address end (exclusive)
+	 * @return the address as a 32 bits integer
+	 * @throws NumberFormatException
+	 *             if the text is not an IPv4 address
+	 */
+	public static int parseIPv4(CharSequence s, int from, int to) {
+		int address = 0;
+		int octet = 0;
+		int digits = 0;
+		int octets = 0;
+		for (int i = from; i < to; ++i) {
+			char c = s.charAt(i);
+			if (c >= '0' && c <= '9') {
+				octet = octet * 10 + (c - '0');
+				if (++digits > 3 || octet > 255) {
+					throw new NumberFormatException("Invalid IPv4: " + s.subSequence(from, to));
+				}
+			} else if (c == '.' && digits > 0 && octets < 3) {
+				address = (address << 8) | octet;
+				octet = 0;
+				digits = 0;
+				++octets;
+			} else {
+				throw new NumberFormatException("Invalid IPv4: " + s.subSequence(from, to));
+			}
+		}
+		if (digits == 0 || octets != 3) {
+			throw new NumberFormatException("Invalid IPv4: " + s.subSequence(from, to));
+		}
+		return (address << 8) | octet;
+	}
+
+	/**
+	 * Format an IPv4 address
+	 * 
+	 * @param address
+	 *            the address as a 32 bits integer
+	 * @return dotted address
+	 */
+	public static String formatIPv4(int address) {
+		return new StringBuilder(15).append(address >>> 24).append('.').append((address >>> 16) & 0xff).append('.')
+				.append((address >>> 8) & 0xff).append('.').append(address & 0xff).toString();
+	}
+
+	/**
+	 * Parse an IPv6 address, with <code>::</code> for zero groups and an
+	 * optional dotted IPv4 address in the last 32 bits.
+	 * 
+	 * @param s
+	 *            text containing the address
+	 * @param from
+	 *            address start
+	 * @param to
+	 *            address end (exclusive)
+	 * @return the 16 bytes of the address
+	 * @throws NumberFormatException
+	 *             if the text is not an IPv6 address
+	 */
+	public static byte[] parseIPv6(CharSequence s, int from, int to) {
+		byte[] address = new byte[16];
+		int length = 0;
+		int gap = -1;
+		int i = from;
+		if (to - from >= 2 && s.charAt(i) == ':' && s.charAt(i + 1) == ':') {
+			gap = 0;
+			i += 2;
+		}
+		while (i < to) {
+			int end = i;
+			int group = 0;
+			while (end < to && end - i < 5 && Character.digit(s.charAt(end), 16) >= 0) {
+				group = (group << 4) | Character.digit(s.charAt(end), 16);
+				++end;
+			}
+			if (end < to && s.charAt(end) == '.' && length <= 12) {
+				// embedded IPv4
+				int ipv4 = parseIPv4(s, i, to);
+				for (int b = 0; b < 4; ++b) {
+					address[length++] = (byte) (ipv4 >>> (24 - 8 * b));
+				}
+				i = to;
+				break;
+			}
+			if (end == i || end - i > 4 || length == 16) {
+				throw new NumberFormatException("Invalid IPv6: " + s.subSequence(from, to));
+			}
+			address[length++] = (byte) (group >>> 8);
+			address[length++] = (byte) group;
+			i = end;
+			if (i < to) {
+				if (s.charAt(i) != ':' || i + 1 == to) {
+					throw new NumberFormatException("Invalid IPv6: " + s.subSequence(from, to));
+				}
+				++i;
+				if (s.charAt(i) == ':') {
+					if (gap >= 0) {
+						throw new NumberFormatException("Invalid IPv6: " + s.subSequence(from, to));
+					}
+					gap = length;
+					++i;
+				}
+			}
+		}
+		if (gap >= 0) {
+			if (length == 16) {
+				throw new NumberFormatException("Invalid IPv6: " + s.subSequence(from, to));
+			}
+			System.arraycopy(address, gap, address, 16 - (length - gap), length - gap);
+			Arrays.fill(address, gap, 16 - (length - gap), (byte) 0);
+		} else if (length != 16) {
+			throw new NumberFormatException("Invalid IPv6: " + s.subSequence(from, to));
+		}
+		return address;
+	}
+
+	/**
+	 * Format an IPv6 address in the canonical text of RFC 5952: lower case
+	 * groups without leading zeros, the longest run of zero groups replaced by
+	 * <code>::</code> and IPv4 mapped addresses with a dotted suffix.
+	 * 
+	 * @param address
+	 *            the 16 bytes of the address
+	 * @return text address
+	 */
+	public static String formatIPv6(byte[] address) {
+		int[] groups = new int[8];
+		for (int g = 0; g < 8; ++g) {
+			groups[g] = ((address[2 * g] & 0xff) << 8) | (address[2 * g + 1] & 0xff);
+		}
+		if (groups[0] == 0 && groups[1] == 0 && groups[2] == 0 && groups[3] == 0 && groups[4] == 0
+				&& groups[5] == 0xffff) {
+			return "::ffff:" + formatIPv4((groups[6] << 16) | groups[7]);
+		}
+		int bestStart = -1;
+		int bestLength = 1;
+		for (int g = 0; g < 8;) {
+			int end = g;
+			while (end < 8 && groups[end] == 0) {
+				++end;
+			}
+			if (end - g > bestLength) {
+				bestStart = g;
+				bestLength = end - g;
+			}
+			g = end == g ? g + 1 : end;
+		}
+		StringBuilder text = new StringBuilder(39);
+		for (int g = 0; g < 8; ++g) {
+			if (g == bestStart) {
+				text.append("::");
+				g += bestLength - 1;
+			} else {
+				if (text.length() > 0 && text.charAt(text.length() - 1) != ':') {
+					text.append(':');
+				}
+				text.append(Integer.toHexString(groups[g]));
+			}
+		}
+		return text.toString();
+	}
+
+	/**
+	 * Sort IPv4 addresses in numeric order. The addresses are unsigned, so
+	 * <code>128.0.0.0</code> comes after <code>127.255.255.255</code>.
+	 * 
+	 * @param addresses
+	 *            addresses as 32 bits integers
+	 */
+	public static void sortIPv4(int[] addresses) {
+		for (int i = 0; i < addresses.length; ++i) {
+			addresses[i] ^= Integer.MIN_VALUE;
+		}
+		Arrays.sort(addresses);
+		for (int i = 0; i < addresses.length; ++i) {
+			addresses[i] ^= Integer.MIN_VALUE;
+		}
+	}
+}
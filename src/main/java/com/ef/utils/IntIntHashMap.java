@@ -0,0 +1,163 @@
+package com.ef.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map of primitive <code>int</code> keys and values. It
+ * avoids boxing, so counting millions of keys needs only two arrays. It is not
+ * thread safe.
+ * 
+ * @author victor
+ *
+ */
+public class IntIntHashMap {
+	/**
+	 * Consumer of map entries
+	 */
+	public interface EntryConsumer {
+		void accept(int key, int value);
+	}
+
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private int[] keys;
+
+	private int[] values;
+
+	/**
+	 * Slot usage. The key 0 is valid, so the keys cannot mark empty slots.
+	 */
+	private boolean[] used;
+
+	private int size;
+
+	public IntIntHashMap() {
+		this(1024);
+	}
+
+	public IntIntHashMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		keys = new int[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+	}
+
+	/**
+	 * Add a value to the key
+	 * 
+	 * @param key
+	 *            key
+	 * @param delta
+	 *            value to add
+	 * @return the new value
+	 */
+	public int add(int key, int delta) {
+		int slot = slot(key);
+		if (used[slot]) {
+			return values[slot] += delta;
+		}
+		used[slot] = true;
+		keys[slot] = key;
+		values[slot] = delta;
+		if (++size > keys.length * LOAD_FACTOR) {
+			rehash();
+		}
+		return delta;
+	}
+
+	/**
+	 * Get the key value
+	 * 
+	 * @param key
+	 *            key
+	 * @return the value or 0 if the key is not present
+	 */
+	public int get(int key) {
+		int slot = slot(key);
+		return used[slot] ? values[slot] : 0;
+	}
+
+	public boolean containsKey(int key) {
+		return used[slot(key)];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void forEach(EntryConsumer consumer) {
+		for (int i = 0; i < keys.length; ++i) {
+			if (used[i]) {
+				consumer.accept(keys[i], values[i]);
+			}
+		}
+	}
+
+	/**
+	 * Add all entries of other map to this map
+	 * 
+	 * @param other
+	 *            other map
+	 */
+	public void addAll(IntIntHashMap other) {
+		other.forEach(this::add);
+	}
+
+	/**
+	 * Keys with value greater or equal than the given one
+	 * 
+	 * @param minValue
+	 *            minimum value
+	 * @return keys
+	 */
+	public int[] keysWithValueAtLeast(int minValue) {
+		int[] result = new int[size];
+		int count = 0;
+		for (int i = 0; i < keys.length; ++i) {
+			if (used[i] && values[i] >= minValue) {
+				result[count++] = keys[i];
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/*
+	 * Find the key slot or the empty slot where it should be
+	 */
+	private int slot(int key) {
+		int mask = keys.length - 1;
+		int slot = mix(key) & mask;
+		while (used[slot] && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void rehash() {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldUsed = used;
+		keys = new int[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+		used = new boolean[oldKeys.length * 2];
+		for (int i = 0; i < oldKeys.length; ++i) {
+			if (oldUsed[i]) {
+				int slot = slot(oldKeys[i]);
+				used[slot] = true;
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private static int mix(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	@Override
+	public String toString() {
+		return "IntIntHashMap [size=" + size + ", capacity=" + keys.length + "]";
+	}
+
+}
@@ -0,0 +1,114 @@
+package com.ef.utils;
+
+/**
+ * Open addressing hash set of primitive <code>long</code> values. It is not
+ * thread safe.
+ * 
+ * @author victor
+ *
+ */
+public class LongHashSet {
+	/**
+	 * Consumer of set values
+	 */
+	public interface ValueConsumer {
+		void accept(long value);
+	}
+
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private long[] values;
+
+	private boolean[] used;
+
+	private int size;
+
+	public LongHashSet() {
+		this(1024);
+	}
+
+	public LongHashSet(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		values = new long[capacity];
+		used = new boolean[capacity];
+	}
+
+	/**
+	 * Add a value
+	 * 
+	 * @param value
+	 *            value
+	 * @return true if the value was not in the set
+	 */
+	public boolean add(long value) {
+		int slot = slot(value);
+		if (used[slot]) {
+			return false;
+		}
+		used[slot] = true;
+		values[slot] = value;
+		if (++size > values.length * LOAD_FACTOR) {
+			rehash();
+		}
+		return true;
+	}
+
+	public boolean contains(long value) {
+		return used[slot(value)];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void forEach(ValueConsumer consumer) {
+		for (int i = 0; i < values.length; ++i) {
+			if (used[i]) {
+				consumer.accept(values[i]);
+			}
+		}
+	}
+
+	/**
+	 * Add all values of other set to this set
+	 * 
+	 * @param other
+	 *            other set
+	 */
+	public void addAll(LongHashSet other) {
+		other.forEach(this::add);
+	}
+
+	private int slot(long value) {
+		int mask = values.length - 1;
+		int slot = mix(value) & mask;
+		while (used[slot] && values[slot] != value) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void rehash() {
+		long[] oldValues = values;
+		boolean[] oldUsed = used;
+		values = new long[oldValues.length * 2];
+		used = new boolean[oldValues.length * 2];
+		for (int i = 0; i < oldValues.length; ++i) {
+			if (oldUsed[i]) {
+				int slot = slot(oldValues[i]);
+				used[slot] = true;
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private static int mix(long value) {
+		long h = value * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return "LongHashSet [size=" + size + ", capacity=" + values.length + "]";
+	}
+}
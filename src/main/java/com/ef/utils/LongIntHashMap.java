@@ -0,0 +1,163 @@
+package com.ef.utils;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map of primitive <code>long</code> keys and
+ * <code>int</code> values. It avoids boxing, so counting millions of keys needs
+ * only two arrays. It is not thread safe.
+ * 
+ * @author victor
+ *
+ */
+public class LongIntHashMap {
+	/**
+	 * Consumer of map entries
+	 */
+	public interface EntryConsumer {
+		void accept(long key, int value);
+	}
+
+	private static final float LOAD_FACTOR = 0.5f;
+
+	private long[] keys;
+
+	private int[] values;
+
+	/**
+	 * Slot usage. The key 0 is valid, so the keys cannot mark empty slots.
+	 */
+	private boolean[] used;
+
+	private int size;
+
+	public LongIntHashMap() {
+		this(1024);
+	}
+
+	public LongIntHashMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+		keys = new long[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+	}
+
+	/**
+	 * Add a value to the key
+	 * 
+	 * @param key
+	 *            key
+	 * @param delta
+	 *            value to add
+	 * @return the new value
+	 */
+	public int add(long key, int delta) {
+		int slot = slot(key);
+		if (used[slot]) {
+			return values[slot] += delta;
+		}
+		used[slot] = true;
+		keys[slot] = key;
+		values[slot] = delta;
+		if (++size > keys.length * LOAD_FACTOR) {
+			rehash();
+		}
+		return delta;
+	}
+
+	/**
+	 * Get the key value
+	 * 
+	 * @param key
+	 *            key
+	 * @return the value or 0 if the key is not present
+	 */
+	public int get(long key) {
+		int slot = slot(key);
+		return used[slot] ? values[slot] : 0;
+	}
+
+	public boolean containsKey(long key) {
+		return used[slot(key)];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void forEach(EntryConsumer consumer) {
+		for (int i = 0; i < keys.length; ++i) {
+			if (used[i]) {
+				consumer.accept(keys[i], values[i]);
+			}
+		}
+	}
+
+	/**
+	 * Add all entries of other map to this map
+	 * 
+	 * @param other
+	 *            other map
+	 */
+	public void addAll(LongIntHashMap other) {
+		other.forEach(this::add);
+	}
+
+	/**
+	 * Keys with value greater or equal than the given one
+	 * 
+	 * @param minValue
+	 *            minimum value
+	 * @return keys
+	 */
+	public long[] keysWithValueAtLeast(int minValue) {
+		long[] result = new long[size];
+		int count = 0;
+		for (int i = 0; i < keys.length; ++i) {
+			if (used[i] && values[i] >= minValue) {
+				result[count++] = keys[i];
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/*
+	 * Find the key slot or the empty slot where it should be
+	 */
+	private int slot(long key) {
+		int mask = keys.length - 1;
+		int slot = mix(key) & mask;
+		while (used[slot] && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldUsed = used;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+		used = new boolean[oldKeys.length * 2];
+		for (int i = 0; i < oldKeys.length; ++i) {
+			if (oldUsed[i]) {
+				int slot = slot(oldKeys[i]);
+				used[slot] = true;
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	private static int mix(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return "LongIntHashMap [size=" + size + ", capacity=" + keys.length + "]";
+	}
+
+}
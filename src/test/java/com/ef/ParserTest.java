@@ -1,82 +1,56 @@
 package com.ef;
 
-import java.util.Date;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 
-import org.hibernate.Session;
-import org.hibernate.Transaction;
-import org.junit.After;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.junit.Assert;
-import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
 
-import com.ef.db.hibernate.HibernateUtil;
-import com.ef.services.AccessLogService;
-import com.ef.utils.DateUtils;
+import com.ef.log.LogFixture;
+import com.ef.metrics.Counter;
+import com.ef.metrics.Metrics;
 
 public class ParserTest {
-	@BeforeClass
-	public static void setup() {
-		clearDatabase();
-	}
 
-	@After
-	public void tearDown() {
-		try {
-			clearDatabase();
-		} catch (Exception e) {
-			Assert.fail(e.getMessage());
-		}
-	}
-
-	private static void clearDatabase() {
-		try (Session session = HibernateUtil.getSessionFactory().openSession()) {
-			Transaction tx = session.beginTransaction();
-			session.createNativeQuery("TRUNCATE SCHEMA PUBLIC RESTART IDENTITY AND COMMIT NO CHECK").executeUpdate();
-			tx.commit();
-		}
-	}
-
-	private AccessLogService accessLogService = new AccessLogService();
+	@Rule
+	public LogFixture logs = new LogFixture();
 
 	/*
-	 * Check if the threshold is working
+	 * Check if the MBeans published with --jmx count the lines read in memory
+	 * and store modes.
 	 */
 	@Test
-	public void insertTest() {
-		for (int i = 0; i < 10; ++i) {
-			accessLogService.register(new Date(), "127.0.0.1", "GET / HTTP/1.1", 200,
-					"Mozilla/5.0 (Linux; Android 6.0; Nexus 5 Build/MRA58N) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/60.0.3112.113 Mobile Safari/537.36");
-
-		}
-
-		for (int i = 0; i < 9; ++i) {
-			accessLogService.register(new Date(), "44.44.44.44", "GET / HTTP/1.1", 200,
-					"Mozilla/5.0 (Linux; Android 6.0; Nexus 5 Build/MRA58N) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/60.0.3112.113 Mobile Safari/537.36");
-
-		}
-		List<String> blockedIPs = accessLogService.createBlockedIPs(DateUtils.oneHourBefore(), DateUtils.oneHourAfter(),
-				10);
-
-		Assert.assertTrue(blockedIPs.contains("127.0.0.1"));
-		Assert.assertFalse(blockedIPs.contains("44.44.44.44"));
-	}
-
-	/*
-	 * Check if there is no rollback problem.
-	 */
-	@Test
-	public void checkRollbackTest() {
-		Date time = new Date();
-		accessLogService.register(time, "127.0.0.1", "GET / HTTP/1.1", 200,
-				"Mozilla/5.0 (Linux; Android 6.0; Nexus 5 Build/MRA58N) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/60.0.3112.113 Mobile Safari/537.36");
-		accessLogService.register(time, "127.0.0.1", "GET / HTTP/1.1", 200,
-				"Mozilla/5.0 (Linux; Android 6.0; Nexus 5 Build/MRA58N) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/60.0.3112.113 Mobile Safari/537.36");
-
-		for (int i = 0; i < 3; ++i) {
-			accessLogService.register(new Date(), "127.0.0.1", "GET / HTTP/1.1", 200,
-					"Mozilla/5.0 (Linux; Android 6.0; Nexus 5 Build/MRA58N) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/60.0.3112.113 Mobile Safari/537.36");
-
+	public void jmxTest() throws IOException, JMException {
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 120; ++i) {
+			// 12:30 to 14:29, one line per minute
+			lines.add(LogFixture.line(LogFixture.time(12, 30 + i, 0, 0), "192.168.0.1"));
 		}
+		Path file = logs.write(lines);
+		Path store = logs.folder();
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName read = new ObjectName("com.ef.parser:type=Counter,name=lines");
+		ObjectName skipped = new ObjectName("com.ef.parser:type=Counter,name=skipped_lines");
+		long before = Metrics.get(Counter.LINES);
+		long skippedBefore = Metrics.get(Counter.SKIPPED_LINES);
+		new Parser(new String[] { "--accesslog=" + file, "--startDate=2017-01-01.13:00:00", "--duration=hourly",
+				"--threshold=60", "--mode=memory", "--jmx" }).run();
+		// the file is read again to count the blocked IP without repeated lines
+		Assert.assertEquals(before + 240, server.getAttribute(read, "Value"));
+		Assert.assertEquals(skippedBefore + 120, server.getAttribute(skipped, "Value"));
+
+		new Parser(new String[] { "--accesslog=" + file, "--startDate=2017-01-01.13:00:00", "--duration=hourly",
+				"--threshold=60", "--mode=store", "--store=" + store, "--jmx" }).run();
+		Assert.assertEquals(before + 360, server.getAttribute(read, "Value"));
+		Assert.assertTrue(server.isRegistered(new ObjectName("com.ef.parser:type=Stage,name=commit")));
 	}
 }
@@ -0,0 +1,55 @@
+package com.ef.db;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.ef.domain.AccessLog;
+import com.ef.domain.Agent;
+import com.ef.domain.IPAddress;
+
+public class AccessLogRepositoryTest {
+
+	/*
+	 * Check if the rows of the bulk loader escape the special characters of
+	 * the request and write a null agent as \N.
+	 */
+	@Test
+	public void rowsTest() {
+		AccessLog plain = new AccessLog(new Date(1483228800000L), IPAddress.parse("192.168.0.1"),
+				"\"GET / HTTP/1.1\"", 200);
+		Agent agent = new Agent("agent");
+		agent.setId(7L);
+		plain.setAgent(agent);
+		AccessLog special = new AccessLog(new Date(1483228800001L), IPAddress.parse("2001:db8::1"),
+				"a\tb\nc\rd\0e\\f ç", 404);
+
+		String rows = new String(AccessLogRepository.rows(Arrays.asList(plain, special)), StandardCharsets.UTF_8);
+		Assert.assertEquals("1483228800000\t192.168.0.1\t\"GET / HTTP/1.1\"\t200\t7\n"
+				+ "1483228800001\t2001:db8::1\ta\\tb\\nc\\rd\\0e\\\\f ç\t404\t\\N\n", rows);
+	}
+
+	/*
+	 * Check if the partitions bounds are the MySQL TO_DAYS of the next UTC day,
+	 * for the last millisecond of a day too.
+	 */
+	@Test
+	public void partitionsTest() {
+		long day = 1483228800000L; // 2017-01-01 00:00:00 UTC
+		// SELECT TO_DAYS('2017-01-01')
+		Assert.assertEquals(736695, AccessLogRepository.toDays(day));
+		Assert.assertEquals(736695, AccessLogRepository.toDays(day + 86399999));
+		Assert.assertEquals(736696, AccessLogRepository.toDays(day + 86400000));
+		Assert.assertEquals(719528, AccessLogRepository.toDays(0));
+		Assert.assertEquals(719527, AccessLogRepository.toDays(-1));
+
+		Assert.assertEquals("ALTER TABLE log_access REORGANIZE PARTITION p_future INTO ("
+				+ "PARTITION p20170101 VALUES LESS THAN (736696), PARTITION p20170102 VALUES LESS THAN (736697), "
+				+ "PARTITION p_future VALUES LESS THAN MAXVALUE)",
+				AccessLogRepository.partitionsSql(AccessLogRepository.toDays(day),
+						AccessLogRepository.toDays(day + 86400000)));
+	}
+}
@@ -0,0 +1,29 @@
+package com.ef.db;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+
+import com.ef.db.hibernate.HibernateUtil;
+
+/**
+ * Test database shared by the test classes.
+ *
+ * @author victor
+ *
+ */
+public class DatabaseFixture {
+
+	private DatabaseFixture() {
+	}
+
+	/**
+	 * Remove every row of the test database
+	 */
+	public static void clear() {
+		try (Session session = HibernateUtil.getSessionFactory().openSession()) {
+			Transaction tx = session.beginTransaction();
+			session.createNativeQuery("TRUNCATE SCHEMA PUBLIC RESTART IDENTITY AND COMMIT NO CHECK").executeUpdate();
+			tx.commit();
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.ef.db.hibernate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HibernateUtilTest {
+
+	/*
+	 * Check if the scan used without a usable index finds the entities of the
+	 * index written at build time.
+	 */
+	@Test
+	public void scanEntitiesTest() throws IOException {
+		ClassLoader classLoader = HibernateUtil.class.getClassLoader();
+		Set<String> indexed;
+		try (InputStream in = classLoader.getResourceAsStream(EntityIndexProcessor.INDEX)) {
+			Assert.assertNotNull(in);
+			indexed = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)).lines()
+					.filter(entity -> !entity.isEmpty()).collect(Collectors.toCollection(TreeSet::new));
+		}
+		Set<String> scanned = HibernateUtil.scanEntities(classLoader).stream().map(Class::getName)
+				.collect(Collectors.toCollection(TreeSet::new));
+		Assert.assertEquals(4, scanned.size());
+		Assert.assertEquals(indexed, scanned);
+	}
+}
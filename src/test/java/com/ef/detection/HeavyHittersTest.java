@@ -0,0 +1,133 @@
+package com.ef.detection;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.ef.db.DatabaseFixture;
+import com.ef.log.LogFixture;
+import com.ef.services.AccessLogService;
+import com.ef.services.InMemoryBlockingService;
+import com.ef.services.IngestPipeline;
+import com.ef.utils.DateUtils;
+import com.ef.utils.IntIntHashMap;
+
+public class HeavyHittersTest {
+	@BeforeClass
+	public static void setup() {
+		DatabaseFixture.clear();
+	}
+
+	@After
+	public void tearDown() {
+		try {
+			DatabaseFixture.clear();
+		} catch (Exception e) {
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Rule
+	public LogFixture logs = new LogFixture();
+
+	/*
+	 * Check if the estimates are never below the real counts and stay inside
+	 * the error bound, with many more keys than counters.
+	 */
+	@Test
+	public void sketchErrorTest() {
+		CountMinSketch sketch = new CountMinSketch(0.001, 0.01, 1024 * 1024);
+		IntIntHashMap counts = new IntIntHashMap();
+		for (int i = 0; i < 200000; ++i) {
+			int key = (i * 7919) % 50000;
+			sketch.add(key);
+			counts.add(key, 1);
+		}
+		Assert.assertEquals(200000, sketch.getTotal());
+		long bound = sketch.getErrorBound();
+		int[] over = new int[1];
+		counts.forEach((key, count) -> {
+			int estimate = sketch.estimate(key);
+			Assert.assertTrue(estimate >= count);
+			if (estimate > count + bound) {
+				++over[0];
+			}
+		});
+		Assert.assertTrue(over[0] <= counts.size() / 100);
+
+		// a smaller budget keeps the counters in the memory and raises the error
+		CountMinSketch small = new CountMinSketch(0.001, 0.01, 4096);
+		Assert.assertTrue(small.getBytes() <= 4096);
+		Assert.assertTrue(small.getEpsilon() > sketch.getEpsilon());
+	}
+
+	/*
+	 * Check if the heavy IPs are found among many distinct IPs, and if the
+	 * candidate with the smallest estimate is replaced when they are full.
+	 */
+	@Test
+	public void candidatesTest() {
+		Date start = new Date(0);
+		Date end = new Date(3600000L);
+		HeavyHitters heavyHitters = new HeavyHitters(start, end, 100,
+				new CountMinSketch(0.0001, 0.01, 1024 * 1024), 3);
+		for (int i = 0; i < 100000; ++i) {
+			heavyHitters.add(0x0A000000 + i, i);
+			if (i % 500 == 0) {
+				heavyHitters.add(1, i);
+				heavyHitters.add(2, i);
+			}
+			if (i % 1000 == 0) {
+				heavyHitters.add(3, i);
+			}
+		}
+		Assert.assertFalse(heavyHitters.add(1, end.getTime()));
+		Assert.assertArrayEquals(new int[] { 1, 2, 3 }, heavyHitters.getCandidates());
+		Assert.assertEquals(0, heavyHitters.getEvicted());
+
+		for (int i = 0; i < 300; ++i) {
+			heavyHitters.add(4, i);
+		}
+		Assert.assertArrayEquals(new int[] { 1, 2, 4 }, heavyHitters.getCandidates());
+		Assert.assertEquals(1, heavyHitters.getEvicted());
+	}
+
+	/*
+	 * Check if the verified heavy hitters are the IPs found by the exact count,
+	 * in memory and in database mode.
+	 */
+	@Test
+	public void approximateBlockingTest() throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 6000; ++i) {
+			int ip = i % 2 == 0 ? i % 9 : 1000 + i;
+			lines.add(LogFixture.line(LogFixture.time(12, 30 + (i % 100), i % 60, i % 997),
+					"10.0." + ip / 256 + "." + ip % 256));
+		}
+		Path file = logs.write(lines);
+
+		Date startDate = LogFixture.START;
+		Date endDate = DateUtils.oneHourAfter(startDate);
+		List<String> expected = new InMemoryBlockingService(2, false).findBlockedIPs(file, startDate, endDate, 90);
+		Assert.assertEquals(9, expected.size());
+		Assert.assertEquals(expected, new InMemoryBlockingService(2, false).findHeavyHitters(file,
+				new HeavyHitters(startDate, endDate, 90, new CountMinSketch(0.01, 0.01, 4096), 100), true));
+
+		AccessLogService accessLogService = new AccessLogService();
+		IngestPipeline pipeline = new IngestPipeline(accessLogService, 2, 2, 4, 100);
+		pipeline.setHeavyHitters(new HeavyHitters(startDate, endDate, 90, new CountMinSketch(0.01, 0.01, 4096), 100));
+		pipeline.run(file);
+		Assert.assertTrue(pipeline.getHeavyHitters().getCandidates().length >= expected.size());
+		Assert.assertEquals(new TreeSet<>(expected),
+				new TreeSet<>(accessLogService.createBlockedIPs(pipeline.getHeavyHitters(), true)));
+	}
+}
@@ -0,0 +1,71 @@
+package com.ef.detection;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HitCounterTest {
+
+	/*
+	 * Check if the counters grow with the IPs of each hour, not with the
+	 * requests, and if only the IPs near the threshold are checked by the
+	 * sliding window.
+	 */
+	@Test
+	public void bucketsTest() {
+		long hour = HitCounter.BUCKET_MILLIS;
+		HitCounter counter = new HitCounter(new Date(0), new Date(3 * hour));
+		for (int i = 0; i < 100000; ++i) {
+			Assert.assertTrue(counter.add(i % 3, (i % 2) * hour + i % 1000));
+		}
+		// 50 requests each side of the first hour end
+		for (int i = 0; i < 50; ++i) {
+			counter.add(-1, hour - 1000 + i);
+			counter.add(-1, hour + i);
+		}
+		Assert.assertFalse(counter.add(1, 3 * hour));
+		Assert.assertEquals(100100, counter.size());
+		Assert.assertEquals(8, counter.buckets());
+
+		int[] candidates = SlidingWindowDetector.candidates(counter, hour, 100);
+		Arrays.sort(candidates);
+		Assert.assertArrayEquals(new int[] { -1, 0, 1, 2 }, candidates);
+		Assert.assertEquals(3, SlidingWindowDetector.candidates(counter, hour, 101).length);
+
+		RequestTimes times = new RequestTimes();
+		for (int i = 0; i < 50; ++i) {
+			times.add(-1, hour - 1000 + i);
+			times.add(-1, hour + i);
+			// repeated requests are checked once
+			times.add(-1, hour + i);
+		}
+		List<RuleViolation> violations = SlidingWindowDetector.evaluate(times, hour, 100);
+		Assert.assertEquals(1, violations.size());
+		Assert.assertEquals(Arrays.asList("255.255.255.255"), violations.get(0).getIps());
+		Assert.assertEquals(new Date(hour - 1000), violations.get(0).getStartDate());
+		Assert.assertTrue(SlidingWindowDetector.evaluate(times, hour, 101).isEmpty());
+	}
+
+	/*
+	 * Check if the sliding window reaches the requests long after the start
+	 * date, until the last request.
+	 */
+	@Test
+	public void longSpanTest() {
+		long hour = HitCounter.BUCKET_MILLIS;
+		long late = 100 * 24 * hour;
+		HitCounter counter = new HitCounter(new Date(0), new Date(SlidingWindowDetector.END_OF_LOG));
+		RequestTimes times = new RequestTimes();
+		for (int i = 0; i < 3; ++i) {
+			Assert.assertTrue(counter.add(1, late + i));
+			times.add(1, late + i);
+		}
+		Assert.assertArrayEquals(new int[] { 1 }, SlidingWindowDetector.candidates(counter, hour, 3));
+		List<RuleViolation> violations = SlidingWindowDetector.evaluate(times, hour, 3);
+		Assert.assertEquals(1, violations.size());
+		Assert.assertEquals(new Date(late), violations.get(0).getStartDate());
+	}
+}
@@ -0,0 +1,165 @@
+package com.ef.detection;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ef.db.DatabaseFixture;
+import com.ef.log.LogFixture;
+import com.ef.params.Rule;
+import com.ef.services.AccessLogService;
+import com.ef.services.BlockingSink;
+import com.ef.services.InMemoryBlockingService;
+import com.ef.services.IngestPipeline;
+
+public class OnlineDetectorTest {
+	@BeforeClass
+	public static void setup() {
+		DatabaseFixture.clear();
+	}
+
+	@After
+	public void tearDown() {
+		try {
+			DatabaseFixture.clear();
+		} catch (Exception e) {
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@org.junit.Rule
+	public LogFixture logs = new LogFixture();
+
+	/*
+	 * Check if an IP is reported once per window, and if the requests of a
+	 * window are ignored once it expired.
+	 */
+	@Test
+	public void expiryTest() {
+		long hour = 3600000L;
+		OnlineDetector detector = new OnlineDetector(new Date(0), null, Arrays.asList(Rule.parse("hourly:3")), 60000);
+		Assert.assertTrue(detector.add(1, 1000).isEmpty());
+		Assert.assertTrue(detector.add(1, 2000).isEmpty());
+		List<RuleViolation> violations = detector.add(1, 3000);
+		Assert.assertEquals(1, violations.size());
+		Assert.assertEquals(new Date(0), violations.get(0).getStartDate());
+		Assert.assertEquals(new Date(hour), violations.get(0).getEndDate());
+		Assert.assertEquals(Arrays.asList("0.0.0.1"), violations.get(0).getIps());
+		Assert.assertTrue(detector.add(1, 4000).isEmpty());
+
+		// a late request is counted until a minute after the window end
+		Assert.assertTrue(detector.add(2, hour + 30000).isEmpty());
+		Assert.assertTrue(detector.add(2, 5000).isEmpty());
+		Assert.assertTrue(detector.add(2, 6000).isEmpty());
+		Assert.assertEquals(1, detector.add(2, 7000).size());
+		Assert.assertEquals(0, detector.getLate());
+
+		Assert.assertTrue(detector.add(3, hour + 60000).isEmpty());
+		Assert.assertTrue(detector.add(3, 8000).isEmpty());
+		Assert.assertEquals(1, detector.getLate());
+
+		// the slots are reused by the next windows
+		for (int window = 2; window < 100; ++window) {
+			for (int i = 0; i < 2; ++i) {
+				Assert.assertTrue(detector.add(4, window * hour + i).isEmpty());
+			}
+			Assert.assertEquals(1, detector.add(4, window * hour + 2).size());
+		}
+	}
+
+	/*
+	 * Check if the IPs blocked while the lines are registered are the ones
+	 * found after the whole file, each once per window.
+	 */
+	@Test
+	public void onlineBlockingTest() throws IOException {
+		Path file = logs.write(lines());
+
+		Date startDate = LogFixture.START;
+		List<Rule> rules = Arrays.asList(Rule.parse("hourly:60"), Rule.parse("daily:300"));
+		Date endDate = InMemoryBlockingService.spanEnd(startDate, rules);
+		List<String> blocked = new ArrayList<>();
+		AccessLogService service = new AccessLogService() {
+			@Override
+			public synchronized void createBlockedIPs(List<RuleViolation> violations) {
+				super.createBlockedIPs(violations);
+				violations.forEach(violation -> blocked.add(violation.getStartDate().getTime() + "|"
+						+ violation.getEndDate().getTime() + "|" + violation.getIps().get(0)));
+			}
+		};
+		OnlineDetector detector = new OnlineDetector(startDate, endDate, rules,
+				endDate.getTime() - startDate.getTime());
+		IngestPipeline pipeline = new IngestPipeline(new BlockingSink(service, detector), 2, 2, 4, 100);
+		pipeline.run(file);
+
+		List<String> expected = new ArrayList<>();
+		for (RuleViolation violation : service.evaluate(startDate, rules)) {
+			violation.getIps().forEach(ip -> expected.add(violation.getStartDate().getTime() + "|"
+					+ violation.getEndDate().getTime() + "|" + ip));
+		}
+		Assert.assertFalse(expected.isEmpty());
+		Assert.assertEquals(new TreeSet<>(expected), new TreeSet<>(blocked));
+		Assert.assertEquals(expected.size(), blocked.size());
+		Assert.assertEquals(0, detector.getLate());
+	}
+
+	/*
+	 * Check if a restarted online detector counts the requests registered
+	 * before, and not the replayed lines, finding the IPs of a single run.
+	 */
+	@Test
+	public void onlineRestartTest() throws IOException {
+		List<String> lines = lines();
+		// the second run replays the last 500 lines of the first one
+		Path first = logs.write(lines.subList(0, 2500));
+		Path second = logs.write(lines.subList(2000, 4000));
+
+		Date startDate = LogFixture.START;
+		List<Rule> rules = Arrays.asList(Rule.parse("hourly:60"), Rule.parse("daily:300"));
+		Date endDate = InMemoryBlockingService.spanEnd(startDate, rules);
+		Set<String> blocked = new TreeSet<>();
+		AccessLogService service = new AccessLogService() {
+			@Override
+			public synchronized void createBlockedIPs(List<RuleViolation> violations) {
+				super.createBlockedIPs(violations);
+				violations.forEach(violation -> blocked.add(violation.getStartDate().getTime() + "|"
+						+ violation.getEndDate().getTime() + "|" + violation.getIps().get(0)));
+			}
+		};
+		for (Path file : Arrays.asList(first, second)) {
+			OnlineDetector detector = new OnlineDetector(startDate, endDate, rules,
+					endDate.getTime() - startDate.getTime());
+			service.seed(detector);
+			new IngestPipeline(new BlockingSink(service, detector), 2, 2, 4, 100).run(file);
+		}
+
+		Set<String> expected = new TreeSet<>();
+		for (RuleViolation violation : service.evaluate(startDate, rules)) {
+			violation.getIps().forEach(ip -> expected.add(violation.getStartDate().getTime() + "|"
+					+ violation.getEndDate().getTime() + "|" + ip));
+		}
+		Assert.assertFalse(expected.isEmpty());
+		Assert.assertEquals(expected, blocked);
+	}
+
+	/*
+	 * 13:00 to 16:19, more requests from the first IPs
+	 */
+	private static List<String> lines() {
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 4000; ++i) {
+			lines.add(LogFixture.line(LogFixture.time(13, i % 200, i % 60, i % 11), "10.0.0." + (i * i) % 17));
+		}
+		return lines;
+	}
+}
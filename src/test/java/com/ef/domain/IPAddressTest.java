@@ -0,0 +1,41 @@
+package com.ef.domain;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IPAddressTest {
+
+	/*
+	 * Check if the text of the addresses is kept, in canonical form, and the
+	 * bytes are the ones of INET6_ATON.
+	 */
+	@Test
+	public void textTest() {
+		String[][] addresses = { { "192.168.0.1", "192.168.0.1" }, { "255.255.255.255", "255.255.255.255" },
+				{ "::", "::" }, { "::1", "::1" }, { "2001:DB8::1", "2001:db8::1" },
+				{ "2001:0db8:0000:0000:0001:0000:0000:0001", "2001:db8::1:0:0:1" },
+				{ "2001:db8:0:1:1:1:1:1", "2001:db8:0:1:1:1:1:1" }, { "fe80::", "fe80::" },
+				{ "::ffff:10.0.0.1", "::ffff:10.0.0.1" }, { "64:ff9b::192.0.2.33", "64:ff9b::c000:221" } };
+		for (String[] address : addresses) {
+			IPAddress ip = IPAddress.parse(address[0]);
+			Assert.assertEquals(address[1], ip.toString());
+			Assert.assertEquals(ip, IPAddress.parse(ip.toString()));
+			Assert.assertEquals(ip, IPAddress.of(ip.toBytes()));
+		}
+		Assert.assertArrayEquals(new byte[] { (byte) 192, (byte) 168, 0, 1 }, IPAddress.parse("192.168.0.1").toBytes());
+		Assert.assertEquals(16, IPAddress.parse("::ffff:10.0.0.1").toBytes().length);
+		Assert.assertEquals(0xC0A80001, IPAddress.parse("192.168.0.1").toIPv4());
+		Assert.assertTrue(IPAddress.parse("128.0.0.0").compareTo(IPAddress.parse("127.255.255.255")) > 0);
+		Assert.assertTrue(IPAddress.parse("255.0.0.0").compareTo(IPAddress.parse("::1")) < 0);
+
+		for (String invalid : new String[] { "", "1.2.3", "1::2::3", "1:2:3:4:5:6:7", "1:2:3:4:5:6:7:8:9", ":1",
+				"1:", "12345::", "1:2:3:4:5:6:7:1.2.3.4", "::g" }) {
+			try {
+				IPAddress.parse(invalid);
+				Assert.fail("Parsed " + invalid);
+			} catch (NumberFormatException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.ef.log;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.ef.utils.IPUtils;
+
+public class AccessLogTokenizerTest {
+
+	private AccessLogTokenizer tokenizer = new AccessLogTokenizer();
+
+	@Test
+	public void tokenizeTest() throws InvalidLineException {
+		LogEntry entry = tokenizer.tokenize(
+				"2017-01-01 00:00:11.763|192.168.234.82|\"GET / HTTP/1.1\"|200|\"swcd (unknown version) CFNetwork/808.2.16 Darwin/15.6.0\"");
+		Assert.assertEquals(1483228811763L, entry.getTime());
+		Assert.assertEquals("192.168.234.82", IPUtils.formatIPv4(entry.getIp()));
+		Assert.assertEquals("\"GET / HTTP/1.1\"", entry.getRequest());
+		Assert.assertEquals(200, entry.getResponseCode());
+		Assert.assertEquals("\"swcd (unknown version) CFNetwork/808.2.16 Darwin/15.6.0\"", entry.getAgent());
+	}
+
+	/*
+	 * Check the date arithmetic against SimpleDateFormat.
+	 */
+	@Test
+	public void parseTimeTest() throws Exception {
+		DateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; ++i) {
+			long time = (long) (random.nextDouble() * 4102444800000L); // 1970 to 2100
+			String text = format.format(time);
+			Assert.assertEquals(text, time, tokenizer.parseTime(text, 0, text.length()));
+		}
+		Assert.assertEquals(format.parse("2016-02-29 23:59:59.999").getTime(),
+				tokenizer.parseTime("2016-02-29 23:59:59.999", 0, 23));
+	}
+
+	@Test
+	public void invalidLineTest() {
+		assertInvalid("2017-02-29 00:00:11.763|192.168.234.82|\"GET / HTTP/1.1\"|200|\"agent\"",
+				InvalidLineException.Field.DATE);
+		assertInvalid("2017-01-01T00:00:11.763|192.168.234.82|\"GET / HTTP/1.1\"|200|\"agent\"",
+				InvalidLineException.Field.DATE);
+		assertInvalid("2017-01-01 00:00:11.763|192.168.234.256|\"GET / HTTP/1.1\"|200|\"agent\"",
+				InvalidLineException.Field.IP);
+		assertInvalid("2017-01-01 00:00:11.763|192.168.234|\"GET / HTTP/1.1\"|200|\"agent\"",
+				InvalidLineException.Field.IP);
+		assertInvalid("2017-01-01 00:00:11.763|2001:db8::1|\"GET / HTTP/1.1\"|200|\"agent\"",
+				InvalidLineException.Field.IPV6);
+		assertInvalid("2017-01-01 00:00:11.763|192.168.234.82|\"GET / HTTP/1.1\"|2x0|\"agent\"",
+				InvalidLineException.Field.RESPONSE_CODE);
+		assertInvalid("2017-01-01 00:00:11.763|192.168.234.82|\"GET / HTTP/1.1\"", InvalidLineException.Field.LINE);
+	}
+
+	private void assertInvalid(String line, InvalidLineException.Field field) {
+		try {
+			tokenizer.tokenize(line);
+			Assert.fail("Line should be invalid: " + line);
+		} catch (InvalidLineException e) {
+			Assert.assertEquals(field, e.getField());
+		}
+	}
+}
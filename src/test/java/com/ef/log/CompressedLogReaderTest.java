@@ -0,0 +1,129 @@
+package com.ef.log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.github.luben.zstd.ZstdOutputStream;
+
+public class CompressedLogReaderTest {
+
+	@Rule
+	public LogFixture logs = new LogFixture();
+
+	/*
+	 * Check if the lines of concatenated gzip members are all read, with lines
+	 * longer than the block.
+	 */
+	@Test
+	public void gzipTest() throws IOException {
+		List<String> lines = lines();
+		byte[] text = text(lines);
+		Path file = logs.newFile("access.log.gz").toPath();
+		try (OutputStream out = Files.newOutputStream(file)) {
+			int half = text.length / 2;
+			for (int[] part : new int[][] { { 0, half }, { half, text.length } }) {
+				GZIPOutputStream member = new GZIPOutputStream(out);
+				member.write(text, part[0], part[1] - part[0]);
+				member.finish();
+			}
+		}
+		Assert.assertEquals(sorted(lines), read(file, 100));
+	}
+
+	/*
+	 * Check if the members of a BGZF file are inflated in parallel in file
+	 * order.
+	 */
+	@Test
+	public void bgzfTest() throws IOException {
+		List<String> lines = lines();
+		byte[] text = text(lines);
+		Path file = logs.newFile("access.log.gz").toPath();
+		try (OutputStream out = Files.newOutputStream(file)) {
+			for (int start = 0; start < text.length; start += 1000) {
+				out.write(bgzfMember(text, start, Math.min(text.length, start + 1000)));
+			}
+			out.write(bgzfMember(text, 0, 0));
+		}
+		try (FileChannel channel = FileChannel.open(file)) {
+			Assert.assertTrue(BgzfInputStream.isBgzf(channel));
+		}
+		Assert.assertEquals(sorted(lines), read(file, 4096));
+	}
+
+	@Test
+	public void zstdTest() throws IOException {
+		List<String> lines = lines();
+		Path file = logs.newFile("access.log.zst").toPath();
+		try (OutputStream out = new ZstdOutputStream(Files.newOutputStream(file))) {
+			out.write(text(lines));
+		}
+		Assert.assertEquals(sorted(lines), read(file, 4096));
+	}
+
+	private static List<String> read(Path file, int blockSize) throws IOException {
+		List<String> read = Collections.synchronizedList(new ArrayList<>());
+		new CompressedLogReader(file, 3, blockSize).read(() -> line -> read.add(line.toString()));
+		return sorted(read);
+	}
+
+	private static List<String> lines() {
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 5000; ++i) {
+			lines.add(LogFixture.line(LogFixture.time(13, i % 60, i % 59, i % 1000), "10.0.0." + i % 255, 200,
+					"agent " + (i % 1000 == 0 ? String.join("", Collections.nCopies(30, "long")) : "")));
+		}
+		return lines;
+	}
+
+	private static byte[] text(List<String> lines) {
+		return (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static List<String> sorted(List<String> lines) {
+		List<String> sorted = new ArrayList<>(lines);
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+	/*
+	 * BGZF member as written by bgzip: gzip header with the BC extra field
+	 */
+	private static byte[] bgzfMember(byte[] text, int start, int end) {
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		deflater.setInput(text, start, end - start);
+		deflater.finish();
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		while (!deflater.finished()) {
+			data.write(buffer, 0, deflater.deflate(buffer));
+		}
+		deflater.end();
+		CRC32 crc = new CRC32();
+		crc.update(text, start, end - start);
+		ByteBuffer member = ByteBuffer.allocate(18 + data.size() + 8).order(ByteOrder.LITTLE_ENDIAN);
+		member.put(new byte[] { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0 });
+		member.putShort((short) (member.capacity() - 1));
+		member.put(data.toByteArray());
+		member.putInt((int) crc.getValue());
+		member.putInt(end - start);
+		return member.array();
+	}
+}
@@ -0,0 +1,76 @@
+package com.ef.log;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class LogFileSeekerTest {
+
+	@Rule
+	public LogFixture logs = new LogFixture();
+
+	/*
+	 * Check if the region holds every line of the window, even the lines a
+	 * little out of order, and nothing far from it.
+	 */
+	@Test
+	public void regionTest() throws IOException {
+		long day = LogFixture.DAY;
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 86400; ++i) {
+			// one line per second, every 100th line 30 seconds late
+			lines.add(LogFixture.line(day + i * 1000L - (i % 100 == 0 ? 30000 : 0), "192.168.0.1"));
+		}
+		lines.add(5000, "invalid line");
+		Path file = logs.write(lines);
+
+		Date startDate = new Date(day + 13 * 3600000L);
+		Date endDate = new Date(day + 14 * 3600000L);
+		TimestampFilter filter = new TimestampFilter(startDate, endDate);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			LogFileSplitter.Range region = new LogFileSeeker(channel).region(startDate, endDate);
+			Assert.assertTrue(region.length() < channel.size() / 10);
+
+			long[] inWindow = new long[1];
+			new MappedLogReader(channel).read(region, line -> {
+				if (filter.accept(line)) {
+					++inWindow[0];
+				}
+			});
+			Assert.assertEquals(3600, inWindow[0]);
+		}
+	}
+
+	/*
+	 * Check if the first and last valid lines are found after invalid lines.
+	 */
+	@Test
+	public void spanTest() throws IOException {
+		List<String> lines = new ArrayList<>();
+		lines.add("invalid line");
+		lines.add("2017-01-01 00:00:01.000|192.168.0.1|\"GET / HTTP/1.1\"|200|\"agent\"");
+		for (int i = 0; i < 100000; ++i) {
+			lines.add("2017-01-02 12:00:00.000|192.168.0.1|\"GET / HTTP/1.1\"|200|\"agent\"");
+		}
+		lines.add("2017-01-03 23:59:59.999|192.168.0.1|\"GET / HTTP/1.1\"|200|\"agent\"");
+		lines.add("invalid line");
+		Path file = logs.write(lines);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			Assert.assertArrayEquals(new long[] { 1483228801000L, 1483487999999L },
+					new LogFileSeeker(channel).span());
+		}
+		logs.write(file, Arrays.asList("invalid line"));
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			Assert.assertNull(new LogFileSeeker(channel).span());
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.ef.log;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class LogFileSplitterTest {
+
+	@Rule
+	public LogFixture logs = new LogFixture();
+
+	/*
+	 * Check if every line is read once, whatever the number of ranges, split
+	 * at once or aligned range by range.
+	 */
+	@Test
+	public void splitTest() throws IOException {
+		Path file = logs.newFile().toPath();
+		// the segments are smaller than the file
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < 1000; ++i) {
+			content.append("2017-01-01 00:00:11.763|192.168.234.").append(i % 255)
+					.append("|\"GET / HTTP/1.1\"|200|\"swcd (unknown version) CFNetwork/808.2.16 Darwin/15.6.0\"\r\n");
+		}
+		content.append("last line without line break");
+		Files.write(file, content.toString().getBytes(StandardCharsets.UTF_8));
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			for (int parts : new int[] { 1, 3, 7, 64, 5000 }) {
+				List<String> lines = new ArrayList<>();
+				long position = 0;
+				for (LogFileSplitter.Range range : LogFileSplitter.split(channel, parts)) {
+					Assert.assertEquals(position, range.getStart());
+					position = range.getEnd();
+					new MappedLogReader(channel, 4096).read(range, line -> lines.add(line.toString()));
+				}
+				Assert.assertEquals(channel.size(), position);
+				Assert.assertEquals(1001, lines.size());
+				Assert.assertTrue(lines.get(999).endsWith("Darwin/15.6.0\""));
+				Assert.assertEquals("last line without line break", lines.get(1000));
+
+				// aligned by each task, from a region starting at the second line
+				LogFileSplitter.Range region = new LogFileSplitter.Range(
+						LogFileSplitter.nextLine(channel, 0, channel.size()), channel.size());
+				lines.clear();
+				position = region.getStart();
+				for (LogFileSplitter.Range range : LogFileSplitter.divide(region, parts)) {
+					LogFileSplitter.Range aligned = LogFileSplitter.align(channel, range, region);
+					Assert.assertEquals(position, aligned.getStart());
+					position = aligned.getEnd();
+					new MappedLogReader(channel, 4096).read(aligned, line -> lines.add(line.toString()));
+				}
+				Assert.assertEquals(channel.size(), position);
+				Assert.assertEquals(1000, lines.size());
+				Assert.assertEquals("last line without line break", lines.get(999));
+			}
+		}
+	}
+
+	/*
+	 * Check if a line longer than the mapped segment is read.
+	 */
+	@Test
+	public void longLineTest() throws IOException {
+		Path file = logs.newFile().toPath();
+		StringBuilder longLine = new StringBuilder();
+		for (int i = 0; i < 10000; ++i) {
+			longLine.append((char) ('a' + i % 26));
+		}
+		Files.write(file, ("first\n" + longLine + "\nlast\n").getBytes(StandardCharsets.UTF_8));
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			List<String> lines = new ArrayList<>();
+			new MappedLogReader(channel, 4096).read(LogFileSplitter.split(channel, 1).get(0),
+					line -> lines.add(line.toString()));
+			Assert.assertEquals(3, lines.size());
+			Assert.assertEquals(longLine.toString(), lines.get(1));
+			Assert.assertEquals("last", lines.get(2));
+		}
+	}
+}
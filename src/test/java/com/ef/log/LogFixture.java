@@ -0,0 +1,84 @@
+package com.ef.log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Access log files of the tests, deleted after each test.
+ *
+ * @author victor
+ *
+ */
+public class LogFixture extends TemporaryFolder {
+
+	/**
+	 * 2017-01-01 00:00:00 UTC
+	 */
+	public static final long DAY = 1483228800000L;
+
+	/**
+	 * 2017-01-01 13:00:00 UTC, the window start of most tests
+	 */
+	public static final Date START = new Date(1483275600000L);
+
+	private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS")
+			.withZone(ZoneOffset.UTC);
+
+	/**
+	 * @return the time of 2017-01-01 at the given hour, the next days after
+	 *         the hour 23
+	 */
+	public static long time(int hour, int minute, int second, int millis) {
+		return DAY + ((hour * 60L + minute) * 60 + second) * 1000 + millis;
+	}
+
+	/**
+	 * @return a line of a GET request answered with 200 to "agent"
+	 */
+	public static String line(long time, String ip) {
+		return line(time, ip, 200, "agent");
+	}
+
+	public static String line(long time, String ip, int responseCode, String agent) {
+		return FORMAT.format(Instant.ofEpochMilli(time)) + "|" + ip + "|\"GET / HTTP/1.1\"|" + responseCode + "|\""
+				+ agent + "\"";
+	}
+
+	/**
+	 * Write the lines into a new log file
+	 */
+	public Path write(List<String> lines) throws IOException {
+		return write(Files.createTempFile(getRoot().toPath(), "access", ".log"), lines);
+	}
+
+	public Path write(Path file, List<String> lines) throws IOException {
+		return Files.write(file, lines, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Write the lines into a gzip file
+	 */
+	public Path gzip(Path file, List<String> lines) throws IOException {
+		try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+			for (String line : lines) {
+				out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+			}
+		}
+		return file;
+	}
+
+	public Path folder() throws IOException {
+		return newFolder().toPath();
+	}
+}
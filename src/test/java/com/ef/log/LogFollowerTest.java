@@ -0,0 +1,76 @@
+package com.ef.log;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.ef.metrics.Counter;
+import com.ef.metrics.Metrics;
+
+public class LogFollowerTest {
+
+	@Rule
+	public LogFixture logs = new LogFixture();
+
+	/*
+	 * Check if only the new complete lines are registered, after a restart and
+	 * after a rotation, and each line once.
+	 */
+	@Test
+	public void followTest() throws IOException {
+		Path directory = logs.folder();
+		Path file = directory.resolve("access.log");
+		Path checkpoint = directory.resolve("access.log.checkpoint");
+		List<LogEntry> registered = new ArrayList<>();
+		LogSink sink = entries -> {
+			registered.addAll(entries);
+			return entries.size();
+		};
+		long lines = Metrics.get(Counter.LINES);
+		append(file, 0, 250, "");
+		LogFollower follower = new LogFollower(file, checkpoint, 100);
+		Assert.assertEquals(250, follower.poll(sink));
+		Assert.assertEquals(0, follower.poll(sink));
+
+		// a partial line waits for its line break
+		append(file, 250, 260, "2017-01-01 00:00:00.260|10.0.1");
+		Assert.assertEquals(10, follower.poll(sink));
+		Files.write(file, ".4|\"GET / HTTP/1.1\"|200|\"agent\"\n".getBytes(StandardCharsets.UTF_8),
+				StandardOpenOption.APPEND);
+
+		// restart
+		follower = new LogFollower(file, checkpoint, 100);
+		Assert.assertEquals(1, follower.poll(sink));
+
+		// lines written before and after the rotation
+		append(file, 261, 270, "");
+		Files.move(file, directory.resolve("access.log.1"));
+		append(directory.resolve("access.log.1"), 270, 280, "");
+		append(file, 280, 300, "");
+		Assert.assertEquals(39, follower.poll(sink));
+
+		Assert.assertEquals(300, registered.size());
+		Assert.assertEquals(300, Metrics.get(Counter.LINES) - lines);
+		for (int i = 0; i < registered.size(); ++i) {
+			Assert.assertEquals(i, registered.get(i).getIp() & 0xffff);
+		}
+	}
+
+	private static void append(Path file, int from, int to, String partial) throws IOException {
+		StringBuilder lines = new StringBuilder();
+		for (int i = from; i < to; ++i) {
+			lines.append(LogFixture.line(LogFixture.DAY + i, "10.0." + i / 256 + "." + i % 256)).append('\n');
+		}
+		lines.append(partial);
+		Files.write(file, lines.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND);
+	}
+}
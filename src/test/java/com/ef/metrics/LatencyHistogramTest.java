@@ -0,0 +1,34 @@
+package com.ef.metrics;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	/*
+	 * Check if the percentiles are close to the exact values, from nanoseconds
+	 * to minutes.
+	 */
+	@Test
+	public void percentileTest() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+		for (long value = 1; value <= 100000; ++value) {
+			histogram.record(value * 1000);
+		}
+		histogram.record(120_000_000_000L);
+		Assert.assertEquals(100001, histogram.getCount());
+		Assert.assertEquals(120_000_000_000L, histogram.getMax());
+		Assert.assertEquals(120_000_000_000L, histogram.getValueAtPercentile(100));
+		for (double percentile : new double[] { 1, 50, 90, 99, 99.9 }) {
+			double exact = Math.ceil(percentile / 100 * 100001) * 1000;
+			long value = histogram.getValueAtPercentile(percentile);
+			Assert.assertTrue(percentile + ": " + value, value >= exact && value <= exact * 1.04);
+		}
+		for (long value : new long[] { 0, 31, 32, 1000, Long.MAX_VALUE }) {
+			int index = LatencyHistogram.index(value);
+			Assert.assertTrue(value <= LatencyHistogram.highestValue(index));
+			Assert.assertTrue(index == 0 || value > LatencyHistogram.highestValue(index - 1));
+		}
+	}
+}
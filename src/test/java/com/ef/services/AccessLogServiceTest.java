@@ -0,0 +1,304 @@
+package com.ef.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ef.db.BlockedIPRepository;
+import com.ef.db.DatabaseFixture;
+import com.ef.db.hibernate.HibernateUtil;
+import com.ef.detection.RuleViolation;
+import com.ef.log.LogEntry;
+import com.ef.log.LogFixture;
+import com.ef.metrics.Counter;
+import com.ef.metrics.Metrics;
+import com.ef.params.Ingest;
+import com.ef.utils.DateUtils;
+import com.ef.utils.IPUtils;
+
+public class AccessLogServiceTest {
+	@BeforeClass
+	public static void setup() {
+		DatabaseFixture.clear();
+	}
+
+	@After
+	public void tearDown() {
+		try {
+			DatabaseFixture.clear();
+		} catch (Exception e) {
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	private AccessLogService accessLogService = new AccessLogService();
+
+	/*
+	 * Check if the threshold is working
+	 */
+	@Test
+	public void insertTest() {
+		// lines at the same time and IP are duplicated
+		long time = System.currentTimeMillis();
+		for (int i = 0; i < 10; ++i) {
+			accessLogService.register(new Date(time + i), "127.0.0.1", "GET / HTTP/1.1", 200,
+					"Mozilla/5.0 (Linux; Android 6.0; Nexus 5 Build/MRA58N) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/60.0.3112.113 Mobile Safari/537.36");
+
+		}
+
+		for (int i = 0; i < 9; ++i) {
+			accessLogService.register(new Date(time + i), "44.44.44.44", "GET / HTTP/1.1", 200,
+					"Mozilla/5.0 (Linux; Android 6.0; Nexus 5 Build/MRA58N) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/60.0.3112.113 Mobile Safari/537.36");
+
+		}
+		List<String> blockedIPs = accessLogService.createBlockedIPs(DateUtils.oneHourBefore(), DateUtils.oneHourAfter(),
+				10);
+
+		Assert.assertTrue(blockedIPs.contains("127.0.0.1"));
+		Assert.assertFalse(blockedIPs.contains("44.44.44.44"));
+	}
+
+	/*
+	 * Check if IPv6 addresses are registered and blocked with their canonical
+	 * text.
+	 */
+	@Test
+	public void ipv6Test() {
+		Date time = new Date();
+		for (int i = 0; i < 3; ++i) {
+			accessLogService.register(new Date(time.getTime() + i), "2001:DB8:0:0::1", "GET / HTTP/1.1", 200, null);
+			accessLogService.register(new Date(time.getTime() + i), "::ffff:127.0.0.1", "GET / HTTP/1.1", 200, null);
+		}
+		accessLogService.register(time, "127.0.0.1", "GET / HTTP/1.1", 200, null);
+		Assert.assertEquals(new TreeSet<>(Arrays.asList("2001:db8::1", "::ffff:127.0.0.1")), new TreeSet<>(
+				accessLogService.createBlockedIPs(DateUtils.oneHourBefore(), DateUtils.oneHourAfter(), 3)));
+	}
+
+	/*
+	 * Check if there is no rollback problem.
+	 */
+	@Test
+	public void checkRollbackTest() {
+		Date time = new Date();
+		accessLogService.register(time, "127.0.0.1", "GET / HTTP/1.1", 200,
+				"Mozilla/5.0 (Linux; Android 6.0; Nexus 5 Build/MRA58N) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/60.0.3112.113 Mobile Safari/537.36");
+		accessLogService.register(time, "127.0.0.1", "GET / HTTP/1.1", 200,
+				"Mozilla/5.0 (Linux; Android 6.0; Nexus 5 Build/MRA58N) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/60.0.3112.113 Mobile Safari/537.36");
+
+		for (int i = 0; i < 3; ++i) {
+			accessLogService.register(new Date(), "127.0.0.1", "GET / HTTP/1.1", 200,
+					"Mozilla/5.0 (Linux; Android 6.0; Nexus 5 Build/MRA58N) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/60.0.3112.113 Mobile Safari/537.36");
+
+		}
+	}
+
+	/*
+	 * Check if a duplicated line does not discard the whole chunk.
+	 */
+	@Test
+	public void batchInsertTest() {
+		Date time = new Date();
+		List<LogEntry> chunk = new ArrayList<>();
+		for (int i = 0; i < 10; ++i) {
+			chunk.add(new LogEntry(time.getTime() + i, 0x7f000001, "GET / HTTP/1.1", 200,
+					"Mozilla/5.0 (Linux; Android 6.0; Nexus 5 Build/MRA58N) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/60.0.3112.113 Mobile Safari/537.36"));
+		}
+		chunk.add(new LogEntry(time.getTime(), 0x7f000001, "GET / HTTP/1.1", 200, ""));
+		chunk.add(new LogEntry(time.getTime(), 0x2c2c2c2c, "GET / HTTP/1.1", 200, "curl/7.55.1"));
+
+		Assert.assertEquals(11, accessLogService.registerAll(chunk));
+		Assert.assertEquals(0, accessLogService.registerAll(chunk));
+
+		List<String> blockedIPs = accessLogService.createBlockedIPs(DateUtils.oneHourBefore(), DateUtils.oneHourAfter(),
+				10);
+		Assert.assertTrue(blockedIPs.contains("127.0.0.1"));
+		Assert.assertFalse(blockedIPs.contains("44.44.44.44"));
+	}
+
+	/*
+	 * Check if a line the database rejects, with a request longer than its
+	 * column, is skipped without discarding the chunk, with every strategy.
+	 */
+	@Test
+	public void invalidRowTest() {
+		long time = System.currentTimeMillis();
+		StringBuilder longRequest = new StringBuilder("GET /");
+		while (longRequest.length() <= 2048) {
+			longRequest.append("long/");
+		}
+		for (Ingest ingest : Ingest.values()) {
+			accessLogService.setIngest(ingest);
+			List<LogEntry> chunk = new ArrayList<>();
+			for (int i = 0; i < 10; ++i) {
+				chunk.add(new LogEntry(time + i, 0x7f000001 + ingest.ordinal(),
+						i == 4 ? longRequest.toString() : "GET / HTTP/1.1", 200, "curl/7.55.1"));
+			}
+			long invalid = Metrics.get(Counter.INVALID_LINES);
+			long duplicated = Metrics.get(Counter.DUPLICATED_LINES);
+			Assert.assertEquals(ingest.name(), 9, accessLogService.registerAll(chunk));
+			Assert.assertEquals(ingest.name(), 1, Metrics.get(Counter.INVALID_LINES) - invalid);
+			Assert.assertEquals(ingest.name(), 0, Metrics.get(Counter.DUPLICATED_LINES) - duplicated);
+			Assert.assertEquals(ingest.name(), 0, accessLogService.registerAll(chunk));
+			Assert.assertEquals(ingest.name(), 9, Metrics.get(Counter.DUPLICATED_LINES) - duplicated);
+		}
+		Assert.assertEquals(Ingest.values().length,
+				accessLogService.createBlockedIPs(new Date(time), new Date(time + 10), 9).size());
+	}
+
+	/*
+	 * Check if the bulk strategy falls back to batches outside MySQL, ignoring
+	 * the duplicated lines.
+	 */
+	@Test
+	public void bulkInsertTest() {
+		accessLogService.setIngest(Ingest.BULK);
+		Date time = new Date();
+		List<LogEntry> chunk = new ArrayList<>();
+		for (int i = 0; i < 10; ++i) {
+			chunk.add(new LogEntry(time.getTime() + i, 0x7f000001, "GET /\t\\ HTTP/1.1", 200, i % 2 == 0 ? null : "curl/7.55.1"));
+		}
+		chunk.add(new LogEntry(time.getTime(), 0x7f000001, "GET / HTTP/1.1", 200, null));
+
+		Assert.assertEquals(10, accessLogService.registerAll(chunk));
+		Assert.assertEquals(0, accessLogService.registerAll(chunk.subList(5, 11)));
+		Assert.assertEquals(Arrays.asList("127.0.0.1"),
+				accessLogService.createBlockedIPs(DateUtils.oneHourBefore(), DateUtils.oneHourAfter(), 10));
+	}
+
+	/*
+	 * Check if the agent is created once and then served from cache.
+	 */
+	@Test
+	public void agentCacheTest() {
+		for (int i = 0; i < 5; ++i) {
+			accessLogService.register(new Date(System.currentTimeMillis() + i), "127.0.0.1", "GET / HTTP/1.1", 200,
+					"curl/7.55.1");
+		}
+		Assert.assertEquals(1, accessLogService.getAgentCache().getMisses());
+		Assert.assertEquals(4, accessLogService.getAgentCache().getHits());
+
+		AccessLogService otherService = new AccessLogService();
+		otherService.warmAgentCache();
+		otherService.register(new Date(System.currentTimeMillis() + 10), "127.0.0.1", "GET / HTTP/1.1", 200,
+				"curl/7.55.1");
+		Assert.assertEquals(0, otherService.getAgentCache().getMisses());
+		Assert.assertEquals(1, otherService.getAgentCache().getHits());
+
+		// the agent used between the new ones is kept by a cache of two agents
+		AccessLogService smallService = new AccessLogService(2);
+		for (int i = 0; i < 4; ++i) {
+			smallService.register(new Date(System.currentTimeMillis() + 20 + 2 * i), "127.0.0.1", "GET / HTTP/1.1",
+					200, "curl/7.55.1");
+			smallService.register(new Date(System.currentTimeMillis() + 21 + 2 * i), "127.0.0.1", "GET / HTTP/1.1",
+					200, "agent " + i);
+		}
+		Assert.assertEquals(2, smallService.getAgentCache().size());
+		Assert.assertEquals(3, smallService.getAgentCache().getEvictions());
+		Assert.assertEquals(5, smallService.getAgentCache().getMisses());
+	}
+
+	/*
+	 * Check if blocking the same IPs of a window again leaves the blocked list
+	 * unchanged.
+	 */
+	@Test
+	public void blockedIPUpsertTest() {
+		BlockedIPRepository blockedIPRepository = new BlockedIPRepository();
+		Date startDate = LogFixture.START;
+		Date endDate = DateUtils.oneHourAfter(startDate);
+		List<String> ips = new ArrayList<>();
+		for (int i = 0; i < 5000; ++i) {
+			ips.add(IPUtils.formatIPv4(0x0B000000 + i));
+		}
+		List<RuleViolation> violations = Arrays.asList(new RuleViolation(startDate, endDate, 100, ips),
+				new RuleViolation(endDate, DateUtils.oneHourAfter(endDate), 100, ips.subList(0, 10)));
+		accessLogService.createBlockedIPs(violations);
+		Assert.assertEquals(5010, blockedIPRepository.count());
+		accessLogService.createBlockedIPs(violations);
+		Assert.assertEquals(5010, blockedIPRepository.count());
+
+		for (int i = 0; i < 3; ++i) {
+			accessLogService.register(new Date(startDate.getTime() + i), "11.0.0.1", "GET / HTTP/1.1", 200, null);
+		}
+		Assert.assertEquals(Arrays.asList("11.0.0.1"), accessLogService.createBlockedIPs(startDate, endDate, 3));
+		Assert.assertEquals(Arrays.asList("11.0.0.1"), accessLogService.createBlockedIPs(startDate, endDate, 3));
+		Assert.assertEquals(5010, blockedIPRepository.count());
+	}
+
+	/*
+	 * Check if many threads sharing the session factory register every line
+	 * once, while the same lines and agents are written by other threads.
+	 */
+	@Test
+	public void concurrentWritersTest() throws Exception {
+		int threads = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<Integer>> results = new ArrayList<>();
+			long time = LogFixture.START.getTime();
+			for (int t = 0; t < threads; ++t) {
+				int thread = t;
+				results.add(executor.submit(() -> {
+					start.await();
+					Assert.assertSame(HibernateUtil.getSessionFactory(), HibernateUtil.getSessionFactory());
+					int inserted = 0;
+					for (int chunk = 0; chunk < 20; ++chunk) {
+						List<LogEntry> entries = new ArrayList<>();
+						for (int i = 0; i < 100; ++i) {
+							// each line is written by two threads
+							int line = ((thread / 2) * 20 + chunk) * 100 + i;
+							entries.add(new LogEntry(time + line, 0x0A000000 + line % 50, "GET / HTTP/1.1", 200,
+									"agent " + line % 30));
+						}
+						inserted += accessLogService.registerAll(entries);
+					}
+					return inserted;
+				}));
+			}
+			start.countDown();
+			int inserted = 0;
+			for (Future<Integer> result : results) {
+				inserted += result.get();
+			}
+			Assert.assertEquals(threads / 2 * 20 * 100, inserted);
+			Assert.assertEquals(50, accessLogService.createBlockedIPs(new Date(time),
+					DateUtils.oneHourAfter(new Date(time)), threads / 2 * 20 * 100 / 50).size());
+			Assert.assertTrue(accessLogService.createBlockedIPs(new Date(time), DateUtils.oneHourAfter(new Date(time)),
+					threads / 2 * 20 * 100 / 50 + 1).isEmpty());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/*
+	 * Check if the retention removes the requests and the hourly counters of the
+	 * old days only.
+	 */
+	@Test
+	public void retentionTest() {
+		long day = LogFixture.DAY;
+		List<LogEntry> chunk = new ArrayList<>();
+		for (int i = 0; i < 72; ++i) {
+			chunk.add(new LogEntry(day + i * 3600000L, 0x7f000001, "GET / HTTP/1.1", 200, null));
+		}
+		Assert.assertEquals(72, accessLogService.registerAll(chunk));
+		Assert.assertEquals(new Date(day + 86400000L), accessLogService.applyRetention(2));
+
+		Assert.assertTrue(accessLogService.createBlockedIPs(new Date(day), new Date(day + 86400000L), 1).isEmpty());
+		Assert.assertEquals(Arrays.asList("127.0.0.1"),
+				accessLogService.createBlockedIPs(new Date(day), new Date(day + 3 * 86400000L), 48));
+		Assert.assertTrue(accessLogService.createBlockedIPs(new Date(day), new Date(day + 3 * 86400000L), 49).isEmpty());
+	}
+}
@@ -0,0 +1,194 @@
+package com.ef.services;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.ef.db.DatabaseFixture;
+import com.ef.detection.CountMinSketch;
+import com.ef.detection.HeavyHitters;
+import com.ef.detection.RuleViolation;
+import com.ef.log.LogFixture;
+import com.ef.params.Duration;
+import com.ef.params.Rule;
+import com.ef.utils.DateUtils;
+
+public class InMemoryBlockingServiceTest {
+	@BeforeClass
+	public static void setup() {
+		DatabaseFixture.clear();
+	}
+
+	@After
+	public void tearDown() {
+		try {
+			DatabaseFixture.clear();
+		} catch (Exception e) {
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@org.junit.Rule
+	public LogFixture logs = new LogFixture();
+
+	private AccessLogService accessLogService = new AccessLogService();
+
+	/*
+	 * Check if the memory mode finds the same IPs of the database, with lines
+	 * repeated with the same IP and time that the database holds once.
+	 */
+	@Test
+	public void inMemoryBlockingTest() throws IOException {
+		List<String> lines = new ArrayList<>();
+		Map<String, Integer> hits = new HashMap<>();
+		for (int i = 0; i < 3000; ++i) {
+			// 12:30 to 14:10, a quarter of the lines repeated with other response code
+			int minute = 30 + (i % 100);
+			String ip = "10.0." + i % 3 + "." + i % 13;
+			long time = LogFixture.time(12, minute, i % 60, i % 7);
+			lines.add(LogFixture.line(time, ip));
+			int repeats = i % 4 == 0 ? 2 : 1;
+			if (repeats > 1) {
+				lines.add(LogFixture.line(time, ip, 304, "agent"));
+			}
+			if (minute >= 60 && minute < 120) {
+				hits.merge(ip, repeats, Integer::sum);
+			}
+		}
+		Path file = logs.write(lines);
+
+		Date startDate = LogFixture.START;
+		Date endDate = DateUtils.oneHourAfter(startDate);
+		Assert.assertEquals(3000, new IngestPipeline(accessLogService, 2, 2, 4, 100).run(file));
+		for (int threshold : new int[] { 1, 30, 45, 47, 50, 55, 60 }) {
+			List<String> expected = accessLogService.createBlockedIPs(startDate, endDate, threshold);
+			List<String> actual = new InMemoryBlockingService(3, false).findBlockedIPs(file, startDate, endDate,
+					threshold);
+			Assert.assertEquals(new TreeSet<>(expected), new TreeSet<>(actual));
+			HeavyHitters heavyHitters = new HeavyHitters(startDate, endDate, threshold,
+					new CountMinSketch(0.01, 0.01, 4096), 100);
+			Assert.assertEquals(new TreeSet<>(expected),
+					new TreeSet<>(new InMemoryBlockingService(3, false).findHeavyHitters(file, heavyHitters, true)));
+			if (threshold == 55) {
+				// counted with the repeated lines, more IPs would be blocked
+				Assert.assertTrue(hits.values().stream().filter(count -> count >= threshold).count() > expected
+						.size());
+			}
+		}
+	}
+
+	/*
+	 * Check if the hourly counters and the raw edges find the same IPs of the
+	 * memory mode in unaligned windows, after the file is registered twice.
+	 */
+	@Test
+	public void hourlyRollupTest() throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 3000; ++i) {
+			// 11:00 to 15:59
+			lines.add(LogFixture.line(LogFixture.time(11, (i * 7) % 300, i % 60, i % 1000),
+					"10.0." + i % 3 + "." + i % 13));
+		}
+		Path file = logs.write(lines);
+
+		new IngestPipeline(accessLogService, 2, 2, 4, 100).run(file);
+		new IngestPipeline(accessLogService, 2, 2, 4, 100).run(file);
+		long[][] windows = { { LogFixture.time(11, 0, 0, 0), LogFixture.time(16, 0, 0, 0) },
+				{ LogFixture.time(11, 30, 0, 0), LogFixture.time(14, 30, 0, 0) },
+				{ LogFixture.time(12, 5, 45, 0), LogFixture.time(13, 0, 0, 0) },
+				// inside 12:00
+				{ LogFixture.time(12, 5, 45, 0), LogFixture.time(12, 16, 40, 0) } };
+		for (long[] window : windows) {
+			for (int threshold : new int[] { 1, 20, 50, 100 }) {
+				Date startDate = new Date(window[0]);
+				Date endDate = new Date(window[1]);
+				Assert.assertEquals(
+						new TreeSet<>(new InMemoryBlockingService(2, false).findBlockedIPs(file, startDate, endDate,
+								threshold)),
+						new TreeSet<>(accessLogService.createBlockedIPs(startDate, endDate, threshold)));
+			}
+		}
+	}
+
+	/*
+	 * Check if many rules evaluated in a single pass find the same IPs of the
+	 * database in each window.
+	 */
+	@Test
+	public void ruleEvaluationTest() throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 4000; ++i) {
+			// 13:00 to 16:19, more requests from the first IPs
+			lines.add(LogFixture.line(LogFixture.time(13, i % 200, i % 60, i % 11), "10.0.0." + (i * i) % 17));
+		}
+		Path file = logs.write(lines);
+
+		Date startDate = LogFixture.START;
+		List<Rule> rules = Arrays.asList(Rule.parse("hourly:60"), Rule.parse("daily:300"));
+		new IngestPipeline(accessLogService, 2, 2, 4, 100).run(file);
+		List<RuleViolation> violations = accessLogService.evaluate(startDate, rules);
+		Assert.assertEquals(violations, new InMemoryBlockingService(2, false).evaluate(file, startDate, rules));
+		// a start date inside an hour reads the requests instead of the hourly counters
+		Date halfHour = new Date(startDate.getTime() + 30 * 60 * 1000L);
+		Assert.assertEquals(new InMemoryBlockingService(2, false).evaluate(file, halfHour, rules),
+				accessLogService.evaluate(halfHour, rules));
+
+		List<RuleViolation> expected = new ArrayList<>();
+		for (Rule rule : rules) {
+			for (long time = startDate.getTime(); time < startDate.getTime() + Duration.DAILY.getMillis(); time += rule
+					.getDuration().getMillis()) {
+				Date windowEnd = new Date(time + rule.getDuration().getMillis());
+				List<String> ips = accessLogService.createBlockedIPs(new Date(time), windowEnd, rule.getThreshold());
+				if (!ips.isEmpty()) {
+					expected.add(new RuleViolation(new Date(time), windowEnd, rule.getThreshold(), ips));
+				}
+			}
+		}
+		Assert.assertEquals(expected.size(), violations.size());
+		for (int i = 0; i < expected.size(); ++i) {
+			Assert.assertEquals(expected.get(i).getStartDate(), violations.get(i).getStartDate());
+			Assert.assertEquals(new TreeSet<>(expected.get(i).getIps()), new TreeSet<>(violations.get(i).getIps()));
+		}
+	}
+
+	/*
+	 * Check if the sliding window finds the requests split by the window
+	 * boundary, in database and in memory.
+	 */
+	@Test
+	public void slidingWindowTest() throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 120; ++i) {
+			// 60 requests each side of 14:00, from 13:30:00 to 14:29:30
+			lines.add(LogFixture.line(LogFixture.time(13, 30 + i / 2, i % 2 * 30, 0), "10.0.0.1"));
+			// 40 requests each hour
+			lines.add(LogFixture.line(LogFixture.time(13 + i / 40, i % 40, 0, 0), "192.168.0.1"));
+		}
+		Path file = logs.write(lines);
+
+		Date startDate = LogFixture.START;
+		new IngestPipeline(accessLogService, 2, 2, 4, 100).run(file);
+		Assert.assertTrue(accessLogService.createBlockedIPs(startDate, DateUtils.oneHourAfter(startDate), 100)
+				.isEmpty());
+
+		List<RuleViolation> violations = accessLogService.findSlidingViolations(startDate, Duration.HOURLY, 100);
+		Assert.assertEquals(1, violations.size());
+		Assert.assertEquals(Arrays.asList("10.0.0.1"), violations.get(0).getIps());
+		// the 100th request is at 14:19:30, the window starts at the 1st request
+		Assert.assertEquals(new Date(LogFixture.time(13, 30, 0, 0)), violations.get(0).getStartDate());
+		Assert.assertEquals(violations,
+				new InMemoryBlockingService(2, false).findSlidingViolations(file, startDate, Duration.HOURLY, 100));
+		Assert.assertTrue(accessLogService.findSlidingViolations(startDate, Duration.HOURLY, 121).isEmpty());
+	}
+}
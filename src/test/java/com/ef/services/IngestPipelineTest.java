@@ -0,0 +1,283 @@
+package com.ef.services;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.ef.db.DatabaseFixture;
+import com.ef.domain.AccessLog;
+import com.ef.domain.IPAddress;
+import com.ef.log.LogEntry;
+import com.ef.log.LogFileSet;
+import com.ef.log.LogFixture;
+import com.ef.log.LogSink;
+import com.ef.metrics.Counter;
+import com.ef.metrics.Metrics;
+import com.ef.metrics.Stage;
+import com.ef.params.Duration;
+import com.ef.utils.DateUtils;
+
+public class IngestPipelineTest {
+	@BeforeClass
+	public static void setup() {
+		DatabaseFixture.clear();
+	}
+
+	@After
+	public void tearDown() {
+		try {
+			DatabaseFixture.clear();
+		} catch (Exception e) {
+			Assert.fail(e.getMessage());
+		}
+	}
+
+	@Rule
+	public LogFixture logs = new LogFixture();
+
+	private AccessLogService accessLogService = new AccessLogService();
+
+	/*
+	 * Check if the parallel ingest registers every valid line.
+	 */
+	@Test
+	public void parallelIngestTest() throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 500; ++i) {
+			lines.add(LogFixture.line(LogFixture.time(13, i / 60, i % 60, i), "192.168.0." + i % 2, 200,
+					"agent " + i % 7));
+		}
+		lines.add("2017-01-01 14:00:00.000|192.168.0.1|\"GET / HTTP/1.1\"|OK|\"agent\"");
+		Path file = logs.write(lines);
+
+		Assert.assertEquals(500, new IngestPipeline(accessLogService, 4, 2, 2, 16).run(file));
+		Assert.assertEquals(0, new IngestPipeline(accessLogService, 4, 2, 2, 16).run(file));
+		Assert.assertEquals(7, accessLogService.getAgentCache().getMisses());
+
+		List<String> blockedIPs = accessLogService.createBlockedIPs(LogFixture.START,
+				DateUtils.oneHourAfter(LogFixture.START), 250);
+		Assert.assertEquals(2, blockedIPs.size());
+	}
+
+	/*
+	 * Check if an Error of a writer is thrown by the pipeline, instead of
+	 * blocking the parsers on the full queue.
+	 */
+	@Test(timeout = 60000)
+	public void writerErrorTest() throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 200; ++i) {
+			lines.add(LogFixture.line(LogFixture.time(13, 0, i / 10, i), "192.168.3." + i % 3));
+		}
+		Path file = logs.write(lines);
+		AtomicInteger chunks = new AtomicInteger();
+		LogSink failing = entries -> {
+			chunks.incrementAndGet();
+			throw new AssertionError("writer failed");
+		};
+		try {
+			new IngestPipeline(failing, 2, 1, 1, 10).run(file);
+			Assert.fail("Writer error not thrown");
+		} catch (AssertionError e) {
+			Assert.assertEquals("writer failed", e.getMessage());
+		}
+		Assert.assertEquals(1, chunks.get());
+	}
+
+	/*
+	 * Check if the lines registered by a previous run are dropped by the
+	 * duplicate filter, without writing to the database.
+	 */
+	@Test
+	public void duplicateFilterTest() throws IOException {
+		Date first = new Date(LogFixture.START.getTime() + 2 * Duration.DAILY.getMillis());
+		Date last = new Date(first.getTime() + 19199);
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 200; ++i) {
+			lines.add(LogFixture.line(first.getTime() + i / 10 * 1000 + i, "192.168.2." + i % 3));
+		}
+		Path file = logs.write(lines);
+
+		Assert.assertEquals(200, new IngestPipeline(accessLogService, 1, 1, 1, 100).run(file));
+		accessLogService.loadDuplicateFilter(first, last, 1000);
+		long inserts = Metrics.histogram(Stage.INSERT).getCount();
+		long duplicated = Metrics.get(Counter.DUPLICATED_LINES);
+		Assert.assertEquals(0, new IngestPipeline(accessLogService, 2, 2, 2, 10).run(file));
+		Assert.assertEquals(inserts, Metrics.histogram(Stage.INSERT).getCount());
+		Assert.assertEquals(200, Metrics.get(Counter.DUPLICATED_LINES) - duplicated);
+
+		// a full filter leaves the duplicates to the database
+		accessLogService.loadDuplicateFilter(first, last, 50);
+		Assert.assertEquals(0, new IngestPipeline(accessLogService, 2, 2, 2, 10).run(file));
+		Assert.assertEquals(400, Metrics.get(Counter.DUPLICATED_LINES) - duplicated);
+
+		// the keys are added after the commit, not when the lines are filtered
+		DuplicateFilter filter = new DuplicateFilter(first, last, 1000);
+		List<LogEntry> entries = Collections.singletonList(new LogEntry(first.getTime(), 1, "GET", 200, null));
+		Assert.assertEquals(entries, filter.filter(entries));
+		Assert.assertEquals(entries, filter.filter(entries));
+		filter.addAll(Collections.singletonList(new AccessLog(first, IPAddress.ofIPv4(1), "GET", 200)));
+		Assert.assertTrue(filter.filter(entries).isEmpty());
+	}
+
+	/*
+	 * Check if the ingest counts the lines and measures every stage.
+	 */
+	@Test
+	public void metricsTest() throws IOException {
+		Date startDate = new Date(LogFixture.START.getTime() + Duration.DAILY.getMillis());
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 100; ++i) {
+			lines.add(LogFixture.line(startDate.getTime() + i / 10 * 1000 + i, "192.168.1.1"));
+		}
+		lines.add("invalid line");
+		Path file = logs.write(lines);
+		Path metrics = logs.newFile("metrics.prom").toPath();
+
+		long read = Metrics.get(Counter.LINES);
+		long invalid = Metrics.get(Counter.INVALID_LINES);
+		long inserted = Metrics.get(Counter.INSERTED_ROWS);
+		long duplicated = Metrics.get(Counter.DUPLICATED_LINES);
+		long commits = Metrics.histogram(Stage.COMMIT).getCount();
+		new IngestPipeline(accessLogService, 2, 1, 2, 10).run(file);
+		new IngestPipeline(accessLogService, 2, 1, 2, 10).run(file);
+		Assert.assertEquals(202, Metrics.get(Counter.LINES) - read);
+		Assert.assertEquals(2, Metrics.get(Counter.INVALID_LINES) - invalid);
+		Assert.assertEquals(100, Metrics.get(Counter.INSERTED_ROWS) - inserted);
+		Assert.assertEquals(100, Metrics.get(Counter.DUPLICATED_LINES) - duplicated);
+		// the ranges of each parser end with a partial chunk
+		Assert.assertTrue(Metrics.histogram(Stage.COMMIT).getCount() - commits >= 20);
+		long queries = Metrics.histogram(Stage.BLOCK_QUERY).getCount();
+		accessLogService.createBlockedIPs(startDate, DateUtils.oneHourAfter(startDate), 100);
+		Assert.assertEquals(1, Metrics.histogram(Stage.BLOCK_QUERY).getCount() - queries);
+
+		Metrics.writePrometheus(metrics);
+		List<String> text = Files.readAllLines(metrics, StandardCharsets.UTF_8);
+		Assert.assertTrue(text.contains("# TYPE parser_inserted_rows_total counter"));
+		Assert.assertTrue(text.contains("parser_inserted_rows_total " + Metrics.get(Counter.INSERTED_ROWS)));
+		Assert.assertTrue(text.contains(
+				"parser_stage_seconds_count{stage=\"commit\"} " + Metrics.histogram(Stage.COMMIT).getCount()));
+	}
+
+	/*
+	 * Check if a gzip file is ingested and counted as the plain file.
+	 */
+	@Test
+	public void compressedIngestTest() throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 2000; ++i) {
+			lines.add(LogFixture.line(LogFixture.time(13, i % 60, i % 59, i % 1000), "10.0.0." + i % 13));
+		}
+		Path file = logs.write(lines);
+		Path compressed = logs.gzip(logs.getRoot().toPath().resolve("access.log.gz"), lines);
+
+		Date startDate = LogFixture.START;
+		Date endDate = DateUtils.oneHourAfter(startDate);
+		Assert.assertEquals(new InMemoryBlockingService(2, false).findBlockedIPs(file, startDate, endDate, 150),
+				new InMemoryBlockingService(2, true).findBlockedIPs(compressed, startDate, endDate, 150));
+		IngestPipeline pipeline = new IngestPipeline(accessLogService, 2, 2, 4, 100);
+		Assert.assertEquals(2000, pipeline.run(compressed));
+		Assert.assertEquals(2000, pipeline.getLines());
+	}
+
+	/*
+	 * Check if a directory and a glob of rotated files, one of them compressed
+	 * and two outside the window, block the same IPs of their concatenation,
+	 * and if each file read is counted once with all its lines.
+	 */
+	@Test
+	public void multiFileIngestTest() throws IOException, InterruptedException {
+		Path directory = logs.folder();
+		List<String> lines = new ArrayList<>();
+		long[] hours = { LogFixture.time(5, 0, 0, 0) - Duration.DAILY.getMillis(), LogFixture.time(12, 0, 0, 0),
+				LogFixture.time(13, 0, 0, 0), LogFixture.time(14, 0, 0, 0) };
+		for (int hour = 0; hour < hours.length; ++hour) {
+			List<String> hourLines = new ArrayList<>();
+			for (int i = 0; i < 1000; ++i) {
+				hourLines.add(LogFixture.line(hours[hour] + (i % 60) * 60000L + (i % 59) * 1000L + i % 1000,
+						"10.0.0." + i % 7));
+			}
+			if (hours[hour] == LogFixture.START.getTime()) {
+				logs.gzip(directory.resolve("access-" + hour + ".log.gz"), hourLines);
+			} else {
+				logs.write(directory.resolve("access-" + hour + ".log"), hourLines);
+			}
+			lines.addAll(hourLines);
+		}
+		Path all = logs.write(lines);
+
+		Date startDate = LogFixture.START;
+		Date endDate = new Date(LogFixture.time(15, 0, 0, 0));
+		List<Path> files = LogFileSet.resolve(directory.toString());
+		Assert.assertEquals(4, files.size());
+		Assert.assertTrue(files.get(0).toString().endsWith(".gz"));
+		Assert.assertEquals(files, LogFileSet.resolve(directory + "/access-*.log*"));
+		Assert.assertEquals(files, LogFileSet.resolve(directory + "*/access-*.log*"));
+		ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			Assert.assertEquals(2, LogFileSet.regions(files, startDate, endDate, pool).stream()
+					.filter(region -> !region.isSkipped()).count());
+		} finally {
+			pool.shutdown();
+		}
+
+		long read = Metrics.get(Counter.FILES);
+		Set<String> expected = new TreeSet<>(
+				new InMemoryBlockingService(2, false).findBlockedIPs(all, startDate, endDate, 250));
+		Assert.assertFalse(expected.isEmpty());
+		// read again to count the blocked IPs without repeated lines
+		Assert.assertEquals(2, Metrics.get(Counter.FILES) - read);
+		Assert.assertEquals(expected, new TreeSet<>(
+				new InMemoryBlockingService(2, false).findBlockedIPs(files, startDate, endDate, 250)));
+		Assert.assertEquals(10, Metrics.get(Counter.FILES) - read);
+		// the files outside the window are skipped only with seek
+		Assert.assertEquals(expected, new TreeSet<>(
+				new InMemoryBlockingService(2, true).findBlockedIPs(files, startDate, endDate, 250)));
+		Assert.assertEquals(14, Metrics.get(Counter.FILES) - read);
+
+		IngestPipeline pipeline = new IngestPipeline(accessLogService, 2, 2, 4, 100);
+		Assert.assertEquals(4000, pipeline.run(files));
+		Assert.assertEquals(18, Metrics.get(Counter.FILES) - read);
+		Assert.assertEquals(new HashSet<>(files), pipeline.getFileLines().keySet());
+		for (long fileLines : pipeline.getFileLines().values()) {
+			Assert.assertEquals(1000, fileLines);
+		}
+		Assert.assertEquals(expected, new TreeSet<>(accessLogService.createBlockedIPs(startDate, endDate, 250)));
+	}
+
+	/*
+	 * Check if only the lines inside the window are registered.
+	 */
+	@Test
+	public void windowOnlyIngestTest() throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 180; ++i) {
+			// 12:00 to 14:59, one line per minute
+			lines.add(LogFixture.line(LogFixture.time(12, i, 0, 0), "192.168.0.1"));
+		}
+		Path file = logs.write(lines);
+
+		IngestPipeline pipeline = new IngestPipeline(accessLogService, 2, 1, 2, 16);
+		Assert.assertEquals(60, pipeline.run(file, LogFixture.START, DateUtils.oneHourAfter(LogFixture.START)));
+		// the file is too small to seek, every line outside the window is filtered
+		Assert.assertEquals(0, pipeline.getSkippedBytes());
+		Assert.assertEquals(120, pipeline.getSkipped());
+	}
+}
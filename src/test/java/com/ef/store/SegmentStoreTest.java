@@ -0,0 +1,104 @@
+package com.ef.store;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.ef.log.LogEntry;
+import com.ef.log.LogFixture;
+import com.ef.services.InMemoryBlockingService;
+import com.ef.services.IngestPipeline;
+import com.ef.services.StoreBlockingService;
+import com.ef.utils.DateUtils;
+
+public class SegmentStoreTest {
+
+	@Rule
+	public LogFixture logs = new LogFixture();
+
+	/*
+	 * Check if a window query reads every record of the window, and only them,
+	 * after reopening the store, and if the overlapping segments written by
+	 * interleaved chunks are merged.
+	 */
+	@Test
+	public void scanTest() throws IOException {
+		long day = LogFixture.DAY;
+		Path directory = logs.folder();
+		List<LogEntry> entries = new ArrayList<>();
+		for (int i = 0; i < 50000; ++i) {
+			// one request each 7 seconds, every 10th request late
+			long time = day + i * 7000L - (i % 10 == 0 ? 3600000L : 0);
+			entries.add(new LogEntry(time, 0x0A000000 + i % 300, "\"GET /" + i % 5 + " HTTP/1.1\"", 200 + i % 3,
+					i % 4 == 0 ? null : "\"agent " + i % 7 + "\""));
+		}
+		Date startDate = new Date(day + 13 * 3600000L);
+		Date endDate = new Date(day + 14 * 3600000L);
+		try (SegmentStore store = SegmentStore.open(directory, 3000)) {
+			// the chunks of the first and the second half interleaved, like two writers
+			for (int i = 0; i < entries.size() / 2; i += 1000) {
+				store.registerAll(entries.subList(i, i + 1000));
+				store.registerAll(entries.subList(entries.size() / 2 + i, entries.size() / 2 + i + 1000));
+			}
+			Assert.assertTrue(store.overlapping(startDate, endDate).size() > 2);
+		}
+
+		try (SegmentStore store = SegmentStore.open(directory)) {
+			Assert.assertEquals(entries.size(), store.size());
+			Assert.assertTrue(store.overlapping(startDate, endDate).size() <= 2);
+			List<String> actual = new ArrayList<>();
+			long read = store.scan(startDate, endDate, (time, ip, responseCode, requestId,
+					agentId) -> actual.add(time + "|" + ip + "|" + store.request(requestId) + "|" + responseCode
+							+ "|" + store.agent(agentId)));
+			List<String> expected = new ArrayList<>();
+			for (LogEntry entry : entries) {
+				if (entry.getTime() >= startDate.getTime() && entry.getTime() < endDate.getTime()) {
+					expected.add(entry.getTime() + "|" + entry.getIp() + "|" + entry.getRequest() + "|"
+							+ entry.getResponseCode() + "|" + entry.getAgent());
+				}
+			}
+			Assert.assertEquals(expected.size(), read);
+			actual.sort(Comparator.naturalOrder());
+			expected.sort(Comparator.naturalOrder());
+			Assert.assertEquals(expected, actual);
+		}
+	}
+
+	/*
+	 * Check if the store finds the same IPs of the memory mode and loads the
+	 * file once.
+	 */
+	@Test
+	public void blockingTest() throws IOException {
+		Path directory = logs.folder();
+		List<String> lines = new ArrayList<>();
+		for (int i = 0; i < 20000; ++i) {
+			lines.add(LogFixture.line(LogFixture.time(12, 0, 0, 0) + i * 997L, "10.0." + i % 3 + "." + (i * i) % 101));
+		}
+		Path file = logs.write(lines);
+
+		try (SegmentStore store = SegmentStore.open(directory)) {
+			Assert.assertFalse(store.contains(file));
+			new IngestPipeline(store, 2, 2, 4, 100).run(file);
+			store.flush();
+			store.addSource(file);
+			Assert.assertTrue(store.contains(file));
+
+			Date startDate = LogFixture.START;
+			for (int threshold : new int[] { 1, 30, 60 }) {
+				Assert.assertEquals(
+						new InMemoryBlockingService(2, false).findBlockedIPs(file, startDate,
+								DateUtils.oneHourAfter(startDate), threshold),
+						new StoreBlockingService(store).findBlockedIPs(startDate, DateUtils.oneHourAfter(startDate),
+								threshold));
+			}
+		}
+	}
+}